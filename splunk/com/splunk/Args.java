@@ -16,8 +16,6 @@
 
 package com.splunk;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -104,6 +102,31 @@ public class Args extends LinkedHashMap<String, Object> {
         return values == null ? new Args() : new Args(values);
     }
 
+    // Characters that form-encoding leaves as they are: the same set as
+    // URLEncoder, so that the encoded form does not change.
+    private static final boolean[] UNRESERVED = new boolean[128];
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    // Encoded arguments are built in a per-thread buffer, which is kept for
+    // the next call unless it has grown past this size.
+    private static final int MAX_RETAINED_BUFFER = 8192;
+    private static final ThreadLocal<StringBuilder> BUFFER =
+            new ThreadLocal<StringBuilder>() {
+                @Override protected StringBuilder initialValue() {
+                    return new StringBuilder(256);
+                }
+            };
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) UNRESERVED[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) UNRESERVED[c] = true;
+        for (char c = '0'; c <= '9'; c++) UNRESERVED[c] = true;
+        UNRESERVED['.'] = true;
+        UNRESERVED['-'] = true;
+        UNRESERVED['*'] = true;
+        UNRESERVED['_'] = true;
+    }
+
     /**
      * Encodes a single string with UTF8 encoding.
      *
@@ -112,12 +135,10 @@ public class Args extends LinkedHashMap<String, Object> {
      */
     public static String encode(String value) {
         if (value == null) return "";
-        String result = null;
-        try {
-            result = URLEncoder.encode(value, "UTF-8");
-        }
-        catch (UnsupportedEncodingException e) { assert false; }
-        return result;
+        if (isUnreserved(value)) return value;
+        StringBuilder builder = new StringBuilder(value.length() + 16);
+        encodeTo(builder, value);
+        return builder.toString();
     }
 
     /**
@@ -128,19 +149,15 @@ public class Args extends LinkedHashMap<String, Object> {
      * @return The string.
      */
     public static String encode(Map<String, Object> args) {
-        return Args.create(args).encode();
-    }
-
-    // Encodes an argument with a list-valued argument.
-    private void 
-    encodeValues(StringBuilder builder, String key, String[] values) {
-        key = encode(key);
-        for (String value : values) {
-            if (builder.length() > 0) builder.append('&');
-            builder.append(key);
-            builder.append('=');
-            builder.append(encode(value));
+        if (args == null) return "";
+        StringBuilder builder = BUFFER.get();
+        builder.setLength(0);
+        encodeTo(builder, args);
+        String result = builder.toString();
+        if (builder.capacity() > MAX_RETAINED_BUFFER) {
+            BUFFER.remove();
         }
+        return result;
     }
 
     /**
@@ -149,21 +166,108 @@ public class Args extends LinkedHashMap<String, Object> {
      * @return The UTF8-encoded string.
      */
     public String encode() {
-        StringBuilder builder = new StringBuilder();
-        for (Entry<String, Object> entry : entrySet()) {
-            if (builder.length() > 0) builder.append('&');
+        return encode(this);
+    }
+
+    /**
+     * Appends the encoded form of a hash map of {@code String:String} or
+     * {@code String:String[]} to a builder.
+     *
+     * @param builder The builder to append to.
+     * @param args The hash map.
+     */
+    static void encodeTo(StringBuilder builder, Map<String, Object> args) {
+        boolean first = true;
+        for (Entry<String, Object> entry : args.entrySet()) {
             String key = entry.getKey();
             Object value = entry.getValue();
             if (value instanceof String[]) {
-                encodeValues(builder, key, (String[])value);
+                for (String item : (String[])value) {
+                    if (!first) builder.append('&');
+                    first = false;
+                    encodeTo(builder, key);
+                    builder.append('=');
+                    encodeTo(builder, item);
+                }
+                continue;
+            }
+            if (!first) builder.append('&');
+            first = false;
+            encodeTo(builder, key);
+            builder.append('=');
+            // Integers and booleans encode to themselves.
+            if (value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte) {
+                builder.append(((Number)value).longValue());
+            }
+            else if (value instanceof Boolean) {
+                builder.append(((Boolean)value).booleanValue());
             }
             else {
-                builder.append(encode(key));
-                builder.append('=');
-                builder.append(encode(value.toString()));
+                encodeTo(builder, value.toString());
             }
         }
-        return builder.toString();
+    }
+
+    /**
+     * Appends the UTF8 form encoding of a string to a builder. The result is
+     * the same as that of {@code URLEncoder.encode(value, "UTF-8")}.
+     *
+     * @param builder The builder to append to.
+     * @param value The string, or {@code null} to append nothing.
+     */
+    static void encodeTo(StringBuilder builder, String value) {
+        if (value == null) return;
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            char c = value.charAt(i++);
+            if (c < 128 && UNRESERVED[c]) {
+                builder.append(c);
+            }
+            else if (c == ' ') {
+                builder.append('+');
+            }
+            else if (c < 0x80) {
+                appendByte(builder, c);
+            }
+            else if (c < 0x800) {
+                appendByte(builder, 0xC0 | (c >> 6));
+                appendByte(builder, 0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i < length
+                    && Character.isLowSurrogate(value.charAt(i))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(i++));
+                appendByte(builder, 0xF0 | (codePoint >> 18));
+                appendByte(builder, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendByte(builder, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendByte(builder, 0x80 | (codePoint & 0x3F));
+            }
+            else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // An unpaired surrogate cannot be encoded; URLEncoder
+                // replaces it with '?'.
+                appendByte(builder, '?');
+            }
+            else {
+                appendByte(builder, 0xE0 | (c >> 12));
+                appendByte(builder, 0x80 | ((c >> 6) & 0x3F));
+                appendByte(builder, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static void appendByte(StringBuilder builder, int b) {
+        builder.append('%');
+        builder.append(HEX[(b >> 4) & 0xF]);
+        builder.append(HEX[b & 0xF]);
+    }
+
+    private static boolean isUnreserved(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 128 || !UNRESERVED[c]) return false;
+        }
+        return true;
     }
 
     /**
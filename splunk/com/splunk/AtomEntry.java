@@ -30,9 +30,19 @@ public class AtomEntry extends AtomObject {
     /** The value of the Atom entry's {@code <published>} element. */
     public String published;
 
-    /** The value of the Atom entry's {@code <content>} element. */
+    /**
+     * The value of the Atom entry's {@code <content>} element. Entries
+     * returned by an {@code AtomFeedReader} fill this in only when
+     * {@code getContent} is called.
+     */
     public Record content;
 
+    // The reader whose stream holds this entry's unread content, if any.
+    AtomFeedReader source = null;
+
+    // The top-level content keys to keep, or null to keep them all.
+    String[] fields = null;
+
     /**
      * Creates a new {@code AtomEntry} instance.
      *
@@ -52,9 +62,22 @@ public class AtomEntry extends AtomObject {
      */
 
     public static AtomEntry parseStream(InputStream input) {
+        return parseStream(input, null);
+    }
+
+    /**
+     * Creates a new {@code AtomEntry} instance based on a given stream,
+     * keeping only the given keys of its content.
+     *
+     * @param input The input stream.
+     * @param fields The content keys to keep, or {@code null} to keep all of
+     * them.
+     * @return An {@code AtomEntry} instance representing the parsed stream.
+     */
+    static AtomEntry parseStream(InputStream input, String[] fields) {
         XMLStreamReader reader = createReader(input);
 
-        AtomEntry result = AtomEntry.parse(reader);
+        AtomEntry result = AtomEntry.parse(reader, fields);
 
         try {
             reader.close();
@@ -73,11 +96,40 @@ public class AtomEntry extends AtomObject {
      * @return An {@code AtomEntry} instance representing the parsed XML.
      */
     static AtomEntry parse(XMLStreamReader reader) {
+        return parse(reader, null);
+    }
+
+    /**
+     * Creates a new {@code AtomEntry} instance based on a given XML reader,
+     * keeping only the given keys of its content.
+     *
+     * @param reader The XML reader.
+     * @param fields The content keys to keep, or {@code null} to keep all of
+     * them (see {@link #isRequested}).
+     * @return An {@code AtomEntry} instance representing the parsed XML.
+     */
+    static AtomEntry parse(XMLStreamReader reader, String[] fields) {
         AtomEntry entry = AtomEntry.create();
+        entry.fields = fields;
         entry.load(reader, "entry");
         return entry;
     }
 
+    /**
+     * Returns the value of the Atom entry's {@code <content>} element,
+     * parsing it first if the entry came from an {@code AtomFeedReader}.
+     *
+     * @return A {@code Record} object containing the parsed values, or
+     * {@code null} if the entry has no content.
+     * @throws IllegalStateException If the entry came from an
+     * {@code AtomFeedReader} that has already moved past it without reading
+     * the content.
+     */
+    public Record getContent() {
+        if (source != null) source.readContent(this);
+        return content;
+    }
+
     /**
      * Initializes the current instance using the given XML reader.
      *
@@ -115,7 +167,7 @@ public class AtomEntry extends AtomObject {
         if (!isStartElement(reader, "dict"))
             syntaxError(reader);
 
-        content = parseDict(reader);
+        content = parseDict(reader, fields);
 
         if (!isEndElement(reader, "content"))
             syntaxError(reader);
@@ -130,9 +182,11 @@ public class AtomEntry extends AtomObject {
      * object containing the parsed values.
      *
      * @param reader The {@code <dict>} element to parse.
+     * @param fields The keys to keep, or {@code null} to keep all of them.
+     * The values of other keys are skipped without being parsed.
      * @return A {@code Record} object containing the parsed values.
      */
-    private Record parseDict(XMLStreamReader reader) {
+    private Record parseDict(XMLStreamReader reader, String[] fields) {
         assert isStartElement(reader, "dict");
 
         Record result = new Record();
@@ -140,6 +194,11 @@ public class AtomEntry extends AtomObject {
         scan(reader);
         while (isStartElement(reader, "key")) {
             String key = reader.getAttributeValue(null, "name");
+            if (fields != null && !isRequested(fields, key)) {
+                scanEnd(reader);
+                scan(reader); // Consume </key>
+                continue;
+            }
             Object value = parseValue(reader);
             // Null values, the result of empty elements, are parsed as though
             // they don't exist, making it easier for the client framework to
@@ -181,12 +240,36 @@ public class AtomEntry extends AtomObject {
         return result;
     }
 
+    /**
+     * Returns whether a content key was requested. A field ending in
+     * {@code *} matches every key that starts with the rest of the field, as
+     * in the {@code f} argument of the REST API. The {@code eai:acl} key is
+     * always requested, because it holds the namespace of the entity.
+     *
+     * @param fields The requested fields.
+     * @param key The content key.
+     * @return {@code true} if the key was requested, {@code false} if not.
+     */
+    static boolean isRequested(String[] fields, String key) {
+        if (key.equals("eai:acl")) return true;
+        for (String field : fields) {
+            if (field.endsWith("*")) {
+                if (key.startsWith(field.substring(0, field.length() - 1)))
+                    return true;
+            }
+            else if (field.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // Parses either a dict or list structure.
     private Object parseStructure(XMLStreamReader reader) {
         String name = reader.getLocalName();
 
         if (name.equals("dict"))
-            return parseDict(reader);
+            return parseDict(reader, null);
 
         if (name.equals("list"))
             return parseList(reader);
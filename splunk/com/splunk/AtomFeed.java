@@ -38,6 +38,9 @@ public class AtomFeed extends AtomObject {
     /** The value of the Atom feed's {@code <totalResults>} element. */
     public String totalResults = null;
 
+    // The content keys to keep in each entry, or null to keep them all.
+    String[] fields = null;
+
     /**
      * Creates a new {@code AtomFeed} instance.
      *
@@ -54,9 +57,22 @@ public class AtomFeed extends AtomObject {
      * @return An {@code AtomFeed} instance representing the parsed stream.
      */
     public static AtomFeed parseStream(InputStream input) {
+        return parseStream(input, null);
+    }
+
+    /**
+     * Creates a new {@code AtomFeed} instance based on the given stream,
+     * keeping only the given keys of the content of each entry.
+     *
+     * @param input The input stream.
+     * @param fields The content keys to keep, or {@code null} to keep all of
+     * them.
+     * @return An {@code AtomFeed} instance representing the parsed stream.
+     */
+    static AtomFeed parseStream(InputStream input, String[] fields) {
         XMLStreamReader reader = createReader(input);
 
-        AtomFeed result = AtomFeed.parse(reader);
+        AtomFeed result = AtomFeed.parse(reader, fields);
 
         try {
             reader.close();
@@ -76,7 +92,22 @@ public class AtomFeed extends AtomObject {
      * @throws RuntimeException The runtime exception if a parse error occurs.
      */
     static AtomFeed parse(XMLStreamReader input) {
+        return parse(input, null);
+    }
+
+    /**
+     * Creates a new {@code AtomFeed} instance based on a given XML element,
+     * keeping only the given keys of the content of each entry.
+     *
+     * @param input The XML stream.
+     * @param fields The content keys to keep, or {@code null} to keep all of
+     * them.
+     * @return An {@code AtomFeed} instance representing the parsed element.
+     * @throws RuntimeException The runtime exception if a parse error occurs.
+     */
+    static AtomFeed parse(XMLStreamReader input, String[] fields) {
         AtomFeed feed = AtomFeed.create();
+        feed.fields = fields;
         feed.load(input, "feed");
         return feed;
     }
@@ -92,7 +123,7 @@ public class AtomFeed extends AtomObject {
         String name = reader.getLocalName();
 
         if (name.equals("entry")) {
-            AtomEntry entry = AtomEntry.parse(reader);
+            AtomEntry entry = AtomEntry.parse(reader, fields);
             this.entries.add(entry);
         }
         else if (name.equals("messages")) {
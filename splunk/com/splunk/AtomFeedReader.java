@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The {@code AtomFeedReader} class reads the entries of an Atom feed one at a
+ * time, without holding the whole feed in memory.
+ * <p>
+ * Each entry is returned as soon as its header ({@code <id>},
+ * {@code <title>}, {@code <link>} and so on) has been read. Its
+ * {@code <content>} is parsed only when {@link AtomEntry#getContent} is
+ * called, and is skipped otherwise. Because the content is read from the
+ * stream, it must be requested before the reader moves on to the next entry:
+ * <pre>
+ * AtomFeedReader reader = new AtomFeedReader(stream);
+ * for (AtomEntry entry : reader) {
+ *     Record content = entry.getContent();
+ *     ...
+ * }
+ * reader.close();
+ * </pre>
+ */
+public class AtomFeedReader extends StreamIterableBase<AtomEntry>
+        implements Closeable {
+    private final InputStream input;
+    private final XMLStreamReader reader;
+    private final AtomFeed feed = AtomFeed.create();
+    private final String[] fields;
+    // The last entry returned, while the stream is still inside it.
+    private AtomEntry current = null;
+
+    /**
+     * Class constructor.
+     *
+     * @param input The stream to read the Atom feed from.
+     */
+    public AtomFeedReader(InputStream input) {
+        this(input, null);
+    }
+
+    /**
+     * Class constructor that keeps only the given keys of the content of
+     * each entry. The values of other keys are skipped without being parsed.
+     *
+     * @param input The stream to read the Atom feed from.
+     * @param fields The content keys to keep, or {@code null} to keep all of
+     * them.
+     */
+    AtomFeedReader(InputStream input, String[] fields) {
+        this.input = input;
+        this.fields = fields;
+        this.reader = AtomObject.createReader(input);
+        if (!AtomObject.isStartElement(reader, "feed"))
+            AtomObject.syntaxError(reader);
+        AtomObject.scan(reader); // Consume <feed>
+    }
+
+    /**
+     * Returns the feed-level elements read so far, such as
+     * {@code <totalResults>} and the feed's links. Splunk writes these ahead
+     * of the entries, but elements that follow the last entry are only
+     * available once all the entries have been read. The {@code entries} list
+     * of the returned feed is always empty.
+     *
+     * @return An {@code AtomFeed} instance without entries.
+     */
+    public AtomFeed getFeed() {
+        return feed;
+    }
+
+    /**
+     * Closes the reader and the underlying stream.
+     *
+     * @throws IOException The IOException instance.
+     */
+    public void close() throws IOException {
+        try {
+            reader.close();
+        }
+        catch (XMLStreamException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        input.close();
+    }
+
+    @Override AtomEntry getNextElement() throws IOException {
+        finishEntry(false);
+
+        while (reader.isStartElement()) {
+            if (AtomObject.isStartElement(reader, "entry")) {
+                return startEntry();
+            }
+            feed.init(reader);
+        }
+
+        if (!AtomObject.isEndElement(reader, "feed"))
+            AtomObject.syntaxError(reader);
+        return null;
+    }
+
+    /**
+     * Parses the content of the given entry, if the reader has not yet moved
+     * past it.
+     *
+     * @param entry The entry returned by this reader.
+     */
+    void readContent(AtomEntry entry) {
+        if (entry != current) {
+            throw new IllegalStateException(
+                "The content of an Atom entry must be read before the reader moves past it");
+        }
+        finishEntry(true);
+    }
+
+    // Reads the children of an <entry> up to its <content> element, which is
+    // left unread until the content is requested or the next entry is.
+    private AtomEntry startEntry() {
+        AtomEntry entry = AtomEntry.create();
+        entry.fields = fields;
+        AtomObject.scan(reader); // Consume <entry>
+        while (reader.isStartElement()
+                && !AtomObject.isStartElement(reader, "content")) {
+            entry.init(reader);
+        }
+        entry.source = this;
+        current = entry;
+        if (!reader.isStartElement()) {
+            finishEntry(false); // No content
+        }
+        return entry;
+    }
+
+    // Reads the rest of the current entry, parsing its content or skipping
+    // over it.
+    private void finishEntry(boolean parseContent) {
+        if (current == null) return;
+        AtomEntry entry = current;
+        current = null;
+
+        boolean skipped = false;
+        while (reader.isStartElement()) {
+            if (!parseContent && AtomObject.isStartElement(reader, "content")) {
+                AtomObject.scanEnd(reader);
+                AtomObject.scan(reader);
+                skipped = true;
+            }
+            else {
+                entry.init(reader);
+            }
+        }
+        if (!skipped) {
+            entry.source = null;
+        }
+
+        if (!AtomObject.isEndElement(reader, "entry"))
+            AtomObject.syntaxError(reader);
+        AtomObject.scan(reader); // Consume </entry>
+    }
+}
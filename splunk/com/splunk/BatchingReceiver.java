@@ -0,0 +1,467 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The {@code BatchingReceiver} class submits events to the simple receiver
+ * endpoint in batches, so that many small events cost one HTTP request
+ * instead of one each.
+ * <p>
+ * Events are added to a bounded, lock-free ring buffer and sent by a
+ * background thread as the newline-separated body of a single POST, once the
+ * batch reaches a number of events or bytes, or once its oldest event has
+ * waited for the linger time. The index's line breaking splits the body back
+ * into events. The body can also be compressed with gzip (see
+ * {@link #setCompress}).
+ * <p>
+ * When the buffer is full, {@link #submit} either waits for space or drops
+ * the event, as set by {@link #setBlockWhenFull}. The counters of this class
+ * report how many events were submitted, sent, dropped and lost to failed
+ * requests.
+ * <p>
+ * For example:
+ * <pre>
+ * BatchingReceiver receiver = new BatchingReceiver(service, "main", null);
+ * receiver.submit("event 1");
+ * receiver.submit("event 2");
+ * ...
+ * receiver.close();
+ * </pre>
+ * Settings must be changed before the first event is submitted.
+ */
+public class BatchingReceiver {
+    /** The default number of events the buffer can hold. */
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    /** The default maximum number of events in a batch. */
+    public static final int DEFAULT_MAX_BATCH_EVENTS = 5000;
+
+    /** The default maximum size of a batch, in bytes before compression. */
+    public static final int DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+
+    /** The default time an event may wait for a batch, in milliseconds. */
+    public static final long DEFAULT_LINGER = 200;
+
+    private final Service service;
+    private final String path;
+
+    private int capacity = DEFAULT_CAPACITY;
+    private int maxBatchEvents = DEFAULT_MAX_BATCH_EVENTS;
+    private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private long linger = DEFAULT_LINGER;
+    private boolean compress = false;
+    private boolean blockWhenFull = true;
+
+    // The ring buffer. Producers claim a sequence number by advancing tail,
+    // then publish the event into its slot. The sender alone advances head,
+    // after taking the event out of the slot.
+    private AtomicReferenceArray<String> ring = null;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    // The sequence number up to which events have been sent or failed.
+    private final AtomicLong completed = new AtomicLong();
+    // The sequence number up to which flush() wants events sent at once.
+    private final AtomicLong flushTarget = new AtomicLong();
+    private volatile Exception lastError = null;
+
+    private volatile Thread sender = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new {@code BatchingReceiver}.
+     *
+     * @param service The connected {@code Service} instance.
+     * @param indexName The index to write to, or {@code null} for the default
+     * index.
+     * @param args Optional arguments for the events. Valid parameters are:
+     * "host", "host_regex", "source", and "sourcetype".
+     */
+    public BatchingReceiver(Service service, String indexName, Args args) {
+        this.service = service;
+        this.path = Receiver.simpleReceiverPath(service, indexName, args);
+    }
+
+    /**
+     * Sets the number of events the buffer can hold.
+     *
+     * @param capacity The number of events.
+     */
+    public void setCapacity(int capacity) {
+        checkNotStarted();
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1.");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Sets the maximum number of events in a batch.
+     *
+     * @param maxBatchEvents The number of events.
+     */
+    public void setMaxBatchEvents(int maxBatchEvents) {
+        checkNotStarted();
+        if (maxBatchEvents < 1)
+            throw new IllegalArgumentException("maxBatchEvents must be at least 1.");
+        this.maxBatchEvents = maxBatchEvents;
+    }
+
+    /**
+     * Sets the size at which a batch is sent, in bytes before compression.
+     *
+     * @param maxBatchBytes The number of bytes.
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        checkNotStarted();
+        if (maxBatchBytes < 1)
+            throw new IllegalArgumentException("maxBatchBytes must be at least 1.");
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Sets the longest time an event waits for its batch to fill before the
+     * batch is sent anyway.
+     *
+     * @param linger The time, in milliseconds.
+     */
+    public void setLinger(long linger) {
+        checkNotStarted();
+        this.linger = linger;
+    }
+
+    /**
+     * Sets whether request bodies are compressed with gzip. Compression is
+     * off by default. splunkd does not document support for compressed
+     * bodies on the {@code receivers/simple} endpoint, so turn it on only
+     * when the server, or a proxy in front of it, is known to decode them.
+     *
+     * @param compress {@code true} to compress request bodies.
+     */
+    public void setCompress(boolean compress) {
+        checkNotStarted();
+        this.compress = compress;
+    }
+
+    /**
+     * Sets what {@link #submit} does when the buffer is full.
+     *
+     * @param blockWhenFull {@code true} to wait for space, {@code false} to
+     * drop the event.
+     */
+    public void setBlockWhenFull(boolean blockWhenFull) {
+        checkNotStarted();
+        this.blockWhenFull = blockWhenFull;
+    }
+
+    /**
+     * Adds an event to the next batch. This method can be called from any
+     * number of threads.
+     *
+     * @param data A string containing event data.
+     * @return {@code true} if the event was added, {@code false} if it was
+     * dropped because the buffer is full.
+     */
+    public boolean submit(String data) {
+        if (closed)
+            throw new IllegalStateException("The receiver is closed.");
+        if (sender == null)
+            start();
+        long sequence;
+        while (true) {
+            sequence = tail.get();
+            if (sequence - head.get() >= capacity) {
+                if (!blockWhenFull) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                waits.incrementAndGet();
+                LockSupport.unpark(sender);
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                if (closed)
+                    throw new IllegalStateException("The receiver is closed.");
+                continue;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1))
+                break;
+        }
+        ring.lazySet(index(sequence), data);
+        submitted.incrementAndGet();
+        long queued = sequence + 1 - head.get();
+        // Wake the sender to start the linger time, or to send a full batch.
+        if (pendingBytes.addAndGet(encodedLength(data) + 1) >= maxBatchBytes
+                || queued == 1 || queued >= maxBatchEvents) {
+            LockSupport.unpark(sender);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the events submitted so far and waits until they have been
+     * sent, or until their requests have failed.
+     */
+    public void flush() {
+        long target = tail.get();
+        while (true) {
+            long current = flushTarget.get();
+            if (current >= target || flushTarget.compareAndSet(current, target))
+                break;
+        }
+        while (completed.get() < target && sender != null) {
+            LockSupport.unpark(sender);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Sends the remaining events and stops the background thread.
+     */
+    public void close() {
+        if (closed)
+            return;
+        flush();
+        closed = true;
+        Thread thread = sender;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of events added by {@link #submit}.
+     *
+     * @return The number of events.
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * Returns the number of events sent successfully.
+     *
+     * @return The number of events.
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * Returns the number of events dropped because the buffer was full.
+     *
+     * @return The number of events.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of events lost because their request failed.
+     *
+     * @return The number of events.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of requests sent.
+     *
+     * @return The number of batches.
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Returns the number of times a producer had to wait for space in the
+     * buffer, which indicates backpressure from the server.
+     *
+     * @return The number of waits.
+     */
+    public long getBackpressureCount() {
+        return waits.get();
+    }
+
+    /**
+     * Returns the number of events waiting in the buffer.
+     *
+     * @return The number of events.
+     */
+    public int getQueueDepth() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Returns the error of the last failed request.
+     *
+     * @return The error, or {@code null} if no request has failed.
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    private void checkNotStarted() {
+        if (sender != null)
+            throw new IllegalStateException(
+                "Settings must be changed before the first event is submitted.");
+    }
+
+    private synchronized void start() {
+        if (sender != null)
+            return;
+        ring = new AtomicReferenceArray<String>(capacity);
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                sendLoop();
+            }
+        }, "splunk-batching-receiver");
+        thread.setDaemon(true);
+        sender = thread;
+        thread.start();
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    // The length of an event in UTF-8, counted without encoding it. A lone
+    // surrogate is encoded as '?', as String.getBytes does.
+    private static int encodedLength(String data) {
+        int length = 0;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < data.length()
+                    && Character.isLowSurrogate(data.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private void sendLoop() {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(
+                Math.min(maxBatchBytes, DEFAULT_MAX_BATCH_BYTES) + 1024);
+        long firstQueuedAt = 0;
+        while (true) {
+            long queued = tail.get() - head.get();
+            if (queued == 0) {
+                if (closed)
+                    return;
+                firstQueuedAt = 0;
+                LockSupport.park(this);
+                continue;
+            }
+            long now = System.currentTimeMillis();
+            if (firstQueuedAt == 0)
+                firstQueuedAt = now;
+            boolean full = queued >= Math.min(maxBatchEvents, capacity)
+                    || pendingBytes.get() >= maxBatchBytes;
+            boolean due = now - firstQueuedAt >= linger;
+            boolean flushing = closed || head.get() < flushTarget.get();
+            if (!full && !due && !flushing) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(
+                        linger - (now - firstQueuedAt)));
+                continue;
+            }
+            sendBatch(body);
+            firstQueuedAt = 0;
+        }
+    }
+
+    private void sendBatch(ByteArrayOutputStream body) {
+        body.reset();
+        int count = 0;
+        long bytes = 0;
+        long sequence = head.get();
+        long end = tail.get();
+        try {
+            OutputStream out = compress ? new GZIPOutputStream(body) : body;
+            while (sequence < end && count < maxBatchEvents && bytes < maxBatchBytes) {
+                int index = index(sequence);
+                String data = ring.get(index);
+                if (data == null) {
+                    // Claimed but not yet published; wait for the producer.
+                    Thread.yield();
+                    continue;
+                }
+                ring.lazySet(index, null);
+                byte[] encoded = data.getBytes("UTF-8");
+                out.write(encoded);
+                if (encoded.length == 0 || encoded[encoded.length - 1] != '\n')
+                    out.write('\n');
+                pendingBytes.addAndGet(-(encodedLength(data) + 1));
+                bytes += encoded.length + 1;
+                sequence++;
+                count++;
+            }
+            out.close();
+        } catch (IOException e) {
+            // Writing to memory does not fail.
+            throw new RuntimeException(e);
+        }
+        // Free the slots for producers once the events are copied.
+        head.set(sequence);
+
+        try {
+            RequestMessage request = new RequestMessage("POST");
+            if (compress)
+                request.getHeader().put("Content-Encoding", "gzip");
+            request.setContent(body.toByteArray());
+            ResponseMessage response = service.send(path, request);
+            try {
+                response.getContent().close();
+            } catch (IOException e) {
+                // noop
+            }
+            sent.addAndGet(count);
+        } catch (RuntimeException e) {
+            failed.addAndGet(count);
+            lastError = e;
+        }
+        batches.incrementAndGet();
+        completed.set(sequence);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The {@code CollectionReader} class iterates over the members of a
+ * collection as they are read from the server, one Atom entry at a time.
+ * Use {@link ResourceCollection#listItems} to create one:
+ * <pre>
+ * CollectionReader&lt;SavedSearch&gt; reader =
+ *     service.getSavedSearches().listItems();
+ * for (SavedSearch savedSearch : reader) {
+ *     ...
+ * }
+ * reader.close();
+ * </pre>
+ * The members are created the same way as by {@code refresh}, and load their
+ * own state from the server on first access.
+ *
+ * @param <T> The type of the members of the collection.
+ */
+public class CollectionReader<T extends Resource> extends StreamIterableBase<T>
+        implements Closeable {
+    private final ResourceCollection<T> collection;
+    private final AtomFeedReader reader;
+
+    CollectionReader(ResourceCollection<T> collection, AtomFeedReader reader) {
+        this.collection = collection;
+        this.reader = reader;
+    }
+
+    /**
+     * Returns the total number of members in the collection, as reported by
+     * the server, or -1 if the server did not report it.
+     *
+     * @return The total number of members.
+     */
+    public int getTotalResults() {
+        String totalResults = reader.getFeed().totalResults;
+        return totalResults == null ? -1 : Integer.parseInt(totalResults);
+    }
+
+    /**
+     * Closes the reader and the underlying stream.
+     *
+     * @throws IOException The IOException instance.
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    @Override T getNextElement() throws IOException {
+        AtomEntry entry = reader.getNextElement();
+        return entry == null ? null : collection.createListedItem(entry);
+    }
+}
@@ -16,13 +16,15 @@
 
 package com.splunk;
 
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * The {@code Entity} class represents a Splunk entity.
  */
 public class Entity extends Resource implements Map<String, Object> {
-    protected Record content;
+    protected volatile Record content;
     protected HashMap<String, Object> toUpdate = new LinkedHashMap<String, Object>();
 
     /**
@@ -378,11 +380,11 @@ public class Entity extends Resource implements Map<String, Object> {
     @Override public Entity refresh() {
         // Update any attribute values set by a setter method that has not
         // yet been written to the object.
-        ResponseMessage response = service.get(path);
-        assert(response.getStatus() == 200);
+        InputStream content = fetch(path,
+                fields == null ? null : new Args("f", fields));
         AtomFeed feed;
         try {
-            feed = AtomFeed.parseStream(response.getContent());
+            feed = AtomFeed.parseStream(content, fields);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -395,6 +397,21 @@ public class Entity extends Resource implements Map<String, Object> {
         return this;
     }
 
+    /**
+     * Asynchronously refreshes the local state of this entity. The entity
+     * should not be read or modified by other threads until the returned
+     * future completes.
+     *
+     * @return The pending refreshed entity.
+     */
+    public SplunkFuture<Entity> refreshAsync() {
+        return service.submitAsync(new Callable<Entity>() {
+            public Entity call() {
+                return refresh();
+            }
+        });
+    }
+
     /** {@inheritDoc} */
     public Object remove(Object key) {
         throw new UnsupportedOperationException();
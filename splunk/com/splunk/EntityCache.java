@@ -0,0 +1,446 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code EntityCache} class caches the state of entities and collections
+ * that {@code refresh} reads from the server, for a limited time.
+ * <p>
+ * Install a cache with {@link Service#setEntityCache}. Several
+ * {@code Service} instances may share one cache; state is kept apart for each
+ * server and identity, which is the user name, or else the authentication
+ * token or the session cookies of the service. While the state of a path is fresh, refreshing any
+ * resource at that path reads it from the cache instead of the server, and
+ * {@code validate} refreshes a resource once the state it holds is older than
+ * the time to live of its path. Threads that refresh the same path at the
+ * same time share a single request.
+ * <p>
+ * Invalidating a resource, which happens whenever it is changed through this
+ * SDK, removes the cached state of its path, of the paths below it and of the
+ * collections above it, and keeps the requests for those paths that are in
+ * progress from being cached. Changes made by other clients are seen once the
+ * cached state expires. Jobs ({@code search/jobs} and the paths below it) are
+ * never cached, since their state changes from one poll to the next.
+ * <p>
+ * The cache holds at most a fixed number of responses, and evicts the least
+ * recently used one when it is full.
+ */
+public class EntityCache {
+    /** The default maximum number of cached responses. */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /** The default time to live of cached state, in milliseconds. */
+    public static final long DEFAULT_TTL = 5000;
+
+    private final int maxEntries;
+    private long defaultTtl = DEFAULT_TTL;
+    private final Map<String, Long> ttls = new HashMap<String, Long>();
+
+    // Guarded by this.
+    private final LinkedHashMap<String, Body> entries;
+    private final Map<String, Load> loading = new HashMap<String, Load>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    /**
+     * A response body, which may be cached.
+     */
+    static class Body {
+        final String path;
+        final byte[] content;
+        final long loadedAt;
+        // Whether the body is kept in the cache, and so expires with the time
+        // to live of its path.
+        final boolean cached;
+
+        Body(String path, byte[] content, long loadedAt, boolean cached) {
+            this.path = path;
+            this.content = content;
+            this.loadedAt = loadedAt;
+            this.cached = cached;
+        }
+    }
+
+    // A request in progress, which threads that refresh the same path share.
+    private static class Load {
+        final String path;
+        FutureTask<Body> task;
+        // Set when the path is invalidated while the request is in progress,
+        // since the response may predate the change. Guarded by the cache.
+        boolean invalidated = false;
+
+        Load(String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * Creates an entity cache that holds up to
+     * {@link #DEFAULT_MAX_ENTRIES} responses.
+     */
+    public EntityCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates an entity cache that holds up to the given number of
+     * responses.
+     *
+     * @param maxEntries The maximum number of cached responses.
+     */
+    public EntityCache(final int maxEntries) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be positive.");
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Body>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Body> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the maximum number of cached responses.
+     *
+     * @return The maximum number of cached responses.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the time to live of the cached state of paths that have no time
+     * to live of their own. The default is {@link #DEFAULT_TTL}.
+     *
+     * @param ttl The time to live, in milliseconds. 0 disables caching, but
+     * concurrent refreshes of the same path still share one request.
+     */
+    public synchronized void setDefaultTtl(long ttl) {
+        this.defaultTtl = ttl;
+    }
+
+    /**
+     * Sets the time to live of the cached state of an endpoint and of the
+     * paths below it, whatever their namespace. For example, a time to live
+     * set for {@code "saved/searches"} applies to
+     * {@code /services/saved/searches} and to
+     * {@code /servicesNS/admin/search/saved/searches/mysearch}. The most
+     * specific endpoint wins.
+     *
+     * @param endpoint The endpoint, relative to the namespace.
+     * @param ttl The time to live, in milliseconds. 0 disables caching.
+     */
+    public synchronized void setTtl(String endpoint, long ttl) {
+        ttls.put(trimSlashes(endpoint), ttl);
+    }
+
+    /**
+     * Returns the time to live of the cached state of a path.
+     *
+     * @param path The path of a resource.
+     * @return The time to live, in milliseconds.
+     */
+    public synchronized long getTtl(String path) {
+        String endpoint = endpointOf(path);
+        while (true) {
+            Long ttl = ttls.get(endpoint);
+            if (ttl != null) return ttl;
+            int slash = endpoint.lastIndexOf('/');
+            if (slash < 0) break;
+            endpoint = endpoint.substring(0, slash);
+        }
+        return defaultTtl;
+    }
+
+    /**
+     * Removes the cached state of a path, of the paths below it, and of the
+     * collections above it, in every namespace and for every server and user.
+     *
+     * @param path The path of a resource.
+     */
+    public synchronized void invalidate(String path) {
+        // A resource may be read under several namespaces, such as an entity
+        // of a listing under /servicesNS/nobody/search/... and its collection
+        // under /services/..., so the paths are compared without them.
+        String endpoint = endpointOf(path);
+        Iterator<Body> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (isRelated(endpointOf(iterator.next().path), endpoint)) {
+                iterator.remove();
+            }
+        }
+        for (Load load : loading.values()) {
+            if (isRelated(endpointOf(load.path), endpoint)) {
+                load.invalidated = true;
+            }
+        }
+    }
+
+    /**
+     * Removes all cached state.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        for (Load load : loading.values()) {
+            load.invalidated = true;
+        }
+    }
+
+    /**
+     * Returns the number of cached responses.
+     *
+     * @return The number of cached responses.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of refreshes that were served without a request of
+     * their own, either from the cache or by sharing the request of another
+     * thread.
+     *
+     * @return The number of cache hits.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of refreshes that issued a request to the server.
+     *
+     * @return The number of cache misses.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of responses evicted to keep the cache within its
+     * maximum size.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the average time taken by the requests issued on a miss,
+     * including reading the response, in nanoseconds.
+     *
+     * @return The average load latency, or 0 if there have been no misses.
+     */
+    public long getAverageLoadLatency() {
+        long count = misses.get();
+        return count == 0 ? 0 : loadNanos.get() / count;
+    }
+
+    /**
+     * Returns whether state that was fetched at a given time has outlived
+     * the time to live of its path.
+     *
+     * @param path The path of the resource.
+     * @param loadedAt When the state was fetched, in milliseconds since the
+     * epoch.
+     * @return {@code true} if the state has expired.
+     */
+    boolean isExpired(String path, long loadedAt) {
+        return System.currentTimeMillis() - loadedAt >= getTtl(path);
+    }
+
+    /**
+     * Returns the body of a GET request, from the cache if it holds fresh
+     * state for the request, or else from the server.
+     *
+     * @param service The service to issue the request with.
+     * @param path The request path.
+     * @param args The query arguments, or {@code null}.
+     * @return The response body.
+     */
+    Body get(final Service service, final String path,
+            final Map<String, Object> args) {
+        final String key = keyOf(service, path, args);
+        final long ttl = getTtl(path);
+        if (key == null) {
+            try {
+                return load(service, path, args);
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+
+        FutureTask<Body> task;
+        boolean isLoader = false;
+        synchronized (this) {
+            Body body = entries.get(key);
+            if (body != null && System.currentTimeMillis() - body.loadedAt < ttl) {
+                hits.incrementAndGet();
+                return body;
+            }
+            Load load = loading.get(key);
+            if (load == null) {
+                final Load started = new Load(path);
+                started.task = new FutureTask<Body>(new Callable<Body>() {
+                    public Body call() throws IOException {
+                        return store(key, load(service, path, args), ttl, started);
+                    }
+                });
+                load = started;
+                loading.put(key, load);
+                isLoader = true;
+            }
+            task = load.task;
+        }
+
+        if (isLoader) {
+            misses.incrementAndGet();
+            long start = System.nanoTime();
+            task.run();
+            loadNanos.addAndGet(System.nanoTime() - start);
+            synchronized (this) {
+                loading.remove(key);
+            }
+        }
+        else {
+            hits.incrementAndGet();
+        }
+
+        try {
+            return task.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new RuntimeException(cause.getMessage(), cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    // Caches a response body, unless caching is disabled for its path or the
+    // path was invalidated while it was loading. The body is returned to the
+    // threads that share the request only once this is decided.
+    private synchronized Body store(String key, Body body, long ttl, Load load) {
+        if (ttl <= 0 || load.invalidated) {
+            return body;
+        }
+        Body cached = new Body(body.path, body.content, body.loadedAt, true);
+        entries.put(key, cached);
+        return cached;
+    }
+
+    // Issues a GET request and reads the whole response body.
+    private static Body load(Service service, String path,
+            Map<String, Object> args) throws IOException {
+        long loadedAt = System.currentTimeMillis();
+        InputStream content = service.get(path, args).getContent();
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int count;
+            while ((count = content.read(chunk)) != -1) {
+                buffer.write(chunk, 0, count);
+            }
+            return new Body(path, buffer.toByteArray(), loadedAt, false);
+        }
+        finally {
+            content.close();
+        }
+    }
+
+    // Keeps the state of different servers and identities apart. Returns
+    // null for paths that are never cached.
+    private static String keyOf(Service service, String path,
+            Map<String, Object> args) {
+        String endpoint = endpointOf(path);
+        if (endpoint.equals(JobCollection.REST_PATH)
+                || endpoint.startsWith(JobCollection.REST_PATH + "/")) {
+            return null;
+        }
+        String identity = service.getUsername();
+        if (identity == null) {
+            identity = service.getToken();
+        }
+        if (identity == null) {
+            // Cookie authentication, or none at all.
+            identity = service.stringifyCookies();
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(service.getPrefix()).append(' ');
+        key.append(identity).append(' ').append(path);
+        if (args != null && args.size() > 0) {
+            key.append('?').append(Args.encode(args));
+        }
+        return key.toString();
+    }
+
+    // Whether one endpoint is the same as another, or below or above it.
+    private static boolean isRelated(String path, String other) {
+        return path.equals(other)
+                || path.startsWith(other + "/")
+                || other.startsWith(path + "/");
+    }
+
+    // Strips the namespace from a path, so that /services/saved/searches and
+    // /servicesNS/admin/search/saved/searches both become saved/searches.
+    static String endpointOf(String path) {
+        path = trimSlashes(path);
+        if (path.startsWith("services/")) {
+            return path.substring("services/".length());
+        }
+        if (path.startsWith("servicesNS/")) {
+            String[] parts = path.split("/", 4);
+            return parts.length == 4 ? parts[3] : "";
+        }
+        return path;
+    }
+
+    private static String trimSlashes(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') start++;
+        while (end > start && path.charAt(end - 1) == '/') end--;
+        return path.substring(start, end);
+    }
+}
@@ -36,6 +36,7 @@ import java.util.regex.Pattern;
 public class Event extends HashMap<String, String> {
     private Map<String, String[]> arrayValues = new HashMap<String, String[]>();
     private String segmentedRaw;
+    private XmlFragment segmentedRawFragment;
     
     // Prevent non-SDK instantiation.
     Event() {
@@ -78,6 +79,17 @@ public class Event extends HashMap<String, String> {
      */
     void putSegmentedRaw(String value) {
         segmentedRaw = value;
+        segmentedRawFragment = null;
+    }
+
+    /**
+     * Sets the XML element for the {@code _raw} field, to be serialized the
+     * first time {@link #getSegmentedRaw} is called.
+     * @param fragment The XML element as read by {@link ResultsReaderXml}.
+     */
+    void putSegmentedRaw(XmlFragment fragment) {
+        segmentedRaw = null;
+        segmentedRawFragment = fragment;
     }
 
     /**
@@ -177,6 +189,9 @@ public class Event extends HashMap<String, String> {
      * @return the segmented raw xml including tags and escaped characters.
      */
     public String getSegmentedRaw() {
+       if (segmentedRaw == null && segmentedRawFragment != null) {
+           segmentedRaw = segmentedRawFragment.toString();
+       }
        if (segmentedRaw == null) {
            // ResultsReaderXml will always set this to not null. Using this
            // method for other result reader is not supported.
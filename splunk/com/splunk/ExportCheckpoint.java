@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The {@code ExportCheckpoint} class records how far a
+ * {@link ResumableExport} has read, so that the export can be resumed from
+ * that point.
+ * <p>
+ * The checkpoint holds the {@code _time} of the last events read, to the
+ * second, and an identifier of each event already read within that second,
+ * made of its {@code _cd}, {@code index} and {@code splunk_server} fields,
+ * or of a hash of its {@code _raw} field if it has no {@code _cd}.
+ * An export resumed from the checkpoint starts at that second and skips the
+ * events it has already returned.
+ */
+public class ExportCheckpoint {
+    private long time = -1;
+    private long eventCount = 0;
+    private final Set<String> seen = new HashSet<String>();
+
+    /**
+     * Creates an empty checkpoint, from which an export starts at the
+     * beginning.
+     */
+    public ExportCheckpoint() {
+        // nothing
+    }
+
+    /**
+     * Returns the {@code _time} of the last events read.
+     *
+     * @return The time in seconds since the epoch, or -1 if no event with a
+     * {@code _time} has been read.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the number of events read so far, across all attempts.
+     *
+     * @return The number of events.
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Returns the identifiers of the events read at {@link #getTime}.
+     *
+     * @return The event identifiers.
+     */
+    public Set<String> getSeenEvents() {
+        return Collections.unmodifiableSet(seen);
+    }
+
+    /**
+     * Writes this checkpoint to a file. The checkpoint is written to a
+     * temporary file with the suffix {@code .tmp}, synced to disk, and then
+     * renamed, so the file never holds part of a checkpoint. Where a rename
+     * cannot replace an existing file, as on Windows, the file is deleted
+     * first, and a crash between the two leaves the checkpoint only under the
+     * temporary name.
+     *
+     * @param file The file.
+     * @throws IOException On IO exception.
+     */
+    public void save(File file) throws IOException {
+        StringBuilder content = new StringBuilder();
+        content.append("time=").append(time).append('\n');
+        content.append("count=").append(eventCount).append('\n');
+        for (String id : seen) {
+            content.append("seen=").append(id).append('\n');
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            stream.write(content.toString().getBytes("UTF-8"));
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads a checkpoint written by {@link #save}.
+     *
+     * @param file The file.
+     * @return The checkpoint, or {@code null} if the file does not exist.
+     * @throws IOException On IO exception.
+     */
+    public static ExportCheckpoint load(File file) throws IOException {
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), "UTF-8"));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        ExportCheckpoint checkpoint = new ExportCheckpoint();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf('=');
+                if (separator < 0) {
+                    continue;
+                }
+                String key = line.substring(0, separator);
+                String value = line.substring(separator + 1);
+                if (key.equals("time")) {
+                    checkpoint.time = Long.parseLong(value);
+                } else if (key.equals("count")) {
+                    checkpoint.eventCount = Long.parseLong(value);
+                } else if (key.equals("seen")) {
+                    checkpoint.seen.add(value);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint file " + file + ": " + e.getMessage());
+        } finally {
+            reader.close();
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Indicates whether an event at the given time has already been read.
+     *
+     * @param eventTime The {@code _time} of the event, in seconds.
+     * @param id The identifier of the event.
+     * @return {@code true} if the event has been read.
+     */
+    boolean hasSeen(long eventTime, String id) {
+        return eventTime == time && seen.contains(id);
+    }
+
+    /**
+     * Records an event that has been read.
+     *
+     * @param eventTime The {@code _time} of the event, in seconds, or -1 if
+     * it has none.
+     * @param id The identifier of the event.
+     * @param oldestFirst Whether the export returns the oldest events first.
+     */
+    void record(long eventTime, String id, boolean oldestFirst) {
+        eventCount++;
+        if (eventTime < 0) {
+            return;
+        }
+        // Only move forward in the order of the export. An event out of order
+        // is behind the checkpoint, so a resumed export does not return it.
+        boolean ahead = time < 0 ||
+                (oldestFirst ? eventTime > time : eventTime < time);
+        if (ahead) {
+            time = eventTime;
+            seen.clear();
+        }
+        if (eventTime == time) {
+            seen.add(id);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The {@code FileIngester} class sends a file on the local disk to an index
+ * through the simple receiver endpoint, unlike {@link Index#upload}, which
+ * needs the file to be on the Splunk server's disk.
+ * <p>
+ * The file is split into chunks that end at line boundaries, and the chunks
+ * are sent as separate requests, several at a time, on the service's
+ * asynchronous executor. Each chunk is read from the file as its request is
+ * written, so memory use does not depend on the size of the file. The chunks
+ * can also be compressed with gzip (see {@link #setCompress}).
+ * <p>
+ * The ingester records the offset up to which every chunk has been sent. If
+ * a request fails, {@link #ingest} throws and {@link #getOffset} tells where
+ * to resume:
+ * <pre>
+ * FileIngester ingester = new FileIngester(index, file);
+ * ingester.setStartOffset(savedOffset);
+ * try {
+ *     ingester.ingest();
+ * } finally {
+ *     savedOffset = ingester.getOffset();
+ * }
+ * </pre>
+ * Settings must be changed before {@code ingest} is called.
+ */
+public class FileIngester {
+    /** The default size of a chunk, in bytes before compression. */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /** The default number of chunks sent at a time. */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    // How much of the file is read at a time to find the end of a line.
+    private static final int SCAN_SIZE = 8192;
+
+    /**
+     * The {@code ProgressListener} interface is notified as a file is
+     * ingested.
+     */
+    public interface ProgressListener {
+        /**
+         * Called each time the file has been sent up to a further offset.
+         *
+         * @param offset The offset up to which the file has been sent.
+         * @param length The length of the file.
+         */
+        void progress(long offset, long length);
+    }
+
+    private final Service service;
+    private final File file;
+    private final String path;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private boolean compress = false;
+    private long startOffset = 0;
+    private ProgressListener listener = null;
+
+    private volatile long offset = 0;
+
+    /**
+     * Creates an ingester that sends a file to an index. The source of the
+     * events is the path of the file.
+     *
+     * @param index The index to write to.
+     * @param file The file to send.
+     */
+    public FileIngester(Index index, File file) {
+        this(index, file, null);
+    }
+
+    /**
+     * Creates an ingester that sends a file to an index.
+     *
+     * @param index The index to write to.
+     * @param file The file to send.
+     * @param args Optional arguments for the events. Valid parameters are:
+     * "host", "host_regex", "source", and "sourcetype". The source defaults to
+     * the path of the file.
+     */
+    public FileIngester(Index index, File file, Args args) {
+        Args eventArgs = new Args();
+        eventArgs.add("source", file.getPath());
+        if (args != null) {
+            eventArgs.putAll(args);
+        }
+        this.service = index.service;
+        this.file = file;
+        this.path = Receiver.simpleReceiverPath(service, index.getName(), eventArgs);
+    }
+
+    /**
+     * Sets the size of the chunks. A chunk extends past this size to the end
+     * of the line it ends in.
+     *
+     * @param chunkSize The size, in bytes.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive.");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the number of chunks sent at a time. The number of threads of the
+     * service's asynchronous executor also bounds it.
+     *
+     * @param parallelism The number of chunks.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive.");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets whether chunks are compressed with gzip. This is off by default,
+     * since the simple receiver endpoint is not documented to accept
+     * compressed requests; use it only with a server or proxy that is known
+     * to decode them.
+     *
+     * @param compress {@code true} to compress chunks.
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Sets the offset to start sending the file from, such as the offset
+     * recorded by an earlier, failed ingestion of the same file. It should be
+     * the start of a line.
+     *
+     * @param startOffset The offset, in bytes.
+     */
+    public void setStartOffset(long startOffset) {
+        if (startOffset < 0)
+            throw new IllegalArgumentException("startOffset must not be negative.");
+        this.startOffset = startOffset;
+    }
+
+    /**
+     * Sets the listener that is notified as the file is sent.
+     *
+     * @param listener The listener, or {@code null}.
+     */
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the offset up to which the file has been sent. Every byte
+     * before it has been accepted by the server; chunks after it may or may
+     * not have been.
+     *
+     * @return The offset, in bytes.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Sends the file, from the start offset to its end.
+     *
+     * @return The offset up to which the file has been sent, which is its
+     * length.
+     * @throws IOException If the file cannot be read.
+     */
+    public long ingest() throws IOException {
+        offset = startOffset;
+        FileInputStream input = new FileInputStream(file);
+        FileChannel channel = input.getChannel();
+        LinkedList<Chunk> pending = new LinkedList<Chunk>();
+        AtomicBoolean stopped = new AtomicBoolean();
+        try {
+            long length = channel.size();
+            long position = startOffset;
+            // Chunks complete in the order they are awaited, so the offset
+            // only ever moves past chunks that have all been sent.
+            while (position < length || !pending.isEmpty()) {
+                if (position < length && pending.size() < parallelism) {
+                    long end = chunkEnd(channel, position, length);
+                    pending.add(new Chunk(end, send(channel, position, end - position, stopped)));
+                    position = end;
+                    continue;
+                }
+                // The chunk stays pending until it has finished, so that it
+                // is waited for below if this wait is interrupted.
+                Chunk chunk = pending.getFirst();
+                await(chunk.future);
+                pending.removeFirst();
+                offset = chunk.end;
+                if (listener != null) {
+                    listener.progress(chunk.end, length);
+                }
+            }
+            return offset;
+        } finally {
+            // The chunks that have not started are skipped, and those in
+            // flight read from the channel until they finish, so it is closed
+            // only after all of them, even if this thread is interrupted.
+            stopped.set(true);
+            boolean interrupted = false;
+            for (Chunk chunk : pending) {
+                chunk.future.run();
+                interrupted |= waitUninterruptibly(chunk.future);
+            }
+            input.close();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A chunk that is being sent.
+     */
+    private static class Chunk {
+        final long end;
+        final SplunkFuture<Void> future;
+
+        Chunk(long end, SplunkFuture<Void> future) {
+            this.end = end;
+            this.future = future;
+        }
+    }
+
+    // Returns the end of the chunk that starts at a position: the end of the
+    // line that contains the chunk size, or the end of the file.
+    private long chunkEnd(FileChannel channel, long position, long length)
+            throws IOException {
+        long end = position + chunkSize;
+        if (end >= length) return length;
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+        while (end < length) {
+            buffer.clear();
+            int count = channel.read(buffer, end);
+            if (count <= 0) break;
+            for (int i = 0; i < count; i++) {
+                if (buffer.get(i) == '\n') return end + i + 1;
+            }
+            end += count;
+        }
+        return length;
+    }
+
+    private SplunkFuture<Void> send(FileChannel channel, long position, long count,
+            final AtomicBoolean stopped) {
+        final RequestBody body = compress
+                ? compressed(channel, position, count)
+                : RequestBody.create(channel, position, count);
+        return service.submitAsync(new Callable<Void>() {
+            public Void call() {
+                if (stopped.get()) {
+                    // The ingest has failed; the offset does not move past
+                    // this chunk anyway.
+                    return null;
+                }
+                RequestMessage request = new RequestMessage("POST");
+                if (compress)
+                    request.getHeader().put("Content-Encoding", "gzip");
+                request.setContent(body);
+                ResponseMessage response = service.send(path, request);
+                try {
+                    response.getContent().close();
+                } catch (IOException e) {
+                    // noop
+                }
+                return null;
+            }
+        });
+    }
+
+    // A region of the file, compressed with gzip as it is sent.
+    private static RequestBody compressed(final FileChannel channel,
+            final long position, final long count) {
+        final RequestBody region = RequestBody.create(channel, position, count);
+        return new RequestBody() {
+            @Override public boolean isRepeatable() {
+                return true;
+            }
+
+            @Override public void writeTo(OutputStream out) throws IOException {
+                GZIPOutputStream gzip = new GZIPOutputStream(out, SCAN_SIZE);
+                region.writeTo(gzip);
+                gzip.finish();
+            }
+        };
+    }
+
+    private static void await(SplunkFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new RuntimeException(cause.getMessage(), cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    // Waits for a chunk to finish, ignoring interrupts, and returns whether
+    // the thread was interrupted meanwhile.
+    private static boolean waitUninterruptibly(SplunkFuture<Void> future) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                return interrupted;
+            }
+            catch (ExecutionException e) {
+                // Only the first failure is reported.
+                return interrupted;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+}
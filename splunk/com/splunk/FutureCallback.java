@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.splunk;
+
+/**
+ * The {@code FutureCallback} interface receives the outcome of an
+ * asynchronous operation started through one of the {@code ...Async} methods
+ * of the SDK.
+ * <p>
+ * Callbacks run on the thread that completes the operation, which is usually
+ * a thread of the service's asynchronous executor, so they should not block.
+ *
+ * @param <T> The type of the operation's result.
+ */
+public interface FutureCallback<T> {
+    /**
+     * Called when the operation completes successfully.
+     *
+     * @param result The result of the operation.
+     */
+    void onSuccess(T result);
+
+    /**
+     * Called when the operation fails or is cancelled.
+     *
+     * @param cause The exception that caused the failure. For a cancelled
+     * operation, this is a {@code CancellationException}.
+     */
+    void onFailure(Throwable cause);
+}
@@ -16,17 +16,33 @@
 
 package com.splunk;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
 
 /**
  * Thrown for HTTP responses that return an error status code.
+ * <p>
+ * At most {@link #MAX_BODY_SIZE} bytes of the error response are kept. The
+ * detail message is extracted from them only when it is first asked for, by
+ * {@link #getDetail} or {@link #getMessage}.
  */
 public class HttpException extends RuntimeException {
+    /** The maximum number of bytes of an error response that are kept. */
+    public static final int MAX_BODY_SIZE = 64 * 1024;
+
+    private static final XMLInputFactory XML_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+        XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
     private int status;
-    private String detail; // Error message detail
+    private byte[] body; // The start of the error response, until detail is read
+    private volatile String detail; // Error message detail
 
     HttpException(int status, String message, String detail) {
         super(message);
@@ -34,6 +50,12 @@ public class HttpException extends RuntimeException {
         this.detail = detail;
     }
 
+    private HttpException(int status, byte[] body) {
+        super();
+        this.status = status;
+        this.body = body;
+    }
+
     /**
      * Create an {@code HttpException} instance based on the given response.
      *
@@ -41,47 +63,31 @@ public class HttpException extends RuntimeException {
      * @return A new {@code HttpException) instance.
      */
     static HttpException create(ResponseMessage response) {
-        int status = response.getStatus();
+        return new HttpException(response.getStatus(), readBody(response.getContent()));
+    }
 
-        StringBuilder s = new StringBuilder();
-        InputStreamReader r;
+    // Reads up to MAX_BODY_SIZE bytes of the response in bulk, and closes it.
+    private static byte[] readBody(InputStream content) {
+        if (content == null) return new byte[0];
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
         try {
-            r = new InputStreamReader(response.getContent(), "UTF-8");
-        } catch (UnsupportedEncodingException e1) {
-            throw new AssertionError("How does your system not support UTF-8?");
-        }
-
-        int c = -1;
-        while (true) {
+            int count;
+            while (buffer.size() < MAX_BODY_SIZE
+                    && (count = content.read(chunk, 0,
+                            Math.min(chunk.length, MAX_BODY_SIZE - buffer.size()))) != -1) {
+                buffer.write(chunk, 0, count);
+            }
+        } catch (IOException e) {
+            // Not much to be done here if that stream is bad...
+        } finally {
             try {
-                c = r.read();
-            } catch (IOException e1) {
-                // Not much to be done here if that stream is bad...
+                content.close();
+            } catch (IOException e) {
+                // noop
             }
-            if (c == -1) break;
-
-            s.appendCodePoint(c);
-        }
-
-        // Initialize detail with raw response data. Prevents XML parser failures.
-        String detail = s.toString();
-        try {
-            // Attempt to read the error detail from the error response content as XML
-            Document document = Xml.parse(new ByteArrayInputStream(detail.getBytes()), true);
-            NodeList msgs = document.getElementsByTagName("msg");
-            if (msgs.getLength() > 0)
-                detail = msgs.item(0).getTextContent();
-        }
-        catch (Exception e) {
-            // Not an XML document; keep the raw string.
         }
-
-        String message = String.format("HTTP %d", status);  
-
-        if (detail != null && detail.length() > 0)
-            message = message + " -- " + detail;
-
-        return new HttpException(status, message, detail);
+        return buffer.toByteArray();
     }
 
     /**
@@ -90,9 +96,35 @@ public class HttpException extends RuntimeException {
      * @return HTTP error response message detail.
      */
     public String getDetail() {
+        String detail = this.detail;
+        if (detail == null) {
+            synchronized (this) {
+                detail = this.detail;
+                if (detail == null) {
+                    detail = parseDetail(body);
+                    this.detail = detail;
+                    body = null;
+                }
+            }
+        }
         return detail;
     }
 
+    /**
+     * Returns the HTTP status code and the message detail, if any.
+     *
+     * @return The exception message.
+     */
+    @Override public String getMessage() {
+        String message = super.getMessage();
+        if (message != null) return message;
+        message = String.format("HTTP %d", status);
+        String detail = getDetail();
+        if (detail != null && detail.length() > 0)
+            message = message + " -- " + detail;
+        return message;
+    }
+
     /**
      * Returns the HTTP status code.
      *
@@ -101,5 +133,61 @@ public class HttpException extends RuntimeException {
     public int getStatus() {
         return status;
     }
-}
 
+    // Returns the text of the first <msg> element of an error response, or
+    // the whole response if it has none or is not XML.
+    private static String parseDetail(byte[] body) {
+        String raw;
+        try {
+            raw = new String(body, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("How does your system not support UTF-8?");
+        }
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_FACTORY.createXMLStreamReader(new ByteArrayInputStream(body));
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                        && reader.getLocalName().equals("msg")) {
+                    return readText(reader);
+                }
+            }
+        } catch (XMLStreamException e) {
+            // Not an XML document; keep the raw string.
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // noop
+                }
+            }
+        }
+        return raw;
+    }
+
+    // Reads the text content of the current element, including that of any
+    // elements inside it.
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return text.toString();
+    }
+}
@@ -18,15 +18,19 @@ package com.splunk;
 
 import javax.net.ssl.*;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.*;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * The {@code HttpService} class represents a generic HTTP service at a given
@@ -41,12 +45,6 @@ public class HttpService {
     private static String HTTPS_SCHEME = "https";
     private static String HTTP_SCHEME = "http";
 
-    private static final HostnameVerifier HOSTNAME_VERIFIER = new HostnameVerifier() {
-        public boolean verify(String s, SSLSession sslSession) {
-            return true;
-        }
-    };
-
     /**
      * A variable to hold an optional custom HTTPS handler
      */
@@ -67,17 +65,31 @@ public class HttpService {
      */
     protected int port = 8089;
 
-    protected Integer connectTimeout = null;
-    protected Integer readTimeout = null;
+    // The scheme, host and port are fixed once the service is constructed.
+    // The settings below may change while requests are running, and are
+    // volatile so that every request sees the latest value.
+    protected volatile Integer connectTimeout = null;
+    protected volatile Integer readTimeout = null;
+
+    private volatile String prefix = null;
+
+    static final Map<String, String> defaultHeader;
+    static {
+        Map<String, String> header = new HashMap<String, String>();
+        header.put("User-Agent", "splunk-sdk-java/1.6.5");
+        header.put("Accept", "*/*");
+        defaultHeader = Collections.unmodifiableMap(header);
+    }
+
+    protected final SimpleCookieStore cookieStore = new SimpleCookieStore();
 
-    private String prefix = null;
+    private volatile HttpTransport transport = new HttpUrlConnectionTransport();
 
-    static Map<String, String> defaultHeader = new HashMap<String, String>() {{
-        put("User-Agent", "splunk-sdk-java/1.6.5");
-        put("Accept", "*/*");
-    }};
+    private static ScheduledExecutorService defaultAsyncExecutor = null;
+    private volatile ScheduledExecutorService asyncExecutor = null;
 
-    protected SimpleCookieStore cookieStore = new SimpleCookieStore();
+    // The number of error responses received, by status code.
+    private final AtomicLongArray errorCounts = new AtomicLongArray(600);
 
     /**
      * Constructs a new {@code HttpService} instance.
@@ -169,6 +181,34 @@ public class HttpService {
         return send(path, request);
     }
 
+    /**
+     * Asynchronously issues an HTTP GET request against the service using a
+     * given path.
+     *
+     * @param path The request path.
+     * @return The pending HTTP response.
+     */
+    public SplunkFuture<ResponseMessage> getAsync(String path) {
+        return sendAsync(path, new RequestMessage("GET"));
+    }
+
+    /**
+     * Asynchronously issues an HTTP GET request against the service using a
+     * given path and query arguments.
+     *
+     * @param path The request path.
+     * @param args The query arguments.
+     * @return The pending HTTP response.
+     */
+    public SplunkFuture<ResponseMessage> getAsync(final String path,
+                                                  final Map<String, Object> args) {
+        return submitAsync(new Callable<ResponseMessage>() {
+            public ResponseMessage call() {
+                return get(path, args);
+            }
+        });
+    }
+
     /**
      * Returns the host name of this service.
      *
@@ -321,6 +361,112 @@ public class HttpService {
         this.readTimeout = readTimeout;
     }
 
+    /**
+     * Returns the number of responses with a given error status that this
+     * service has received.
+     *
+     * @param status The HTTP status code.
+     * @return The number of responses.
+     */
+    public long getErrorCount(int status) {
+        if (status < 0 || status >= errorCounts.length()) return 0;
+        return errorCounts.get(status);
+    }
+
+    /**
+     * Returns the number of error responses that this service has received,
+     * for each status that has been received at least once.
+     *
+     * @return A map from HTTP status codes to numbers of responses.
+     */
+    public Map<Integer, Long> getErrorCounts() {
+        Map<Integer, Long> counts = new TreeMap<Integer, Long>();
+        for (int status = 0; status < errorCounts.length(); status++) {
+            long count = errorCounts.get(status);
+            if (count > 0) counts.put(status, count);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the transport used by this service to execute HTTP requests.
+     *
+     * @return The HTTP transport.
+     */
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the transport used by this service to execute HTTP requests. The
+     * default is an {@link HttpUrlConnectionTransport}; use a
+     * {@link PooledHttpTransport} to reuse keep-alive connections across
+     * requests.
+     *
+     * @param transport The HTTP transport.
+     */
+    public void setTransport(HttpTransport transport) {
+        if (transport == null)
+            throw new IllegalArgumentException("The transport cannot be null.");
+        this.transport = transport;
+    }
+
+    /**
+     * Returns the executor that runs the asynchronous ({@code ...Async})
+     * operations of this service. Unless one has been set, this is an executor
+     * shared by all services, with a small fixed number of daemon threads.
+     *
+     * @return The asynchronous executor.
+     */
+    public ScheduledExecutorService getAsyncExecutor() {
+        if (asyncExecutor != null)
+            return asyncExecutor;
+        return getDefaultAsyncExecutor();
+    }
+
+    /**
+     * Sets the executor that runs the asynchronous ({@code ...Async})
+     * operations of this service. The number of threads in the executor bounds
+     * the number of requests that run at once; further operations queue
+     * without consuming a thread.
+     *
+     * @param executor The asynchronous executor, or {@code null} to use the
+     * shared default executor.
+     */
+    public void setAsyncExecutor(ScheduledExecutorService executor) {
+        this.asyncExecutor = executor;
+    }
+
+    private static synchronized ScheduledExecutorService getDefaultAsyncExecutor() {
+        if (defaultAsyncExecutor == null) {
+            int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+            defaultAsyncExecutor = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                            "splunk-async-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultAsyncExecutor;
+    }
+
+    /**
+     * Runs a task on the asynchronous executor of this service.
+     *
+     * @param task The task to run.
+     * @param <T> The type of the task's result.
+     * @return The pending result of the task.
+     */
+    <T> SplunkFuture<T> submitAsync(Callable<T> task) {
+        SplunkFuture<T> future = new SplunkFuture<T>(task);
+        getAsyncExecutor().execute(future);
+        return future;
+    }
+
     /**
      * Issues a POST request against the service using a given path.
      *
@@ -348,6 +494,34 @@ public class HttpService {
         return send(path, request);
     }
 
+    /**
+     * Asynchronously issues a POST request against the service using a given
+     * path.
+     *
+     * @param path The request path.
+     * @return The pending HTTP response.
+     */
+    public SplunkFuture<ResponseMessage> postAsync(String path) {
+        return postAsync(path, null);
+    }
+
+    /**
+     * Asynchronously issues a POST request against the service using a given
+     * path and form arguments.
+     *
+     * @param path The request path.
+     * @param args The form arguments.
+     * @return The pending HTTP response.
+     */
+    public SplunkFuture<ResponseMessage> postAsync(final String path,
+                                                   final Map<String, Object> args) {
+        return submitAsync(new Callable<ResponseMessage>() {
+            public ResponseMessage call() {
+                return post(path, args);
+            }
+        });
+    }
+
     /**
      * Issues a DELETE request against the service using a given path.
      *
@@ -374,6 +548,21 @@ public class HttpService {
         return send(path, request);
     }
 
+    /**
+     * Asynchronously issues a DELETE request against the service using a
+     * given path.
+     *
+     * @param path The request path.
+     * @return The pending HTTP response.
+     */
+    public SplunkFuture<ResponseMessage> deleteAsync(final String path) {
+        return submitAsync(new Callable<ResponseMessage>() {
+            public ResponseMessage call() {
+                return delete(path);
+            }
+        });
+    }
+
     /**
      * Opens a socket to this service.
      *
@@ -399,95 +588,35 @@ public class HttpService {
         // Construct a full URL to the resource
         URL url = getUrl(path);
 
-        // Create and initialize the connection object
-        HttpURLConnection cn;
-        try {
-            cn = (HttpURLConnection) url.openConnection();
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage(), e);
-        }
-        if (cn instanceof HttpsURLConnection) {
-            ((HttpsURLConnection) cn).setSSLSocketFactory(sslSocketFactory);
-            ((HttpsURLConnection) cn).setHostnameVerifier(HOSTNAME_VERIFIER);
-        }
-        cn.setUseCaches(false);
-        cn.setAllowUserInteraction(false);
-        cn.setConnectTimeout(connectTimeout == null ? 0 : connectTimeout);
-        cn.setReadTimeout(readTimeout == null ? 0 : readTimeout);
-
-        // Set the request method
-        String method = request.getMethod();
-        try {
-            cn.setRequestMethod(method);
-        } catch (ProtocolException e) {
-            throw new RuntimeException(e.getMessage(), e);
-        }
-
-        // Add headers from request message
-        Map<String, String> header = request.getHeader();
-        for (Entry<String, String> entry : header.entrySet())
-            cn.setRequestProperty(entry.getKey(), entry.getValue());
-        // Add default headers that were absent from the request message
+        // Copy the request so that the caller's header map is left as it
+        // was, and add default headers that were absent from it
+        RequestMessage sent = new RequestMessage(request.getMethod());
+        sent.content = request.content;
+        Map<String, String> header = sent.getHeader();
+        header.putAll(request.getHeader());
         for (Entry<String, String> entry : defaultHeader.entrySet()) {
             String key = entry.getKey();
             if (header.containsKey(key)) continue;
-            cn.setRequestProperty(key, entry.getValue());
+            header.put(key, entry.getValue());
         }
 
         // Add cookies to header
-        cn.setRequestProperty("Cookie", cookieStore.getCookies());
-
-        // Write out request content, if any
-        try {
-            Object content = request.getContent();
-            if (content != null) {
-                cn.setDoOutput(true);
-                OutputStream stream = cn.getOutputStream();
-                OutputStreamWriter writer = new OutputStreamWriter(stream, "UTF-8");
-                writer.write((String) content);
-                writer.close();
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage(), e);
-        }
+        header.put("Cookie", cookieStore.getCookies());
 
+        String method = request.getMethod();
         if (VERBOSE_REQUESTS) {
             System.out.format("%s %s => ", method, url.toString());
         }
 
         // Execute the request
+        ResponseMessage response;
         try {
-            cn.connect();
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage(), e);
-        }
-
-        int status;
-        try {
-            status = cn.getResponseCode();
+            response = transport.send(this, url, sent);
         } catch (IOException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
 
-        InputStream input = null;
-        try {
-            input = status >= 400
-                    ? cn.getErrorStream()
-                    : cn.getInputStream();
-        } catch (IOException e) {
-            assert (false);
-        }
-        
-        // Add cookies to cookie Store
-        Map<String, List<String>> headers = cn.getHeaderFields();        
-        if (headers.containsKey("Set-Cookie")) {
-            for (String cookieHeader : headers.get("Set-Cookie")) {
-               if (cookieHeader != null && cookieHeader.length() > 0)
-                    cookieStore.add(cookieHeader);
-            }
-        }
-
-        ResponseMessage response = new ResponseMessage(status, input);
+        int status = response.getStatus();
 
         if (VERBOSE_REQUESTS) {
             System.out.format("%d\n", status);
@@ -496,12 +625,34 @@ public class HttpService {
             }
         }
 
-        if (status >= 400)
+        if (status >= 400) {
+            // Statuses beyond the table are counted as the last one.
+            errorCounts.incrementAndGet(Math.min(status, errorCounts.length() - 1));
             throw HttpException.create(response);
+        }
 
         return response;
     }
 
+    /**
+     * Asynchronously issues an HTTP request against the service using a given
+     * path and request message. The request runs on the service's
+     * asynchronous executor; an error status completes the future with an
+     * {@code HttpException}.
+     *
+     * @param path    The request path.
+     * @param request The request message.
+     * @return The pending HTTP response.
+     */
+    public SplunkFuture<ResponseMessage> sendAsync(final String path,
+                                                   final RequestMessage request) {
+        return submitAsync(new Callable<ResponseMessage>() {
+            public ResponseMessage call() {
+                return send(path, request);
+            }
+        });
+    }
+
     public static void setSSLSocketFactory(SSLSocketFactory sslSocketFactory) {
         if (sslSocketFactory == null)
             throw new IllegalArgumentException("The sslSocketFactory cannot be null.");
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.splunk;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * The {@code HttpTransport} interface is the service provider interface that
+ * {@code HttpService} uses to execute HTTP requests on the wire.
+ * <p>
+ * By the time a request reaches the transport, {@code HttpService} has
+ * already merged the default headers and the {@code Cookie} header into the
+ * request message. The transport is responsible for opening (or reusing) a
+ * connection, writing the request, and returning the response status, headers
+ * and body stream. Implementations must pass every {@code Set-Cookie} response
+ * header to {@link HttpService#addCookie(String)} so that session cookies are
+ * kept current.
+ * <p>
+ * The default transport is {@link HttpUrlConnectionTransport}. Use
+ * {@link PooledHttpTransport} for a bounded pool of keep-alive connections.
+ */
+public interface HttpTransport {
+    /**
+     * Executes an HTTP request and returns the response. The transport must
+     * not throw for HTTP error statuses; {@code HttpService} converts those
+     * into {@code HttpException} instances.
+     *
+     * @param service The service issuing the request, which supplies the
+     * connect and read timeouts.
+     * @param url The fully-qualified request URL.
+     * @param request The request message, including all headers.
+     * @return The HTTP response.
+     * @throws IOException If the request could not be executed.
+     */
+    ResponseMessage send(HttpService service, URL url, RequestMessage request)
+            throws IOException;
+
+    /**
+     * Releases any resources, such as pooled connections, held by this
+     * transport.
+     */
+    void close();
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.splunk;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The {@code HttpUrlConnectionTransport} class is the default
+ * {@link HttpTransport}. It opens a {@code HttpURLConnection} for every
+ * request and leaves connection reuse to the JDK's keep-alive cache.
+ */
+public class HttpUrlConnectionTransport implements HttpTransport {
+    private static final HostnameVerifier HOSTNAME_VERIFIER = new HostnameVerifier() {
+        public boolean verify(String s, SSLSession sslSession) {
+            return true;
+        }
+    };
+
+    /** The size of the chunks of a streamed body of unknown length. */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /** {@inheritDoc} */
+    public ResponseMessage send(HttpService service, URL url, RequestMessage request)
+            throws IOException {
+        // Create and initialize the connection object
+        HttpURLConnection cn = (HttpURLConnection) url.openConnection();
+        if (cn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) cn).setSSLSocketFactory(HttpService.getSSLSocketFactory());
+            ((HttpsURLConnection) cn).setHostnameVerifier(HOSTNAME_VERIFIER);
+        }
+        Integer connectTimeout = service.getConnectTimeout();
+        Integer readTimeout = service.getReadTimeout();
+        cn.setUseCaches(false);
+        cn.setAllowUserInteraction(false);
+        cn.setConnectTimeout(connectTimeout == null ? 0 : connectTimeout);
+        cn.setReadTimeout(readTimeout == null ? 0 : readTimeout);
+
+        // Set the request method
+        cn.setRequestMethod(request.getMethod());
+
+        // Add headers from request message
+        for (Entry<String, String> entry : request.getHeader().entrySet())
+            cn.setRequestProperty(entry.getKey(), entry.getValue());
+
+        // Write out request content, if any
+        Object content = request.getContent();
+        if (content instanceof RequestBody) {
+            // Stream the body rather than let the connection buffer it.
+            RequestBody body = (RequestBody) content;
+            long length = body.getContentLength();
+            cn.setDoOutput(true);
+            if (length >= 0 && length <= Integer.MAX_VALUE)
+                cn.setFixedLengthStreamingMode((int) length);
+            else
+                cn.setChunkedStreamingMode(CHUNK_SIZE);
+            OutputStream stream = cn.getOutputStream();
+            body.writeTo(stream);
+            stream.close();
+        } else if (content != null) {
+            cn.setDoOutput(true);
+            OutputStream stream = cn.getOutputStream();
+            if (content instanceof byte[]) {
+                stream.write((byte[]) content);
+                stream.close();
+            } else {
+                OutputStreamWriter writer = new OutputStreamWriter(stream, "UTF-8");
+                writer.write((String) content);
+                writer.close();
+            }
+        }
+
+        // Execute the request
+        cn.connect();
+
+        int status = cn.getResponseCode();
+
+        InputStream input = null;
+        try {
+            input = status >= 400
+                    ? cn.getErrorStream()
+                    : cn.getInputStream();
+        } catch (IOException e) {
+            assert (false);
+        }
+
+        ResponseMessage response = new ResponseMessage(status, input);
+
+        // Copy the response headers, adding cookies to the cookie store
+        Map<String, List<String>> headers = cn.getHeaderFields();
+        for (Entry<String, List<String>> entry : headers.entrySet()) {
+            String key = entry.getKey();
+            List<String> values = entry.getValue();
+            if (key == null || values == null || values.isEmpty()) continue;
+            if (key.equalsIgnoreCase("Set-Cookie")) {
+                for (String cookieHeader : values) {
+                    if (cookieHeader != null && cookieHeader.length() > 0)
+                        service.addCookie(cookieHeader);
+                }
+            }
+            response.getHeader().put(key, values.get(0));
+        }
+
+        return response;
+    }
+
+    /** {@inheritDoc} */
+    public void close() {
+        // Connections are owned by the JDK's keep-alive cache.
+    }
+}
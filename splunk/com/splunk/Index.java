@@ -16,6 +16,7 @@
 
 package com.splunk;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
@@ -1111,5 +1112,19 @@ public class Index extends Entity {
         args.add("index", getName());
         uploads.create(filename, args);
     }
+
+    /**
+     * Sends a file on the local disk to this index. Unlike {@code upload},
+     * the file does not have to be on the Splunk server's disk. The file is
+     * sent in chunks, several at a time; use a {@link FileIngester} to
+     * compress the chunks, report progress or resume a failed ingestion.
+     *
+     * @param file The file to send.
+     * @return The number of bytes sent, which is the length of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    public long ingestFile(File file) throws IOException {
+        return new FileIngester(this, file).ingest();
+    }
 }
 
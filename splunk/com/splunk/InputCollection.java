@@ -16,15 +16,47 @@
 
 package com.splunk;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * The {@code InputCollection} class represents a collection of inputs. The 
  * collection is heterogeneous and each member contains an {@code InputKind}
  * value that indicates the specific type of input.
+ * <p>
+ * The kinds of input that the server supports are read once for each version
+ * of the server that the service logs in to, and shared by all the input
+ * collections of the service. A kind added since, such as a modular input of
+ * a newly installed app, is not listed until the service logs in again or
+ * {@link #invalidateInputKinds} is called.
  */
 public class InputCollection extends EntityCollection<Input> {
-    protected Set<InputKind> inputKinds = new HashSet<InputKind>();
+    protected volatile Set<InputKind> inputKinds = new HashSet<InputKind>();
+
+    // Guards kindItems and staleKinds, and the updates of items from them.
+    private final Object kindLock = new Object();
+    // The inputs of each kind, as last read from the server.
+    private Map<InputKind, Map<String, LinkedList<Input>>> kindItems =
+            new HashMap<InputKind, Map<String, LinkedList<Input>>>();
+    // The kinds whose inputs have changed through this collection since they
+    // were last read.
+    private final Set<InputKind> staleKinds = new HashSet<InputKind>();
+
+    /**
+     * The inputs of one kind, and the feed that listed them.
+     */
+    private static class KindListing {
+        final Map<String, LinkedList<Input>> items;
+        final AtomFeed feed;
+
+        KindListing(Map<String, LinkedList<Input>> items, AtomFeed feed) {
+            this.items = items;
+            this.feed = feed;
+        }
+    }
 
     /**
      * Class constructor.
@@ -141,7 +173,7 @@ public class InputCollection extends EntityCollection<Input> {
         String path = this.path + "/" + kind.getRelativePath();
         service.post(path, args);
         
-        invalidate();
+        invalidateKind(kind);
         
         return (T)get(name);
     }
@@ -201,7 +233,9 @@ public class InputCollection extends EntityCollection<Input> {
     }
 
     /**
-     * Return a set of all the input kinds recognized by the Splunk server.
+     * Return a set of all the input kinds recognized by the Splunk server,
+     * as read when the service last logged in or when
+     * {@link #invalidateInputKinds} was last called.
      *
      * @return A set of {@code InputKind}s.
      */
@@ -231,59 +265,97 @@ public class InputCollection extends EntityCollection<Input> {
 
     /**
      * Assembles a set of all the input kinds that are available on this Splunk
-     * instance. To list all inputs, pass an empty list to {@code subPath}. Or, 
-     * specify a component of the path such as "tcp" to list all TCP inputs. 
+     * instance. The tree of kinds below data/inputs/ is walked one level at a
+     * time, and the listings of each level are requested concurrently.
      *
-     * @param subPath A list of strings containing the components of the
-     * endpoint path that follow data/inputs/.
      * @return A set of available {@code InputKind}s.
      */
-    private Set<InputKind> assembleInputKindSet(List<String> subPath) {
-        Set<InputKind> kinds = new HashSet<InputKind>();
-        ResponseMessage response = service.get(this.path + "/" + Util.join("/", subPath));
-        AtomFeed feed = AtomFeed.parseStream(response.getContent());
-        for (AtomEntry entry : feed.entries) {
-            String itemKeyName = itemKey(entry);
-
-            boolean hasCreateLink = false;
-            for (String linkName : entry.links.keySet()) {
-                if (linkName.equals("create")) {
-                    hasCreateLink = true;
-                }
+    private Set<InputKind> assembleInputKindSet() {
+        Set<InputKind> kinds = new LinkedHashSet<InputKind>();
+        List<List<String>> level = new ArrayList<List<String>>();
+        level.add(new ArrayList<String>());
+        while (!level.isEmpty()) {
+            List<SplunkFuture<ResponseMessage>> responses =
+                    new ArrayList<SplunkFuture<ResponseMessage>>();
+            for (List<String> subPath : level) {
+                responses.add(service.getAsync(
+                        this.path + "/" + Util.join("/", subPath)));
             }
 
-            List<String> thisSubPath = new ArrayList<String>(subPath);
-            thisSubPath.add(itemKeyName);
-            
-            String relpath = Util.join("/", thisSubPath);
-
-            if (relpath.equals("all") || relpath.equals("tcp/ssl")) {
-                // Skip these input types
-                continue;
-            } else if (hasCreateLink) {
-                // Found an InputKind leaf
-                InputKind newKind = InputKind.create(relpath);
-                kinds.add(newKind);
-            } else {
-                Set<InputKind> subKinds = assembleInputKindSet(thisSubPath);
-                kinds.addAll(subKinds);
+            List<List<String>> nextLevel = new ArrayList<List<String>>();
+            for (int i = 0; i < level.size(); i++) {
+                List<String> subPath = level.get(i);
+                AtomFeedReader reader =
+                        new AtomFeedReader(await(responses.get(i)).getContent());
+                try {
+                    for (AtomEntry entry : reader) {
+                        String itemKeyName = itemKey(entry);
+                        boolean hasCreateLink = entry.links.containsKey("create");
+
+                        List<String> thisSubPath = new ArrayList<String>(subPath);
+                        thisSubPath.add(itemKeyName);
+
+                        String relpath = Util.join("/", thisSubPath);
+
+                        if (relpath.equals("all") || relpath.equals("tcp/ssl")) {
+                            // Skip these input types
+                            continue;
+                        } else if (hasCreateLink) {
+                            // Found an InputKind leaf
+                            kinds.add(InputKind.create(relpath));
+                        } else {
+                            nextLevel.add(thisSubPath);
+                        }
+                    }
+                } finally {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
             }
+            level = nextLevel;
         }
         return kinds;
     }
 
     /**
-     * Refreshes the {@code inputKinds} field on this object.
+     * Refreshes the {@code inputKinds} field on this object. The kinds rarely
+     * change, so they are read once for each version of the server that the
+     * service logs in to, and shared by all the input collections of the
+     * service.
      */
     private void refreshInputKinds() {
-        Set<InputKind> kinds = assembleInputKindSet(new ArrayList<String>());
-        
-        this.inputKinds.clear();
-        this.inputKinds.addAll(kinds);
+        String version = service.version;
+        Set<InputKind> kinds = version == null
+                ? null : service.inputKindCache.get(version);
+        if (kinds == null) {
+            kinds = Collections.unmodifiableSet(assembleInputKindSet());
+            if (version != null) {
+                service.inputKindCache.put(version, kinds);
+            }
+        }
+        this.inputKinds = kinds;
+    }
+
+    /**
+     * Forgets the input kinds read from the server, so that the next refresh
+     * reads them again. Call this after installing an app that defines a new
+     * kind of input, if the server has not been restarted and logged in to
+     * since.
+     */
+    public void invalidateInputKinds() {
+        String version = service.version;
+        if (version != null) {
+            service.inputKindCache.remove(version);
+        }
+        invalidate();
     }
 
     /**
-     * Refreshes this input collection.
+     * Refreshes this input collection. The inputs of all kinds are requested
+     * concurrently.
      *
      * @return The refreshed {@code InputCollection}.
      */
@@ -291,41 +363,194 @@ public class InputCollection extends EntityCollection<Input> {
         // Populate this.inputKinds
         refreshInputKinds();
 
-        items.clear();
-
-        // Iterate over all input kinds and collect all instances.
-        for (InputKind kind : this.inputKinds) {
-            if (service.versionIsAtLeast("6.0.0")) {
-                // In Splunk 6 and later, the registry endpoint has been deprecated in favor of the new
-                // WinRegMon modular input, but both now point to the same place. To avoid duplicates, we have
-                // to read only one of them.
-                if (kind.getKind().equals("registry")) {
-                    continue;
-                }
+        synchronized (kindLock) {
+            staleKinds.clear();
+        }
+        Map<InputKind, KindListing> listings = fetchKinds(this.inputKinds);
+
+        Map<InputKind, Map<String, LinkedList<Input>>> loaded =
+                new HashMap<InputKind, Map<String, LinkedList<Input>>>();
+        AtomFeed feed = null;
+        for (Map.Entry<InputKind, KindListing> entry : listings.entrySet()) {
+            loaded.put(entry.getKey(), entry.getValue().items);
+            if (entry.getValue().feed != null) {
+                feed = entry.getValue().feed;
             }
-            String relpath = kind.getRelativePath();
-            String inputs = String.format("%s/%s?count=-1", path, relpath);
-            ResponseMessage response;
-            try {
-                response = service.get(inputs);
+        }
+
+        synchronized (kindLock) {
+            kindItems = loaded;
+            items = mergeKindItems(loaded);
+        }
+        if (feed != null) {
+            load(feed);
+        }
+
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    @Override public InputCollection validate() {
+        super.validate();
+        refreshStaleKinds();
+        return this;
+    }
+
+    /**
+     * Marks the inputs of one kind as changed, so that the next access to
+     * this collection reads the inputs of that kind again, and only those.
+     *
+     * @param kind The kind whose inputs have changed.
+     */
+    void invalidateKind(InputKind kind) {
+        synchronized (kindLock) {
+            staleKinds.add(kind);
+        }
+        EntityCache cache = service.getEntityCache();
+        if (cache != null) {
+            cache.invalidate(this.path + "/" + kind.getRelativePath());
+        }
+    }
+
+    // Reads again the inputs of the kinds that have changed through this
+    // collection since they were last read, and merges them with the inputs
+    // of the other kinds.
+    private void refreshStaleKinds() {
+        Set<InputKind> kinds;
+        synchronized (kindLock) {
+            if (staleKinds.isEmpty()) return;
+            kinds = new HashSet<InputKind>(staleKinds);
+            staleKinds.clear();
+        }
+
+        Map<InputKind, KindListing> listings;
+        try {
+            listings = fetchKinds(kinds);
+        } catch (RuntimeException e) {
+            synchronized (kindLock) {
+                staleKinds.addAll(kinds);
             }
-            catch (HttpException e) {
-                // On some platforms certain input endpoints don't exist, for
-                // example the Windows inputs endpoints don't exist on non-
-                // Windows platforms.
-                if (e.getStatus() == 404) continue;
-                throw e;
+            throw e;
+        }
+
+        synchronized (kindLock) {
+            Map<InputKind, Map<String, LinkedList<Input>>> loaded =
+                    new HashMap<InputKind, Map<String, LinkedList<Input>>>(kindItems);
+            for (Map.Entry<InputKind, KindListing> entry : listings.entrySet()) {
+                loaded.put(entry.getKey(), entry.getValue().items);
             }
-            AtomFeed feed;
+            kindItems = loaded;
+            items = mergeKindItems(loaded);
+        }
+    }
+
+    // Lists the inputs of the given kinds concurrently, skipping the kinds
+    // that this server does not list.
+    private Map<InputKind, KindListing> fetchKinds(Collection<InputKind> kinds) {
+        Map<InputKind, SplunkFuture<KindListing>> pending =
+                new LinkedHashMap<InputKind, SplunkFuture<KindListing>>();
+        for (final InputKind kind : kinds) {
+            if (!isListed(kind)) continue;
+            pending.put(kind, service.submitAsync(new Callable<KindListing>() {
+                public KindListing call() {
+                    return fetchKind(kind);
+                }
+            }));
+        }
+
+        Map<InputKind, KindListing> listings =
+                new LinkedHashMap<InputKind, KindListing>();
+        for (Map.Entry<InputKind, SplunkFuture<KindListing>> entry : pending.entrySet()) {
+            listings.put(entry.getKey(), await(entry.getValue()));
+        }
+        return listings;
+    }
+
+    // Lists the inputs of one kind.
+    private KindListing fetchKind(InputKind kind) {
+        LinkedHashMap<String, LinkedList<Input>> loaded =
+                new LinkedHashMap<String, LinkedList<Input>>();
+        String relpath = kind.getRelativePath();
+        String inputs = String.format("%s/%s", path, relpath);
+        InputStream content;
+        try {
+            content = fetch(inputs, new Args("count", "-1"));
+        }
+        catch (HttpException e) {
+            // On some platforms certain input endpoints don't exist, for
+            // example the Windows inputs endpoints don't exist on non-
+            // Windows platforms.
+            if (e.getStatus() == 404) return new KindListing(loaded, null);
+            throw e;
+        }
+        AtomFeedReader reader = new AtomFeedReader(content);
+        try {
+            loadItems(reader, loaded);
+            return new KindListing(loaded, reader.getFeed());
+        } finally {
             try {
-                feed = AtomFeed.parseStream(response.getContent());
-            } catch (Exception e) {
+                reader.close();
+            } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            load(feed);
         }
+    }
+
+    // Returns whether the inputs of a kind are listed by this collection.
+    private boolean isListed(InputKind kind) {
+        if (!inputKinds.contains(kind)) return false;
+        if (service.versionIsAtLeast("6.0.0")) {
+            // In Splunk 6 and later, the registry endpoint has been deprecated in favor of the new
+            // WinRegMon modular input, but both now point to the same place. To avoid duplicates, we have
+            // to read only one of them.
+            if (kind.getKind().equals("registry")) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        return this;
+    // Combines the inputs of each kind into a single map, by name.
+    private LinkedHashMap<String, LinkedList<Input>> mergeKindItems(
+            Map<InputKind, Map<String, LinkedList<Input>>> loaded) {
+        LinkedHashMap<String, LinkedList<Input>> merged =
+                new LinkedHashMap<String, LinkedList<Input>>();
+        for (InputKind kind : inputKinds) {
+            Map<String, LinkedList<Input>> kindMap = loaded.get(kind);
+            if (kindMap == null) continue;
+            for (Map.Entry<String, LinkedList<Input>> entry : kindMap.entrySet()) {
+                LinkedList<Input> list = merged.get(entry.getKey());
+                if (list == null) {
+                    list = new LinkedList<Input>();
+                    merged.put(entry.getKey(), list);
+                }
+                list.addAll(entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    // Waits for a concurrent request to complete. A request that no thread of
+    // the executor has started yet is run by the caller, so that a refresh
+    // that itself runs on the executor, or an executor with fewer threads
+    // than requests, cannot leave it waiting for a thread forever.
+    private static <T> T await(SplunkFuture<T> future) {
+        future.run();
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new RuntimeException(cause.getMessage(), cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e.getMessage(), e);
+        }
     }
 
     /**
@@ -335,6 +560,7 @@ public class InputCollection extends EntityCollection<Input> {
         Input input = retrieveInput(key);
         if (input != null) {
             input.remove();
+            invalidateKind(input.getKind());
         }
         return input;
     }
@@ -349,6 +575,7 @@ public class InputCollection extends EntityCollection<Input> {
         Input input = retrieveInput(key, namespace);
         if (input != null) {
             input.remove();
+            invalidateKind(input.getKind());
         }
         return input;
     }
@@ -119,7 +119,7 @@ public class InputKind {
      * @param relpath The relative path from data/inputs specifying the {@code InputKind} to create.
      * @return An {@code InputKind} object.
      */
-    public static InputKind create(String relpath) {
+    public static synchronized InputKind create(String relpath) {
         if (knownRelpaths.containsKey(relpath)) {
             return knownRelpaths.get(relpath);
         } else {
@@ -13,6 +13,7 @@
  * License for the specific language governing permissions and limitations
  * under the License.
  */
+
 package com.splunk;
 
 import java.io.*;
@@ -23,22 +24,33 @@ import java.io.*;
  * all of them so normal XML parsers can handle the stream. Multiple root 'results'
  * elements occur when getting results from an export search.
  *
- * It works by finding the first instance of '<results' and inserting
- * the string '<doc>' before it, and then returning '</doc>' after the end of the stream
- * it is filtering.
+ * It works by reading the head of the stream in blocks until it finds the first
+ * instance of '<results', inserting the string '<doc>' before it, and then returning
+ * '</doc>' after the end of the stream it is filtering. Everything after the head is
+ * passed through from the underlying stream without further inspection.
  */
 class InsertRootElementFilterInputStream extends FilterInputStream {
-    private static final int REREAD_BUFFER_SIZE = 512;
-    private static byte[] resultsTagBytes;
-    private final ByteArrayInputStream suffix = new ByteArrayInputStream("</doc>".getBytes("UTF-8"));
-    private ByteArrayInputStream beforeResultsBuffer;
+    private static final int READ_BLOCK_SIZE = 8192;
+    private static final byte[] resultsTagBytes;
+    private static final byte[] prefixBytes;
+    private static final byte[] suffixBytes;
+
+    // The bytes read while looking for '<results', with '<doc>' spliced in
+    // if it was found. Served before anything else from the underlying stream.
+    private byte[] head;
+    private int headPosition;
+    private int headLength;
+    private int suffixPosition;
     private boolean wrotePrefix;
+    private boolean reachedEnd;
 
     private byte[] oneByte = new byte[1];
 
     static {
         try {
-            resultsTagBytes = "results".getBytes("UTF-8");
+            resultsTagBytes = "<results".getBytes("UTF-8");
+            prefixBytes = "<doc>".getBytes("UTF-8");
+            suffixBytes = "</doc>".getBytes("UTF-8");
         } catch (UnsupportedEncodingException e) {
             //should not be thrown because UTF-8 is supported
             throw new RuntimeException(e);
@@ -46,92 +58,106 @@ class InsertRootElementFilterInputStream extends FilterInputStream {
     }
 
     InsertRootElementFilterInputStream(InputStream in) throws IOException {
-        // Wrap in with a pushback stream so we can write our modified version back
-        // onto the beginning of it.
-        super(new PushbackInputStream(in, REREAD_BUFFER_SIZE));
-
-        PushbackInputStream pin = (PushbackInputStream)this.in;
+        super(in);
 
-        // Read bytes until we reach '>', then push everything we read, followed by "<doc>",
-        // back onto the stream. If we run out of input before we reach '>', then don't
-        // modify the stream.
-        ByteArrayOutputStream beforeResultsChars = new ByteArrayOutputStream();
-        beforeResultsBuffer = new ByteArrayInputStream(new byte[0]);
-
-        int ch;
+        // Read blocks until we find '<results', then splice '<doc>' in front of it.
+        // If we run out of input before finding it, then don't modify the stream.
+        byte[] buffer = new byte[READ_BLOCK_SIZE];
+        int length = 0;
+        int searchFrom = 0;
         while (true) {
-            ch = this.in.read();
-            if (ch == -1) {
-                // Never found a results element to write after, don't touch the stream.
+            if (length == buffer.length) {
+                byte[] grown = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, length);
+                buffer = grown;
+            }
+            int count = in.read(buffer, length, buffer.length - length);
+            if (count == -1) {
+                // Never found a results element to write before, don't touch the stream.
+                reachedEnd = true;
+                head = buffer;
+                headLength = length;
                 wrotePrefix = false;
-                pin.unread(beforeResultsChars.toByteArray());
                 return;
-            } else if (ch == (int)'<') {
-                boolean resultsTag = isResultsTag(pin);
-
-                if (resultsTag) {
-                    // If we reach here, the extension succeeded, so we insert <doc>, unread everything,
-                    // and return.
-
-                    // Unread the match.
-                    pin.unread(InsertRootElementFilterInputStream.resultsTagBytes);
-                    // Unread the opening '<' that led to our extension
-                    pin.unread(ch);
-                    // Add a '<doc>' element to our read characters
-                    beforeResultsChars.write("<doc>".getBytes("UTF-8"));
-                    beforeResultsBuffer = new ByteArrayInputStream(beforeResultsChars.toByteArray());
-                    wrotePrefix = true;
-                    return;
-                } else {
-                    // Extension didn't find a match. Put the byte on and continue.
-                    beforeResultsChars.write(ch);
-                }
-            } else {
-                // Not a character of interest. Put it on the buffer and continue.
-                beforeResultsChars.write(ch);
             }
+            length += count;
+
+            int index = indexOfResultsTag(buffer, searchFrom, length);
+            if (index >= 0) {
+                head = new byte[length + prefixBytes.length];
+                System.arraycopy(buffer, 0, head, 0, index);
+                System.arraycopy(prefixBytes, 0, head, index, prefixBytes.length);
+                System.arraycopy(buffer, index, head, index + prefixBytes.length, length - index);
+                headLength = head.length;
+                wrotePrefix = true;
+                return;
+            }
+            // A partial match may straddle the end of what we have read so far.
+            searchFrom = Math.max(0, length - resultsTagBytes.length + 1);
         }
     }
 
-    private boolean isResultsTag(PushbackInputStream pin) throws IOException {
-        // Try extending
-        ByteArrayOutputStream atResultsChars = new ByteArrayOutputStream();
-        int ech;
-        boolean resultsTag = true;
-        for (byte b : resultsTagBytes) {
-            ech = this.in.read();
-            atResultsChars.write(ech);
-            if (ech != b) {
-                // Extension failed. Put the bytes back on and search again.
-                pin.unread(atResultsChars.toByteArray());
-                resultsTag = false;
-                break;
+    private static int indexOfResultsTag(byte[] buffer, int from, int to) {
+        int last = to - resultsTagBytes.length;
+        outer:
+        for (int i = from; i <= last; i++) {
+            if (buffer[i] != '<') {
+                continue;
             }
+            for (int j = 1; j < resultsTagBytes.length; j++) {
+                if (buffer[i + j] != resultsTagBytes[j]) {
+                    continue outer;
+                }
+            }
+            return i;
         }
-        return resultsTag;
+        return -1;
+    }
+
+    /**
+     * Returns whether the filtered stream contains no bytes at all, which is
+     * known as soon as the stream is constructed.
+     *
+     * @return {@code true} if the underlying stream was empty.
+     */
+    boolean isEmpty() {
+        return !wrotePrefix && headLength == 0;
     }
 
     @Override
     public int read(byte[] buffer, int offset, int length) throws IOException {
-        // first we read from the buffer before the first results xml tag
-        int result = 0;
-        int availableFromBuffer = beforeResultsBuffer.available();
-        if (offset < availableFromBuffer) {
-            result = beforeResultsBuffer.read(buffer, offset, length);
-            if (length <= result) {
-                return result;
+        if (length == 0) {
+            return 0;
+        }
+
+        // First we read from the buffered head of the stream...
+        if (headPosition < headLength) {
+            int count = Math.min(length, headLength - headPosition);
+            System.arraycopy(head, headPosition, buffer, offset, count);
+            headPosition += count;
+            if (headPosition == headLength) {
+                head = null;
             }
+            return count;
         }
 
-        // then we read from the original input stream
-        result += in.read(buffer, offset+result, length-result);
-        if (result == -1 && wrotePrefix) {
-            // No more bytes to read from in, and we have written '<doc>' earlier in the stream
-            return suffix.read(buffer, offset, length);
-        } else {
-            // in still has data to return, so we return it.
-            return result;
+        // ...then from the original input stream...
+        if (!reachedEnd) {
+            int count = in.read(buffer, offset, length);
+            if (count != -1) {
+                return count;
+            }
+            reachedEnd = true;
+        }
+
+        // ...and finally '</doc>', if we have written '<doc>' earlier in the stream.
+        if (wrotePrefix && suffixPosition < suffixBytes.length) {
+            int count = Math.min(length, suffixBytes.length - suffixPosition);
+            System.arraycopy(suffixBytes, suffixPosition, buffer, offset, count);
+            suffixPosition += count;
+            return count;
         }
+        return -1;
     }
 
     @Override
@@ -141,7 +167,48 @@ class InsertRootElementFilterInputStream extends FilterInputStream {
         if (read(oneByte, 0, 1) == -1) {
             return -1;
         } else {
-            return oneByte[0];
+            return oneByte[0] & 0xff;
         }
     }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipping must go through read so the head and suffix are accounted for.
+        if (n <= 0) {
+            return 0;
+        }
+        byte[] scratch = new byte[(int)Math.min(n, READ_BLOCK_SIZE)];
+        long skipped = 0;
+        while (skipped < n) {
+            int count = read(scratch, 0, (int)Math.min(n - skipped, scratch.length));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (headPosition < headLength) {
+            return headLength - headPosition;
+        }
+        return reachedEnd ? 0 : in.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        // Not supported.
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
 }
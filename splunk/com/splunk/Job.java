@@ -20,6 +20,7 @@ import java.io.InputStream;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The {@code Job} class represents a job, which is an individual 
@@ -28,7 +29,7 @@ import java.util.Map;
  */
 public class Job extends Entity {
 
-    private boolean isReady = false;
+    private volatile boolean isReady = false;
 
     /**
      * Class constructor.
@@ -808,6 +809,48 @@ public class Job extends Entity {
         return getBoolean("isDone");
     }
 
+    /**
+     * Returns a future that completes with this job once the job is done.
+     * The job is watched by the service's {@link JobWatcher}, which polls it
+     * together with the other watched jobs, so no thread is blocked while
+     * the job runs.
+     *
+     * @return The pending finished job.
+     */
+    public SplunkFuture<Job> waitForDoneAsync() {
+        return service.getJobWatcher().watch(this);
+    }
+
+    /**
+     * Returns a future that completes with this job once the job is done.
+     * The job is polled at the given interval on the service's asynchronous
+     * executor, so no thread is blocked while the job runs. Cancelling the
+     * future stops the polling but does not cancel the job.
+     *
+     * @param pollInterval The time between polls, in milliseconds.
+     * @return The pending finished job.
+     */
+    public SplunkFuture<Job> waitForDoneAsync(final long pollInterval) {
+        final SplunkFuture<Job> future = new SplunkFuture<Job>();
+        service.getAsyncExecutor().execute(new Runnable() {
+            public void run() {
+                if (future.isDone()) return;
+                try {
+                    if (isDone()) {
+                        future.complete(Job.this);
+                        return;
+                    }
+                } catch (Throwable e) {
+                    future.fail(e);
+                    return;
+                }
+                service.getAsyncExecutor().schedule(
+                        this, pollInterval, TimeUnit.MILLISECONDS);
+            }
+        });
+        return future;
+    }
+
     /**
      * Indicates whether the job failed.
      *
@@ -916,6 +959,37 @@ public class Job extends Entity {
         return getBoolean("isZombie");
     }
 
+    /**
+     * Loads the state of this job from a given Atom entry, which may come from
+     * the job's own endpoint or from a {@code search/jobs} listing.
+     *
+     * @param value The {@code AtomEntry} from which to load the job state.
+     * @return The current {@code Job} instance.
+     */
+    @Override Job load(AtomObject value) {
+        super.load(value);
+        if (value == null) {
+            isReady = false;
+        } else if (getString("dispatchState").equals("QUEUED") || getString("dispatchState").equals("PARSING")) {
+            isReady = false;
+        } else {
+            isReady = true;
+        }
+        return this;
+    }
+
+    // The dispatchState attribute is always fetched, since it determines
+    // whether the job is ready.
+    @Override void setFields(String[] fields) {
+        if (fields.length > 0) {
+            String[] withState = new String[fields.length + 1];
+            System.arraycopy(fields, 0, withState, 0, fields.length);
+            withState[fields.length] = "dispatchState";
+            fields = withState;
+        }
+        super.setFields(fields);
+    }
+
     // Job "entities" don't return an AtomFeed, only an AtomEntry.
 
     /**
@@ -925,7 +999,9 @@ public class Job extends Entity {
      */
     @Override public Job refresh() {
         update();
-        ResponseMessage response = service.get(path);
+        ResponseMessage response = fields == null
+                ? service.get(path)
+                : service.get(path, new Args("f", fields));
         if (response.getStatus() == 204) {
             isReady = false;
             return this;
@@ -933,19 +1009,12 @@ public class Job extends Entity {
 
         AtomEntry entry;
         try {
-            entry = AtomEntry.parseStream(response.getContent());
+            entry = AtomEntry.parseStream(response.getContent(), fields);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
         load(entry);
 
-        if (getString("dispatchState").equals("QUEUED") || getString("dispatchState").equals("PARSING")) {
-            isReady = false;
-        } else {
-            isReady = true;
-        }
-
-
         return this;
     }
 
@@ -117,6 +117,17 @@ public class JobCollection extends EntityCollection<Job> {
         return service.get(path, this.refreshArgs);
     }
 
+    // The sid attribute is always fetched, since it is the key of each job.
+    @Override void setFields(String[] fields) {
+        if (fields.length > 0) {
+            String[] withSid = new String[fields.length + 1];
+            System.arraycopy(fields, 0, withSid, 0, fields.length);
+            withSid[fields.length] = "sid";
+            fields = withSid;
+        }
+        super.setFields(fields);
+    }
+
     /**
      * Returns the job's unique search identifier (SID), which is used as this
      * item's key.
@@ -125,6 +136,6 @@ public class JobCollection extends EntityCollection<Job> {
      * @return This job's SID.
      */
     @Override protected String itemKey(AtomEntry entry) {
-        return (String)entry.content.get("sid");
+        return (String)entry.getContent().get("sid");
     }
 }
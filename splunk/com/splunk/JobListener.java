@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.splunk;
+
+/**
+ * The {@code JobListener} interface receives status notifications for jobs
+ * watched by a {@link JobWatcher}. The job passed to each method has already
+ * been loaded with the latest status, so its getters can be called without
+ * another request.
+ * <p>
+ * Notifications are delivered on the watcher's polling thread, so listeners
+ * should return quickly.
+ */
+public interface JobListener {
+    /**
+     * Called when the status of a running job has changed, for example when
+     * its dispatch state, progress, or event count has advanced.
+     *
+     * @param job The job.
+     */
+    void onProgress(Job job);
+
+    /**
+     * Called once when the job is done. Use {@link Job#isFailed()} to find out
+     * whether the job completed successfully.
+     *
+     * @param job The finished job.
+     */
+    void onDone(Job job);
+
+    /**
+     * Called once if the job's status can no longer be retrieved, for example
+     * because the job was deleted or expired.
+     *
+     * @param job The job.
+     * @param cause The reason the job could not be watched.
+     */
+    void onFailure(Job job, Throwable cause);
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.splunk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code JobWatcher} class tracks the status of many search jobs at once
+ * and notifies listeners as the jobs progress and finish.
+ * <p>
+ * Instead of refreshing each job individually, the watcher lists the watched
+ * jobs in batches from {@code search/jobs}, filtering on {@code sid}, so that
+ * hundreds of running jobs cost a handful of requests per poll. Each job is
+ * polled with an adaptive interval: it starts at the minimum interval, grows
+ * while the job's status is unchanged, and drops back to the minimum as soon
+ * as the job makes progress.
+ * <p>
+ * The watcher polls on the service's asynchronous executor (see
+ * {@link HttpService#getAsyncExecutor()}) and only while it has jobs to
+ * watch. Watched jobs are updated from the polling thread, so callers should
+ * not read a watched job concurrently; read it from the listener or after
+ * the returned future completes.
+ * <p>
+ * For example:
+ * <pre>
+ * JobWatcher watcher = service.getJobWatcher();
+ * watcher.watch(job, new JobListener() {
+ *     public void onProgress(Job job) { ... job.getDoneProgress() ... }
+ *     public void onDone(Job job) { ... job.getResults() ... }
+ *     public void onFailure(Job job, Throwable cause) { ... }
+ * });
+ * </pre>
+ */
+public class JobWatcher {
+    /** The default minimum time between polls of a job, in milliseconds. */
+    public static final long DEFAULT_MIN_INTERVAL = 250;
+
+    /** The default maximum time between polls of a job, in milliseconds. */
+    public static final long DEFAULT_MAX_INTERVAL = 5000;
+
+    /** The default number of jobs listed in a single request. */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    // Polls in a row in which a job may be missing from the listing (it can
+    // lag behind job creation) before it is refreshed on its own.
+    private static final int MAX_MISSES = 3;
+
+    private static final double BACKOFF_FACTOR = 1.5;
+
+    private final Service service;
+    private final long minInterval;
+    private final long maxInterval;
+    private final int batchSize;
+
+    // Guarded by this.
+    private final Map<String, Watch> watches = new LinkedHashMap<String, Watch>();
+    private ScheduledFuture<?> ticker = null;
+    private boolean closed = false;
+
+    private final AtomicLong pollRequests = new AtomicLong();
+
+    /**
+     * Creates a new {@code JobWatcher} with the default polling intervals and
+     * batch size.
+     *
+     * @param service The connected {@code Service} instance.
+     */
+    public JobWatcher(Service service) {
+        this(service, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a new {@code JobWatcher}.
+     *
+     * @param service The connected {@code Service} instance.
+     * @param minInterval The minimum time between polls of a job, in
+     * milliseconds.
+     * @param maxInterval The maximum time between polls of a job, in
+     * milliseconds.
+     * @param batchSize The maximum number of jobs listed in a single request.
+     */
+    public JobWatcher(Service service, long minInterval, long maxInterval, int batchSize) {
+        if (minInterval <= 0 || maxInterval < minInterval)
+            throw new IllegalArgumentException("Intervals must satisfy 0 < minInterval <= maxInterval.");
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be at least 1.");
+        this.service = service;
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Starts watching a job.
+     *
+     * @param job The job to watch.
+     * @return A future that completes with the job when it is done.
+     */
+    public SplunkFuture<Job> watch(Job job) {
+        return watch(job, null);
+    }
+
+    /**
+     * Starts watching a job and registers a listener for its status. Watching
+     * a job that is already watched adds the listener and returns the
+     * existing future.
+     *
+     * @param job The job to watch.
+     * @param listener The listener to notify, or {@code null}.
+     * @return A future that completes with the job when it is done.
+     */
+    public SplunkFuture<Job> watch(Job job, JobListener listener) {
+        String sid = job.getSid();
+        synchronized (this) {
+            if (closed)
+                throw new IllegalStateException("The watcher has been closed.");
+            Watch watch = watches.get(sid);
+            if (watch == null) {
+                watch = new Watch(sid, job);
+                watches.put(sid, watch);
+            }
+            if (listener != null)
+                watch.listeners.add(listener);
+            if (ticker == null) {
+                ticker = service.getAsyncExecutor().scheduleWithFixedDelay(
+                        new Runnable() {
+                            public void run() {
+                                poll();
+                            }
+                        }, 0, minInterval, TimeUnit.MILLISECONDS);
+            }
+            return watch.future;
+        }
+    }
+
+    /**
+     * Stops watching a job. The job's future is cancelled and its listeners
+     * are not notified again.
+     *
+     * @param job The job to stop watching.
+     * @return {@code true} if the job was being watched.
+     */
+    public boolean unwatch(Job job) {
+        Watch watch;
+        synchronized (this) {
+            watch = watches.remove(job.getSid());
+        }
+        if (watch == null) return false;
+        watch.future.cancel(false);
+        return true;
+    }
+
+    /**
+     * Returns the number of jobs being watched.
+     *
+     * @return The number of watched jobs.
+     */
+    public synchronized int getWatchedCount() {
+        return watches.size();
+    }
+
+    /**
+     * Returns the number of list requests the watcher has issued.
+     *
+     * @return The number of poll requests.
+     */
+    public long getPollRequestCount() {
+        return pollRequests.get();
+    }
+
+    /**
+     * Indicates whether the watcher has been closed.
+     *
+     * @return {@code true} if {@link #close} has been called.
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stops polling and cancels the futures of all watched jobs.
+     */
+    public void close() {
+        List<Watch> cancelled;
+        synchronized (this) {
+            closed = true;
+            if (ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+            cancelled = new ArrayList<Watch>(watches.values());
+            watches.clear();
+        }
+        for (Watch watch : cancelled) {
+            watch.future.cancel(false);
+        }
+    }
+
+    // Polls every job that is due, one batch at a time.
+    void poll() {
+        try {
+            long now = System.currentTimeMillis();
+            List<Watch> due = new ArrayList<Watch>();
+            synchronized (this) {
+                for (Watch watch : watches.values()) {
+                    if (watch.nextPoll <= now) due.add(watch);
+                }
+            }
+            for (int i = 0; i < due.size(); i += batchSize) {
+                pollBatch(due.subList(i, Math.min(i + batchSize, due.size())));
+            }
+        } catch (Throwable e) {
+            // Never let an exception cancel the periodic task.
+        } finally {
+            synchronized (this) {
+                if (watches.isEmpty() && ticker != null) {
+                    ticker.cancel(false);
+                    ticker = null;
+                }
+            }
+        }
+    }
+
+    private void pollBatch(List<Watch> batch) {
+        StringBuilder search = new StringBuilder();
+        for (Watch watch : batch) {
+            if (search.length() > 0) search.append(" OR ");
+            search.append("sid=\"")
+                  .append(watch.sid.replace("\\", "\\\\").replace("\"", "\\\""))
+                  .append('"');
+        }
+        Args args = new Args();
+        args.put("count", "0");
+        args.put("search", search.toString());
+
+        Map<String, AtomEntry> entries = new HashMap<String, AtomEntry>();
+        try {
+            pollRequests.incrementAndGet();
+            ResponseMessage response = service.get(JobCollection.REST_PATH, args);
+            AtomFeed feed = AtomFeed.parseStream(response.getContent());
+            for (AtomEntry entry : feed.entries) {
+                if (entry.content != null && entry.content.containsKey("sid"))
+                    entries.put(entry.content.getString("sid"), entry);
+            }
+        } catch (RuntimeException e) {
+            // Try again later; a failing server should not be polled hard.
+            long next = System.currentTimeMillis() + maxInterval;
+            for (Watch watch : batch) watch.nextPoll = next;
+            return;
+        }
+
+        for (Watch watch : batch) {
+            AtomEntry entry = entries.get(watch.sid);
+            if (entry != null) {
+                watch.misses = 0;
+                update(watch, entry);
+            } else if (++watch.misses >= MAX_MISSES) {
+                refreshMissing(watch);
+            } else {
+                watch.nextPoll = System.currentTimeMillis() + minInterval;
+            }
+        }
+    }
+
+    private void update(Watch watch, AtomEntry entry) {
+        Job job = watch.job;
+        job.load(entry);
+        if (entry.content.getBoolean("isDone", false)) {
+            finish(watch);
+            return;
+        }
+
+        String status = entry.content.getString("dispatchState", "") + "|"
+                + entry.content.getString("doneProgress", "") + "|"
+                + entry.content.getString("eventCount", "") + "|"
+                + entry.content.getString("resultCount", "");
+        if (status.equals(watch.lastStatus)) {
+            watch.interval = Math.min(maxInterval, (long) (watch.interval * BACKOFF_FACTOR));
+        } else {
+            watch.lastStatus = status;
+            watch.interval = minInterval;
+            for (JobListener listener : watch.listenersSnapshot()) {
+                try {
+                    listener.onProgress(job);
+                } catch (RuntimeException e) {
+                    // A failing listener must not stop the others.
+                }
+            }
+        }
+        watch.nextPoll = System.currentTimeMillis() + watch.interval;
+    }
+
+    // Falls back to refreshing a job that the listing keeps omitting.
+    private void refreshMissing(Watch watch) {
+        watch.misses = 0;
+        try {
+            watch.job.refresh();
+        } catch (RuntimeException e) {
+            fail(watch, e);
+            return;
+        }
+        if (watch.job.getBoolean("isDone", false)) {
+            finish(watch);
+        } else {
+            watch.nextPoll = System.currentTimeMillis() + watch.interval;
+        }
+    }
+
+    private void finish(Watch watch) {
+        if (!remove(watch)) return;
+        Job job = watch.job;
+        try {
+            // The listing omits some of the job's properties; load them all
+            // once now that the job is done.
+            job.refresh();
+        } catch (RuntimeException e) {
+            // Keep the state loaded from the listing.
+        }
+        for (JobListener listener : watch.listenersSnapshot()) {
+            try {
+                listener.onDone(job);
+            } catch (RuntimeException e) {
+                // A failing listener must not stop the others.
+            }
+        }
+        watch.future.complete(job);
+    }
+
+    private void fail(Watch watch, Throwable cause) {
+        if (!remove(watch)) return;
+        for (JobListener listener : watch.listenersSnapshot()) {
+            try {
+                listener.onFailure(watch.job, cause);
+            } catch (RuntimeException e) {
+                // A failing listener must not stop the others.
+            }
+        }
+        watch.future.fail(cause);
+    }
+
+    private synchronized boolean remove(Watch watch) {
+        return watches.get(watch.sid) == watch && watches.remove(watch.sid) != null;
+    }
+
+    /** The polling state of a single watched job. */
+    private final class Watch {
+        final String sid;
+        final Job job;
+        final SplunkFuture<Job> future = new SplunkFuture<Job>();
+        final List<JobListener> listeners = new ArrayList<JobListener>(); // guarded by JobWatcher.this
+
+        // Only accessed from the polling thread.
+        long nextPoll = 0;
+        long interval = minInterval;
+        int misses = 0;
+        String lastStatus = null;
+
+        Watch(String sid, Job job) {
+            this.sid = sid;
+            this.job = job;
+        }
+
+        List<JobListener> listenersSnapshot() {
+            synchronized (JobWatcher.this) {
+                return new ArrayList<JobListener>(listeners);
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The {@code ParallelResultsFetcher} class reads the results of a finished
+ * job by fetching several pages of results at once.
+ * <p>
+ * The results are split into pages with the {@code offset} and {@code count}
+ * arguments of {@link Job#getResults(JobResultsArgs)}. Up to a given number
+ * of pages are fetched and parsed concurrently on the service's asynchronous
+ * executor (see {@link HttpService#getAsyncExecutor()}), each over its own
+ * connection. A new page is requested each time a page has been read to the
+ * end, so at most that many pages, including the one being read, are held
+ * in memory. The events are returned in the
+ * order of the results, or, if order does not matter, page by page in the
+ * order the pages arrive.
+ * <p>
+ * For example:
+ * <pre>
+ * ParallelResultsFetcher fetcher = new ParallelResultsFetcher(job);
+ * for (Event event : fetcher) {
+ *     ...
+ * }
+ * fetcher.close();
+ * </pre>
+ */
+public class ParallelResultsFetcher extends StreamIterableBase<Event> {
+    /** The default number of results in a page. */
+    public static final int DEFAULT_PAGE_SIZE = 10000;
+
+    /** The default number of pages fetched at once. */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private final Job job;
+    private final Map<String, Object> args;
+    private final int pageSize;
+    private final int concurrency;
+    private final boolean ordered;
+
+    private int pageCount = -1;
+    private int nextPage = 0;
+    private int pagesTaken = 0;
+    private Iterator<Event> page = null;
+    private boolean closed = false;
+    // The pages requested and not yet handed out, in page order.
+    private final LinkedList<SplunkFuture<List<Event>>> pending =
+            new LinkedList<SplunkFuture<List<Event>>>();
+    // The pages that have arrived, in the order they arrived. Only used
+    // when the fetcher is unordered.
+    private final BlockingQueue<SplunkFuture<List<Event>>> arrived =
+            new LinkedBlockingQueue<SplunkFuture<List<Event>>>();
+
+    /**
+     * Creates a fetcher that returns the results of a job in order, with the
+     * default page size and concurrency.
+     *
+     * @param job The finished job.
+     */
+    public ParallelResultsFetcher(Job job) {
+        this(job, null, DEFAULT_PAGE_SIZE, DEFAULT_CONCURRENCY, true);
+    }
+
+    /**
+     * Creates a new {@code ParallelResultsFetcher}.
+     *
+     * @param job The finished job.
+     * @param args Optional arguments for every page, such as
+     * {@code field_list} or {@code search}. The {@code offset},
+     * {@code count} and {@code output_mode} arguments are set by the
+     * fetcher.
+     * @param pageSize The number of results in a page. This must not exceed
+     * the {@code maxresultrows} limit of the server.
+     * @param concurrency The maximum number of pages fetched at once.
+     * @param ordered Whether events are returned in the order of the
+     * results, rather than in the order their pages arrive.
+     */
+    public ParallelResultsFetcher(
+            Job job,
+            JobResultsArgs args,
+            int pageSize,
+            int concurrency,
+            boolean ordered) {
+        if (pageSize < 1)
+            throw new IllegalArgumentException("pageSize must be at least 1.");
+        if (concurrency < 1)
+            throw new IllegalArgumentException("concurrency must be at least 1.");
+        this.job = job;
+        this.args = args;
+        this.pageSize = pageSize;
+        this.concurrency = concurrency;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Returns the next event of the results.
+     *
+     * @return The event, or {@code null} if the end is reached.
+     * @throws IOException On IO exception.
+     * @throws IllegalStateException If the job is not done.
+     */
+    public Event getNextEvent() throws IOException {
+        if (closed) {
+            return null;
+        }
+        if (page == null) {
+            start();
+        }
+        while (!page.hasNext()) {
+            if (pagesTaken == pageCount) {
+                return null;
+            }
+            // Let the page that was read be collected while the next one is
+            // awaited.
+            page = Collections.<Event>emptyList().iterator();
+            page = takePage().iterator();
+        }
+        return page.next();
+    }
+
+    /**
+     * Returns an iterator over the events of the results.
+     * @return an Iterator.
+     */
+    @Override
+    public final Iterator<Event> iterator() {
+        return super.iterator();
+    }
+
+    /**
+     * Stops fetching and discards the pages that have not been handed out.
+     */
+    public void close() {
+        closed = true;
+        for (SplunkFuture<List<Event>> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        arrived.clear();
+    }
+
+    @Override Event getNextElement() throws IOException {
+        return getNextEvent();
+    }
+
+    private void start() {
+        if (!job.isDone())
+            throw new IllegalStateException("Job " + job.getSid() + " is not done.");
+        long resultCount = job.getResultCountLong();
+        pageCount = (int) ((resultCount + pageSize - 1) / pageSize);
+        page = Collections.<Event>emptyList().iterator();
+        while (nextPage < pageCount && pending.size() < concurrency) {
+            requestNextPage();
+        }
+    }
+
+    private List<Event> takePage() throws IOException {
+        // The previous page has been read, so its place can be taken by a
+        // new request while this page is being consumed.
+        if (pagesTaken > 0 && nextPage < pageCount) {
+            requestNextPage();
+        }
+        SplunkFuture<List<Event>> future;
+        try {
+            if (ordered) {
+                future = pending.removeFirst();
+            } else {
+                future = arrived.take();
+                pending.remove(future);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        pagesTaken++;
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void requestNextPage() {
+        final int offset = nextPage++ * pageSize;
+        final SplunkFuture<List<Event>> future = job.service.submitAsync(
+                new Callable<List<Event>>() {
+                    public List<Event> call() throws IOException {
+                        return fetchPage(offset);
+                    }
+                });
+        pending.add(future);
+        if (!ordered) {
+            future.addCallback(new FutureCallback<List<Event>>() {
+                public void onSuccess(List<Event> events) {
+                    arrived.add(future);
+                }
+
+                public void onFailure(Throwable cause) {
+                    arrived.add(future);
+                }
+            });
+        }
+    }
+
+    private List<Event> fetchPage(int offset) throws IOException {
+        JobResultsArgs pageArgs = new JobResultsArgs();
+        if (args != null) {
+            pageArgs.putAll(args);
+        }
+        pageArgs.setOffset(offset);
+        pageArgs.setCount(pageSize);
+        pageArgs.setOutputMode(JobResultsArgs.OutputMode.JSON);
+
+        InputStream stream = job.getResults(pageArgs);
+        ResultsReaderJson reader = new ResultsReaderJson(stream);
+        try {
+            List<Event> events = new ArrayList<Event>(pageSize);
+            Event event;
+            while ((event = reader.getNextEvent()) != null) {
+                events.add(event);
+            }
+            return events;
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,1106 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.splunk;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code PooledHttpTransport} class is an {@link HttpTransport} that
+ * keeps a bounded pool of persistent HTTP/1.1 connections for each
+ * {@code scheme://host:port}, so that repeated REST calls reuse an already
+ * established (and, for HTTPS, already handshaken) socket.
+ * <p>
+ * The pool enforces a maximum number of connections per host and a maximum
+ * number of requests in flight across all hosts. Connections that have been
+ * idle longer than the idle timeout are closed the next time the pool is
+ * used, or when {@link #closeIdleConnections()} is called.
+ * <p>
+ * Responses whose {@code Content-Length} fits in the buffer threshold are
+ * read eagerly and the connection is returned to the pool before
+ * {@code send} returns. Other responses (for example, search results,
+ * exports, or any chunked response) are handed back as soon as their headers
+ * have arrived and are streamed, and the connection is returned to the pool
+ * when the stream is read to the end or closed, so callers should always
+ * close streamed response content. A streamed response that is dropped
+ * unread keeps its connection and its request slot until it is garbage
+ * collected, and its connection is then closed rather than reused.
+ * <p>
+ * HTTPS connections are opened with {@link HttpService#getSSLSocketFactory},
+ * and idle connections opened with an earlier factory, such as before a call
+ * to {@link HttpService#setSslSecurityProtocol}, are closed rather than
+ * reused. Requests of a service with a custom HTTPS handler are sent through
+ * the handler by an {@link HttpUrlConnectionTransport} instead, and are not
+ * pooled.
+ * <p>
+ * A connection that has been idle for a while is probed before it is reused,
+ * so that one the server closed in the meantime is replaced rather than
+ * failing the request.
+ * <p>
+ * To use a pooled transport:
+ * <pre>
+ * PooledHttpTransport transport = new PooledHttpTransport();
+ * ServiceArgs args = new ServiceArgs();
+ * args.setTransport(transport);
+ * Service service = Service.connect(args);
+ * </pre>
+ */
+public class PooledHttpTransport implements HttpTransport {
+    /** The default maximum number of connections kept for each host. */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+
+    /** The default maximum number of requests in flight. */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    /**
+     * The default idle timeout, in milliseconds. This is kept below the
+     * keep-alive timeout of {@code splunkd} so that the client usually closes
+     * idle connections before the server does.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 10000;
+
+    /**
+     * The default size, in bytes, up to which response bodies of a known
+     * length are read eagerly.
+     */
+    public static final int DEFAULT_BUFFER_THRESHOLD = 64 * 1024;
+
+    // How long to wait for a connection or an in-flight permit when the
+    // service has no connect timeout.
+    private static final long DEFAULT_LEASE_TIMEOUT = 60000;
+
+    // How long a connection may sit idle before it is probed for having
+    // been closed by the server, in milliseconds.
+    private static final long STALE_CHECK_AFTER = 1000;
+
+    // How much of an unread response body to discard on close in order to
+    // keep the connection reusable.
+    private static final int MAX_DRAIN = 64 * 1024;
+
+    // The longest status, header or chunk size line accepted in a response.
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private final int maxConnectionsPerHost;
+    private final int maxInFlight;
+    private final long idleTimeout;
+    private final int bufferThreshold;
+    private final Semaphore inFlight;
+    private final Map<String, HostPool> pools = new HashMap<String, HostPool>();
+    private final HttpTransport handlerTransport = new HttpUrlConnectionTransport();
+    private volatile boolean closed = false;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong connectionsCreated = new AtomicLong();
+    private final AtomicLong connectionsReused = new AtomicLong();
+    private final AtomicLong connectionsEvicted = new AtomicLong();
+    private final AtomicLong connectionsDiscarded = new AtomicLong();
+
+    /**
+     * Creates a new {@code PooledHttpTransport} instance with the default
+     * pool limits.
+     */
+    public PooledHttpTransport() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_IN_FLIGHT,
+                DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Creates a new {@code PooledHttpTransport} instance.
+     *
+     * @param maxConnectionsPerHost The maximum number of connections, idle or
+     * leased, kept open to a single host.
+     * @param maxInFlight The maximum number of requests executing at once
+     * across all hosts.
+     * @param idleTimeout The time, in milliseconds, after which an idle
+     * connection is closed.
+     */
+    public PooledHttpTransport(int maxConnectionsPerHost, int maxInFlight,
+                               long idleTimeout) {
+        this(maxConnectionsPerHost, maxInFlight, idleTimeout,
+                DEFAULT_BUFFER_THRESHOLD);
+    }
+
+    /**
+     * Creates a new {@code PooledHttpTransport} instance.
+     *
+     * @param maxConnectionsPerHost The maximum number of connections, idle or
+     * leased, kept open to a single host.
+     * @param maxInFlight The maximum number of requests executing at once
+     * across all hosts.
+     * @param idleTimeout The time, in milliseconds, after which an idle
+     * connection is closed.
+     * @param bufferThreshold The largest response {@code Content-Length}, in
+     * bytes, that is read eagerly so that its connection can be released
+     * immediately.
+     */
+    public PooledHttpTransport(int maxConnectionsPerHost, int maxInFlight,
+                               long idleTimeout, int bufferThreshold) {
+        if (maxConnectionsPerHost < 1)
+            throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1.");
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be at least 1.");
+        if (idleTimeout < 0)
+            throw new IllegalArgumentException("idleTimeout cannot be negative.");
+        if (bufferThreshold < 0)
+            throw new IllegalArgumentException("bufferThreshold cannot be negative.");
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxInFlight = maxInFlight;
+        this.idleTimeout = idleTimeout;
+        this.bufferThreshold = bufferThreshold;
+        this.inFlight = new Semaphore(maxInFlight, true);
+    }
+
+    /**
+     * Returns the maximum number of connections kept open to a single host.
+     *
+     * @return The maximum number of connections per host.
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Returns the maximum number of requests executing at once.
+     *
+     * @return The maximum number of requests in flight.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Returns the time after which an idle connection is closed.
+     *
+     * @return The idle timeout, in milliseconds.
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Returns the total number of requests sent through this transport.
+     *
+     * @return The number of requests.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of connections this transport has opened.
+     *
+     * @return The number of connections created.
+     */
+    public long getConnectionsCreated() {
+        return connectionsCreated.get();
+    }
+
+    /**
+     * Returns the number of requests that were sent on a pooled connection
+     * instead of a new one.
+     *
+     * @return The number of connection reuses.
+     */
+    public long getConnectionsReused() {
+        return connectionsReused.get();
+    }
+
+    /**
+     * Returns the number of idle connections closed because they exceeded the
+     * idle timeout or were found to be closed by the server.
+     *
+     * @return The number of evicted connections.
+     */
+    public long getConnectionsEvicted() {
+        return connectionsEvicted.get();
+    }
+
+    /**
+     * Returns the number of connections closed after a request because they
+     * could not be reused (for example, after an I/O error, a
+     * {@code Connection: close} response, or an abandoned response body).
+     *
+     * @return The number of discarded connections.
+     */
+    public long getConnectionsDiscarded() {
+        return connectionsDiscarded.get();
+    }
+
+    /**
+     * Returns the number of requests currently in flight, including streamed
+     * responses whose bodies have not been fully read or closed.
+     *
+     * @return The number of requests in flight.
+     */
+    public int getInFlightRequests() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * Returns the number of idle connections across all hosts.
+     *
+     * @return The number of idle connections.
+     */
+    public int getIdleConnections() {
+        int count = 0;
+        for (HostPool pool : snapshotPools()) {
+            synchronized (pool) {
+                count += pool.idle.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of connections currently leased to requests across
+     * all hosts.
+     *
+     * @return The number of leased connections.
+     */
+    public int getLeasedConnections() {
+        int count = 0;
+        for (HostPool pool : snapshotPools()) {
+            synchronized (pool) {
+                count += pool.leased;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Closes every idle connection that has exceeded the idle timeout.
+     */
+    public void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (HostPool pool : snapshotPools()) {
+            synchronized (pool) {
+                pool.evictExpired(now);
+            }
+        }
+    }
+
+    /**
+     * Closes all idle connections and rejects further requests. Connections
+     * that are currently leased are closed when they are released.
+     */
+    public void close() {
+        closed = true;
+        for (HostPool pool : snapshotPools()) {
+            synchronized (pool) {
+                for (Connection connection : pool.idle) {
+                    connection.close();
+                }
+                pool.idle.clear();
+                pool.notifyAll();
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public ResponseMessage send(HttpService service, URL url, RequestMessage request)
+            throws IOException {
+        if (closed)
+            throw new IOException("The transport has been closed.");
+        // Only a URL connection goes through a custom HTTPS handler.
+        if (service.httpsHandler != null && url.getProtocol().equals("https"))
+            return handlerTransport.send(service, url, request);
+
+        Integer connectTimeout = service.getConnectTimeout();
+        Integer readTimeout = service.getReadTimeout();
+        long leaseTimeout = connectTimeout == null || connectTimeout == 0
+                ? DEFAULT_LEASE_TIMEOUT : connectTimeout;
+
+        try {
+            if (!inFlight.tryAcquire(leaseTimeout, TimeUnit.MILLISECONDS))
+                throw new IOException("Timed out waiting for a request slot.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot.");
+        }
+        requestCount.incrementAndGet();
+
+        boolean permitHandedOff = false;
+        try {
+            HostPool pool = getPool(url);
+            String method = request.getMethod();
+            byte[] body = null;
+            RequestBody streamed = null;
+            Object content = request.getContent();
+            if (content instanceof byte[])
+                body = (byte[]) content;
+            else if (content instanceof RequestBody)
+                streamed = (RequestBody) content;
+            else if (content != null)
+                body = ((String) content).getBytes("UTF-8");
+
+            boolean retried = false;
+            while (true) {
+                Connection connection = pool.acquire(
+                        connectTimeout == null ? 0 : connectTimeout, leaseTimeout);
+                try {
+                    connection.socket.setSoTimeout(readTimeout == null ? 0 : readTimeout);
+                    writeRequest(connection, url, request, body, streamed);
+                    ResponseMessage response = readResponse(service, connection, method);
+                    permitHandedOff = true;
+                    return response;
+                } catch (IOException e) {
+                    pool.release(connection, false);
+                    // A pooled connection may have been closed by the server
+                    // while it sat idle; retry idempotent requests once on a
+                    // fresh connection.
+                    if (connection.reused && !retried && isIdempotent(method)
+                            && (streamed == null || streamed.isRepeatable())) {
+                        retried = true;
+                        continue;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            if (!permitHandedOff) inFlight.release();
+        }
+    }
+
+    private static boolean isIdempotent(String method) {
+        return method.equals("GET") || method.equals("DELETE")
+                || method.equals("PUT") || method.equals("HEAD");
+    }
+
+    private HostPool getPool(URL url) {
+        String scheme = url.getProtocol();
+        String host = url.getHost();
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        String key = scheme + "://" + host + ":" + port;
+        synchronized (pools) {
+            HostPool pool = pools.get(key);
+            if (pool == null) {
+                pool = new HostPool(scheme, host, port);
+                pools.put(key, pool);
+            }
+            return pool;
+        }
+    }
+
+    private HostPool[] snapshotPools() {
+        synchronized (pools) {
+            return pools.values().toArray(new HostPool[pools.size()]);
+        }
+    }
+
+    private static void writeRequest(Connection connection, URL url,
+                                     RequestMessage request, byte[] body,
+                                     RequestBody streamed)
+            throws IOException {
+        String method = request.getMethod();
+        StringBuilder builder = new StringBuilder(256);
+        String file = url.getFile();
+        builder.append(method).append(' ')
+               .append(file.length() == 0 ? "/" : file)
+               .append(" HTTP/1.1\r\n");
+        builder.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1) builder.append(':').append(url.getPort());
+        builder.append("\r\n");
+        for (Entry<String, String> entry : request.getHeader().entrySet()) {
+            String key = entry.getKey();
+            if (entry.getValue() == null
+                    || key.equalsIgnoreCase("Host")
+                    || key.equalsIgnoreCase("Content-Length")
+                    || key.equalsIgnoreCase("Transfer-Encoding")
+                    || key.equalsIgnoreCase("Connection")) {
+                continue;
+            }
+            builder.append(key).append(": ").append(entry.getValue()).append("\r\n");
+        }
+        long streamedLength = streamed == null ? -1 : streamed.getContentLength();
+        if (body != null) {
+            builder.append("Content-Length: ").append(body.length).append("\r\n");
+        } else if (streamed != null && streamedLength >= 0) {
+            builder.append("Content-Length: ").append(streamedLength).append("\r\n");
+        } else if (streamed != null) {
+            builder.append("Transfer-Encoding: chunked\r\n");
+        } else if (method.equals("POST") || method.equals("PUT")) {
+            builder.append("Content-Length: 0\r\n");
+        }
+        builder.append("\r\n");
+
+        OutputStream out = connection.out;
+        out.write(builder.toString().getBytes("ISO-8859-1"));
+        if (body != null) {
+            out.write(body);
+        } else if (streamed != null && streamedLength >= 0) {
+            FixedLengthOutputStream stream = new FixedLengthOutputStream(out);
+            streamed.writeTo(stream);
+            if (stream.count != streamedLength)
+                throw new IOException("The request body was " + stream.count
+                        + " bytes instead of " + streamedLength + ".");
+        } else if (streamed != null) {
+            ChunkedOutputStream stream = new ChunkedOutputStream(out);
+            streamed.writeTo(stream);
+            stream.finish();
+        }
+        out.flush();
+    }
+
+    private ResponseMessage readResponse(HttpService service,
+                                         Connection connection, String method)
+            throws IOException {
+        InputStream in = connection.in;
+
+        // Skip interim (1xx) responses.
+        int status;
+        String version;
+        ResponseMessage response;
+        while (true) {
+            String statusLine = readLine(in);
+            if (statusLine == null)
+                throw new EOFException("Connection closed before the response status line.");
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/"))
+                throw new IOException("Malformed HTTP status line: " + statusLine);
+            version = parts[0];
+            try {
+                status = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed HTTP status line: " + statusLine);
+            }
+            response = new ResponseMessage(status);
+            readHeaders(service, in, response);
+            if (status >= 200 || status == 101) break;
+        }
+
+        Map<String, String> header = response.getHeader();
+        String connectionHeader = header.get("Connection");
+        boolean keepAlive = version.equals("HTTP/1.1")
+                ? !"close".equalsIgnoreCase(connectionHeader)
+                : "keep-alive".equalsIgnoreCase(connectionHeader);
+
+        InputStream body;
+        long length = -1;
+        String transferEncoding = header.get("Transfer-Encoding");
+        String contentLength = header.get("Content-Length");
+        if (method.equals("HEAD") || status == 204 || status == 304) {
+            body = null;
+        } else if (transferEncoding != null
+                && transferEncoding.toLowerCase().contains("chunked")) {
+            body = new ChunkedInputStream(in);
+        } else if (contentLength != null) {
+            try {
+                length = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed Content-Length: " + contentLength);
+            }
+            body = length == 0 ? null : new FixedLengthInputStream(in, length);
+        } else {
+            // The body is delimited by the server closing the connection.
+            body = new FixedLengthInputStream(in, Long.MAX_VALUE);
+            keepAlive = false;
+        }
+
+        if (body == null) {
+            release(connection, keepAlive);
+            response.content = new ByteArrayInputStream(new byte[0]);
+            return response;
+        }
+
+        // Read small bodies eagerly so that the connection goes back to the
+        // pool even if the caller never reads or closes the content. Bodies
+        // of unknown length may be streams that take a long time to fill,
+        // such as real-time exports, so they are handed back at once.
+        if (length < 0 || length > bufferThreshold) {
+            response.content = new ReleasingInputStream(this, connection, body, keepAlive);
+            return response;
+        }
+        byte[] content = new byte[(int) length];
+        int offset = 0;
+        while (offset < content.length) {
+            int count = body.read(content, offset, content.length - offset);
+            if (count == -1)
+                throw new EOFException("Connection closed before the end of the response body.");
+            offset += count;
+        }
+        release(connection, keepAlive);
+        response.content = new ByteArrayInputStream(content);
+        return response;
+    }
+
+    private static void readHeaders(HttpService service, InputStream in,
+                                    ResponseMessage response) throws IOException {
+        Map<String, String> header = response.getHeader();
+        while (true) {
+            String line = readLine(in);
+            if (line == null)
+                throw new EOFException("Connection closed while reading response headers.");
+            if (line.length() == 0)
+                return;
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue;
+            String key = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (key.equalsIgnoreCase("Set-Cookie")) {
+                if (value.length() > 0)
+                    service.addCookie(value);
+            }
+            if (!header.containsKey(key))
+                header.put(key, value);
+        }
+    }
+
+    // Reads a CRLF (or LF) terminated line of ISO-8859-1 text, returning null
+    // at the end of the stream. Lines longer than MAX_LINE_LENGTH fail.
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder builder = new StringBuilder(64);
+        while (true) {
+            int c = in.read();
+            if (c == -1)
+                return builder.length() == 0 ? null : builder.toString();
+            if (c == '\n') {
+                int length = builder.length();
+                if (length > 0 && builder.charAt(length - 1) == '\r')
+                    builder.setLength(length - 1);
+                return builder.toString();
+            }
+            if (builder.length() == MAX_LINE_LENGTH)
+                throw new IOException("Response line longer than "
+                        + MAX_LINE_LENGTH + " bytes.");
+            builder.append((char) c);
+        }
+    }
+
+    // Returns a connection to its pool and gives back the in-flight permit.
+    private void release(Connection connection, boolean reusable) {
+        try {
+            connection.pool.release(connection, reusable);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * The connections to a single {@code scheme://host:port}. All fields are
+     * guarded by the pool's monitor.
+     */
+    private final class HostPool {
+        final String scheme;
+        final String host;
+        final int port;
+
+        // Most recently used connections are at the head.
+        final LinkedList<Connection> idle = new LinkedList<Connection>();
+        int leased = 0;
+
+        HostPool(String scheme, String host, int port) {
+            this.scheme = scheme;
+            this.host = host;
+            this.port = port;
+        }
+
+        Connection acquire(int connectTimeout, long leaseTimeout) throws IOException {
+            long deadline = System.currentTimeMillis() + leaseTimeout;
+            while (true) {
+                Connection connection = lease(deadline);
+                if (connection == null)
+                    break;
+                // Probe outside the lock: the server may have closed a
+                // connection that sat idle, which the socket flags miss.
+                if (System.currentTimeMillis() - connection.lastUsed >= STALE_CHECK_AFTER
+                        && connection.isClosedByPeer()) {
+                    connection.close();
+                    connectionsEvicted.incrementAndGet();
+                    synchronized (this) {
+                        leased--;
+                        notifyAll();
+                    }
+                    continue;
+                }
+                connection.reused = true;
+                connectionsReused.incrementAndGet();
+                return connection;
+            }
+
+            // Open the new connection outside the lock.
+            try {
+                SSLSocketFactory factory = scheme.equals("https")
+                        ? HttpService.getSSLSocketFactory() : null;
+                Connection connection = new Connection(
+                        this, open(connectTimeout, factory), factory);
+                connectionsCreated.incrementAndGet();
+                return connection;
+            } catch (IOException e) {
+                synchronized (this) {
+                    leased--;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+
+        // Leases an idle connection, or reserves room for a new one and
+        // returns null.
+        private synchronized Connection lease(long deadline) throws IOException {
+            while (true) {
+                if (closed)
+                    throw new IOException("The transport has been closed.");
+                long now = System.currentTimeMillis();
+                evictExpired(now);
+                while (!idle.isEmpty()) {
+                    Connection connection = idle.removeFirst();
+                    if (connection.isStale()) {
+                        connection.close();
+                        connectionsEvicted.incrementAndGet();
+                        continue;
+                    }
+                    leased++;
+                    return connection;
+                }
+                if (leased < maxConnectionsPerHost) {
+                    leased++;
+                    return null;
+                }
+                long remaining = deadline - now;
+                if (remaining <= 0)
+                    throw new IOException("Timed out waiting for a connection to "
+                            + scheme + "://" + host + ":" + port + ".");
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a connection.");
+                }
+            }
+        }
+
+        void release(Connection connection, boolean reusable) {
+            synchronized (this) {
+                leased--;
+                if (reusable && !closed && !connection.isStale()) {
+                    connection.lastUsed = System.currentTimeMillis();
+                    idle.addFirst(connection);
+                } else {
+                    connection.close();
+                    connectionsDiscarded.incrementAndGet();
+                }
+                notifyAll();
+            }
+        }
+
+        // Closes idle connections past the idle timeout; the oldest are at the
+        // tail. Must be called with the pool's monitor held.
+        void evictExpired(long now) {
+            while (!idle.isEmpty()) {
+                Connection connection = idle.getLast();
+                if (now - connection.lastUsed < idleTimeout)
+                    break;
+                idle.removeLast();
+                connection.close();
+                connectionsEvicted.incrementAndGet();
+            }
+        }
+
+        private Socket open(int connectTimeout, SSLSocketFactory factory)
+                throws IOException {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), connectTimeout);
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                if (factory != null) {
+                    socket = factory.createSocket(socket, host, port, true);
+                    if (socket instanceof SSLSocket)
+                        ((SSLSocket) socket).startHandshake();
+                }
+                return socket;
+            } catch (IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException e2) {
+                    // Already failing.
+                }
+                throw e;
+            }
+        }
+    }
+
+    /** A single persistent connection. */
+    private static final class Connection {
+        final HostPool pool;
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        // The factory an HTTPS connection was opened with, or null.
+        final SSLSocketFactory factory;
+        long lastUsed;
+        boolean reused = false;
+
+        Connection(HostPool pool, Socket socket, SSLSocketFactory factory)
+                throws IOException {
+            this.pool = pool;
+            this.socket = socket;
+            this.factory = factory;
+            this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        boolean isStale() {
+            return socket.isClosed() || socket.isInputShutdown()
+                    || socket.isOutputShutdown()
+                    || (factory != null && factory != HttpService.getSSLSocketFactory());
+        }
+
+        // Reads with a very short timeout to find out whether the server has
+        // closed the connection. An idle connection has nothing to read, so
+        // either the end of the stream or stray bytes make it unusable.
+        boolean isClosedByPeer() {
+            try {
+                if (in.available() > 0)
+                    return true;
+                int timeout = socket.getSoTimeout();
+                socket.setSoTimeout(1);
+                try {
+                    in.read();
+                    return true;
+                } catch (SocketTimeoutException e) {
+                    return false;
+                } finally {
+                    socket.setSoTimeout(timeout);
+                }
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing more to do for a connection being thrown away.
+            }
+        }
+    }
+
+    /**
+     * Streams the remainder of a response body and returns the connection to
+     * the pool when the body has been read to the end or the stream is closed.
+     */
+    private static final class ReleasingInputStream extends InputStream {
+        private final PooledHttpTransport transport;
+        private final Connection connection;
+        private final InputStream body;
+        private final boolean keepAlive;
+        private boolean released = false;
+
+        ReleasingInputStream(PooledHttpTransport transport, Connection connection,
+                             InputStream body, boolean keepAlive) {
+            this.transport = transport;
+            this.connection = connection;
+            this.body = body;
+            this.keepAlive = keepAlive;
+        }
+
+        @Override public int read() throws IOException {
+            if (released) return -1;
+            int c;
+            try {
+                c = body.read();
+            } catch (IOException e) {
+                finish(false);
+                throw e;
+            }
+            if (c == -1) finish(keepAlive);
+            return c;
+        }
+
+        @Override public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (released) return -1;
+            int count;
+            try {
+                count = body.read(buffer, offset, length);
+            } catch (IOException e) {
+                finish(false);
+                throw e;
+            }
+            if (count == -1) finish(keepAlive);
+            return count;
+        }
+
+        @Override public int available() throws IOException {
+            return released ? 0 : body.available();
+        }
+
+        @Override public void close() throws IOException {
+            if (released) return;
+            // Drain a bounded amount so the connection can be reused; give up
+            // on large abandoned bodies and close the socket instead.
+            boolean drained = false;
+            if (keepAlive) {
+                try {
+                    byte[] buffer = new byte[8192];
+                    long total = 0;
+                    while (total < MAX_DRAIN) {
+                        int count = body.read(buffer);
+                        if (count == -1) {
+                            drained = true;
+                            break;
+                        }
+                        total += count;
+                    }
+                } catch (IOException e) {
+                    drained = false;
+                }
+            }
+            finish(drained);
+        }
+
+        // A body dropped without being closed would otherwise keep its
+        // request slot for good. Its connection may be in the middle of the
+        // body, so it is closed.
+        @SuppressWarnings("deprecation")
+        @Override protected void finalize() throws Throwable {
+            try {
+                finish(false);
+            } finally {
+                super.finalize();
+            }
+        }
+
+        private synchronized void finish(boolean reusable) {
+            if (released) return;
+            released = true;
+            transport.release(connection, reusable);
+        }
+    }
+
+    /**
+     * Writes a request body of a known length, counting its bytes. Closing
+     * the stream leaves the connection open.
+     */
+    private static final class FixedLengthOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count = 0;
+
+        FixedLengthOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            count += length;
+        }
+
+        @Override public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes a request body with {@code Transfer-Encoding: chunked}, one
+     * chunk per buffer of data. Closing the stream leaves the connection
+     * open.
+     */
+    private static final class ChunkedOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[8192];
+        private int size = 0;
+        private boolean finished = false;
+
+        ChunkedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override public void write(int b) throws IOException {
+            if (size == buffer.length) writeChunk(buffer, 0, size);
+            buffer[size++] = (byte) b;
+        }
+
+        @Override public void write(byte[] data, int offset, int length) throws IOException {
+            if (finished) throw new IOException("The request body has been written.");
+            if (size + length <= buffer.length) {
+                System.arraycopy(data, offset, buffer, size, length);
+                size += length;
+                return;
+            }
+            // Too large to buffer: send what is buffered, then the data
+            // itself as one chunk.
+            writeChunk(buffer, 0, size);
+            writeChunk(data, offset, length);
+        }
+
+        @Override public void flush() throws IOException {
+            writeChunk(buffer, 0, size);
+            out.flush();
+        }
+
+        @Override public void close() throws IOException {
+            flush();
+        }
+
+        /** Writes any buffered data and the last, empty chunk. */
+        void finish() throws IOException {
+            if (finished) return;
+            writeChunk(buffer, 0, size);
+            out.write("0\r\n\r\n".getBytes("ISO-8859-1"));
+            finished = true;
+        }
+
+        private void writeChunk(byte[] data, int offset, int length) throws IOException {
+            if (data == buffer) size = 0;
+            if (length == 0) return;
+            out.write((Integer.toHexString(length) + "\r\n").getBytes("ISO-8859-1"));
+            out.write(data, offset, length);
+            out.write(CRLF);
+        }
+    }
+
+    /** Reads a body delimited by a {@code Content-Length}. */
+    private static final class FixedLengthInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        FixedLengthInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int c = in.read();
+            if (c == -1) {
+                if (remaining != Long.MAX_VALUE)
+                    throw new EOFException("Connection closed before the end of the response body.");
+                remaining = 0;
+                return -1;
+            }
+            if (remaining != Long.MAX_VALUE) remaining--;
+            return c;
+        }
+
+        @Override public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) return -1;
+            int count = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (count == -1) {
+                if (remaining != Long.MAX_VALUE)
+                    throw new EOFException("Connection closed before the end of the response body.");
+                remaining = 0;
+                return -1;
+            }
+            if (remaining != Long.MAX_VALUE) remaining -= count;
+            return count;
+        }
+
+        @Override public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+    }
+
+    /** Reads a body with {@code Transfer-Encoding: chunked}. */
+    private static final class ChunkedInputStream extends InputStream {
+        private final InputStream in;
+        private long chunkRemaining = 0;
+        private boolean eof = false;
+
+        ChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        // Positions the stream at the start of the next non-empty chunk;
+        // returns false at the end of the body.
+        private boolean nextChunk() throws IOException {
+            if (eof) return false;
+            if (chunkRemaining > 0) return true;
+            String line = readLine(in);
+            if (line == null)
+                throw new EOFException("Connection closed before the end of the response body.");
+            if (line.length() == 0) {
+                // CRLF that terminates the previous chunk's data.
+                line = readLine(in);
+                if (line == null)
+                    throw new EOFException("Connection closed before the end of the response body.");
+            }
+            int semicolon = line.indexOf(';');
+            if (semicolon != -1) line = line.substring(0, semicolon);
+            try {
+                chunkRemaining = Long.parseLong(line.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed chunk size: " + line);
+            }
+            if (chunkRemaining == 0) {
+                // Consume any trailers through the terminating empty line.
+                String trailer;
+                do {
+                    trailer = readLine(in);
+                } while (trailer != null && trailer.length() > 0);
+                eof = true;
+                return false;
+            }
+            return true;
+        }
+
+        @Override public int read() throws IOException {
+            if (!nextChunk()) return -1;
+            int c = in.read();
+            if (c == -1)
+                throw new EOFException("Connection closed before the end of the response body.");
+            chunkRemaining--;
+            return c;
+        }
+
+        @Override public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if (!nextChunk()) return -1;
+            int count = in.read(buffer, offset, (int) Math.min(length, chunkRemaining));
+            if (count == -1)
+                throw new EOFException("Connection closed before the end of the response body.");
+            chunkRemaining -= count;
+            return count;
+        }
+
+        @Override public int available() throws IOException {
+            return eof ? 0 : (int) Math.min(in.available(), chunkRemaining);
+        }
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code RealtimeSearchStream} class delivers the events of a real-time
+ * search to subscribers as they arrive, by polling the preview of the
+ * search job.
+ * <p>
+ * The preview of a real-time event search lists the newest events first.
+ * Each poll reads the preview one page at a time from the top, with the
+ * {@code offset} and {@code count} arguments, and stops at the first page
+ * that holds an event it has already seen. A poll therefore reads only the
+ * events that are new since the last poll, plus at most one page, however
+ * large the real-time window is. Events are recognized by their bucket and
+ * index address, so an event that moves to a later page between two requests
+ * is delivered once.
+ * <p>
+ * New events are delivered oldest first, on a thread of the stream's own,
+ * through a buffer of bounded capacity. When the buffer is full, polling
+ * pauses, and the events that did not fit are read again by a later poll, as
+ * long as they are still in the real-time window.
+ * <p>
+ * For example:
+ * <pre>
+ * RealtimeSearchStream stream = service.realtimeSearch("search index=main");
+ * stream.subscribe(new RealtimeSearchStream.Subscriber() {
+ *     public void onEvent(Event event) {
+ *         System.out.println(event.get("_raw"));
+ *     }
+ *
+ *     public void onFailure(Throwable cause) {
+ *         cause.printStackTrace();
+ *     }
+ * });
+ * stream.start();
+ * ...
+ * stream.close();
+ * </pre>
+ * Settings must be changed before {@code start} is called. The stream is
+ * meant for event searches; the rows of a transforming search are
+ * recognized by their values, so a row whose values change is delivered
+ * again.
+ */
+public class RealtimeSearchStream {
+    /** The default number of events read by a single preview request. */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /** The default number of events the buffer can hold. */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /** The default time between polls, in milliseconds. */
+    public static final long DEFAULT_POLL_INTERVAL = 500;
+
+    /** The default number of delivered events remembered to skip them. */
+    public static final int DEFAULT_MAX_TRACKED_EVENTS = 100000;
+
+    // The time to wait after a failed poll, in milliseconds.
+    private static final long RETRY_DELAY = 5000;
+
+    // How often the delivery thread checks for a failure, in milliseconds.
+    private static final long DELIVERY_WAIT = 100;
+
+    /**
+     * The {@code Subscriber} interface receives the events of a real-time
+     * search.
+     */
+    public interface Subscriber {
+        /**
+         * Called for each new event, on the delivery thread of the stream.
+         *
+         * @param event The event.
+         */
+        void onEvent(Event event);
+
+        /**
+         * Called once if the stream stops because the search can no longer
+         * be read, for example because the job was cancelled or expired.
+         * Every event buffered before the failure has been delivered.
+         *
+         * @param cause The reason the stream stopped.
+         */
+        void onFailure(Throwable cause);
+    }
+
+    private final Job job;
+    private final Map<String, Object> args;
+    private final List<Subscriber> subscribers =
+            new CopyOnWriteArrayList<Subscriber>();
+
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int capacity = DEFAULT_CAPACITY;
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+    private int maxTrackedEvents = DEFAULT_MAX_TRACKED_EVENTS;
+
+    private volatile BlockingQueue<Event> buffer = null;
+    // The keys of the events that have been buffered, least recent first.
+    // Only accessed from the polling task.
+    private Map<String, Boolean> seen = null;
+    private long retryAt = 0;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private volatile Exception lastError = null;
+    private volatile Throwable failure = null;
+
+    // Guarded by this.
+    private ScheduledFuture<?> ticker = null;
+    private Thread dispatcher = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a stream of the events of a real-time search job.
+     *
+     * @param job The real-time search job. It is cancelled when the stream
+     * is closed.
+     */
+    public RealtimeSearchStream(Job job) {
+        this(job, null);
+    }
+
+    /**
+     * Creates a stream of the events of a real-time search job.
+     *
+     * @param job The real-time search job. It is cancelled when the stream
+     * is closed.
+     * @param args Optional arguments for every preview request, such as
+     * {@code field_list} or {@code search}. The {@code offset},
+     * {@code count} and {@code output_mode} arguments are set by the stream.
+     */
+    public RealtimeSearchStream(Job job, JobResultsPreviewArgs args) {
+        this.job = job;
+        this.args = args;
+    }
+
+    /**
+     * Returns the search job the stream reads from.
+     *
+     * @return The search job.
+     */
+    public Job getJob() {
+        return job;
+    }
+
+    /**
+     * Sets the number of events read by a single preview request. This must
+     * not exceed the {@code maxresultrows} limit of the server.
+     *
+     * @param pageSize The number of events.
+     */
+    public void setPageSize(int pageSize) {
+        checkNotStarted();
+        if (pageSize < 1)
+            throw new IllegalArgumentException("pageSize must be at least 1.");
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Sets the number of events the buffer can hold.
+     *
+     * @param capacity The number of events.
+     */
+    public void setCapacity(int capacity) {
+        checkNotStarted();
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1.");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Sets the time between the end of a poll and the start of the next.
+     *
+     * @param pollInterval The time, in milliseconds.
+     */
+    public void setPollInterval(long pollInterval) {
+        checkNotStarted();
+        if (pollInterval <= 0)
+            throw new IllegalArgumentException("pollInterval must be positive.");
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Sets the number of delivered events that are remembered, so that they
+     * are not delivered again. It should be well above the page size.
+     *
+     * @param maxTrackedEvents The number of events.
+     */
+    public void setMaxTrackedEvents(int maxTrackedEvents) {
+        checkNotStarted();
+        if (maxTrackedEvents < 1)
+            throw new IllegalArgumentException("maxTrackedEvents must be at least 1.");
+        this.maxTrackedEvents = maxTrackedEvents;
+    }
+
+    /**
+     * Registers a subscriber. Subscribers can be added at any time, and
+     * receive the events delivered after they are added.
+     *
+     * @param subscriber The subscriber.
+     */
+    public void subscribe(Subscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * Removes a subscriber.
+     *
+     * @param subscriber The subscriber.
+     * @return {@code true} if the subscriber was registered.
+     */
+    public boolean unsubscribe(Subscriber subscriber) {
+        return subscribers.remove(subscriber);
+    }
+
+    /**
+     * Starts polling the search and delivering its events.
+     */
+    public synchronized void start() {
+        if (closed)
+            throw new IllegalStateException("The stream is closed.");
+        if (ticker != null)
+            return;
+        buffer = new ArrayBlockingQueue<Event>(capacity);
+        final int maxTracked = maxTrackedEvents;
+        seen = new LinkedHashMap<String, Boolean>() {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxTracked;
+            }
+        };
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                deliverLoop();
+            }
+        }, "splunk-realtime-search");
+        thread.setDaemon(true);
+        dispatcher = thread;
+        thread.start();
+        ticker = job.service.getAsyncExecutor().scheduleWithFixedDelay(
+                new Runnable() {
+                    public void run() {
+                        poll();
+                    }
+                }, 0, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling and delivering events, discards the buffered events and
+     * cancels the search job.
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            if (ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+            thread = dispatcher;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            job.cancel();
+        } catch (RuntimeException e) {
+            // The job expires on the server anyway.
+        }
+    }
+
+    /**
+     * Returns the number of preview requests the stream has issued.
+     *
+     * @return The number of requests.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of events delivered to the subscribers.
+     *
+     * @return The number of events.
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * Returns the number of events that were read again by a poll and
+     * skipped because they had already been seen.
+     *
+     * @return The number of events.
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * Returns the number of events waiting in the buffer.
+     *
+     * @return The number of events.
+     */
+    public int getQueueDepth() {
+        BlockingQueue<Event> queue = buffer;
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Returns the error of the last failed poll.
+     *
+     * @return The error, or {@code null} if no poll has failed.
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    private void checkNotStarted() {
+        if (buffer != null)
+            throw new IllegalStateException(
+                "Settings must be changed before the stream is started.");
+    }
+
+    // Reads the new events of the search into the buffer.
+    void poll() {
+        if (closed || failure != null)
+            return;
+        if (System.currentTimeMillis() < retryAt)
+            return;
+        try {
+            if (!job.isReady())
+                return;
+            int room = buffer.remainingCapacity();
+            if (room == 0)
+                return;
+            List<Event> events = new ArrayList<Event>();
+            List<String> keys = new ArrayList<String>();
+            readNewEvents(events, keys);
+            // The events are newest first. Buffer the oldest ones that fit;
+            // the others stay unseen and are read again by the next poll.
+            int oldest = events.size() - 1;
+            int newest = Math.max(0, events.size() - room);
+            for (int i = oldest; i >= newest; i--) {
+                buffer.add(events.get(i));
+                seen.put(keys.get(i), Boolean.TRUE);
+            }
+        } catch (HttpException e) {
+            if (e.getStatus() == 404) {
+                fail(e);
+            } else {
+                retryLater(e);
+            }
+        } catch (Exception e) {
+            // Never let an exception cancel the periodic task.
+            retryLater(e);
+        }
+    }
+
+    // Reads pages from the top of the preview until a page holds an event
+    // that has been seen before, or the preview ends.
+    private void readNewEvents(List<Event> events, List<String> keys)
+            throws IOException {
+        Set<String> read = new HashSet<String>();
+        int offset = 0;
+        while (true) {
+            List<Event> page = readPage(offset);
+            boolean reachedSeen = false;
+            for (Event event : page) {
+                String key = keyOf(event);
+                if (seen.containsKey(key) || !read.add(key)) {
+                    // Seen by an earlier poll, or moved down by new events
+                    // since the previous page was read.
+                    reachedSeen |= seen.containsKey(key);
+                    duplicates.incrementAndGet();
+                    continue;
+                }
+                events.add(event);
+                keys.add(key);
+            }
+            if (reachedSeen || page.size() < pageSize)
+                return;
+            offset += pageSize;
+        }
+    }
+
+    private List<Event> readPage(int offset) throws IOException {
+        JobResultsPreviewArgs pageArgs = new JobResultsPreviewArgs();
+        if (args != null) {
+            pageArgs.putAll(args);
+        }
+        pageArgs.setOffset(offset);
+        pageArgs.setCount(pageSize);
+        pageArgs.setOutputMode(JobResultsPreviewArgs.OutputMode.JSON);
+
+        requests.incrementAndGet();
+        InputStream stream = job.getResultsPreview(pageArgs);
+        ResultsReaderJson reader = new ResultsReaderJson(stream);
+        try {
+            List<Event> page = new ArrayList<Event>(pageSize);
+            Event event;
+            while ((event = reader.getNextEvent()) != null) {
+                page.add(event);
+            }
+            return page;
+        } finally {
+            reader.close();
+        }
+    }
+
+    // An event is identified by its bucket and its address in the bucket,
+    // which do not change while it stays in the real-time window. Rows
+    // without them are identified by their values.
+    static String keyOf(Event event) {
+        String address = event.get("_cd");
+        if (address == null)
+            return new TreeMap<String, String>(event).toString();
+        return event.get("splunk_server") + "|" + event.get("_bkt") + "|" + address;
+    }
+
+    private void retryLater(Exception e) {
+        lastError = e;
+        retryAt = System.currentTimeMillis() + Math.max(RETRY_DELAY, pollInterval);
+    }
+
+    private void fail(Exception cause) {
+        lastError = cause;
+        synchronized (this) {
+            if (ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+        }
+        failure = cause;
+    }
+
+    private void deliverLoop() {
+        try {
+            while (!closed) {
+                Event event = buffer.poll(DELIVERY_WAIT, TimeUnit.MILLISECONDS);
+                if (event != null) {
+                    deliver(event);
+                } else if (failure != null) {
+                    notifyFailure(failure);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed.
+        }
+    }
+
+    private void deliver(Event event) {
+        for (Subscriber subscriber : subscribers) {
+            try {
+                subscriber.onEvent(event);
+            } catch (RuntimeException e) {
+                // A failing subscriber must not stop the others.
+            }
+        }
+        delivered.incrementAndGet();
+    }
+
+    private void notifyFailure(Throwable cause) {
+        for (Subscriber subscriber : subscribers) {
+            try {
+                subscriber.onFailure(cause);
+            } catch (RuntimeException e) {
+                // A failing subscriber must not stop the others.
+            }
+        }
+    }
+}
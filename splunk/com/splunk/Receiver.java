@@ -17,6 +17,7 @@
 package com.splunk;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
@@ -85,6 +86,16 @@ public class Receiver {
         Socket socket = service.open();
         OutputStream ostream = socket.getOutputStream();
         Writer out = new OutputStreamWriter(ostream, "UTF-8");
+        out.write(streamHeader(indexName, args));
+        out.flush();
+        return socket;
+    }
+
+    /**
+     * Returns the HTTP request header that opens a stream to the streaming
+     * receiver endpoint.
+     */
+    String streamHeader(String indexName, Args args) {
         String postUrl = "POST /services/receivers/stream";
         if (indexName != null) {
             postUrl = postUrl + "?index=" + indexName;
@@ -111,10 +122,7 @@ public class Receiver {
             header.append(service.getToken());
         }
         header.append("\r\n\r\n");
-
-        out.write(header.toString());
-        out.flush();
-        return socket;
+        return header.toString();
     }
 
     /**
@@ -156,9 +164,61 @@ public class Receiver {
      * "host", "host_regex", "source", and "sourcetype".
      */
     public void submit(String indexName, Args args, String data) {
-        String sendString = "";
         RequestMessage request = new RequestMessage("POST");
         request.setContent(data);
+        ResponseMessage response = service.send(
+                simpleReceiverPath(service, indexName, args), request);
+        try {
+            response.getContent().close();
+        } catch (IOException e) {
+            // noop
+        }
+    }
+
+    /**
+     * Submits the events read from a stream to this index through HTTP POST.
+     * The events are sent as they are read, so the stream may be larger than
+     * the memory available. The stream is closed once it has been sent.
+     *
+     * @param indexName The index to write to, or {@code null} for the
+     * default index.
+     * @param args Optional arguments for this stream. Valid parameters are:
+     * "host", "host_regex", "source", and "sourcetype".
+     * @param data A stream of event data.
+     */
+    public void submit(String indexName, Args args, InputStream data) {
+        submit(indexName, args, RequestBody.create(data));
+    }
+
+    /**
+     * Submits events to this index through HTTP POST, writing them to the
+     * connection as the request is sent.
+     *
+     * @param indexName The index to write to, or {@code null} for the
+     * default index.
+     * @param args Optional arguments for this stream. Valid parameters are:
+     * "host", "host_regex", "source", and "sourcetype".
+     * @param data The event data.
+     */
+    public void submit(String indexName, Args args, RequestBody data) {
+        RequestMessage request = new RequestMessage("POST");
+        request.setContent(data);
+        ResponseMessage response = service.send(
+                simpleReceiverPath(service, indexName, args), request);
+        try {
+            response.getContent().close();
+        } catch (IOException e) {
+            // noop
+        }
+    }
+
+    /**
+     * Returns the path of the simple receiver endpoint for the given index and
+     * arguments.
+     */
+    static String simpleReceiverPath(
+            Service service, String indexName, Args args) {
+        String sendString = "";
         if (indexName !=null) {
             sendString = String.format("?index=%s", indexName);
         }
@@ -166,13 +226,7 @@ public class Receiver {
             sendString = sendString +  ((indexName == null) ? "?" : "&");
             sendString = sendString + args.encode();
         }
-        ResponseMessage response = service.send(service.simpleReceiverEndPoint
-                + sendString, request);
-        try {
-            response.getContent().close();
-        } catch (IOException e) {
-            // noop
-        }
+        return service.simpleReceiverEndPoint + sendString;
     }
 
     /**
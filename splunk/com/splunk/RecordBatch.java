@@ -0,0 +1,411 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code RecordBatch} class represents a batch of search results stored
+ * by column, as returned by the {@link RecordBatchReader#getNextBatch}
+ * method.
+ * <p>
+ * Each field of the batch is a {@link Column} with one entry per row. A
+ * column whose values are all integers is stored in a {@code long[]}, a
+ * column whose values are all numbers in a {@code double[]}, and any other
+ * column as a dictionary of its distinct strings and an {@code int[]} of
+ * codes into that dictionary. The type of a column is chosen separately for
+ * each batch, so the same field can have a different type in another batch.
+ * <p>
+ * Multi-valued fields are stored as their delimited values, as returned by
+ * {@link Event#get}.
+ */
+public final class RecordBatch {
+    /**
+     * The storage type of a column.
+     */
+    public enum ColumnType {
+        /** Integers, read with {@link Column#getLongs}. */
+        LONG,
+        /** Numbers, read with {@link Column#getDoubles}. */
+        DOUBLE,
+        /**
+         * Timestamps of the {@code _time} field, in milliseconds since the
+         * epoch, read with {@link Column#getLongs}.
+         */
+        TIME,
+        /**
+         * Strings, read with {@link Column#getCodes} and
+         * {@link Column#getDictionary}.
+         */
+        STRING
+    }
+
+    private final int size;
+    private final List<Column> columns;
+    private final List<String> fieldNames;
+    private final Map<String, Column> columnsByName;
+
+    RecordBatch(int size, List<Column> columns) {
+        this.size = size;
+        this.columns = columns;
+        List<String> names = new ArrayList<String>(columns.size());
+        columnsByName = new HashMap<String, Column>();
+        for (Column column : columns) {
+            names.add(column.getName());
+            columnsByName.put(column.getName(), column);
+        }
+        fieldNames = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Returns the number of rows in this batch.
+     *
+     * @return The number of rows.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the names of the fields in this batch, in the order they were
+     * first seen.
+     *
+     * @return The field names.
+     */
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    /**
+     * Returns the number of columns in this batch.
+     *
+     * @return The number of columns.
+     */
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    /**
+     * Returns the column at the given position.
+     *
+     * @param position The position of the column, from 0 to
+     * {@link #getColumnCount} - 1.
+     * @return The column.
+     */
+    public Column getColumn(int position) {
+        return columns.get(position);
+    }
+
+    /**
+     * Returns the column of the specified field.
+     *
+     * @param field The field name.
+     * @return The column, or {@code null} if no row of this batch has the
+     * field.
+     */
+    public Column getColumn(String field) {
+        return columnsByName.get(field);
+    }
+
+    /**
+     * The {@code Column} class holds the values of one field for every row
+     * of a {@link RecordBatch}. Rows that do not have the field are marked
+     * as missing. The arrays returned by this class are not copied and must
+     * not be modified.
+     */
+    public static final class Column {
+        private final String name;
+        private final ColumnType type;
+        private final BitSet missing;
+        private final long[] longs;
+        private final double[] doubles;
+        private final int[] codes;
+        private final String[] dictionary;
+
+        private Column(
+                String name,
+                ColumnType type,
+                BitSet missing,
+                long[] longs,
+                double[] doubles,
+                int[] codes,
+                String[] dictionary) {
+            this.name = name;
+            this.type = type;
+            this.missing = missing;
+            this.longs = longs;
+            this.doubles = doubles;
+            this.codes = codes;
+            this.dictionary = dictionary;
+        }
+
+        /**
+         * Returns the name of the field of this column.
+         *
+         * @return The field name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the storage type of this column.
+         *
+         * @return The column type.
+         */
+        public ColumnType getType() {
+            return type;
+        }
+
+        /**
+         * Indicates whether the given row does not have this field. The
+         * entry of a missing row is 0 in numeric columns and -1 in string
+         * columns.
+         *
+         * @param row The row, from 0 to {@link RecordBatch#size} - 1.
+         * @return {@code true} if the field is missing from the row.
+         */
+        public boolean isMissing(int row) {
+            return missing.get(row);
+        }
+
+        /**
+         * Returns the values of a {@link ColumnType#LONG} or
+         * {@link ColumnType#TIME} column, one per row.
+         *
+         * @return The values.
+         */
+        public long[] getLongs() {
+            if (longs == null) {
+                throw new UnsupportedOperationException(
+                    "Column " + name + " is of type " + type + ".");
+            }
+            return longs;
+        }
+
+        /**
+         * Returns the values of a {@link ColumnType#DOUBLE} column, one per
+         * row.
+         *
+         * @return The values.
+         */
+        public double[] getDoubles() {
+            if (doubles == null) {
+                throw new UnsupportedOperationException(
+                    "Column " + name + " is of type " + type + ".");
+            }
+            return doubles;
+        }
+
+        /**
+         * Returns the value of a numeric column in the given row.
+         *
+         * @param row The row, from 0 to {@link RecordBatch#size} - 1.
+         * @return The value.
+         */
+        public double getDouble(int row) {
+            if (doubles != null) {
+                return doubles[row];
+            }
+            return getLongs()[row];
+        }
+
+        /**
+         * Returns the dictionary codes of a {@link ColumnType#STRING}
+         * column, one per row. A code is an index into
+         * {@link #getDictionary}, or -1 for a missing row.
+         *
+         * @return The codes.
+         */
+        public int[] getCodes() {
+            if (codes == null) {
+                throw new UnsupportedOperationException(
+                    "Column " + name + " is of type " + type + ".");
+            }
+            return codes;
+        }
+
+        /**
+         * Returns the distinct values of a {@link ColumnType#STRING} column,
+         * in the order they were first seen.
+         *
+         * @return The dictionary.
+         */
+        public String[] getDictionary() {
+            if (dictionary == null) {
+                throw new UnsupportedOperationException(
+                    "Column " + name + " is of type " + type + ".");
+            }
+            return dictionary;
+        }
+
+        /**
+         * Returns the value of a {@link ColumnType#STRING} column in the
+         * given row.
+         *
+         * @param row The row, from 0 to {@link RecordBatch#size} - 1.
+         * @return The value, or {@code null} if the row is missing.
+         */
+        public String getString(int row) {
+            int code = getCodes()[row];
+            return code < 0 ? null : dictionary[code];
+        }
+
+        /**
+         * Encodes the values of a field read from a batch of rows.
+         *
+         * @param name The field name.
+         * @param texts The values of the field, {@code null} for missing
+         * rows.
+         * @param size The number of rows.
+         * @return The column.
+         */
+        static Column encode(String name, String[] texts, int size) {
+            BitSet missing = new BitSet(size);
+            boolean allLongs = true;
+            boolean allDoubles = true;
+            for (int i = 0; i < size; i++) {
+                String text = texts[i];
+                if (text == null) {
+                    missing.set(i);
+                    continue;
+                }
+                if (allLongs && !isLong(text)) {
+                    allLongs = false;
+                }
+                if (!allLongs && !isDouble(text)) {
+                    allDoubles = false;
+                }
+            }
+
+            if (allLongs) {
+                long[] longs = new long[size];
+                for (int i = 0; i < size; i++) {
+                    if (texts[i] != null) {
+                        longs[i] = Long.parseLong(texts[i]);
+                    }
+                }
+                return new Column(
+                        name, ColumnType.LONG, missing, longs, null, null, null);
+            }
+            if (allDoubles) {
+                double[] doubles = new double[size];
+                for (int i = 0; i < size; i++) {
+                    if (texts[i] != null) {
+                        doubles[i] = Double.parseDouble(texts[i]);
+                    }
+                }
+                return new Column(
+                        name, ColumnType.DOUBLE, missing, null, doubles, null, null);
+            }
+            if (name.equals("_time")) {
+                long[] times = toTimes(texts, size);
+                if (times != null) {
+                    return new Column(
+                            name, ColumnType.TIME, missing, times, null, null, null);
+                }
+            }
+
+            Map<String, Integer> codesByValue = new HashMap<String, Integer>();
+            List<String> dictionary = new ArrayList<String>();
+            int[] codes = new int[size];
+            for (int i = 0; i < size; i++) {
+                String text = texts[i];
+                if (text == null) {
+                    codes[i] = -1;
+                    continue;
+                }
+                Integer code = codesByValue.get(text);
+                if (code == null) {
+                    code = dictionary.size();
+                    codesByValue.put(text, code);
+                    dictionary.add(text);
+                }
+                codes[i] = code;
+            }
+            return new Column(
+                    name, ColumnType.STRING, missing, null, null, codes,
+                    dictionary.toArray(new String[dictionary.size()]));
+        }
+
+        // Returns null if a value is not a timestamp.
+        private static long[] toTimes(String[] texts, int size) {
+            long[] times = new long[size];
+            for (int i = 0; i < size; i++) {
+                if (texts[i] == null) {
+                    continue;
+                }
+                try {
+                    times[i] = Value.toDate(texts[i]).getTime();
+                } catch (RuntimeException e) {
+                    return null;
+                }
+            }
+            return times;
+        }
+
+        // Accepts only the canonical form of a long, so that its text can be
+        // recovered, and at most 18 digits, so that it cannot overflow.
+        private static boolean isLong(String text) {
+            int length = text.length();
+            int start = text.startsWith("-") ? 1 : 0;
+            int digits = length - start;
+            if (digits == 0 || digits > 18) {
+                return false;
+            }
+            if (text.charAt(start) == '0' && (digits > 1 || start > 0)) {
+                return false;
+            }
+            for (int i = start; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isDouble(String text) {
+            boolean hasDigit = false;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    hasDigit = true;
+                } else if (c != '.' && c != '-' && c != '+' &&
+                        c != 'e' && c != 'E') {
+                    // Also rejects the NaN and Infinity forms that
+                    // Double.parseDouble would accept.
+                    return false;
+                }
+            }
+            if (!hasDigit) {
+                return false;
+            }
+            try {
+                Double.parseDouble(text);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+    }
+}
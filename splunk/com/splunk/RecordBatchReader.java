@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code RecordBatchReader} class reads search results into columnar
+ * {@link RecordBatch} objects of a fixed number of rows.
+ * <p>
+ * The reader wraps any {@link ResultsReader}, such as a
+ * {@link ResultsReaderJson}, {@link ResultsReaderXml} or
+ * {@link ResultsReaderCsv} reading the stream from {@link Job#getResults}
+ * or {@link Service#export}, and reads it row by row with
+ * {@link ResultsReader#getNextRow}, so no {@link Event} is created. Numeric
+ * fields such as {@code count} or {@code sum} end up in primitive arrays,
+ * and repeated strings such as {@code host} are stored once per batch.
+ * <p>
+ * For example:
+ * <pre>
+ * RecordBatchReader batches = new RecordBatchReader(
+ *         new ResultsReaderJson(job.getResults(args)), 4096);
+ * for (RecordBatch batch : batches) {
+ *     long[] counts = batch.getColumn("count").getLongs();
+ *     ...
+ * }
+ * batches.close();
+ * </pre>
+ */
+public class RecordBatchReader extends StreamIterableBase<RecordBatch> {
+    /** The default number of rows in a batch. */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final ResultsReader reader;
+    private final int batchSize;
+
+    // The values of each field of the batch being read, reused by every
+    // batch.
+    private final Map<String, Integer> positions = new HashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+    private final List<String[]> values = new ArrayList<String[]>();
+    // Set once the results reader has returned its last row, since readers
+    // may fail if they are read past the end.
+    private boolean exhausted;
+
+    /**
+     * Creates a reader of batches of {@link #DEFAULT_BATCH_SIZE} rows.
+     *
+     * @param reader The reader of the search results.
+     */
+    public RecordBatchReader(ResultsReader reader) {
+        this(reader, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a reader of batches of the specified number of rows.
+     *
+     * @param reader The reader of the search results.
+     * @param batchSize The maximum number of rows in a batch. Only the last
+     * batch can have fewer rows.
+     */
+    public RecordBatchReader(ResultsReader reader, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException(
+                "Batch size must be positive: " + batchSize);
+        }
+        this.reader = reader;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the batch size of this reader.
+     *
+     * @return The maximum number of rows in a batch.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Reads the next batch of rows.
+     *
+     * @return The batch, or {@code null} if the end is reached.
+     * @throws IOException On IO exception.
+     */
+    public RecordBatch getNextBatch() throws IOException {
+        int size = 0;
+        while (size < batchSize && !exhausted) {
+            ResultRow row = reader.getNextRow();
+            if (row == null) {
+                exhausted = true;
+                break;
+            }
+            for (int i = 0; i < row.size(); i++) {
+                valuesOf(row.getFieldName(i))[size] = row.get(i);
+            }
+            size++;
+        }
+        if (size == 0) {
+            return null;
+        }
+
+        List<RecordBatch.Column> columns =
+                new ArrayList<RecordBatch.Column>(names.size());
+        for (int p = 0; p < names.size(); p++) {
+            String[] texts = values.get(p);
+            columns.add(RecordBatch.Column.encode(names.get(p), texts, size));
+            // Release the strings before the next batch.
+            Arrays.fill(texts, 0, size, null);
+        }
+        positions.clear();
+        names.clear();
+        return new RecordBatch(size, columns);
+    }
+
+    /**
+     * Returns an iterator over the batches from this reader.
+     * @return an Iterator.
+     */
+    @Override
+    public final Iterator<RecordBatch> iterator() {
+        return super.iterator();
+    }
+
+    /**
+     * Closes the underlying results reader.
+     *
+     * @throws IOException On IO exception.
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    @Override RecordBatch getNextElement() throws IOException {
+        return getNextBatch();
+    }
+
+    private String[] valuesOf(String field) {
+        Integer position = positions.get(field);
+        if (position == null) {
+            position = names.size();
+            positions.put(field, position);
+            names.add(field);
+            if (position == values.size()) {
+                values.add(new String[batchSize]);
+            }
+        }
+        return values.get(position);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The {@code RequestBody} class is the body of a request that is written to
+ * the connection as it is sent, rather than held in memory as a
+ * {@code String} or byte array first. Set it as the content of a
+ * {@link RequestMessage} with {@link RequestMessage#setContent(RequestBody)}.
+ * <p>
+ * A body whose length is known is sent with a {@code Content-Length} header;
+ * any other body is sent with chunked transfer encoding. The static
+ * {@code create} methods cover streams, buffers and files. To produce a body
+ * on the fly, subclass {@code RequestBody} and implement {@link #writeTo}:
+ * <pre>
+ * request.setContent(new RequestBody() {
+ *     public void writeTo(OutputStream out) throws IOException {
+ *         for (String event : events) {
+ *             out.write(event.getBytes("UTF-8"));
+ *         }
+ *     }
+ * });
+ * </pre>
+ */
+public abstract class RequestBody {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Returns the number of bytes that {@link #writeTo} writes, if it is
+     * known in advance. The default is -1.
+     *
+     * @return The length of the body, or -1 if it is not known.
+     */
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Indicates whether {@link #writeTo} can be called more than once, so
+     * that a request can be sent again, for example after logging in again.
+     * The default is {@code false}.
+     *
+     * @return {@code true} if the body can be written more than once.
+     */
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    /**
+     * Writes the body to the connection. The stream must not be closed.
+     *
+     * @param out The stream to write the body to.
+     * @throws IOException The IOException instance.
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Creates a body that copies a stream until its end, and then closes it.
+     * The body is sent with chunked transfer encoding and can be sent only
+     * once.
+     *
+     * @param input The stream to send.
+     * @return The request body.
+     */
+    public static RequestBody create(InputStream input) {
+        return create(input, -1);
+    }
+
+    /**
+     * Creates a body that copies a stream of a known length, and then closes
+     * it. The body can be sent only once.
+     *
+     * @param input The stream to send.
+     * @param length The number of bytes in the stream, or -1 if it is not
+     * known.
+     * @return The request body.
+     */
+    public static RequestBody create(final InputStream input, final long length) {
+        return new RequestBody() {
+            @Override public long getContentLength() {
+                return length;
+            }
+
+            @Override public void writeTo(OutputStream out) throws IOException {
+                try {
+                    copy(input, out);
+                } finally {
+                    input.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a body from the remaining bytes of a buffer. The position of
+     * the buffer is not changed, so the body can be sent more than once.
+     *
+     * @param buffer The buffer to send.
+     * @return The request body.
+     */
+    public static RequestBody create(ByteBuffer buffer) {
+        final ByteBuffer content = buffer.duplicate();
+        return new RequestBody() {
+            @Override public long getContentLength() {
+                return content.remaining();
+            }
+
+            @Override public boolean isRepeatable() {
+                return true;
+            }
+
+            @Override public void writeTo(OutputStream out) throws IOException {
+                ByteBuffer source = content.duplicate();
+                if (source.hasArray()) {
+                    out.write(source.array(),
+                            source.arrayOffset() + source.position(),
+                            source.remaining());
+                    return;
+                }
+                byte[] chunk = new byte[Math.min(BUFFER_SIZE, source.remaining())];
+                while (source.hasRemaining()) {
+                    int count = Math.min(chunk.length, source.remaining());
+                    source.get(chunk, 0, count);
+                    out.write(chunk, 0, count);
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a body from the contents of a file. The length of the file is
+     * read once, here, and that many bytes are sent even if the file grows.
+     * The file is opened each time the body is sent, so the body can be sent
+     * more than once.
+     *
+     * @param file The file to send.
+     * @return The request body.
+     */
+    public static RequestBody create(final File file) {
+        final long length = file.length();
+        return new RequestBody() {
+            @Override public long getContentLength() {
+                return length;
+            }
+
+            @Override public boolean isRepeatable() {
+                return true;
+            }
+
+            @Override public void writeTo(OutputStream out) throws IOException {
+                InputStream input = new FileInputStream(file);
+                try {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    long sent = 0;
+                    while (sent < length) {
+                        int count = input.read(buffer, 0,
+                                (int) Math.min(buffer.length, length - sent));
+                        if (count == -1)
+                            throw new IOException("The file ended before the request body was sent.");
+                        out.write(buffer, 0, count);
+                        sent += count;
+                    }
+                } finally {
+                    input.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a body from a region of a file channel. The channel is read
+     * with positional reads, so the body can be sent more than once, and the
+     * channel is left open.
+     *
+     * @param channel The channel to read from.
+     * @param position The offset of the first byte to send.
+     * @param count The number of bytes to send.
+     * @return The request body.
+     */
+    public static RequestBody create(final FileChannel channel,
+            final long position, final long count) {
+        return new RequestBody() {
+            @Override public long getContentLength() {
+                return count;
+            }
+
+            @Override public boolean isRepeatable() {
+                return true;
+            }
+
+            @Override public void writeTo(OutputStream out) throws IOException {
+                WritableByteChannel target = Channels.newChannel(out);
+                long sent = 0;
+                while (sent < count) {
+                    long transferred = channel.transferTo(
+                            position + sent, count - sent, target);
+                    if (transferred <= 0)
+                        throw new IOException("The file ended before the request body was sent.");
+                    sent += transferred;
+                }
+            }
+        };
+    }
+
+    static void copy(InputStream input, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+    }
+}
@@ -103,8 +103,28 @@ public class RequestMessage {
         this.content = value;
     }
 
+    /**
+     * Sets the message body content to raw bytes, which are sent as they
+     * are.
+     *
+     * @param value The message content.
+     */
+    public void setContent(byte[] value) {
+        this.content = value;
+    }
+
     public void setContent(OutputStream value) {
         this.content = value;
     }
+
+    /**
+     * Sets the message body content to a body that is written to the
+     * connection as the request is sent.
+     *
+     * @param value The message content.
+     */
+    public void setContent(RequestBody value) {
+        this.content = value;
+    }
 }
 
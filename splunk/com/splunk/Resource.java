@@ -16,6 +16,8 @@
 
 package com.splunk;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.Date;
 import java.util.Map;
 
@@ -31,12 +33,19 @@ public abstract class Resource {
     protected Service service;
     protected String path;
     protected Args refreshArgs;
+    // The attributes to fetch on refresh, or null to fetch all of them.
+    String[] fields = null;
     
-    /* Initialized by {@link #load()}. */
+    /* Initialized by {@link #load()}, and published to other threads by the
+     * write to {@code maybeValid} that follows. */
     protected Map<String, String> actions;
     protected String title;
     protected Date updated;
-    private boolean maybeValid = false;
+    private volatile boolean maybeValid = false;
+    // When the state was read from the service's entity cache, which keeps
+    // it until it expires, the time it was fetched from the server;
+    // otherwise 0.
+    private volatile long fetchedAt = 0;
 
     /**
      * Class constructor.
@@ -63,6 +72,13 @@ public abstract class Resource {
         if (!args.containsKey("count")) {
             args.put("count", "-1");
         }
+        Object f = args.get("f");
+        if (f instanceof String[]) {
+            this.fields = (String[])f;
+        }
+        else if (f != null) {
+            this.fields = new String[] { f.toString() };
+        }
         
         this.service = service;
         this.path = service.fullpath(
@@ -139,6 +155,39 @@ public abstract class Resource {
         return validate().updated;
     }
 
+    /**
+     * Restricts the attributes that {@code refresh} fetches and parses to the
+     * given fields, which are sent as the {@code f} argument of the request.
+     * A field ending in {@code *} matches every attribute that starts with
+     * the rest of the field. Attributes that were not requested read as
+     * missing, except for {@code eai:acl}, which is always kept. Call this
+     * method with no fields to fetch every attribute again.
+     *
+     * @param fields The names of the attributes to fetch.
+     */
+    public void selectFields(String... fields) {
+        setFields(fields);
+        invalidate();
+    }
+
+    /**
+     * Sets the attributes that {@code refresh} fetches, without invalidating
+     * the local or cached state, as for a new member of a collection.
+     *
+     * @param fields The names of the attributes to fetch, or none to fetch
+     * every attribute.
+     */
+    void setFields(String[] fields) {
+        if (fields.length == 0) {
+            this.fields = null;
+            refreshArgs.remove("f");
+        }
+        else {
+            this.fields = fields.clone();
+            refreshArgs.put("f", this.fields);
+        }
+    }
+
     /**
      * Marks the local state of this resource as no longer current.
      *
@@ -146,9 +195,33 @@ public abstract class Resource {
      */
     public Resource invalidate() {
         this.maybeValid = false;
+        EntityCache cache = service.getEntityCache();
+        if (cache != null) {
+            cache.invalidate(path);
+        }
         return this;
     }
 
+    /**
+     * Issues a GET request for the state of this resource and returns the
+     * response body. If the service has an {@code EntityCache}, the body
+     * comes from the cache while the cached state is fresh.
+     *
+     * @param path The request path.
+     * @param args The query arguments, or {@code null}.
+     * @return The response body.
+     */
+    InputStream fetch(String path, Map<String, Object> args) {
+        EntityCache cache = service.getEntityCache();
+        if (cache == null) {
+            fetchedAt = 0;
+            return service.get(path, args).getContent();
+        }
+        EntityCache.Body body = cache.get(service, path, args);
+        fetchedAt = body.cached ? body.loadedAt : 0;
+        return new ByteArrayInputStream(body.content);
+    }
+
     /**
      * Loads the state of this resource from a given Atom object.
      *
@@ -178,12 +251,20 @@ public abstract class Resource {
 
     /**
      * Ensures that the local state of the resource is current,
-     * calling {@code refresh} if necessary.
+     * calling {@code refresh} if necessary. If the state was read through an
+     * {@code EntityCache}, it is refreshed once it is older than the time to
+     * live of its path.
      *
      * @return The current {@code Resource} instance.
      */
     public Resource validate() {
-        if (!this.maybeValid) refresh();
+        if (!this.maybeValid || isExpired()) refresh();
         return this;
     }
+
+    private boolean isExpired() {
+        if (fetchedAt == 0) return false;
+        EntityCache cache = service.getEntityCache();
+        return cache != null && cache.isExpired(path, fetchedAt);
+    }
 }
@@ -16,9 +16,11 @@
 
 package com.splunk;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * The {@code ResourceCollection} abstract base class represents a collection of
@@ -29,7 +31,9 @@ import java.util.*;
 public class ResourceCollection<T extends Resource> 
     extends Resource implements Map<String, T>
 {
-    protected LinkedHashMap<String, LinkedList<T>>
+    // Replaced as a whole by each refresh, so that other threads see either
+    // the previous members or the new ones.
+    protected volatile LinkedHashMap<String, LinkedList<T>>
             items = new LinkedHashMap<String, LinkedList<T>>();
     protected Class itemClass;
 
@@ -161,6 +165,23 @@ public class ResourceCollection<T extends Resource>
         return createItem(itemClass, itemPath(entry), namespace(entry));
     }
 
+    /**
+     * Creates the collection member for an entry of this collection's
+     * listing. The member fetches the same fields as this collection, if
+     * they were restricted with {@code selectFields}.
+     *
+     * @param entry The {@code AtomEntry} corresponding to the member.
+     * @return The new member.
+     */
+    T createListedItem(AtomEntry entry) {
+        T item = createItem(entry);
+        if (fields != null) {
+            // The member has no state yet, so there is nothing to invalidate.
+            item.setFields(fields);
+        }
+        return item;
+    }
+
     /** {@inheritDoc} */
     public Set<Map.Entry<String, T>> entrySet() {
         throw new UnsupportedOperationException();
@@ -254,11 +275,12 @@ public class ResourceCollection<T extends Resource>
         Args namespace = new Args();
 
         // no content? return an empty namespace.
-        if (entry.content == null)
+        Record content = entry.getContent();
+        if (content == null)
             return namespace;
 
         HashMap<String, String> entityMetadata =
-                (HashMap<String, String>)entry.content.get("eai:acl");
+                (HashMap<String, String>)content.get("eai:acl");
         
         // If there is no ACL info, we just create an empty map
         if (entityMetadata == null) {
@@ -289,26 +311,57 @@ public class ResourceCollection<T extends Resource>
     }
 
     /**
-     * Loads the collection resource from a given Atom feed.
+     * Issues an HTTP request to list the contents of the collection resource,
+     * and returns a reader that creates its members one at a time as their
+     * Atom entries are read from the response. Unlike {@code refresh}, this
+     * method neither holds the whole response in memory nor changes the
+     * contents of this collection. Close the reader if you stop before the
+     * end, to release the connection.
      *
-     * @param value The {@code AtomFeed} instance to load the collection from.
+     * @return A {@code CollectionReader} over the members of this collection.
+     */
+    public CollectionReader<T> listItems() {
+        ResponseMessage response = list();
+        return new CollectionReader<T>(
+                this, new AtomFeedReader(response.getContent(), fields));
+    }
+
+    /**
+     * Loads the collection resource from a given Atom feed reader, adding
+     * each member as its entry is read.
+     *
+     * @param reader The {@code AtomFeedReader} to load the collection from.
      * @return The current {@code ResourceCollection} instance.
      */
-    ResourceCollection<T> load(AtomFeed value) {
-        super.load(value);
-        for (AtomEntry entry : value.entries) {
+    ResourceCollection<T> load(AtomFeedReader reader) {
+        LinkedHashMap<String, LinkedList<T>> loaded =
+                new LinkedHashMap<String, LinkedList<T>>();
+        loadItems(reader, loaded);
+        items = loaded;
+        // The feed's own elements are complete only after the last entry.
+        super.load(reader.getFeed());
+        return this;
+    }
+
+    /**
+     * Adds the members read from an Atom feed reader to the given map.
+     *
+     * @param reader The {@code AtomFeedReader} to read the members from.
+     * @param target The map to add the members to, by key.
+     */
+    void loadItems(AtomFeedReader reader, Map<String, LinkedList<T>> target) {
+        for (AtomEntry entry : reader) {
             String key = itemKey(entry);
-            T item = createItem(entry);
-            if (items.containsKey(key)) {
-                LinkedList<T> list = items.get(key);
+            T item = createListedItem(entry);
+            if (target.containsKey(key)) {
+                LinkedList<T> list = target.get(key);
                 list.add(item);
             } else {
                 LinkedList<T> list = new LinkedList<T>();
                 list.add(item);
-                items.put(key, list);
+                target.put(key, list);
             }
         }
-        return this;
     }
 
     /** {@inheritDoc} */
@@ -327,25 +380,62 @@ public class ResourceCollection<T extends Resource>
 
     /** {@inheritDoc} */
     @Override public ResourceCollection refresh() {
-        items.clear();
-        ResponseMessage response = list();
-        assert(response.getStatus() == 200);
-
-        AtomFeed feed = null;
+        AtomFeedReader reader =
+                new AtomFeedReader(fetch(path, refreshArgs), fields);
         try {
-            feed = AtomFeed.parseStream(response.getContent());
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            load(reader);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
-        load(feed);
         return this;
     }
 
+    /**
+     * Asynchronously refreshes the contents of this collection. The
+     * collection should not be read by other threads until the returned
+     * future completes.
+     *
+     * @return The pending refreshed collection.
+     */
+    public SplunkFuture<ResourceCollection<T>> refreshAsync() {
+        return service.submitAsync(new Callable<ResourceCollection<T>>() {
+            public ResourceCollection<T> call() {
+                refresh();
+                return ResourceCollection.this;
+            }
+        });
+    }
+
     /** {@inheritDoc} */
     public T remove(Object key) {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Sets the maximum number of members that {@code refresh} fetches.
+     *
+     * @param count The maximum number of members to fetch. To fetch all of
+     * them, specify -1, which is the default.
+     */
+    public void setCount(int count) {
+        refreshArgs.put("count", count);
+        invalidate();
+    }
+
+    /**
+     * Sets the index of the first member that {@code refresh} fetches.
+     *
+     * @param offset The index of the first member to fetch.
+     */
+    public void setOffset(int offset) {
+        refreshArgs.put("offset", offset);
+        invalidate();
+    }
+
     /** {@inheritDoc} */
     public int size() {
         return validate().items.size();
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@code ResultRow} class is a reusable view of one row of search
+ * results, returned by the {@link ResultsReader#getNextRow} method.
+ * <p>
+ * Unlike {@link Event}, a single {@code ResultRow} is reused by its reader for
+ * every row, so reading a stream row by row does not allocate a map and a set
+ * of value arrays per row. Field names are interned in a table that is shared
+ * by all rows of the reader, so the same {@code String} instance is returned
+ * for the same field in every row. The contents of the row are only valid
+ * until the next call to {@code getNextRow} or {@code getNextEvent} on the
+ * reader. To keep a row, copy it with the {@link #toEvent} method.
+ * <p>
+ * Fields can be looked up by name, or visited by their position in the row,
+ * from 0 to {@link #size} - 1. Each field has one or more values. As with
+ * {@link Event}, readers that do not split multi-valued fields, such as
+ * {@link ResultsReaderCsv}, return the delimited values as a single value.
+ */
+public final class ResultRow {
+    // The interned field table, shared by every row of the reader.
+    private final Map<String, Integer> slotsByName = new HashMap<String, Integer>();
+    private String[] names = new String[16];
+    private int slotCount;
+
+    // Per slot. A slot holds a field of the current row only if its stamp
+    // equals rowStamp, so clearing the row does not touch these arrays.
+    private int[] stamps = new int[16];
+    private int[] valueStarts = new int[16];
+    private int[] valueCounts = new int[16];
+    private boolean[] isArray = new boolean[16];
+    private int rowStamp = 1;
+
+    // The slots of the current row in the order they were read.
+    private int[] order = new int[16];
+    private int size;
+
+    private String[] values = new String[64];
+    private int valueTotal;
+    // Start of the values added since the last field was committed.
+    private int pendingStart;
+
+    private XmlFragment segmentedRaw;
+
+    // Prevent non-SDK instantiation.
+    ResultRow() {
+        // nothing
+    }
+
+    /**
+     * Returns the number of fields in this row.
+     *
+     * @return The number of fields.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the name of the field at the given position in this row.
+     *
+     * @param position The position of the field, from 0 to {@link #size} - 1.
+     * @return The field name.
+     */
+    public String getFieldName(int position) {
+        return names[slotAt(position)];
+    }
+
+    /**
+     * Returns the number of values of the field at the given position.
+     *
+     * @param position The position of the field, from 0 to {@link #size} - 1.
+     * @return The number of values.
+     */
+    public int getValueCount(int position) {
+        return valueCounts[slotAt(position)];
+    }
+
+    /**
+     * Returns a value of the field at the given position.
+     *
+     * @param position The position of the field, from 0 to {@link #size} - 1.
+     * @param index The index of the value, from 0 to
+     * {@code getValueCount(position)} - 1.
+     * @return The value.
+     */
+    public String getValue(int position, int index) {
+        return valueOf(slotAt(position), index);
+    }
+
+    /**
+     * Indicates whether this row contains the specified field.
+     *
+     * @param field The field name.
+     * @return {@code true} if the field is present in this row.
+     */
+    public boolean containsField(String field) {
+        return slotOfPresent(field) >= 0;
+    }
+
+    /**
+     * Returns the number of values of the specified field, or 0 if the
+     * field is not present in this row.
+     *
+     * @param field The field name.
+     * @return The number of values.
+     */
+    public int getValueCount(String field) {
+        int slot = slotOfPresent(field);
+        return slot < 0 ? 0 : valueCounts[slot];
+    }
+
+    /**
+     * Returns a value of the specified field.
+     *
+     * @param field The field name.
+     * @param index The index of the value, from 0 to
+     * {@code getValueCount(field)} - 1.
+     * @return The value, or {@code null} if the field is not present in this
+     * row.
+     */
+    public String getValue(String field, int index) {
+        int slot = slotOfPresent(field);
+        return slot < 0 ? null : valueOf(slot, index);
+    }
+
+    /**
+     * Returns the single value or delimited set of values for the specified
+     * field name, as returned by {@link Event#get}. Only fields with several
+     * values allocate a new string.
+     *
+     * @param field The field name.
+     * @return The single value or delimited set of values, or {@code null} if
+     * the field is not present in this row.
+     */
+    public String get(String field) {
+        int slot = slotOfPresent(field);
+        return slot < 0 ? null : joinedValues(slot);
+    }
+
+    /**
+     * Returns the single value or delimited set of values of the field at
+     * the given position, as returned by {@link Event#get}.
+     *
+     * @param position The position of the field, from 0 to {@link #size} - 1.
+     * @return The single value or delimited set of values.
+     */
+    public String get(int position) {
+        return joinedValues(slotAt(position));
+    }
+
+    /**
+     * Gets the XML markup for the {@code "_raw"} field value, as returned by
+     * {@link Event#getSegmentedRaw}. This value is only available from the
+     * {@link ResultsReaderXml} class.
+     *
+     * @return The segmented raw XML, including tags and escaped characters.
+     */
+    public String getSegmentedRaw() {
+        if (segmentedRaw == null) {
+            throw new UnsupportedOperationException(
+                "The value is not available. Use ResultsReaderXml instead.");
+        }
+        return segmentedRaw.toString();
+    }
+
+    /**
+     * Copies this row into a new {@link Event} that stays valid after the
+     * reader moves on.
+     *
+     * @return The event.
+     */
+    public Event toEvent() {
+        Event event = new Event();
+        for (int i = 0; i < size; i++) {
+            int slot = order[i];
+            if (isArray[slot]) {
+                String[] array = new String[valueCounts[slot]];
+                System.arraycopy(values, valueStarts[slot], array, 0, array.length);
+                event.putArray(names[slot], array);
+            } else {
+                event.putSingleOrDelimited(names[slot], values[valueStarts[slot]]);
+            }
+        }
+        if (segmentedRaw != null) {
+            event.putSegmentedRaw(segmentedRaw);
+        }
+        return event;
+    }
+
+    // === Used by the readers to fill the row ===
+
+    /**
+     * Empties the row before the next one is read.
+     */
+    void clear() {
+        if (++rowStamp == 0) {
+            // After 2^32 rows, forget every stamp so no slot looks current.
+            Arrays.fill(stamps, 0);
+            rowStamp = 1;
+        }
+        size = 0;
+        valueTotal = 0;
+        pendingStart = 0;
+        segmentedRaw = null;
+    }
+
+    /**
+     * Returns the slot of the specified field name, adding it to the field
+     * table if it has not been seen before.
+     *
+     * @param field The field name.
+     * @return The slot.
+     */
+    int slotOf(String field) {
+        Integer slot = slotsByName.get(field);
+        if (slot != null) {
+            return slot;
+        }
+        if (slotCount == names.length) {
+            int capacity = slotCount * 2;
+            names = Arrays.copyOf(names, capacity);
+            stamps = Arrays.copyOf(stamps, capacity);
+            valueStarts = Arrays.copyOf(valueStarts, capacity);
+            valueCounts = Arrays.copyOf(valueCounts, capacity);
+            isArray = Arrays.copyOf(isArray, capacity);
+        }
+        names[slotCount] = field;
+        slotsByName.put(field, slotCount);
+        return slotCount++;
+    }
+
+    /**
+     * Sets the single value or delimited set of values of a field.
+     *
+     * @param slot The slot of the field, from {@link #slotOf}.
+     * @param valueOrDelimitedValues The value.
+     */
+    void putSingleOrDelimited(int slot, String valueOrDelimitedValues) {
+        addValue(valueOrDelimitedValues);
+        commit(slot, false);
+    }
+
+    void putSingleOrDelimited(String field, String valueOrDelimitedValues) {
+        putSingleOrDelimited(slotOf(field), valueOrDelimitedValues);
+    }
+
+    /**
+     * Adds a value to the field that is committed next by
+     * {@link #putArray}.
+     *
+     * @param value The value.
+     */
+    void addValue(String value) {
+        if (valueTotal == values.length) {
+            values = Arrays.copyOf(values, valueTotal * 2);
+        }
+        values[valueTotal++] = value;
+    }
+
+    /**
+     * Sets the values added since the last field was set as the values of
+     * the specified field.
+     *
+     * @param field The field name.
+     */
+    void putArray(String field) {
+        commit(slotOf(field), true);
+    }
+
+    void putSegmentedRaw(XmlFragment fragment) {
+        segmentedRaw = fragment;
+    }
+
+    private void commit(int slot, boolean array) {
+        if (stamps[slot] != rowStamp) {
+            stamps[slot] = rowStamp;
+            if (size == order.length) {
+                order = Arrays.copyOf(order, size * 2);
+            }
+            order[size++] = slot;
+        }
+        valueStarts[slot] = pendingStart;
+        valueCounts[slot] = valueTotal - pendingStart;
+        isArray[slot] = array;
+        pendingStart = valueTotal;
+    }
+
+    private int slotAt(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException(
+                "Position " + position + " is not in a row of " + size + " fields.");
+        }
+        return order[position];
+    }
+
+    private int slotOfPresent(String field) {
+        Integer slot = slotsByName.get(field);
+        if (slot == null || stamps[slot] != rowStamp) {
+            return -1;
+        }
+        return slot;
+    }
+
+    private String joinedValues(int slot) {
+        int count = valueCounts[slot];
+        if (count == 1) {
+            return values[valueStarts[slot]];
+        }
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                joined.append(',');
+            }
+            joined.append(values[valueStarts[slot] + i]);
+        }
+        return joined.toString();
+    }
+
+    private String valueOf(int slot, int index) {
+        if (index < 0 || index >= valueCounts[slot]) {
+            throw new IndexOutOfBoundsException(
+                "Value " + index + " of " + valueCounts[slot] + " values.");
+        }
+        return values[valueStarts[slot] + index];
+    }
+}
@@ -34,6 +34,8 @@ public abstract class ResultsReader
     boolean isPreview;
     boolean isExportStream;
     private boolean isInMultiReader;
+    // The row reused by getNextRow, and filled by the subclasses.
+    final ResultRow row = new ResultRow();
 
     ResultsReader(InputStream inputStream, boolean isInMultiReader)
             throws IOException {
@@ -64,6 +66,32 @@ public abstract class ResultsReader
         return getNextElement();
     }
 
+    /**
+     * Returns the next row in the event stream, without allocating a new
+     * {@link Event}.
+     * <p>
+     * The same {@link ResultRow} object is returned for every row, and its
+     * contents are only valid until the next call to this method. Use
+     * {@link ResultRow#toEvent} to keep a row. Result sets are concatenated
+     * in the same way as by {@link #getNextEvent}. Do not mix this method
+     * with the iterator of this reader.
+     *
+     * @return The row, or {@code null} if the end is reached.
+     * @throws IOException On IO exception.
+     */
+    final public ResultRow getNextRow() throws IOException {
+        while (true) {
+            row.clear();
+            if (readNextRowInCurrentSet(row))
+                return row;
+            // See getNextElement for why sets are not concatenated here.
+            if (isPreview)
+                return null;
+            if (!advanceStreamToNextSet())
+                return null;
+        }
+    }
+
     /**
      * Returns an iterator over the events from this reader.
      * @return an Iterator.
@@ -117,7 +145,18 @@ public abstract class ResultsReader
      * Get the next event in the current result set. Return null
      * if the end is reached.
      */
-    abstract Event getNextEventInCurrentSet() throws IOException;
+    Event getNextEventInCurrentSet() throws IOException {
+        row.clear();
+        if (!readNextRowInCurrentSet(row))
+            return null;
+        return row.toEvent();
+    }
+
+    /*
+     * Read the next event in the current result set into the given row,
+     * which has been cleared. Return false if the end is reached.
+     */
+    abstract boolean readNextRowInCurrentSet(ResultRow row) throws IOException;
 
     /*
      * Return false if the end is reached.
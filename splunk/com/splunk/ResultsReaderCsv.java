@@ -34,6 +34,8 @@ public class ResultsReaderCsv extends ResultsReader {
 
     private CSVReader csvReader = null;
     private List<String> keys;
+    // The row slot of each key, in column order.
+    private int[] keySlots;
 
     /**
      * Class constructor.
@@ -61,6 +63,10 @@ public class ResultsReaderCsv extends ResultsReader {
             keyArray = csvReader.readNext();
         }
         keys = Arrays.asList(keyArray);
+        keySlots = new int[keyArray.length];
+        for (int i = 0; i < keyArray.length; i++) {
+            keySlots[i] = row.slotOf(keyArray[i]);
+        }
     }
 
     /** {@inheritDoc} */
@@ -91,26 +97,23 @@ public class ResultsReaderCsv extends ResultsReader {
      * An application won't reach here with a stream from
      * an /export endpoint. The constructor will throw an error in that case.
      */
-    @Override Event getNextEventInCurrentSet() throws IOException {
-        Event returnData = null;
+    @Override boolean readNextRowInCurrentSet(ResultRow row)
+            throws IOException {
         String[] line;
 
-        if ((line = csvReader.readNext()) != null) {
-            if (line.length == 1 && line[0].equals("")) {
-                line = csvReader.readNext();
-                if (line == null) {
-                    return returnData;
-                }
-            }
-            
-            returnData = new Event();
-            int count = 0;
-            for (String key : keys) {
-                String delimitedValues = line[count++];
-                returnData.putSingleOrDelimited(key, delimitedValues);
+        if ((line = csvReader.readNext()) == null) {
+            return false;
+        }
+        if (line.length == 1 && line[0].equals("")) {
+            line = csvReader.readNext();
+            if (line == null) {
+                return false;
             }
         }
 
-        return returnData;
+        for (int i = 0; i < keySlots.length; i++) {
+            row.putSingleOrDelimited(keySlots[i], line[i]);
+        }
+        return true;
     }
 }
@@ -23,9 +23,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 
 /**
  * The {@code ResultsReaderJson} class represents a streaming JSON reader for
@@ -222,35 +220,40 @@ public class ResultsReaderJson extends ResultsReader {
                 "getFields() is not supported by this subclass.");
     }
 
-    @Override Event getNextEventInCurrentSet() throws IOException {
+    @Override boolean readNextRowInCurrentSet(ResultRow row)
+            throws IOException {
         if (exportHelper != null) {
             // If the last row has been passed and moveToNextStreamPosition
             // has not been called, end the current set.
             if (exportHelper.lastRow && !exportHelper.inRow ) {
-                return null;
+                return false;
+            }
+            // A stream that ends without a last row, such as one cut off
+            // between rows, ends the set instead of spinning at the end.
+            if (!exportHelper.readIntoRow()) {
+                exportHelper.skipRestOfRow();
+                return false;
             }
-            exportHelper.readIntoRow();
         }
 
-        Event returnData = readEvent();
+        boolean found = readRow(row);
 
         if (exportHelper != null) {
             exportHelper.skipRestOfRow();
-            return returnData;
+            return found;
         }
         // Single reader not from export
-        if (returnData == null)
+        if (!found)
             close();
-        return returnData;
+        return found;
     }
 
-    private Event readEvent() throws IOException {
-        Event returnData = null;
+    private boolean readRow(ResultRow row) throws IOException {
+        boolean found = false;
         String name = null;
-        List<String> values = new ArrayList<String>();
 
         if (jsonReader == null)
-            return null;
+            return false;
 
         // Events are almost flat, so no need for a true general parser
         // solution. But the Gson parser is a little unintuitive here. Nested
@@ -259,9 +262,7 @@ public class ResultsReaderJson extends ResultsReader {
         // and one must consume the closing (END) object to get back to the
         // previous object.
         while (jsonReader.hasNext()) {
-            if (returnData == null) {
-                returnData = new Event();
-            }
+            found = true;
             if (jsonReader.peek() == JsonToken.BEGIN_OBJECT) {
                 jsonReader.beginObject();
             }
@@ -273,23 +274,19 @@ public class ResultsReaderJson extends ResultsReader {
                 while (jsonReader.hasNext()) {
                     JsonToken jsonToken2 = jsonReader.peek();
                     if (jsonToken2 == JsonToken.STRING) {
-                        values.add(jsonReader.nextString());
+                        row.addValue(jsonReader.nextString());
                     }
                 }
                 jsonReader.endArray();
 
-                String[] valuesArray =
-                    values.toArray(new String[values.size()]);
-                returnData.putArray(name, valuesArray);
-
-                values.clear();
+                row.putArray(name);
             }
             if (jsonReader.peek() == JsonToken.NAME) {
                 name = jsonReader.nextName();
             }
             if (jsonReader.peek() == JsonToken.STRING) {
                 String delimitedValues = jsonReader.nextString();
-                returnData.putSingleOrDelimited(name, delimitedValues);
+                row.putSingleOrDelimited(name, delimitedValues);
             }
             if (jsonReader.peek() == JsonToken.END_OBJECT) {
                 jsonReader.endObject();
@@ -299,7 +296,17 @@ public class ResultsReaderJson extends ResultsReader {
                 jsonReader.endArray();
             }
         }
-        return returnData;
+        return found;
+    }
+
+    /*
+     * Whether a stream from an export endpoint ended after the last row of
+     * its final set, rather than being cut off between rows. A stream that
+     * held no row at all, as for a search without results, also counts.
+     */
+    boolean endedAtLastRow() {
+        return exportHelper == null ||
+            (exportHelper.lastRow && !exportHelper.inRow);
     }
 
     @Override boolean advanceStreamToNextSet() throws IOException{
@@ -16,17 +16,10 @@
 
 package com.splunk;
 
-import javax.xml.namespace.QName;
 import javax.xml.stream.*;
-import javax.xml.stream.events.Attribute;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
 import java.io.*;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.List;
 
 /**
  * The {@code ResultsReaderXml} class represents a streaming XML reader for
@@ -37,9 +30,11 @@ import java.util.List;
 public class ResultsReaderXml
     extends ResultsReader {
 
-    private XMLEventReader xmlReader = null;
+    private XMLStreamReader xmlReader = null;
+    // The cursor is always positioned on the most recently returned event.
+    // If this is set, that event was only peeked at and not yet consumed.
+    private boolean pending;
     private ArrayList<String> fields = new ArrayList<String>();
-    private PushbackInputStream pushbackInputStream;
 
     /**
      * Class constructor.
@@ -48,7 +43,7 @@ public class ResultsReaderXml
      * attempt to parse an XML stream with this reader. If you attempt to parse 
      * a different type of stream, unpredictable results may occur. 
      * <br>
-     * The pushback reader modifies export streams to generate non-strict XML 
+     * The reader modifies export streams to generate non-strict XML 
      * at the beginning of the stream. The streaming reader ignores preview 
      * data, and only extracts finalized data.
      *
@@ -65,22 +60,18 @@ public class ResultsReaderXml
             throws IOException {
         super(inputStream, isInMultiReader);
 
-        // We need to do read-ahead, so we have to use a PushbackInputStream for everything
-        // in this class.
-        this.pushbackInputStream = new PushbackInputStream(inputStream);
-        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
-
-        int ch = this.pushbackInputStream.read();
-        if (ch == -1) {
+        InsertRootElementFilterInputStream filteredStream =
+                new InsertRootElementFilterInputStream(inputStream);
+        if (filteredStream.isEmpty()) {
             return; // Stream is empty.
-        } else {
-            ((PushbackInputStream)this.pushbackInputStream).unread(ch);
         }
 
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
         inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
         try {
-            InputStream filteredStream = new InsertRootElementFilterInputStream(this.pushbackInputStream);
-            xmlReader = inputFactory.createXMLEventReader(filteredStream);
+            xmlReader = inputFactory.createXMLStreamReader(filteredStream);
+            // The reader starts out on START_DOCUMENT, which nobody has seen.
+            pending = true;
             finishInitialization();
         } catch (XMLStreamException e) {
             throw new RuntimeException(e);
@@ -111,19 +102,19 @@ public class ResultsReaderXml
         return fields;
     }
 
-    @Override Event getNextEventInCurrentSet() throws IOException {
+    @Override boolean readNextRowInCurrentSet(ResultRow row)
+            throws IOException {
         // Handle empty stream or other cases where xmlReader is
         // not constructed.
         if (xmlReader == null) {
-            return null;
+            return false;
         }
         try {
-            Event event = null;
-            XMLEvent xmlEvent = readToStartOfElementAtSameLevelWithName("result");
-            if (xmlEvent != null) {
-                event = getResultKVPairs();
+            if (!readToStartOfElementAtSameLevelWithName("result")) {
+                return false;
             }
-            return event;
+            readResultKVPairs(row);
+            return true;
         } catch (XMLStreamException e) {
            throw new RuntimeException(e);
         }
@@ -134,70 +125,76 @@ public class ResultsReaderXml
     // Return value indicates whether the next 'results' element is found.
     boolean readIntoNextResultsElement()
             throws XMLStreamException, IOException {
-        XMLEvent xmlEvent = readToStartOfElementWithName("results");
-        if (xmlEvent == null) {
+        if (!readToStartOfElementWithName("results")) {
             return false;
         }
 
-        if (xmlEvent != null &&
-            xmlEvent.asStartElement()
-                .getAttributeByName(QName.valueOf("preview"))
-                .getValue()
-                .equals("0") ){
-            isPreview = false;
-        } else {
-            isPreview = true;
+        String preview = xmlReader.getAttributeValue(null, "preview");
+        if (preview == null) {
+            // A 'results' element without a preview flag is not one we
+            // can read results from, so treat it as the end of the stream.
+            return false;
         }
+        isPreview = !preview.equals("0");
 
         // Read <meta> element.
         final String meta = "meta";
-        if (readToStartOfElementAtSameLevelWithName(meta) != null) {
+        if (readToStartOfElementAtSameLevelWithName(meta)) {
             readFieldOrderElement();
             readToEndElementWithName(meta);
         }
         return true;
     }
 
-    XMLEvent readToStartOfElementWithName(String elementName)
-        throws XMLStreamException {
-        while (xmlReader.hasNext()) {
-            XMLEvent xmlEvent = xmlReader.nextEvent();
-            int eType = xmlEvent.getEventType();
-            if (eType != XMLStreamConstants.START_ELEMENT){
-                continue;
-            }
+    // Consumes the event under the cursor, or moves to the next one if the
+    // current event was already consumed, and returns its type.
+    private int nextEvent() throws XMLStreamException {
+        if (pending) {
+            pending = false;
+        } else {
+            xmlReader.next();
+        }
+        return xmlReader.getEventType();
+    }
+
+    // Returns the type of the next event without consuming it.
+    private int peek() throws XMLStreamException {
+        if (!pending) {
+            xmlReader.next();
+            pending = true;
+        }
+        return xmlReader.getEventType();
+    }
 
-            StartElement startElement = xmlEvent.asStartElement();
-            if(startElement
-                    .getName()
-                    .getLocalPart()
-                    .equals(elementName)){
-                return xmlEvent;
+    private boolean hasNext() throws XMLStreamException {
+        return pending || xmlReader.hasNext();
+    }
+
+    /**
+     * Reads to the next specified start element at any level. The reader
+     * stops past that element if it is found.
+     *
+     * @param elementName The name of the start element.
+     * @return {@code true} if the element was found, with the reader
+     * positioned on it.
+     * @throws XMLStreamException
+     */
+    boolean readToStartOfElementWithName(String elementName)
+        throws XMLStreamException {
+        while (hasNext()) {
+            if (nextEvent() == XMLStreamConstants.START_ELEMENT &&
+                    xmlReader.getLocalName().equals(elementName)) {
+                return true;
             }
         }
-        return null;
+        return false;
     }
 
     void readToEndElementWithName(String elementName) throws XMLStreamException {
-        XMLEvent xmlEvent;
-        int eType;
-
-        while (xmlReader.hasNext()) {
-            xmlEvent = xmlReader.nextEvent();
-            eType = xmlEvent.getEventType();
-            switch (eType) {
-                case XMLStreamConstants.START_ELEMENT:
-                    break;
-                case XMLStreamConstants.END_ELEMENT:
-                    if (xmlEvent.asEndElement()
-                            .getName()
-                            .getLocalPart()
-                            .equals(elementName)) {
-                        return;
-                    }
-                    break;
-                default:
-                    break;
+        while (hasNext()) {
+            if (nextEvent() == XMLStreamConstants.END_ELEMENT &&
+                    xmlReader.getLocalName().equals(elementName)) {
+                return;
             }
         }
 
@@ -210,40 +207,33 @@ public class ResultsReaderXml
      * before the end element of the current level.
      * 
      * @param elementName The name of the start element.
-     * @return  The start element, or {@code null} if not found.
+     * @return {@code true} if the element was found, with the reader
+     * positioned on it.
      * @throws XMLStreamException
      */
-    XMLEvent readToStartOfElementAtSameLevelWithName(String elementName)
+    boolean readToStartOfElementAtSameLevelWithName(String elementName)
             throws XMLStreamException {
-        XMLEvent xmlEvent;
-        int eType;
         int level = 0;
-        while (xmlReader.hasNext()) {
-            xmlEvent = xmlReader.peek();
-            eType = xmlEvent.getEventType();
-            switch (eType) {
+        while (hasNext()) {
+            switch (peek()) {
                 case XMLStreamConstants.START_ELEMENT:
                     if (level++ > 0){
                         break;
                     }
-                    StartElement startElement = xmlEvent.asStartElement();
-                    if (startElement
-                            .getName()
-                            .getLocalPart()
-                            .equals(elementName)) {
-                        xmlReader.nextEvent();
-                        return xmlEvent;
+                    if (xmlReader.getLocalName().equals(elementName)) {
+                        nextEvent();
+                        return true;
                     }
                     break;
                 case XMLStreamConstants.END_ELEMENT:
                     if (level-- == 0) {
-                        return  null;
+                        return false;
                     }
                     break;
                 default:
                     break;
             }
-            xmlReader.nextEvent();
+            nextEvent();
         }
 
         throw new RuntimeException("Parent end element not found:" + elementName);
@@ -252,32 +242,25 @@ public class ResultsReaderXml
     // At the end, move off the end element of 'fieldOrder'
     private void readFieldOrderElement()
             throws IOException, XMLStreamException {
-        XMLEvent xmlEvent;
-        int eType;
         int level = 0;
 
-        if (readToStartOfElementAtSameLevelWithName("fieldOrder") == null)
+        if (!readToStartOfElementAtSameLevelWithName("fieldOrder"))
             return;
 
-        while (xmlReader.hasNext()) {
-            xmlEvent = xmlReader.nextEvent();
-            eType = xmlEvent.getEventType();
-            switch (eType) {
+        while (hasNext()) {
+            switch (nextEvent()) {
                 case XMLStreamConstants.START_ELEMENT:
                     level++;
                     break;
                 case XMLStreamConstants.END_ELEMENT:
-                    if (xmlEvent.asEndElement()
-                            .getName()
-                            .getLocalPart()
-                            .equals("fieldOrder")) {
+                    if (xmlReader.getLocalName().equals("fieldOrder")) {
                         return;
                     }
                     level--;
                     break;
                 case XMLStreamConstants.CHARACTERS:
                     if (level == 1) {
-                        fields.add(xmlEvent.asCharacters().getData());
+                        fields.add(xmlReader.getText());
                     }
                     break;
                 default:
@@ -289,65 +272,47 @@ public class ResultsReaderXml
     }
 
     // At the end, move off the end tag of 'result'
-    private Event getResultKVPairs()
+    private void readResultKVPairs(ResultRow row)
             throws IOException, XMLStreamException {
         
-        Event returnData = new Event();
-        XMLEvent xmlEvent;
-        int eType;
         String key = null;
-        List<String> values = new ArrayList<String>();
         int level = 0;
 
         // Event results are flat, so extract k/v pairs based on XML indentation
         // level throwing away the uninteresting non-data.
 
-        while (xmlReader.hasNext()) {
-            xmlEvent = xmlReader.nextEvent();
-            eType = xmlEvent.getEventType();
-            switch (eType) {
+        while (hasNext()) {
+            switch (nextEvent()) {
                 case XMLStreamConstants.START_ELEMENT:
-                    final StartElement startElement = xmlEvent.asStartElement();
-                    @SuppressWarnings("unchecked")
-                    Iterator<Attribute> attrIttr =
-                        startElement.getAttributes();
                     if (level == 0) {
-                        if (attrIttr.hasNext())
-                            key =  attrIttr.next().getValue();
+                        if (xmlReader.getAttributeCount() > 0)
+                            key = xmlReader.getAttributeValue(0);
                     } else if (level == 1 &&
-                            key.equals("_raw") &&
-                            startElement
-                                .getName()
-                                .getLocalPart()
-                                .equals("v")) {
+                            "_raw".equals(key) &&
+                            xmlReader.getLocalName().equals("v")) {
                         StringBuilder asString = new StringBuilder();
-                        StringWriter asXml = new StringWriter();
-                        readSubtree(startElement, asString, asXml);
-                        values.add(asString.toString());
-                        returnData.putSegmentedRaw(asXml.toString());
+                        XmlFragment asXml = new XmlFragment();
+                        readSubtree(asString, asXml);
+                        row.addValue(asString.toString());
+                        row.putSegmentedRaw(asXml);
                         level--;
                     }
                     level++;
                     break;
                 case XMLStreamConstants.END_ELEMENT:
-                    if (xmlEvent.asEndElement()
-                            .getName()
-                            .getLocalPart()
-                            .equals("result"))
-                        return returnData;
+                    if (xmlReader.getLocalName().equals("result"))
+                        return;
                     
                     if (--level == 0) {
-                        String[] valuesArray = 
-                                values.toArray(new String[values.size()]);
-                        returnData.putArray(key, valuesArray);
-                        
+                        row.putArray(key);
                         key = null;
-                        values.clear();
                     }
                     break;
                 case XMLStreamConstants.CHARACTERS:
+                    // Only pull the text out of the parser when it is a value;
+                    // the whitespace between elements is never materialized.
                     if (level > 1) {
-                        values.add(xmlEvent.asCharacters().getData());
+                        row.addValue(xmlReader.getText());
                     }
                     break;
                 default:
@@ -383,46 +348,77 @@ public class ResultsReaderXml
 
     /**
      * Read the whole element including those contained in the outer element.
-     * @param startElement start element (tag) of the outer element.
+     * The reader must be positioned on the start element (tag) of the outer
+     * element, and is left on its end element.
      * @param asString output builder that the element's inner-text
      *                 will be appended to, with markup removed and
      *                 characters un-escaped
-     * @param asXml    output builder that full xml including markups
-     *                 will be appended to. Characters are escaped as
-     *                 needed.
+     * @param asXml    output fragment that the full xml including markups
+     *                 will be recorded to. Characters are escaped when
+     *                 the fragment is serialized.
      * @throws IOException
      * @throws XMLStreamException
      */
     void readSubtree(
-            StartElement startElement,
             StringBuilder asString,
-            StringWriter asXml)
+            XmlFragment asXml)
             throws IOException, XMLStreamException {
-        XMLEventWriter xmlWriter = XMLOutputFactory.newInstance().
-                createXMLEventWriter(asXml);
-        XMLEvent xmlEvent = startElement;
         int level = 0;
-        do {
-            xmlWriter.add(xmlEvent);
-            int eType = xmlEvent.getEventType();
-            switch (eType) {
+        while (true) {
+            switch (xmlReader.getEventType()) {
                 case XMLStreamConstants.START_ELEMENT:
+                    asXml.startElement(readStartTag());
                     level++;
                     break;
                 case XMLStreamConstants.END_ELEMENT:
+                    asXml.endElement();
                     if (--level == 0) {
-                        xmlWriter.close();
                         return;
                     }
                     break;
                 case XMLStreamConstants.CHARACTERS:
-                    asString.append(xmlEvent.asCharacters().getData());
+                    String text = xmlReader.getText();
+                    asString.append(text);
+                    asXml.characters(text);
+                    break;
                 default:
                     break;
             }
-            xmlEvent = xmlReader.nextEvent();
-        } while (xmlReader.hasNext());
+            if (!hasNext()) {
+                break;
+            }
+            nextEvent();
+        }
         throw new RuntimeException("Invalid XML format.");
     }
+
+    // Returns the start element under the cursor, with its namespace
+    // declarations and attributes.
+    private XmlFragment.StartTag readStartTag() {
+        int namespaceCount = xmlReader.getNamespaceCount();
+        String[] namespaces = new String[2 * namespaceCount];
+        for (int n = 0, i = 0; n < namespaceCount; n++) {
+            namespaces[i++] = xmlReader.getNamespacePrefix(n);
+            namespaces[i++] = xmlReader.getNamespaceURI(n);
+        }
+        int attributeCount = xmlReader.getAttributeCount();
+        String[] attributes = new String[4 * attributeCount];
+        for (int a = 0, i = 0; a < attributeCount; a++) {
+            attributes[i++] = nullToEmpty(xmlReader.getAttributePrefix(a));
+            attributes[i++] = nullToEmpty(xmlReader.getAttributeNamespace(a));
+            attributes[i++] = xmlReader.getAttributeLocalName(a);
+            attributes[i++] = xmlReader.getAttributeValue(a);
+        }
+        return new XmlFragment.StartTag(
+                xmlReader.getPrefix(),
+                xmlReader.getNamespaceURI(),
+                xmlReader.getLocalName(),
+                namespaces,
+                attributes);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
 }
 
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The {@code ResumableExport} class streams the events of an export search
+ * (see {@link Service#export}) and transparently resumes the export if the
+ * connection fails.
+ * <p>
+ * The export keeps an {@link ExportCheckpoint} of the {@code _time} of the
+ * last events read. When reading fails with an IO error, the export search is
+ * run again from the checkpoint, by narrowing its {@code latest_time} (or its
+ * {@code earliest_time} for exports that return the oldest events first), and
+ * the events that were already returned are skipped. The checkpoint can also
+ * be saved to a file, so an export interrupted by a restart of the
+ * application resumes where it stopped.
+ * <p>
+ * Resuming relies on the events arriving in time order, so this class is
+ * meant for event searches rather than reporting searches, and the events
+ * must have a {@code _time} field. Relative time bounds such as
+ * {@code -24h} are evaluated again when the export is resumed. The results
+ * are read in the JSON format.
+ * <p>
+ * For example:
+ * <pre>
+ * ResumableExport export = new ResumableExport(service, "search index=main", args);
+ * export.setCheckpointFile(new File("export.checkpoint"));
+ * for (Event event : export) {
+ *     ...
+ * }
+ * export.close();
+ * </pre>
+ */
+public class ResumableExport extends StreamIterableBase<Event> {
+    /** The default number of attempts to resume in a row without progress. */
+    public static final int DEFAULT_MAX_RETRIES = 5;
+
+    /** The default time before the first attempt to resume, in milliseconds. */
+    public static final long DEFAULT_RETRY_DELAY = 1000;
+
+    /** The default number of events between saves of the checkpoint file. */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 10000;
+
+    private final Service service;
+    private final String search;
+    private final Map<String, Object> args;
+
+    private ExportCheckpoint checkpoint = new ExportCheckpoint();
+    private File checkpointFile = null;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long retryDelay = DEFAULT_RETRY_DELAY;
+    private boolean oldestFirst = false;
+
+    private ResultsReaderJson reader = null;
+    private int failures = 0;
+    private boolean done = false;
+
+    /**
+     * Creates a new {@code ResumableExport}. The export search is run on the
+     * first read.
+     *
+     * @param service The connected {@code Service} instance.
+     * @param search The search query to run.
+     * @param args Optional export arguments (see {@link JobExportArgs}). The
+     * {@code output_mode} argument is set by this class.
+     */
+    public ResumableExport(Service service, String search, JobExportArgs args) {
+        this.service = service;
+        this.search = search;
+        this.args = args == null ? new Args() : new Args(args);
+    }
+
+    /**
+     * Returns the checkpoint of this export.
+     *
+     * @return The checkpoint.
+     */
+    public ExportCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Sets the checkpoint to start from, such as one saved by an earlier
+     * export of the same search.
+     *
+     * @param checkpoint The checkpoint.
+     */
+    public void setCheckpoint(ExportCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Sets the file the checkpoint is saved to. If the file exists, the export
+     * starts from the checkpoint it contains.
+     *
+     * @param file The checkpoint file.
+     * @throws IOException If the file cannot be read.
+     */
+    public void setCheckpointFile(File file) throws IOException {
+        this.checkpointFile = file;
+        ExportCheckpoint saved = ExportCheckpoint.load(file);
+        if (saved != null) {
+            checkpoint = saved;
+        }
+    }
+
+    /**
+     * Sets the number of events read between saves of the checkpoint file.
+     * The checkpoint is also saved when the export ends or is closed.
+     *
+     * @param interval The number of events.
+     */
+    public void setCheckpointInterval(int interval) {
+        if (interval < 1)
+            throw new IllegalArgumentException("interval must be at least 1.");
+        this.checkpointInterval = interval;
+    }
+
+    /**
+     * Sets the number of attempts to resume the export in a row without
+     * reading any event, before the failure is thrown to the caller.
+     *
+     * @param maxRetries The number of attempts.
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Sets the time before the first attempt to resume. The time doubles with
+     * each further attempt in a row.
+     *
+     * @param retryDelay The time, in milliseconds.
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Sets whether the search returns the oldest events first, such as a
+     * search ending with {@code | reverse}. By default, events are expected
+     * newest first, which is the order of an event search.
+     *
+     * @param oldestFirst {@code true} if the oldest events come first.
+     */
+    public void setOldestFirst(boolean oldestFirst) {
+        this.oldestFirst = oldestFirst;
+    }
+
+    /**
+     * Returns the next event of the export, resuming the export if needed.
+     *
+     * @return The event, or {@code null} if the end is reached.
+     * @throws IOException If the export cannot be resumed.
+     */
+    public Event getNextEvent() throws IOException {
+        while (!done) {
+            Event event;
+            try {
+                if (reader == null) {
+                    reader = new ResultsReaderJson(
+                            service.export(search, resumeArgs()));
+                }
+                event = reader.getNextEvent();
+            } catch (IOException e) {
+                retry(e);
+                continue;
+            } catch (RuntimeException e) {
+                // Parsers and HttpService wrap IO errors.
+                if (!(e.getCause() instanceof IOException))
+                    throw e;
+                retry((IOException) e.getCause());
+                continue;
+            }
+
+            if (event == null) {
+                // A connection closed between rows also ends the stream,
+                // so the export is only complete after its last row.
+                if (!reader.endedAtLastRow()) {
+                    retry(new IOException(
+                        "The export ended before its last row."));
+                    continue;
+                }
+                close();
+                return null;
+            }
+            long time = timeOf(event);
+            String id = idOf(event);
+            if (checkpoint.hasSeen(time, id)) {
+                continue;
+            }
+            checkpoint.record(time, id, oldestFirst);
+            failures = 0;
+            if (checkpointFile != null &&
+                    checkpoint.getEventCount() % checkpointInterval == 0) {
+                checkpoint.save(checkpointFile);
+            }
+            return event;
+        }
+        return null;
+    }
+
+    /**
+     * Returns an iterator over the events of the export.
+     * @return an Iterator.
+     */
+    @Override
+    public final Iterator<Event> iterator() {
+        return super.iterator();
+    }
+
+    /**
+     * Stops the export and saves the checkpoint file, if any.
+     *
+     * @throws IOException On IO exception.
+     */
+    public void close() throws IOException {
+        done = true;
+        closeReader();
+        if (checkpointFile != null) {
+            checkpoint.save(checkpointFile);
+        }
+    }
+
+    @Override Event getNextElement() throws IOException {
+        return getNextEvent();
+    }
+
+    private Map<String, Object> resumeArgs() {
+        Args resumed = new Args(args);
+        resumed.put("output_mode", "json");
+        long time = checkpoint.getTime();
+        if (time >= 0) {
+            // Start at the second of the checkpoint. The events of that
+            // second that were already returned are skipped.
+            if (oldestFirst) {
+                resumed.put("earliest_time", Long.toString(time));
+            } else {
+                resumed.put("latest_time", Long.toString(time + 1));
+            }
+        }
+        return resumed;
+    }
+
+    private void retry(IOException failure) throws IOException {
+        closeReader();
+        if (++failures > maxRetries)
+            throw failure;
+        if (checkpoint.getEventCount() > 0 && checkpoint.getTime() < 0)
+            throw new IOException(
+                "Cannot resume an export of events without a _time field.",
+                failure);
+        try {
+            Thread.sleep(retryDelay << Math.min(failures - 1, 16));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void closeReader() {
+        if (reader == null)
+            return;
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // The connection is already broken or no longer needed.
+        } catch (RuntimeException e) {
+            // Likewise.
+        }
+        reader = null;
+    }
+
+    private static long timeOf(Event event) {
+        String time = event.get("_time");
+        if (time == null)
+            return -1;
+        try {
+            return Value.toDate(time).getTime() / 1000;
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static String idOf(Event event) {
+        String cd = event.get("_cd");
+        if (cd == null) {
+            // The raw text may hold line breaks, which the checkpoint file
+            // cannot, so it is identified by its hash instead.
+            String raw = event.get("_raw");
+            return raw == null ? "" : "raw:" + sha1(raw);
+        }
+        return cd + "|" + event.get("index") + "|" + event.get("splunk_server");
+    }
+
+    private static String sha1(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(text.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -23,6 +23,9 @@ import java.net.Socket;
 import java.net.URLEncoder;
 import java.net.URLStreamHandler;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The {@code Service} class represents a Splunk service instance at a given
@@ -43,7 +46,7 @@ public class Service extends BaseService {
     protected String app = null;
 
     /** The current session token. */
-    protected String token = null;
+    protected volatile String token = null;
 
     /** The current owner context. A value of "nobody" means that all users
      * have access to the resource.
@@ -52,19 +55,41 @@ public class Service extends BaseService {
 
     /** The Splunk account username, which is used to authenticate the Splunk
      * instance. */
-    protected String username = null;
+    protected volatile String username = null;
 
     /** The password, which is used to authenticate the Splunk instance. */
-    protected String password = null;
+    protected volatile String password = null;
 
     /** The default simple receiver endpoint. */
     protected String simpleReceiverEndPoint = "/services/receivers/simple";
 
     /** The default password endpoint, can change over Splunk versions. */
-    protected String passwordEndPoint = "admin/passwords";
+    protected volatile String passwordEndPoint = "admin/passwords";
+
+    /** The job watcher shared by this service, created on first use. */
+    private JobWatcher jobWatcher = null;
+
+    /** The cache of entity state read by this service, if any. */
+    private volatile EntityCache entityCache = null;
+
+    /** Whether to log in again when a request finds the session expired. */
+    private volatile boolean autoRelogin = false;
+
+    /** Held while logging in, so that one thread at a time does. */
+    private final Object loginLock = new Object();
+
+    /** Counts logins, so that the threads whose requests failed with the
+     * same expired session log in again only once. */
+    private volatile int sessionGeneration = 0;
 
     /** The version of this Splunk instance, once logged in. */
-    public String version = null;
+    public volatile String version = null;
+
+    /** The input kinds of this Splunk instance, by the version they were read
+     * from. Cleared on login, since the apps that define new kinds take effect
+     * only after a restart. */
+    final Map<String, Set<InputKind>> inputKindCache =
+            new ConcurrentHashMap<String, Set<InputKind>>();
 
     /** The default host name, which is used when a host name is not provided.*/
     public static String DEFAULT_HOST = "localhost";
@@ -151,6 +176,8 @@ public class Service extends BaseService {
         this.httpsHandler = Args.<URLStreamHandler>get(args, "httpsHandler", null);
         this.setSslSecurityProtocol(Args.get(args, "SSLSecurityProtocol", Service.getSslSecurityProtocol()));
         this.addCookie((String)args.get("cookie"));
+        if (args.containsKey("transport"))
+            this.setTransport((HttpTransport)args.get("transport"));
     }
 
     /**
@@ -173,6 +200,8 @@ public class Service extends BaseService {
         this.addCookie((String)args.get("cookie"));
         this.connectTimeout = Args.<Integer>get(args, "connectTimeout", null);
         this.readTimeout = Args.<Integer>get(args, "readTimeout", null);
+        if (args.containsKey("transport"))
+            this.setTransport((HttpTransport)args.get("transport"));
     }
 
     /**
@@ -239,6 +268,26 @@ public class Service extends BaseService {
         return export(search, (Map<String, Object>) args);
     }
 
+    /**
+     * Asynchronously runs an export search with arguments (using the
+     * {@code search/jobs/export} endpoint). The future completes once the
+     * response headers have been received; the results are then streamed from
+     * the returned input stream.
+     *
+     * @param search The search query to run.
+     * @param args Additional search arguments (see {@code JobExportArgs}).
+     * @return The pending {@code InputStream} object that contains the search
+     * results.
+     */
+    public SplunkFuture<InputStream> exportAsync(final String search,
+                                                 final Map<String, Object> args) {
+        return submitAsync(new Callable<InputStream>() {
+            public InputStream call() {
+                return export(search, args);
+            }
+        });
+    }
+
     /**
      * Ensures that the given path is fully qualified, prepending a path
      * prefix if necessary. The path prefix is constructed using the current
@@ -499,6 +548,15 @@ public class Service extends BaseService {
             this, "search/distributed/peers", DistributedPeer.class, args);
     }
 
+    /**
+     * Returns the cache of entity state used by this service, if any.
+     *
+     * @return The entity cache, or {@code null} if entity state is not
+     * cached.
+     */
+    public EntityCache getEntityCache() {
+        return this.entityCache;
+    }
 
     /**
      * Returns a collection of saved event types.
@@ -645,6 +703,19 @@ public class Service extends BaseService {
         return new Job(this, JobCollection.REST_PATH + "/" + sid);
     }
 
+    /**
+     * Returns the job watcher shared by this service, which tracks the status
+     * of many jobs with batched requests. See {@link JobWatcher}. If a caller
+     * has closed the shared watcher, a new one is created.
+     *
+     * @return The job watcher.
+     */
+    public synchronized JobWatcher getJobWatcher() {
+        if (jobWatcher == null || jobWatcher.isClosed())
+            jobWatcher = new JobWatcher(this);
+        return jobWatcher;
+    }
+
     /**
      * Returns a collection of license group configurations.
      *
@@ -1114,24 +1185,28 @@ public class Service extends BaseService {
      * @return The current {@code Service} instance.
      */
     public Service login(String username, String password) {
-        this.username = username;
-        this.password = password;
-
-        Args args = new Args();
-        args.put("username", username);
-        args.put("password", password);
-        args.put("cookie", "1");
-        ResponseMessage response = post("/services/auth/login", args);
-        String sessionKey = Xml.parse(response.getContent())
-            .getElementsByTagName("sessionKey")
-            .item(0)
-            .getTextContent();
-        this.token = "Splunk " + sessionKey;
-        this.version = this.getInfo().getVersion();
-        if (versionCompare("4.3") >= 0)
-            this.passwordEndPoint = "storage/passwords";
+        synchronized (loginLock) {
+            this.username = username;
+            this.password = password;
+
+            Args args = new Args();
+            args.put("username", username);
+            args.put("password", password);
+            args.put("cookie", "1");
+            ResponseMessage response = post("/services/auth/login", args);
+            String sessionKey = Xml.parse(response.getContent())
+                .getElementsByTagName("sessionKey")
+                .item(0)
+                .getTextContent();
+            this.token = "Splunk " + sessionKey;
+            this.sessionGeneration++;
+            this.version = this.getInfo().getVersion();
+            this.inputKindCache.clear();
+            if (versionCompare("4.3") >= 0)
+                this.passwordEndPoint = "storage/passwords";
 
-        return this;
+            return this;
+        }
     }
 
     /**
@@ -1205,6 +1280,23 @@ public class Service extends BaseService {
         return oneshotSearch(query, (Map<String, Object>)args);
     }
 
+    /**
+     * Asynchronously creates a oneshot synchronous search using search
+     * arguments.
+     *
+     * @param query The search query.
+     * @param args The search arguments (see {@link #oneshotSearch(String, Args)}).
+     * @return The pending search results.
+     */
+    public SplunkFuture<InputStream> oneshotSearchAsync(final String query,
+                                                        final Map<String, Object> args) {
+        return submitAsync(new Callable<InputStream>() {
+            public InputStream call() {
+                return oneshotSearch(query, args);
+            }
+        });
+    }
+
     /**
      * Opens a raw socket to this service.
      *
@@ -1276,6 +1368,69 @@ public class Service extends BaseService {
         return this.getJobs().create(query, args);
     }
 
+    /**
+     * Creates a real-time search over all time and returns a stream of its
+     * events. Subscribe to the stream and call
+     * {@link RealtimeSearchStream#start()} to receive them.
+     *
+     * @param query The search query.
+     * @return The stream of the search's events.
+     */
+    public RealtimeSearchStream realtimeSearch(String query) {
+        return realtimeSearch(query, null);
+    }
+
+    /**
+     * Creates a real-time search job with search arguments and returns a
+     * stream of its events. The {@code search_mode} argument is set to
+     * {@code realtime}, and {@code earliest_time} and {@code latest_time}
+     * default to {@code rt}; set them to a window such as {@code rt-5m} and
+     * {@code rt} to search a sliding window.
+     *
+     * @param query The search query.
+     * @param args The search arguments.
+     * @return The stream of the search's events.
+     */
+    public RealtimeSearchStream realtimeSearch(String query,
+                                               Map<String, Object> args) {
+        Args jobArgs = Args.create(args);
+        if (!jobArgs.containsKey("earliest_time"))
+            jobArgs.put("earliest_time", "rt");
+        if (!jobArgs.containsKey("latest_time"))
+            jobArgs.put("latest_time", "rt");
+        jobArgs.put("search_mode", "realtime");
+
+        return new RealtimeSearchStream(search(query, jobArgs));
+    }
+
+    /**
+     * Asynchronously creates a search job. The future completes when the job
+     * has been created; use {@link Job#waitForDoneAsync()} to be notified when
+     * it finishes.
+     *
+     * @param query The search query.
+     * @return The pending search job.
+     */
+    public SplunkFuture<Job> searchAsync(String query) {
+        return searchAsync(query, null);
+    }
+
+    /**
+     * Asynchronously creates a search job with arguments.
+     *
+     * @param query The search query.
+     * @param args The search arguments.
+     * @return The pending search job.
+     */
+    public SplunkFuture<Job> searchAsync(final String query,
+                                         final Map<String, Object> args) {
+        return submitAsync(new Callable<Job>() {
+            public Job call() {
+                return search(query, args);
+            }
+        });
+    }
+
     /**
      * Issues an HTTP request against the service using a request path and
      * message.
@@ -1288,6 +1443,37 @@ public class Service extends BaseService {
      * @return The HTTP response.
      */
     @Override public ResponseMessage send(String path, RequestMessage request) {
+        int generation = sessionGeneration;
+        String token = this.token;
+        try {
+            return sendWithSession(path, request, token);
+        }
+        catch (HttpException e) {
+            // Log in again, unless this thread is already logging in.
+            if (e.getStatus() != 401 || !autoRelogin
+                    || username == null || password == null
+                    || Thread.holdsLock(loginLock)
+                    || !isRepeatable(request)) {
+                throw e;
+            }
+            relogin(generation);
+            if (token != null
+                    && token.equals(request.getHeader().get("Authorization"))) {
+                request.getHeader().remove("Authorization");
+            }
+            return sendWithSession(path, request, this.token);
+        }
+    }
+
+    // A streamed body that has been sent once cannot be sent again.
+    private static boolean isRepeatable(RequestMessage request) {
+        Object content = request.getContent();
+        return !(content instanceof RequestBody)
+                || ((RequestBody) content).isRepeatable();
+    }
+
+    private ResponseMessage sendWithSession(
+            String path, RequestMessage request, String token) {
         // cookieStore is a protected member of HttpService
         if (token != null && cookieStore.isEmpty()) {
             request.getHeader().put("Authorization", token);
@@ -1295,6 +1481,42 @@ public class Service extends BaseService {
         return super.send(fullpath(path), request);
     }
 
+    // Logs in again after a request found the session of the given login
+    // expired, unless another thread has logged in since.
+    private void relogin(int generation) {
+        synchronized (loginLock) {
+            if (sessionGeneration != generation) return;
+            // The expired session cookies would be sent in place of the new
+            // token if the server does not replace them.
+            removeAllCookies();
+            login(username, password);
+        }
+    }
+
+    /**
+     * Sets whether this service logs in again, with the username and
+     * password it last logged in with, when a request fails because the
+     * session has expired. The request is then sent once more. When several
+     * threads find the same session expired at once, only one of them logs
+     * in and the others wait for it. The default is {@code false}.
+     *
+     * @param autoRelogin {@code true} to log in again on session expiry.
+     */
+    public void setAutoRelogin(boolean autoRelogin) {
+        this.autoRelogin = autoRelogin;
+    }
+
+    /**
+     * Sets the cache of entity state used by this service. The cache may be
+     * shared with other {@code Service} instances. See {@link EntityCache}.
+     *
+     * @param entityCache The entity cache, or {@code null} to read all entity
+     * state from the server.
+     */
+    public void setEntityCache(EntityCache entityCache) {
+        this.entityCache = entityCache;
+    }
+
     /**
      * Provides a session token for use by this {@code Service} instance.
      * Session tokens can be shared across multiple {@code Service} instances.
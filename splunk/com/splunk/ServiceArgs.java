@@ -140,6 +140,15 @@ public class ServiceArgs extends Args {
         this.put("SSLSecurityProtocol", securityProtocol);
     }
 
+    /**
+     * @param transport
+     *      The HTTP transport used to execute requests, such as a
+     *      {@link PooledHttpTransport}.
+     */
+    public void setTransport(HttpTransport transport) {
+        this.put("transport", transport);
+    }
+
     /**
      * @param token
      *      A Splunk authentication token to use for the session.
@@ -17,18 +17,47 @@
 
 package com.splunk;
 
+import java.util.Collections;
 import java.util.List;
 import java.net.HttpCookie;
 import java.util.Map;
 import java.util.HashMap;
 import java.lang.StringBuilder;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The {@code SimpleCookieStore} class stores cookies for authentication.
+ * It is safe to use from several threads without locking: the cookies are
+ * held in an immutable snapshot, which updates replace as a whole.
  */
 class SimpleCookieStore {
 
-    private Map<String, String> cookieJar = new HashMap<String, String>();
+    private static final Snapshot EMPTY =
+            new Snapshot(Collections.<String, String>emptyMap());
+
+    private final AtomicReference<Snapshot> snapshot =
+            new AtomicReference<Snapshot>(EMPTY);
+
+    /**
+     * An immutable set of cookies, with the "Cookie" header built from them.
+     */
+    private static class Snapshot {
+        final Map<String, String> cookieJar;
+        final String cookies;
+
+        Snapshot(Map<String, String> cookieJar) {
+            this.cookieJar = cookieJar;
+            StringBuilder cookieStringBuilder = new StringBuilder();
+            for (Map.Entry<String, String> cookie : cookieJar.entrySet()) {
+                cookieStringBuilder.append(cookie.getKey());
+                cookieStringBuilder.append("=");
+                cookieStringBuilder.append(cookie.getValue());
+                cookieStringBuilder.append("; ");
+            }
+            this.cookies = cookieStringBuilder.toString();
+        }
+    }
+
     /**
      * Adds cookies from a "Set-Cookie" header to the cookie store.
      *
@@ -37,8 +66,15 @@ class SimpleCookieStore {
     public void add(String setCookieHeader) {
         if (setCookieHeader != null) {
             List<HttpCookie> cookies = HttpCookie.parse(setCookieHeader);
-            for (HttpCookie cookie : cookies) {
-                cookieJar.put(cookie.getName(), cookie.getValue());
+            while (true) {
+                Snapshot current = snapshot.get();
+                Map<String, String> cookieJar =
+                        new HashMap<String, String>(current.cookieJar);
+                for (HttpCookie cookie : cookies) {
+                    cookieJar.put(cookie.getName(), cookie.getValue());
+                }
+                if (snapshot.compareAndSet(current, new Snapshot(cookieJar)))
+                    return;
             }
         }
     }
@@ -49,15 +85,7 @@ class SimpleCookieStore {
      * @return Cookie String in the format "Key=Value; Key=Value; etc"
      */
     public String getCookies() {
-        StringBuilder cookieStringBuilder = new StringBuilder();
-
-        for (Map.Entry<String, String> cookie : cookieJar.entrySet()) {
-            cookieStringBuilder.append(cookie.getKey());
-            cookieStringBuilder.append("=");
-            cookieStringBuilder.append(cookie.getValue());
-            cookieStringBuilder.append("; ");
-        }
-        return cookieStringBuilder.toString();
+        return snapshot.get().cookies;
     }
 
     /**
@@ -66,14 +94,14 @@ class SimpleCookieStore {
      * @return Boolean for whether or not the cookie store is empty
      */
     public Boolean isEmpty() {
-        return cookieJar.isEmpty();
+        return snapshot.get().cookieJar.isEmpty();
     }
 
     /**
      * Removes all cookies from SimpleCookieStore
      */
     public void removeAll() {
-        cookieJar.clear();
+        snapshot.set(EMPTY);
     }
 
 }
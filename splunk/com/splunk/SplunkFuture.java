@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.splunk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The {@code SplunkFuture} class represents the pending result of an
+ * asynchronous SDK operation. In addition to the standard {@code Future}
+ * methods, it accepts {@link FutureCallback} listeners that are notified when
+ * the operation completes, so that callers do not need to block in
+ * {@code get}.
+ *
+ * @param <T> The type of the operation's result.
+ */
+public class SplunkFuture<T> extends FutureTask<T> {
+    private static final Callable<Object> NO_TASK = new Callable<Object>() {
+        public Object call() {
+            throw new IllegalStateException("This future is completed explicitly.");
+        }
+    };
+
+    // Guarded by this; set to null once the future is done.
+    private List<FutureCallback<T>> callbacks = new ArrayList<FutureCallback<T>>();
+
+    /**
+     * Creates a future that is completed by running the given task.
+     *
+     * @param task The task that computes the result.
+     */
+    SplunkFuture(Callable<T> task) {
+        super(task);
+    }
+
+    /**
+     * Creates a future that is completed explicitly through
+     * {@link #complete} or {@link #fail}.
+     */
+    @SuppressWarnings("unchecked")
+    SplunkFuture() {
+        super((Callable<T>) NO_TASK);
+    }
+
+    /**
+     * Adds a callback that is notified when this future completes. If the
+     * future has already completed, the callback is notified immediately on
+     * the calling thread.
+     *
+     * @param callback The callback to notify.
+     * @return This future.
+     */
+    public SplunkFuture<T> addCallback(FutureCallback<T> callback) {
+        synchronized (this) {
+            // get() may return before done() has run, so check isDone()
+            // as well to keep the callback on the calling thread.
+            if (callbacks != null && !isDone()) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        invokeCallback(callback);
+        return this;
+    }
+
+    /**
+     * Completes this future with the given result.
+     *
+     * @param result The result.
+     */
+    void complete(T result) {
+        set(result);
+    }
+
+    /**
+     * Completes this future with the given failure.
+     *
+     * @param cause The cause of the failure.
+     */
+    void fail(Throwable cause) {
+        setException(cause);
+    }
+
+    @Override protected void done() {
+        List<FutureCallback<T>> pending;
+        synchronized (this) {
+            pending = callbacks;
+            callbacks = null;
+        }
+        for (FutureCallback<T> callback : pending) {
+            try {
+                invokeCallback(callback);
+            } catch (RuntimeException e) {
+                // A failing callback must not prevent the others from running.
+            }
+        }
+    }
+
+    private void invokeCallback(FutureCallback<T> callback) {
+        T result;
+        try {
+            result = get();
+        } catch (CancellationException e) {
+            callback.onFailure(e);
+            return;
+        } catch (ExecutionException e) {
+            callback.onFailure(e.getCause());
+            return;
+        } catch (InterruptedException e) {
+            // Unreachable: the future is done, so get() does not block.
+            Thread.currentThread().interrupt();
+            callback.onFailure(e);
+            return;
+        }
+        callback.onSuccess(result);
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code StreamingReceiver} class manages a connection to the streaming
+ * receiver endpoint (see {@link Receiver#attach}) for sustained, high-volume
+ * writes.
+ * <p>
+ * Events are copied into large direct buffers. Full buffers are queued and
+ * written by a background thread, several at a time with a gathering write
+ * on a {@code SocketChannel}. Over HTTPS, where the SSL socket has no
+ * channel, buffers are written to the socket's output stream instead. An
+ * event is never split across buffers.
+ * <p>
+ * If the connection fails, the writer reconnects, sends the streaming
+ * header again and resends the buffers that were not completely written, so
+ * an event may occasionally be indexed twice. Data handed to the operating
+ * system just before the failure can be lost. After a number of failed
+ * attempts in a row, the receiver gives up and the next write throws the
+ * error.
+ * <p>
+ * For example:
+ * <pre>
+ * StreamingReceiver receiver = new StreamingReceiver(service, "main", null);
+ * receiver.write("2014-01-01 00:00:00 event 1");
+ * ...
+ * receiver.close();
+ * </pre>
+ */
+public class StreamingReceiver {
+    /** The default size of a buffer, in bytes. */
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    /** The default number of full buffers that can wait to be written. */
+    public static final int DEFAULT_QUEUE_SIZE = 16;
+
+    /** The default number of attempts to reconnect in a row. */
+    public static final int DEFAULT_MAX_RECONNECTS = 10;
+
+    /** The default time before the first attempt to reconnect, in milliseconds. */
+    public static final long DEFAULT_RECONNECT_DELAY = 500;
+
+    private static final int MAX_GATHER = 16;
+    private static final byte[] NEWLINE = { '\n' };
+
+    private final Service service;
+    private final String indexName;
+    private final Args args;
+    private final int bufferSize;
+    private final BlockingQueue<Chunk> full;
+    private final BlockingQueue<ByteBuffer> free;
+    private int maxReconnects = DEFAULT_MAX_RECONNECTS;
+    private long reconnectDelay = DEFAULT_RECONNECT_DELAY;
+
+    // Guarded by this.
+    private ByteBuffer current;
+    private int currentEvents = 0;
+    private long buffersQueued = 0;
+
+    private final AtomicLong buffersWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong eventsWritten = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final long startTime = System.currentTimeMillis();
+
+    // Only used by the writer thread once it is started.
+    private volatile Connection connection;
+    private final Thread writer;
+    private volatile boolean closed = false;
+    private volatile IOException failure = null;
+
+    /**
+     * Creates a receiver with the default buffer and queue sizes, and
+     * connects it.
+     *
+     * @param service The connected {@code Service} instance.
+     * @param indexName The index to write to, or {@code null} for the default
+     * index.
+     * @param args Optional arguments for this stream. Valid parameters are:
+     * "host", "host_regex", "source", and "sourcetype".
+     * @throws IOException If the connection cannot be opened.
+     */
+    public StreamingReceiver(Service service, String indexName, Args args)
+            throws IOException {
+        this(service, indexName, args, DEFAULT_BUFFER_SIZE, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Creates a receiver and connects it.
+     *
+     * @param service The connected {@code Service} instance.
+     * @param indexName The index to write to, or {@code null} for the default
+     * index.
+     * @param args Optional arguments for this stream. Valid parameters are:
+     * "host", "host_regex", "source", and "sourcetype".
+     * @param bufferSize The size of a buffer, in bytes.
+     * @param queueSize The number of full buffers that can wait to be
+     * written before writes block.
+     * @throws IOException If the connection cannot be opened.
+     */
+    public StreamingReceiver(
+            Service service,
+            String indexName,
+            Args args,
+            int bufferSize,
+            int queueSize) throws IOException {
+        if (bufferSize < 1 || queueSize < 1)
+            throw new IllegalArgumentException("bufferSize and queueSize must be at least 1.");
+        this.service = service;
+        this.indexName = indexName;
+        this.args = args;
+        this.bufferSize = bufferSize;
+        this.full = new ArrayBlockingQueue<Chunk>(queueSize);
+        this.free = new ArrayBlockingQueue<ByteBuffer>(queueSize + 1);
+        this.current = ByteBuffer.allocateDirect(bufferSize);
+        this.connection = connect();
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "splunk-streaming-receiver");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Sets the number of attempts to reconnect in a row before the receiver
+     * gives up.
+     *
+     * @param maxReconnects The number of attempts.
+     */
+    public void setMaxReconnects(int maxReconnects) {
+        this.maxReconnects = maxReconnects;
+    }
+
+    /**
+     * Sets the time before the first attempt to reconnect. The time doubles
+     * with each further attempt in a row.
+     *
+     * @param reconnectDelay The time, in milliseconds.
+     */
+    public void setReconnectDelay(long reconnectDelay) {
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    /**
+     * Writes an event, followed by a newline if it does not end with one.
+     * This method blocks while the queue of full buffers is full.
+     *
+     * @param event A string containing event data.
+     * @throws IOException If the receiver has given up reconnecting.
+     */
+    public void write(String event) throws IOException {
+        byte[] data = event.getBytes("UTF-8");
+        if (data.length > 0 && data[data.length - 1] == '\n') {
+            write(data, null, 1);
+        } else {
+            write(data, NEWLINE, 1);
+        }
+    }
+
+    /**
+     * Writes raw bytes, which must contain whole events.
+     *
+     * @param data The bytes to write.
+     * @throws IOException If the receiver has given up reconnecting.
+     */
+    public void write(byte[] data) throws IOException {
+        write(data, null, 0);
+    }
+
+    /**
+     * Queues the events written so far and waits until they are written.
+     *
+     * @throws IOException If the receiver has given up reconnecting.
+     */
+    public void flush() throws IOException {
+        long target;
+        synchronized (this) {
+            checkOpen();
+            queueCurrent();
+            target = buffersQueued;
+        }
+        while (buffersWritten.get() < target) {
+            checkFailure();
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining events and closes the connection.
+     *
+     * @throws IOException If the remaining events cannot be written.
+     */
+    public void close() throws IOException {
+        if (closed)
+            return;
+        try {
+            if (failure == null)
+                flush();
+        } finally {
+            closed = true;
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns the number of bytes written to the connection.
+     *
+     * @return The number of bytes.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Returns the number of events written with {@link #write(String)} that
+     * reached the connection.
+     *
+     * @return The number of events.
+     */
+    public long getEventsWritten() {
+        return eventsWritten.get();
+    }
+
+    /**
+     * Returns the average number of bytes written per second since the
+     * receiver was created.
+     *
+     * @return The throughput, in bytes per second.
+     */
+    public double getThroughput() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        return bytesWritten.get() * 1000.0 / elapsed;
+    }
+
+    /**
+     * Returns the number of full buffers waiting to be written.
+     *
+     * @return The number of buffers.
+     */
+    public int getQueueDepth() {
+        return full.size();
+    }
+
+    /**
+     * Returns the number of times the receiver has reconnected.
+     *
+     * @return The number of reconnects.
+     */
+    public long getReconnectCount() {
+        return reconnects.get();
+    }
+
+    private synchronized void write(byte[] data, byte[] suffix, int events) throws IOException {
+        checkOpen();
+        int length = data.length + (suffix == null ? 0 : suffix.length);
+        if (length > current.remaining()) {
+            queueCurrent();
+            if (length > current.remaining()) {
+                // Larger than a buffer: queue it on its own.
+                ByteBuffer large = ByteBuffer.allocate(length);
+                large.put(data);
+                if (suffix != null)
+                    large.put(suffix);
+                queue(new Chunk(large, events));
+                return;
+            }
+        }
+        current.put(data);
+        if (suffix != null)
+            current.put(suffix);
+        currentEvents += events;
+    }
+
+    // Must hold this.
+    private void queueCurrent() throws IOException {
+        if (current.position() == 0)
+            return;
+        queue(new Chunk(current, currentEvents));
+        currentEvents = 0;
+        ByteBuffer next = free.poll();
+        current = next != null ? next : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    // Must hold this.
+    private void queue(Chunk chunk) throws IOException {
+        chunk.buffer.flip();
+        try {
+            while (!full.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        buffersQueued++;
+    }
+
+    private void writeLoop() {
+        List<Chunk> batch = new ArrayList<Chunk>(MAX_GATHER);
+        int attempts = 0;
+        while (true) {
+            if (batch.isEmpty()) {
+                Chunk first;
+                try {
+                    first = full.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    first = null;
+                }
+                if (first == null) {
+                    if (closed)
+                        return;
+                    continue;
+                }
+                batch.add(first);
+                full.drainTo(batch, MAX_GATHER - 1);
+            }
+
+            try {
+                connection.write(batch);
+            } catch (IOException e) {
+                if (++attempts > maxReconnects) {
+                    failure = e;
+                    return;
+                }
+                connection.close();
+                try {
+                    Thread.sleep(reconnectDelay << Math.min(attempts - 1, 16));
+                    connection = connect();
+                    reconnects.incrementAndGet();
+                } catch (InterruptedException ie) {
+                    failure = e;
+                    return;
+                } catch (IOException ce) {
+                    // Try again on the next pass.
+                }
+                // Resend the buffers of the batch from their start.
+                for (Chunk chunk : batch) {
+                    chunk.buffer.rewind();
+                }
+                continue;
+            }
+
+            attempts = 0;
+            for (Chunk chunk : batch) {
+                eventsWritten.addAndGet(chunk.events);
+                ByteBuffer buffer = chunk.buffer;
+                if (buffer.isDirect() && buffer.capacity() == bufferSize) {
+                    buffer.clear();
+                    free.offer(buffer);
+                }
+            }
+            buffersWritten.addAndGet(batch.size());
+            batch.clear();
+        }
+    }
+
+    private Connection connect() throws IOException {
+        Receiver receiver = service.getReceiver();
+        if ("https".equals(service.getScheme())) {
+            // SSL sockets have no channel.
+            return new Connection(receiver.attach(indexName, args));
+        }
+        SocketChannel channel = SocketChannel.open(
+                new InetSocketAddress(service.getHost(), service.getPort()));
+        try {
+            ByteBuffer header = ByteBuffer.wrap(
+                    receiver.streamHeader(indexName, args).getBytes("UTF-8"));
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new Connection(channel);
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed)
+            throw new IOException("The receiver is closed.");
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null)
+            throw new IOException("The receiver gave up reconnecting.", e);
+    }
+
+    // A buffer ready to be written, with the number of events it holds.
+    private static final class Chunk {
+        final ByteBuffer buffer;
+        final int events;
+
+        Chunk(ByteBuffer buffer, int events) {
+            this.buffer = buffer;
+            this.events = events;
+        }
+    }
+
+    // A connection to the streaming endpoint, through a channel or, for SSL,
+    // through the socket's output stream.
+    private final class Connection {
+        private final SocketChannel channel;
+        private final Socket socket;
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+        private byte[] copy = null;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.socket = null;
+        }
+
+        Connection(Socket socket) {
+            this.channel = null;
+            this.socket = socket;
+        }
+
+        void write(List<Chunk> batch) throws IOException {
+            int count = batch.size();
+            for (int i = 0; i < count; i++) {
+                gather[i] = batch.get(i).buffer;
+            }
+            try {
+                if (channel != null) {
+                    while (gather[count - 1].hasRemaining()) {
+                        bytesWritten.addAndGet(channel.write(gather, 0, count));
+                    }
+                } else {
+                    OutputStream out = socket.getOutputStream();
+                    for (int i = 0; i < count; i++) {
+                        writeTo(out, gather[i]);
+                    }
+                    out.flush();
+                }
+            } finally {
+                for (int i = 0; i < count; i++) {
+                    gather[i] = null;
+                }
+            }
+        }
+
+        private void writeTo(OutputStream out, ByteBuffer buffer) throws IOException {
+            if (buffer.hasArray()) {
+                int length = buffer.remaining();
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+                buffer.position(buffer.limit());
+                bytesWritten.addAndGet(length);
+                return;
+            }
+            if (copy == null) {
+                copy = new byte[Math.min(bufferSize, 64 * 1024)];
+            }
+            while (buffer.hasRemaining()) {
+                int length = Math.min(copy.length, buffer.remaining());
+                buffer.get(copy, 0, length);
+                out.write(copy, 0, length);
+                bytesWritten.addAndGet(length);
+            }
+        }
+
+        void close() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                } else {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // The connection is already broken or no longer needed.
+            }
+        }
+    }
+}
@@ -18,7 +18,11 @@ package com.splunk;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -71,37 +75,253 @@ class Value {
         return Long.parseLong(value) * multiplier;
     }
 
-    private static SimpleDateFormat[] dateFormat = null;
-    private static Pattern datePattern = null;
+    private static final Pattern datePattern = Pattern.compile("(.*)\\.\\d+([\\-+]\\d+):(\\d+)");
+
+    // SimpleDateFormat is not thread safe, so each thread has its own.
+    private static final ThreadLocal<SimpleDateFormat[]> dateFormat = new ThreadLocal<SimpleDateFormat[]>() {
+        @Override
+        protected SimpleDateFormat[] initialValue() {
+            SimpleDateFormat[] formats = new SimpleDateFormat[6];
+            formats[0] = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+            formats[1] = new SimpleDateFormat("E MMM d HH:mm:ss z y");
+            formats[2] = new SimpleDateFormat("EEE MMM dd HH:mm:ss y");
+            formats[3] = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
+            formats[4] = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX");
+            formats[5] = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+            for (SimpleDateFormat format : formats) {
+                format.setLenient(true);
+            }
+            return formats;
+        }
+    };
+
+    private static final ThreadLocal<Calendar> dateCalendar = new ThreadLocal<Calendar>() {
+        @Override
+        protected Calendar initialValue() {
+            return new GregorianCalendar();
+        }
+    };
+
+    private static final String[] MONTHS = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+    private static final long UNKNOWN_DATE = Long.MIN_VALUE;
+
+    // A direct-mapped cache of recently parsed dates. Entries are immutable
+    // and replaced whole, so the cache needs no lock.
+    private static final int DATE_CACHE_SIZE = 1024;
+    private static final CachedDate[] dateCache = new CachedDate[DATE_CACHE_SIZE];
+
+    private static final class CachedDate {
+        final String text;
+        final long time;
+
+        CachedDate(String text, long time) {
+            this.text = text;
+            this.time = time;
+        }
+    }
 
     /**
      * Converts a {@code String} to a {@code Date} value.
+     * <p>
+     * The common formats returned by Splunk (ISO 8601 timestamps, dates
+     * with a numeric time zone, ctime dates and seconds since the epoch) are
+     * recognized by their shape and parsed directly. Other strings are tried
+     * against a list of date formats. Recently converted strings are cached.
+     *
+     * @param value Value to convert.
+     * @return Date value.
+     */
+    static Date toDate(String value) {
+        int slot = value.hashCode() & (DATE_CACHE_SIZE - 1);
+        CachedDate cached = dateCache[slot];
+        if (cached != null && cached.text.equals(value)) {
+            return new Date(cached.time);
+        }
+        long time = sniffDate(value);
+        Date date = time == UNKNOWN_DATE ? parseDate(value) : new Date(time);
+        dateCache[slot] = new CachedDate(value, date.getTime());
+        return date;
+    }
+
+    /**
+     * Parses the date formats that Splunk returns, without trying formats
+     * one after the other. The results are those of the date formats in
+     * {@link #parseDate}, including their quirks: fractional seconds are
+     * dropped before a time zone written with a colon, as the pattern in
+     * {@code parseDate} does.
+     *
+     * @param value Value to convert.
+     * @return The time in milliseconds, or {@code UNKNOWN_DATE} if the
+     * format is not recognized.
+     */
+    private static long sniffDate(String value) {
+        int length = value.length();
+        if (length == 0) {
+            return UNKNOWN_DATE;
+        }
+        char first = value.charAt(0);
+        if (first >= '0' && first <= '9') {
+            if (length >= 19 && value.charAt(4) == '-') {
+                return sniffIsoDate(value);
+            }
+            if (length <= 18 && digits(value, 0, length) >= 0) {
+                return Long.parseLong(value) * 1000;
+            }
+            return UNKNOWN_DATE;
+        }
+        return sniffCtimeDate(value);
+    }
+
+    // yyyy-MM-dd'T'HH:mm:ss[.SSS](Z|+hh:mm|+hhmm) and yyyy-MM-dd HH:mm:ss +hhmm
+    private static long sniffIsoDate(String value) {
+        char separator = value.charAt(10);
+        if (value.charAt(7) != '-' || value.charAt(13) != ':' || value.charAt(16) != ':'
+                || (separator != 'T' && separator != ' ')) {
+            return UNKNOWN_DATE;
+        }
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 7);
+        int day = digits(value, 8, 10);
+        int hour = digits(value, 11, 13);
+        int minute = digits(value, 14, 16);
+        int second = digits(value, 17, 19);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return UNKNOWN_DATE;
+        }
+
+        int position = 19;
+        int length = value.length();
+        int millis = 0;
+        boolean fraction = false;
+        if (separator == 'T' && position < length && value.charAt(position) == '.') {
+            int start = ++position;
+            while (position < length && Character.isDigit(value.charAt(position))) {
+                position++;
+            }
+            // Only three digits are read as milliseconds by the formats.
+            if (position - start != 3) {
+                return UNKNOWN_DATE;
+            }
+            millis = digits(value, start, position);
+            fraction = true;
+        }
+        if (separator == ' ') {
+            if (position >= length || value.charAt(position) != ' ') {
+                return UNKNOWN_DATE;
+            }
+            position++;
+        }
+        if (position >= length) {
+            return UNKNOWN_DATE;
+        }
+
+        int offset;
+        char sign = value.charAt(position);
+        if (sign == 'Z' && separator == 'T' && position + 1 == length) {
+            offset = 0;
+        } else if (sign == '+' || sign == '-') {
+            int zoneHours = digits(value, position + 1, position + 3);
+            int zoneMinutes;
+            if (position + 6 == length && value.charAt(position + 3) == ':' && separator == 'T') {
+                zoneMinutes = digits(value, position + 4, position + 6);
+                // The pattern in parseDate drops the fraction before such a zone.
+                millis = 0;
+            } else if (position + 5 == length && !fraction) {
+                zoneMinutes = digits(value, position + 3, position + 5);
+            } else {
+                return UNKNOWN_DATE;
+            }
+            if ((zoneHours | zoneMinutes) < 0) {
+                return UNKNOWN_DATE;
+            }
+            offset = (zoneHours * 60 + zoneMinutes) * 60000;
+            if (sign == '-') {
+                offset = -offset;
+            }
+        } else {
+            return UNKNOWN_DATE;
+        }
+
+        Calendar calendar = dateCalendar.get();
+        calendar.clear();
+        calendar.setTimeZone(UTC);
+        calendar.set(year, month - 1, day, hour, minute, second);
+        calendar.set(Calendar.MILLISECOND, millis);
+        return calendar.getTimeInMillis() - offset;
+    }
+
+    // EEE MMM dd HH:mm:ss yyyy, in the default time zone
+    private static long sniffCtimeDate(String value) {
+        // The formats read month names in the default locale.
+        if (!"en".equals(Locale.getDefault().getLanguage())) {
+            return UNKNOWN_DATE;
+        }
+        int length = value.length();
+        if (length < 22 || value.charAt(3) != ' ' || value.charAt(7) != ' '
+                || !Character.isLetter(value.charAt(0)) || !Character.isLetter(value.charAt(1))
+                || !Character.isLetter(value.charAt(2))) {
+            return UNKNOWN_DATE;
+        }
+        int month = -1;
+        for (int i = 0; i < MONTHS.length; i++) {
+            if (value.regionMatches(true, 4, MONTHS[i], 0, 3)) {
+                month = i;
+                break;
+            }
+        }
+        int position = value.indexOf(' ', 8);
+        if (month < 0 || position < 9 || position > 10
+                || value.charAt(position + 3) != ':' || value.charAt(position + 6) != ':'
+                || value.charAt(position + 9) != ' ') {
+            return UNKNOWN_DATE;
+        }
+        int day = digits(value, 8, position);
+        int hour = digits(value, position + 1, position + 3);
+        int minute = digits(value, position + 4, position + 6);
+        int second = digits(value, position + 7, position + 9);
+        // Years of other lengths are read differently by the formats.
+        int year = length - position - 10 == 4 ? digits(value, position + 10, length) : -1;
+        if ((day | hour | minute | second | year) < 0) {
+            return UNKNOWN_DATE;
+        }
+
+        Calendar calendar = dateCalendar.get();
+        calendar.clear();
+        calendar.setTimeZone(TimeZone.getDefault());
+        calendar.set(year, month, day, hour, minute, second);
+        return calendar.getTimeInMillis();
+    }
+
+    // Returns the value of the decimal digits from start to end, or -1 if
+    // there are none or any other character.
+    private static int digits(String value, int start, int end) {
+        if (start >= end || end > value.length()) {
+            return -1;
+        }
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /**
+     * Converts a {@code String} to a {@code Date} value by trying a list of
+     * date formats in order.
      *
      * @param value Value to convert.
      * @return Date value.
      */
-    static synchronized Date toDate(String value) {
-        if (dateFormat == null) {
-            dateFormat = new SimpleDateFormat[6];
-            dateFormat[0] = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-            dateFormat[0].setLenient(true);
-            dateFormat[1] = new SimpleDateFormat("E MMM d HH:mm:ss z y");
-            dateFormat[1].setLenient(true);
-            dateFormat[2] = new SimpleDateFormat("EEE MMM dd HH:mm:ss y");
-            dateFormat[2].setLenient(true);
-            dateFormat[3] = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
-            dateFormat[3].setLenient(true);
-            dateFormat[4] = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX");
-            dateFormat[4].setLenient(true);
-            dateFormat[5] = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
-            dateFormat[5].setLenient(true);
-        }
-        if (datePattern == null) {
-            String pattern = "(.*)\\.\\d+([\\-+]\\d+):(\\d+)";
-            datePattern = Pattern.compile(pattern);
-        }
-
-        for (SimpleDateFormat simpleDateFormat: dateFormat)  {
+    private static Date parseDate(String value) {
+        for (SimpleDateFormat simpleDateFormat : dateFormat.get())  {
             try {
 
                 Matcher matcher = datePattern.matcher(value);
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records an XML subtree as it is read from a cursor, so that its markup can
+ * be reproduced later. The markup is only written when {@link #toString} is
+ * called, which lets {@link ResultsReaderXml} keep the segmented {@code _raw}
+ * of every event without paying for serializing it up front.
+ * <p>
+ * Start tags are recorded as {@link StartTag} objects, character data as a
+ * {@code String}, and end tags as {@code null}, since their names follow
+ * from the start tags.
+ */
+class XmlFragment {
+    private final List<Object> tokens = new ArrayList<Object>();
+
+    static class StartTag {
+        final String prefix;
+        final String namespaceUri;
+        final String localName;
+        // Prefix and URI pairs.
+        final String[] namespaces;
+        // Prefix, URI, local name and value quadruples.
+        final String[] attributes;
+
+        StartTag(
+                String prefix,
+                String namespaceUri,
+                String localName,
+                String[] namespaces,
+                String[] attributes) {
+            this.prefix = prefix == null ? "" : prefix;
+            this.namespaceUri = namespaceUri == null ? "" : namespaceUri;
+            this.localName = localName;
+            this.namespaces = namespaces;
+            this.attributes = attributes;
+        }
+    }
+
+    void startElement(StartTag tag) {
+        tokens.add(tag);
+    }
+
+    void characters(String text) {
+        tokens.add(text);
+    }
+
+    void endElement() {
+        tokens.add(null);
+    }
+
+    /**
+     * Writes the fragment through an {@code XMLEventWriter}, so the markup
+     * is exactly what writing the original events would have produced.
+     *
+     * @return The XML markup of the fragment.
+     */
+    @Override
+    public String toString() {
+        StringWriter asXml = new StringWriter();
+        XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+        List<StartTag> open = new ArrayList<StartTag>();
+        try {
+            XMLEventWriter xmlWriter = XMLOutputFactory.newInstance().
+                    createXMLEventWriter(asXml);
+            for (Object token : tokens) {
+                if (token == null) {
+                    StartTag tag = open.remove(open.size() - 1);
+                    xmlWriter.add(eventFactory.createEndElement(
+                            tag.prefix, tag.namespaceUri, tag.localName));
+                } else if (token instanceof String) {
+                    xmlWriter.add(eventFactory.createCharacters((String)token));
+                } else {
+                    StartTag tag = (StartTag)token;
+                    List<Namespace> namespaces = new ArrayList<Namespace>();
+                    for (int i = 0; i < tag.namespaces.length; i += 2) {
+                        String prefix = tag.namespaces[i];
+                        namespaces.add(prefix == null || prefix.length() == 0
+                                ? eventFactory.createNamespace(tag.namespaces[i + 1])
+                                : eventFactory.createNamespace(prefix, tag.namespaces[i + 1]));
+                    }
+                    List<Attribute> attributes = new ArrayList<Attribute>();
+                    for (int i = 0; i < tag.attributes.length; i += 4) {
+                        attributes.add(eventFactory.createAttribute(
+                                tag.attributes[i],
+                                tag.attributes[i + 1],
+                                tag.attributes[i + 2],
+                                tag.attributes[i + 3]));
+                    }
+                    xmlWriter.add(eventFactory.createStartElement(
+                            tag.prefix,
+                            tag.namespaceUri,
+                            tag.localName,
+                            attributes.iterator(),
+                            namespaces.iterator()));
+                    open.add(tag);
+                }
+            }
+            xmlWriter.close();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        return asXml.toString();
+    }
+}
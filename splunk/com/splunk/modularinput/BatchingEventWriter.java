@@ -0,0 +1,357 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.modularinput;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code BatchingEventWriter} class is an {@code EventWriter} for modular inputs that write events at high rates,
+ * possibly from many threads.
+ *
+ * {@code writeEvent} and {@code synchronizedWriteEvent} only add the event to a lock-free queue, and are both safe to
+ * call from any number of threads. A dedicated thread serializes the queued events into a large buffer with an
+ * {@code EventSerializer}, which it writes to the output stream once it holds a given number of bytes, or once its
+ * oldest event has waited for the linger time. When the queue is full, writers wait for space.
+ *
+ * An {@code Event} is serialized after {@code writeEvent} returns, so it must not be changed afterwards. Call
+ * {@code flush} to wait until the events written so far are on the output stream, and {@code close} to write the
+ * remaining events and the closing {@code </stream>} tag.
+ */
+public class BatchingEventWriter extends EventWriter {
+    /** The default number of events the queue can hold. */
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    /** The default size of the buffer that triggers a write, in bytes. */
+    public static final int DEFAULT_FLUSH_SIZE = 256 * 1024;
+
+    /** The default time an event may wait in the buffer, in milliseconds. */
+    public static final long DEFAULT_LINGER = 100;
+
+    private final OutputStream output;
+    private final int capacity;
+    private final int flushSize;
+    private final long linger;
+
+    private final Queue<Event> queue = new ConcurrentLinkedQueue<Event>();
+    // The number of events in the queue, and of slots reserved by writeEvent for events about to be queued.
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong written = new AtomicLong();
+    // The number of events on the output stream, or lost to an IO error.
+    private final AtomicLong flushed = new AtomicLong();
+    // The number of events that flush() wants on the output stream at once.
+    private final AtomicLong flushTarget = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushNanos = new AtomicLong();
+    private volatile long lastFlushNanos = 0;
+
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a {@code BatchingEventWriter} on standard output and standard error, with the default capacity, flush
+     * size and linger time.
+     *
+     * @throws XMLStreamException if the XML writer cannot be created.
+     */
+    public BatchingEventWriter() throws XMLStreamException {
+        this(System.out, wrap(System.err), DEFAULT_CAPACITY, DEFAULT_FLUSH_SIZE, DEFAULT_LINGER);
+    }
+
+    /**
+     * Creates a {@code BatchingEventWriter} and starts its writer thread.
+     *
+     * @param output The stream to write events to.
+     * @param errorWriter The writer to log messages to.
+     * @param capacity The number of events the queue can hold.
+     * @param flushSize The size of the buffer that triggers a write, in bytes.
+     * @param linger The time an event may wait in the buffer, in milliseconds.
+     * @throws XMLStreamException if the XML writer cannot be created.
+     */
+    public BatchingEventWriter(OutputStream output, Writer errorWriter, int capacity, int flushSize, long linger)
+            throws XMLStreamException {
+        super(wrap(output), errorWriter);
+        if (capacity < 1 || flushSize < 1) {
+            throw new IllegalArgumentException("capacity and flushSize must be at least 1.");
+        }
+        this.output = output;
+        this.capacity = capacity;
+        this.flushSize = flushSize;
+        this.linger = linger;
+
+        final EventSerializer buffer = new EventSerializer(flushSize + flushSize / 4);
+        // Subclasses of Event may override writeTo, so they are written through an XMLStreamWriter that appends to
+        // the same buffer.
+        final XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int offset, int length) {
+                buffer.append(b, offset, length);
+            }
+        }, "UTF-8");
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop(buffer, xml);
+            }
+        }, "splunk-event-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static Writer wrap(OutputStream stream) {
+        try {
+            return new OutputStreamWriter(stream, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("Somehow your system doesn't support UTF-8");
+        }
+    }
+
+    /**
+     * Adds an {@code Event} to the queue. This method is thread safe.
+     *
+     * If you try to write an {@code Event} with null data, throws {@code MalformedDataException}.
+     *
+     * @param event The {@code Event} object to write.
+     * @throws MalformedDataException
+     */
+    @Override
+    public void synchronizedWriteEvent(Event event) throws MalformedDataException {
+        writeEvent(event);
+    }
+
+    /**
+     * Adds an {@code Event} to the queue, waiting while the queue is full. Unlike in {@code EventWriter}, this method
+     * is thread safe.
+     *
+     * If you try to write an {@code Event} with null data, throws {@code MalformedDataException}.
+     *
+     * @param event The {@code Event} object to write.
+     * @throws MalformedDataException
+     */
+    @Override
+    public void writeEvent(Event event) throws MalformedDataException {
+        if (event.getData() == null) {
+            MalformedDataException e = new MalformedDataException(
+                    "Events must have at least the data field set to be written to XML.");
+            synchronizedLog(WARN, e.toString());
+            throw e;
+        }
+        // Reserve a slot in the queue before checking whether the writer is closed, so that close() either sees the
+        // slot and waits for its event, or this method sees that the writer is closed.
+        int reserved;
+        while (true) {
+            reserved = depth.get();
+            if (reserved >= capacity) {
+                if (closed) {
+                    throw new IllegalStateException("The event writer is closed.");
+                }
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            } else if (depth.compareAndSet(reserved, reserved + 1)) {
+                break;
+            }
+        }
+        if (closed) {
+            depth.decrementAndGet();
+            LockSupport.unpark(writer);
+            throw new IllegalStateException("The event writer is closed.");
+        }
+        queue.offer(event);
+        written.incrementAndGet();
+        // Wake the writer to start the linger time.
+        if (reserved == 0) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Waits until the events written so far are on the output stream.
+     */
+    public void flush() {
+        long target = written.get();
+        while (true) {
+            long current = flushTarget.get();
+            if (current >= target || flushTarget.compareAndSet(current, target)) {
+                break;
+            }
+        }
+        while (flushed.get() < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Writes the remaining events and the closing {@code </stream>} tag, and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of events waiting in the queue.
+     *
+     * @return The number of events.
+     */
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Returns the number of bytes written to the output stream.
+     *
+     * @return The number of bytes.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Returns the number of times the buffer was written to the output stream.
+     *
+     * @return The number of flushes.
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * Returns the time taken by the last write of the buffer to the output stream.
+     *
+     * @return The time, in nanoseconds.
+     */
+    public long getLastFlushLatency() {
+        return lastFlushNanos;
+    }
+
+    /**
+     * Returns the average time taken to write the buffer to the output stream.
+     *
+     * @return The time, in nanoseconds, or 0 if the buffer was never written.
+     */
+    public long getAverageFlushLatency() {
+        long count = flushCount.get();
+        return count == 0 ? 0 : flushNanos.get() / count;
+    }
+
+    private void writeLoop(EventSerializer buffer, XMLStreamWriter xml) {
+        boolean headerWritten = false;
+        long serialized = 0;
+        long firstBufferedAt = 0;
+        while (true) {
+            Event event = queue.poll();
+            if (event != null) {
+                depth.decrementAndGet();
+                if (!headerWritten) {
+                    buffer.writeStreamStart();
+                    headerWritten = true;
+                }
+                try {
+                    if (event.getClass() == Event.class) {
+                        buffer.write(event);
+                    } else {
+                        event.writeTo(xml);
+                    }
+                } catch (XMLStreamException e) {
+                    synchronizedLog(ERROR, e.toString());
+                } catch (MalformedDataException e) {
+                    // The data was checked by writeEvent.
+                    synchronizedLog(WARN, e.toString());
+                }
+                serialized++;
+                if (firstBufferedAt == 0) {
+                    firstBufferedAt = System.currentTimeMillis();
+                }
+                if (buffer.size() >= flushSize) {
+                    writeBuffer(buffer, serialized);
+                    firstBufferedAt = 0;
+                }
+                continue;
+            }
+
+            if (closed && depth.get() == 0) {
+                if (!headerWritten) {
+                    buffer.writeStreamStart();
+                }
+                buffer.writeStreamEnd();
+                writeBuffer(buffer, serialized);
+                return;
+            }
+
+            if (firstBufferedAt != 0) {
+                long waited = System.currentTimeMillis() - firstBufferedAt;
+                if (waited >= linger || flushTarget.get() > flushed.get()) {
+                    writeBuffer(buffer, serialized);
+                    firstBufferedAt = 0;
+                } else {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(linger - waited));
+                }
+            } else if (depth.get() == 0) {
+                LockSupport.park(this);
+            } else {
+                // A slot is reserved, and its event is about to be queued.
+                Thread.yield();
+            }
+        }
+    }
+
+    private void writeBuffer(EventSerializer buffer, long serialized) {
+        if (buffer.size() > 0) {
+            long start = System.nanoTime();
+            try {
+                buffer.writeTo(output);
+                output.flush();
+                bytesWritten.addAndGet(buffer.size());
+            } catch (IOException e) {
+                setError();
+            }
+            long elapsed = System.nanoTime() - start;
+            lastFlushNanos = elapsed;
+            flushNanos.addAndGet(elapsed);
+            flushCount.incrementAndGet();
+            buffer.reset();
+        }
+        flushed.set(serialized);
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.modularinput;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code CheckpointStore} class is a durable key-value store for the checkpoints of a modular input, such as the
+ * offset reached in each file or the hash of each item already indexed, kept in the input's checkpoint directory (see
+ * {@link InputDefinition#getCheckpointDir}).
+ *
+ * Every change is appended as a record to a log file that is memory-mapped, so writing a checkpoint costs a memory
+ * copy rather than a system call. All keys are also held in memory, so lookups take constant time and do not touch the
+ * file. The log is forced to disk every {@code setSyncInterval} changes and when {@code sync} or {@code close} is
+ * called; a change survives a crash of the process as soon as it is made, and a crash of the machine once it is
+ * synced. When the log holds more than twice the live data, it is compacted.
+ *
+ * The store is kept in two log files: the given file and a second one with the suffix {@code .alt}. Compaction writes
+ * the live data to the log that is not in use, syncs it, and only then stamps it with a generation number higher than
+ * that of the current log. When the store is opened, the log with the highest complete generation is used, so a crash
+ * during compaction leaves the current log in use. No file is renamed or deleted, which a log that is still mapped by
+ * the process would prevent on some platforms, such as Windows.
+ *
+ * Each record carries a CRC32 checksum. When the store is opened, the log is read up to the first record that is
+ * incomplete or corrupt, such as one torn by a crash in the middle of a write, and the rest of the log is discarded.
+ *
+ * A {@code CheckpointStore} is thread safe. A single process may have a given store open at a time. For example:
+ * <pre>
+ * CheckpointStore store = CheckpointStore.open(inputs, "offsets");
+ * long offset = store.getLong(path, 0);
+ * ...
+ * store.putLong(path, offset);
+ * ...
+ * store.close();
+ * </pre>
+ */
+public class CheckpointStore {
+    /** The default number of changes between syncs of the log to disk. */
+    public static final int DEFAULT_SYNC_INTERVAL = 1000;
+
+    private static final byte[] MAGIC = { 'S', 'P', 'L', 'K', 'C', 'K', 'P', '2' };
+    // The magic number, the generation of the log and its complement. A log whose generation does not match its
+    // complement is incomplete.
+    private static final int HEADER_SIZE = MAGIC.length + 16;
+    // Payload length and checksum.
+    private static final int RECORD_HEADER_SIZE = 8;
+    // Type and key length, at the start of the payload.
+    private static final int PAYLOAD_HEADER_SIZE = 5;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int INITIAL_CAPACITY = 1024 * 1024;
+    private static final int MIN_COMPACTION_SIZE = 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final File[] logs;
+    // The log in use, and its generation.
+    private int active;
+    private long generation;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private int syncInterval = DEFAULT_SYNC_INTERVAL;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    // The end of the last record in the log.
+    private int end;
+    // The size the log would have if it were compacted.
+    private long liveSize = HEADER_SIZE;
+    private int unsynced = 0;
+    private byte[] scratch = new byte[256];
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Opens a store in the checkpoint directory of an input definition, creating it if it does not exist.
+     *
+     * @param inputs The input definition passed by splunkd.
+     * @param name The name of the store, which is used as its file name.
+     * @return The store.
+     * @throws IOException If the store cannot be opened.
+     */
+    public static CheckpointStore open(InputDefinition inputs, String name) throws IOException {
+        String dir = inputs.getCheckpointDir();
+        if (dir == null) {
+            throw new IllegalArgumentException("The input definition has no checkpoint directory.");
+        }
+        return new CheckpointStore(new File(dir, name));
+    }
+
+    /**
+     * Opens a store, creating the file if it does not exist.
+     *
+     * @param file The log file of the store.
+     * @throws IOException If the file cannot be opened, or is not a checkpoint store.
+     */
+    public CheckpointStore(File file) throws IOException {
+        this.file = file;
+        this.logs = new File[] { file, new File(file.getPath() + ".alt") };
+        long first = readGeneration(logs[0]);
+        long second = readGeneration(logs[1]);
+        active = second > first ? 1 : 0;
+        generation = Math.max(first, second);
+        openLog();
+    }
+
+    /**
+     * Sets the number of changes between syncs of the log to disk.
+     *
+     * @param syncInterval The number of changes, or 0 to sync only when {@code sync} or {@code close} is called.
+     */
+    public void setSyncInterval(int syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Returns the value of a key.
+     *
+     * @param key The key.
+     * @return The value, or {@code null} if the key is not in the store.
+     */
+    public String get(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Returns the value of a key as a number.
+     *
+     * @param key The key.
+     * @param defaultValue The value to return if the key is not in the store.
+     * @return The value.
+     * @throws NumberFormatException If the value is not a number.
+     */
+    public long getLong(String key, long defaultValue) {
+        String value = get(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    /**
+     * Returns whether a key is in the store.
+     *
+     * @param key The key.
+     * @return {@code true} if the key has a value.
+     */
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * @return The number of keys in the store.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return A view of the keys in the store.
+     */
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @throws IOException If the log cannot be written.
+     */
+    public synchronized void put(String key, String value) throws IOException {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null.");
+        }
+        Entry old = entries.get(key);
+        if (old != null && old.value.equals(value)) {
+            return;
+        }
+        int size = append(PUT, key, value);
+        entries.put(key, new Entry(value, size));
+        liveSize += size - (old == null ? 0 : old.size);
+        afterChange();
+    }
+
+    /**
+     * Sets the value of a key to a number.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @throws IOException If the log cannot be written.
+     */
+    public void putLong(String key, long value) throws IOException {
+        put(key, Long.toString(value));
+    }
+
+    /**
+     * Removes a key from the store.
+     *
+     * @param key The key.
+     * @throws IOException If the log cannot be written.
+     */
+    public synchronized void remove(String key) throws IOException {
+        Entry old = entries.remove(key);
+        if (old == null) {
+            return;
+        }
+        append(REMOVE, key, "");
+        liveSize -= old.size;
+        afterChange();
+    }
+
+    /**
+     * Forces the changes made so far to disk.
+     *
+     * @throws IOException If the log cannot be synced.
+     */
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        if (unsynced > 0) {
+            map.force();
+            unsynced = 0;
+        }
+    }
+
+    /**
+     * Rewrites the log with only the current value of each key, into the log file that is not in use. The new log
+     * takes over only once it is complete on disk, so a crash during compaction leaves the current log in use. This is
+     * done automatically when the log holds more than twice the live data.
+     *
+     * @throws IOException If the new log cannot be written.
+     */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+        int target = 1 - active;
+        long size = HEADER_SIZE;
+        RandomAccessFile compacted = new RandomAccessFile(logs[target], "rw");
+        try {
+            FileChannel targetChannel = compacted.getChannel();
+            long oldSize = targetChannel.size();
+            // The header has no generation yet, so the log is not used until it is stamped below.
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(targetChannel.position(0)), COPY_BUFFER_SIZE));
+            out.write(MAGIC);
+            out.writeLong(0);
+            out.writeLong(0);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                int length = encode(PUT, entry.getKey(), entry.getValue().value);
+                out.writeInt(length);
+                out.writeInt(checksum(length));
+                out.write(scratch, 0, length);
+                size += RECORD_HEADER_SIZE + length;
+            }
+            // Clear what is left of the log this file held before, so that it cannot be mistaken for records. The
+            // file is not truncated, since it may still be mapped.
+            byte[] zeros = new byte[COPY_BUFFER_SIZE];
+            for (long position = size; position < oldSize; position += zeros.length) {
+                out.write(zeros, 0, (int) Math.min(zeros.length, oldSize - position));
+            }
+            out.flush();
+            targetChannel.force(false);
+            ByteBuffer stamp = ByteBuffer.allocate(16);
+            stamp.putLong(generation + 1).putLong(~(generation + 1)).flip();
+            targetChannel.write(stamp, MAGIC.length);
+            targetChannel.force(false);
+        } finally {
+            compacted.close();
+        }
+
+        closeLog();
+        active = target;
+        generation++;
+        // The entries are unchanged, so the new log does not need to be read back.
+        mapLog();
+        end = (int) size;
+        liveSize = size;
+        unsynced = 0;
+    }
+
+    /**
+     * Syncs the log to disk and closes the store.
+     *
+     * @throws IOException If the log cannot be synced.
+     */
+    public synchronized void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            closeLog();
+        }
+    }
+
+    // Returns the generation of a log file, or 0 if it does not exist or is incomplete.
+    private static long readGeneration(File log) throws IOException {
+        if (!log.exists()) {
+            return 0;
+        }
+        RandomAccessFile in = new RandomAccessFile(log, "r");
+        try {
+            byte[] header = new byte[HEADER_SIZE];
+            int length = (int) Math.min(in.length(), HEADER_SIZE);
+            in.readFully(header, 0, length);
+            for (int i = 0; i < Math.min(length, MAGIC.length); i++) {
+                if (header[i] != MAGIC[i]) {
+                    throw new IOException(log + " is not a checkpoint store.");
+                }
+            }
+            if (length < HEADER_SIZE) {
+                return 0;
+            }
+            ByteBuffer stamp = ByteBuffer.wrap(header, MAGIC.length, 16);
+            long generation = stamp.getLong();
+            return generation > 0 && stamp.getLong() == ~generation ? generation : 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void openLog() throws IOException {
+        int fileSize = mapLog();
+        entries.clear();
+        liveSize = HEADER_SIZE;
+        unsynced = 0;
+        if (generation == 0) {
+            // A new store, or one whose first log was never completed.
+            generation = 1;
+            map.put(MAGIC);
+            map.putLong(generation);
+            map.putLong(~generation);
+            for (int i = HEADER_SIZE; i < fileSize; i++) {
+                map.put(i, (byte) 0);
+            }
+            map.force();
+            end = HEADER_SIZE;
+            return;
+        }
+        end = recover(fileSize);
+    }
+
+    // Opens and maps the log file in use, and returns its size.
+    private int mapLog() throws IOException {
+        raf = new RandomAccessFile(logs[active], "rw");
+        channel = raf.getChannel();
+        long fileSize = channel.size();
+        if (fileSize > Integer.MAX_VALUE) {
+            closeLog();
+            throw new IOException("Checkpoint store " + file + " is too large.");
+        }
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(fileSize, INITIAL_CAPACITY));
+        return (int) fileSize;
+    }
+
+    // Replays the records of the log into the entries, and returns the end of the last valid record.
+    private int recover(int fileSize) throws UnsupportedEncodingException {
+        int position = HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= fileSize) {
+            int length = map.getInt(position);
+            int checksum = map.getInt(position + 4);
+            if (length < PAYLOAD_HEADER_SIZE || length > fileSize - position - RECORD_HEADER_SIZE) {
+                break;
+            }
+            ensureScratch(length);
+            map.position(position + RECORD_HEADER_SIZE);
+            map.get(scratch, 0, length);
+            if (checksum(length) != checksum) {
+                break;
+            }
+            byte type = scratch[0];
+            int keyLength = ((scratch[1] & 0xff) << 24) | ((scratch[2] & 0xff) << 16)
+                    | ((scratch[3] & 0xff) << 8) | (scratch[4] & 0xff);
+            if (keyLength < 0 || keyLength > length - PAYLOAD_HEADER_SIZE || (type != PUT && type != REMOVE)) {
+                break;
+            }
+            String key = new String(scratch, PAYLOAD_HEADER_SIZE, keyLength, "UTF-8");
+            int size = RECORD_HEADER_SIZE + length;
+            Entry old = type == PUT
+                    ? entries.put(key, new Entry(new String(scratch, PAYLOAD_HEADER_SIZE + keyLength,
+                            length - PAYLOAD_HEADER_SIZE - keyLength, "UTF-8"), size))
+                    : entries.remove(key);
+            liveSize += (type == PUT ? size : 0) - (old == null ? 0 : old.size);
+            position += size;
+        }
+        // Clear what follows, such as a torn record, so that it cannot be mistaken for records appended later.
+        for (int i = position; i < fileSize; i++) {
+            map.put(i, (byte) 0);
+        }
+        return position;
+    }
+
+    private int append(byte type, String key, String value) throws IOException {
+        checkOpen();
+        int length = encode(type, key, value);
+        int size = RECORD_HEADER_SIZE + length;
+        if ((long) end + size > map.capacity()) {
+            grow(size);
+        }
+        int checksum = checksum(length);
+        // Write the payload before its length, so a crash leaves either a whole record or a record the checksum rejects.
+        map.position(end + RECORD_HEADER_SIZE);
+        map.put(scratch, 0, length);
+        map.putInt(end + 4, checksum);
+        map.putInt(end, length);
+        end += size;
+        return size;
+    }
+
+    private void grow(int needed) throws IOException {
+        long capacity = Math.max((long) map.capacity() * 2, (long) end + needed);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Checkpoint store " + file + " is full.");
+        }
+        map.force();
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void afterChange() throws IOException {
+        unsynced++;
+        if (end > MIN_COMPACTION_SIZE && end > 2 * liveSize) {
+            compact();
+        } else if (syncInterval > 0 && unsynced >= syncInterval) {
+            sync();
+        }
+    }
+
+    // Encodes the payload of a record into the scratch buffer, and returns its length.
+    private int encode(byte type, String key, String value) throws UnsupportedEncodingException {
+        byte[] keyBytes = key.getBytes("UTF-8");
+        byte[] valueBytes = value.getBytes("UTF-8");
+        int length = PAYLOAD_HEADER_SIZE + keyBytes.length + valueBytes.length;
+        ensureScratch(length);
+        scratch[0] = type;
+        scratch[1] = (byte) (keyBytes.length >>> 24);
+        scratch[2] = (byte) (keyBytes.length >>> 16);
+        scratch[3] = (byte) (keyBytes.length >>> 8);
+        scratch[4] = (byte) keyBytes.length;
+        System.arraycopy(keyBytes, 0, scratch, PAYLOAD_HEADER_SIZE, keyBytes.length);
+        System.arraycopy(valueBytes, 0, scratch, PAYLOAD_HEADER_SIZE + keyBytes.length, valueBytes.length);
+        return length;
+    }
+
+    private int checksum(int length) {
+        crc.reset();
+        crc.update(scratch, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private void ensureScratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (channel == null) {
+            throw new IOException("The checkpoint store is closed.");
+        }
+    }
+
+    private void closeLog() throws IOException {
+        map = null;
+        channel = null;
+        RandomAccessFile closing = raf;
+        raf = null;
+        if (closing != null) {
+            closing.close();
+        }
+    }
+
+    // The current value of a key, and the size of the record that set it.
+    private static final class Entry {
+        final String value;
+        final int size;
+
+        Entry(String value, int size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
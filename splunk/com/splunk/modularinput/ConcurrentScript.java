@@ -0,0 +1,413 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.modularinput;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code ConcurrentScript} class is an abstract base class for modular inputs that run each of their input stanzas
+ * on its own task, so that one modular input process can use many cores.
+ *
+ * Subclasses override {@code streamStanza} instead of {@code streamEvents}. It is called once per stanza, concurrently,
+ * with a {@code Stanza} object that gives the stanza's parameters, writes events on its behalf, reads and writes a
+ * checkpoint file for it in the checkpoint directory, and counts the events it writes. Since the stanzas share one
+ * {@code EventWriter}, events are written with {@code synchronizedWriteEvent}; a {@code BatchingEventWriter} avoids the
+ * contention.
+ *
+ * The stanzas run on the executor given to {@code setExecutor}, or else on virtual threads where the Java runtime
+ * supports them, and on one platform thread per stanza otherwise. Shutdown is cooperative: {@code stop} is called when
+ * the JVM shuts down, such as when splunkd stops the input, and long-running stanzas should check
+ * {@code Stanza.isStopping} or wait with {@code Stanza.awaitStop}, and return after writing their checkpoint.
+ */
+public abstract class ConcurrentScript extends Script {
+    /** The default time the JVM waits at shutdown for stanzas to return, in milliseconds. */
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT = 10000;
+
+    private ExecutorService executor = null;
+    private long shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile List<Stanza> stanzas = Collections.emptyList();
+
+    /**
+     * Sets the executor that runs the stanzas. The executor must be able to run all the stanzas at once, and is not
+     * shut down by this class.
+     *
+     * @param executor The executor, or {@code null} to use virtual threads or one thread per stanza.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the time the JVM waits at shutdown for the stanzas to return.
+     *
+     * @param shutdownTimeout The time, in milliseconds.
+     */
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * Asks all stanzas to stop. Stanzas are not interrupted; they see the request through {@code Stanza.isStopping}
+     * and {@code Stanza.awaitStop}.
+     */
+    public void stop() {
+        stopped.countDown();
+    }
+
+    /**
+     * Returns the stanzas of the current run, for instance to report their throughput.
+     *
+     * @return The stanzas, or an empty list before {@code streamEvents} is called.
+     */
+    public List<Stanza> getStanzas() {
+        return stanzas;
+    }
+
+    /**
+     * Streams the events of one input stanza into Splunk. This method is called concurrently for every stanza of the
+     * input definition, and should return when the stanza is done or {@code Stanza.isStopping} is {@code true}.
+     *
+     * @param stanza The stanza to stream events for.
+     * @param ew An object with methods to write events and log messages to Splunk, shared by all stanzas.
+     */
+    public abstract void streamStanza(Stanza stanza, EventWriter ew) throws Exception;
+
+    /**
+     * Runs {@code streamStanza} for every stanza of the input definition concurrently, and returns when they have all
+     * returned. The failure of a stanza is logged and does not stop the others; the first failure is then thrown.
+     *
+     * @param inputs The input definition passed by splunkd.
+     * @param ew An object with methods to write events and log messages to Splunk.
+     */
+    @Override
+    public final void streamEvents(InputDefinition inputs, final EventWriter ew)
+            throws MalformedDataException, XMLStreamException, IOException {
+        List<Stanza> list = new ArrayList<Stanza>();
+        for (Map.Entry<String, Map<String, Parameter>> input : inputs.getInputs().entrySet()) {
+            list.add(new Stanza(input.getKey(), input.getValue(), inputs));
+        }
+        stanzas = Collections.unmodifiableList(list);
+        if (list.isEmpty()) {
+            return;
+        }
+
+        ExecutorService service = executor;
+        boolean owned = service == null;
+        if (owned) {
+            service = createExecutor(list.size());
+        }
+        final CountDownLatch finished = new CountDownLatch(1);
+        Thread hook = new Thread(new Runnable() {
+            public void run() {
+                stop();
+                try {
+                    finished.await(shutdownTimeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // Shutting down anyway.
+                }
+            }
+        }, "splunk-input-shutdown");
+        boolean hooked = addShutdownHook(hook);
+
+        Exception failure = null;
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final Stanza stanza : list) {
+                futures.add(service.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        streamStanza(stanza, ew);
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    ew.synchronizedLog(EventWriter.ERROR, "Input " + list.get(i).getName() + " failed: " + cause);
+                    if (failure == null) {
+                        failure = cause instanceof Exception ? (Exception) cause : e;
+                    }
+                } catch (InterruptedException e) {
+                    stop();
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the inputs.");
+                }
+            }
+        } finally {
+            if (owned) {
+                service.shutdown();
+            }
+            finished.countDown();
+            if (hooked) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(hook);
+                } catch (IllegalStateException e) {
+                    // The JVM is already shutting down.
+                }
+            }
+        }
+
+        if (failure instanceof MalformedDataException) {
+            throw (MalformedDataException) failure;
+        } else if (failure instanceof XMLStreamException) {
+            throw (XMLStreamException) failure;
+        } else if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new IOException("Input failed: " + failure, failure);
+        }
+    }
+
+    /**
+     * Creates the executor that runs the stanzas when none was given to {@code setExecutor}. It runs them on virtual
+     * threads if the Java runtime supports them, and on one daemon thread per stanza otherwise.
+     *
+     * @param stanzaCount The number of stanzas.
+     * @return A new executor, which is shut down once the stanzas have returned.
+     */
+    protected ExecutorService createExecutor(int stanzaCount) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            // No virtual threads before Java 21.
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(stanzaCount, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "splunk-input-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static boolean addShutdownHook(Thread hook) {
+        try {
+            Runtime.getRuntime().addShutdownHook(hook);
+            return true;
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down.
+            return false;
+        } catch (SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The {@code Stanza} class represents one input stanza of a {@code ConcurrentScript} while it runs.
+     */
+    public class Stanza {
+        private final String name;
+        private final Map<String, Parameter> parameters;
+        private final InputDefinition definition;
+        private final AtomicLong eventCount = new AtomicLong();
+        private final long startTime = System.currentTimeMillis();
+
+        Stanza(String name, Map<String, Parameter> parameters, InputDefinition definition) {
+            this.name = name;
+            this.parameters = parameters;
+            this.definition = definition;
+        }
+
+        /**
+         * @return The name of this stanza (e.g., foobar://this-input-name).
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return A map of the parameters of this stanza, by name.
+         */
+        public Map<String, Parameter> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * Returns the value of a single-valued parameter of this stanza.
+         *
+         * @param parameterName The name of the parameter.
+         * @return The value, or {@code null} if the stanza has no single-valued parameter with this name.
+         */
+        public String getParameter(String parameterName) {
+            Parameter parameter = parameters.get(parameterName);
+            if (parameter instanceof SingleValueParameter) {
+                return ((SingleValueParameter) parameter).getValue();
+            }
+            return null;
+        }
+
+        /**
+         * @return The input definition this stanza belongs to.
+         */
+        public InputDefinition getInputDefinition() {
+            return definition;
+        }
+
+        /**
+         * Returns whether this input has been asked to stop.
+         *
+         * @return {@code true} if {@code streamStanza} should return.
+         */
+        public boolean isStopping() {
+            return stopped.getCount() == 0;
+        }
+
+        /**
+         * Waits until this input is asked to stop, or until the time has passed. Use it instead of
+         * {@code Thread.sleep} between polls.
+         *
+         * @param millis The time to wait, in milliseconds.
+         * @return {@code true} if the input has been asked to stop.
+         * @throws InterruptedException If the thread is interrupted.
+         */
+        public boolean awaitStop(long millis) throws InterruptedException {
+            return stopped.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Writes an {@code Event} for this stanza. The stanza of the event is set to this one if it is not set.
+         *
+         * @param ew The {@code EventWriter} passed to {@code streamStanza}.
+         * @param event The {@code Event} to write.
+         * @throws MalformedDataException If the event has no data.
+         */
+        public void writeEvent(EventWriter ew, Event event) throws MalformedDataException {
+            if (event.getStanza() == null) {
+                event.setStanza(name);
+            }
+            ew.synchronizedWriteEvent(event);
+            eventCount.incrementAndGet();
+        }
+
+        /**
+         * @return The number of events written with {@code writeEvent}.
+         */
+        public long getEventCount() {
+            return eventCount.get();
+        }
+
+        /**
+         * @return The average number of events written per second since the stanza started.
+         */
+        public double getEventsPerSecond() {
+            long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+            return eventCount.get() * 1000.0 / elapsed;
+        }
+
+        /**
+         * Returns the file this stanza's checkpoint is kept in, in the checkpoint directory of the input definition.
+         * The file name is the URL-encoded name of the stanza.
+         *
+         * @return The checkpoint file.
+         */
+        public File getCheckpointFile() {
+            String dir = definition.getCheckpointDir();
+            if (dir == null) {
+                throw new IllegalStateException("The input definition has no checkpoint directory.");
+            }
+            try {
+                return new File(dir, URLEncoder.encode(name, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError("Somehow your system doesn't support UTF-8");
+            }
+        }
+
+        /**
+         * Reads the checkpoint last written by {@code writeCheckpoint}.
+         *
+         * @return The checkpoint, or {@code null} if none was written.
+         * @throws IOException If the file cannot be read.
+         */
+        public String readCheckpoint() throws IOException {
+            InputStream stream;
+            try {
+                stream = new FileInputStream(getCheckpointFile());
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int count;
+                while ((count = stream.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, count);
+                }
+                return bytes.toString("UTF-8");
+            } finally {
+                stream.close();
+            }
+        }
+
+        /**
+         * Writes the checkpoint of this stanza. The checkpoint is written to a temporary file with the suffix
+         * {@code .tmp}, synced to disk, and then renamed, so the file never holds part of a checkpoint. Where a
+         * rename cannot replace an existing file, as on Windows, the file is deleted first, and a crash between the
+         * two leaves the checkpoint only under the temporary name.
+         *
+         * @param checkpoint The checkpoint.
+         * @throws IOException If the file cannot be written.
+         */
+        public void writeCheckpoint(String checkpoint) throws IOException {
+            File file = getCheckpointFile();
+            File temp = new File(file.getPath() + ".tmp");
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                stream.write(checkpoint.getBytes("UTF-8"));
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Could not rename " + temp + " to " + file);
+                }
+            }
+        }
+    }
+}
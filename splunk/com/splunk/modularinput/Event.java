@@ -72,7 +72,7 @@ public class Event {
         out.writeAttribute("unbroken", isUnbroken() ? "1" : "0");
 
         if (this.time != null) {
-            writeFieldTo(out, "time", String.format("%.3f", time.getTime() / 1000D));
+            writeFieldTo(out, "time", EventSerializer.formatTime(time.getTime()));
         }
 
         writeFieldTo(out, "source", getSource());
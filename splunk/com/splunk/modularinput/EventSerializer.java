@@ -0,0 +1,319 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.modularinput;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Date;
+
+/**
+ * The {@code EventSerializer} class writes {@code Event} objects in the {@code <stream><event>} format that Splunk
+ * reads from modular inputs, as UTF-8 bytes in a reusable buffer.
+ *
+ * It produces the same XML as {@code Event.writeTo}, but escapes and encodes the fields by hand instead of going through
+ * an {@code XMLStreamWriter}, and formats the timestamp without {@code String.format}, so serializing an event does not
+ * allocate once the buffer has grown to size. Subclasses of {@code Event} that override {@code writeTo} are not
+ * serialized by that method, so write them with an {@code XMLStreamWriter} instead.
+ *
+ * An {@code EventSerializer} is not thread safe. Typical use is to call {@code write} for a number of events, then
+ * {@code writeTo} to copy the bytes to an output stream, then {@code reset} to reuse the buffer.
+ */
+public class EventSerializer {
+    private static final byte[] STREAM_START = ascii("<stream>");
+    private static final byte[] STREAM_END = ascii("</stream>");
+    private static final byte[] EVENT_START = ascii("<event");
+    private static final byte[] STANZA = ascii(" stanza=\"");
+    private static final byte[] UNBROKEN = ascii(" unbroken=\"1\">");
+    private static final byte[] BROKEN = ascii(" unbroken=\"0\">");
+    private static final byte[] DONE = ascii("<done></done>");
+    private static final byte[] EVENT_END = ascii("</event>\r\n");
+    private static final byte[] AMP = ascii("&amp;");
+    private static final byte[] LT = ascii("&lt;");
+    private static final byte[] GT = ascii("&gt;");
+    private static final byte[] QUOT = ascii("&quot;");
+
+    private byte[] buffer;
+    private int size = 0;
+
+    /**
+     * Creates an {@code EventSerializer} with a buffer of 8 KB.
+     */
+    public EventSerializer() {
+        this(8192);
+    }
+
+    /**
+     * Creates an {@code EventSerializer}.
+     *
+     * @param initialCapacity The initial size of the buffer, in bytes. The buffer grows as needed.
+     */
+    public EventSerializer(int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 64)];
+    }
+
+    /**
+     * Appends the opening {@code <stream>} tag.
+     */
+    public void writeStreamStart() {
+        append(STREAM_START);
+    }
+
+    /**
+     * Appends the closing {@code </stream>} tag.
+     */
+    public void writeStreamEnd() {
+        append(STREAM_END);
+    }
+
+    /**
+     * Appends an {@code Event} as an {@code <event>} element.
+     *
+     * @param event The {@code Event} to append.
+     * @throws MalformedDataException if you have not specified data for this event.
+     */
+    public void write(Event event) throws MalformedDataException {
+        if (event.getData() == null) {
+            throw new MalformedDataException("Events must have at least the data field set to be written to XML.");
+        }
+
+        append(EVENT_START);
+        if (event.getStanza() != null) {
+            append(STANZA);
+            appendEscaped(event.getStanza(), true);
+            appendByte('"');
+        }
+        append(event.isUnbroken() ? UNBROKEN : BROKEN);
+
+        Date time = event.getTime();
+        if (time != null) {
+            appendStartTag("time");
+            appendTime(time.getTime());
+            appendEndTag("time");
+        }
+
+        appendField("source", event.getSource());
+        appendField("sourcetype", event.getSourceType());
+        appendField("index", event.getIndex());
+        appendField("host", event.getHost());
+        appendField("data", event.getData());
+
+        if (event.isDone()) {
+            append(DONE);
+        }
+        append(EVENT_END);
+    }
+
+    /**
+     * Returns the number of bytes in the buffer.
+     *
+     * @return The number of bytes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes the contents of the buffer to an output stream.
+     *
+     * @param out The output stream.
+     * @throws IOException if writing to the stream fails.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+
+    /**
+     * Empties the buffer, keeping its capacity.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * Returns the contents of the buffer as a string.
+     *
+     * @return The XML written so far.
+     */
+    @Override
+    public String toString() {
+        try {
+            return new String(buffer, 0, size, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("Somehow your system doesn't support UTF-8");
+        }
+    }
+
+    /**
+     * Formats a timestamp as seconds since the epoch with three decimals, as {@code String.format("%.3f", ...)}
+     * would in an English locale.
+     *
+     * @param millis The timestamp, in milliseconds since the epoch.
+     * @return The formatted timestamp.
+     */
+    static String formatTime(long millis) {
+        EventSerializer serializer = new EventSerializer(64);
+        serializer.appendTime(millis);
+        return serializer.toString();
+    }
+
+    private void appendField(String name, String value) {
+        if (value != null) {
+            appendStartTag(name);
+            appendEscaped(value, false);
+            appendEndTag(name);
+        }
+    }
+
+    private void appendStartTag(String name) {
+        ensure(name.length() + 2);
+        buffer[size++] = '<';
+        appendAscii(name);
+        buffer[size++] = '>';
+    }
+
+    private void appendEndTag(String name) {
+        ensure(name.length() + 3);
+        buffer[size++] = '<';
+        buffer[size++] = '/';
+        appendAscii(name);
+        buffer[size++] = '>';
+    }
+
+    // Callers must have ensured room.
+    private void appendAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer[size++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void appendTime(long millis) {
+        // Seconds, with the milliseconds always as three digits. %.3f gives
+        // "-0.001" for -1 ms, so round towards zero and keep the sign.
+        ensure(24);
+        long abs = Math.abs(millis);
+        if (millis < 0) {
+            buffer[size++] = '-';
+        }
+        appendDigits(abs / 1000);
+        long fraction = abs % 1000;
+        buffer[size++] = '.';
+        buffer[size++] = (byte) ('0' + fraction / 100);
+        buffer[size++] = (byte) ('0' + fraction / 10 % 10);
+        buffer[size++] = (byte) ('0' + fraction % 10);
+    }
+
+    // Callers must have ensured room.
+    private void appendDigits(long value) {
+        if (value == 0) {
+            buffer[size++] = '0';
+            return;
+        }
+        int length = 0;
+        for (long v = value; v != 0; v /= 10) {
+            length++;
+        }
+        int position = size + length;
+        for (long v = value; v != 0; v /= 10) {
+            buffer[--position] = (byte) ('0' + v % 10);
+        }
+        size += length;
+    }
+
+    private void appendEscaped(String s, boolean attribute) {
+        int length = s.length();
+        // Every char takes at most 3 bytes in UTF-8, and an escape at most 6.
+        ensure(length * 3);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '&') {
+                    appendEscape(AMP, length - i);
+                } else if (c == '<') {
+                    appendEscape(LT, length - i);
+                } else if (c == '>') {
+                    appendEscape(GT, length - i);
+                } else if (c == '"' && attribute) {
+                    appendEscape(QUOT, length - i);
+                } else {
+                    buffer[size++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xc0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                // A surrogate pair takes 4 bytes for the 2 chars it spans.
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer[size++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // An unpaired surrogate cannot be encoded.
+                buffer[size++] = '?';
+            } else {
+                buffer[size++] = (byte) (0xe0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[size++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void appendEscape(byte[] escape, int remaining) {
+        // Room was ensured for 3 bytes per remaining char, this one included.
+        ensure(escape.length + (remaining - 1) * 3);
+        System.arraycopy(escape, 0, buffer, size, escape.length);
+        size += escape.length;
+    }
+
+    /**
+     * Appends bytes that are already serialized, such as an event written by an {@code XMLStreamWriter}.
+     */
+    void append(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    private void append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void appendByte(char c) {
+        ensure(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void ensure(int needed) {
+        if (size + needed > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, size + needed)];
+            System.arraycopy(buffer, 0, grown, 0, size);
+            buffer = grown;
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Compares the throughput of {@link Args#encode()} with the
+ * {@code URLEncoder}-based implementation it replaced, on typical
+ * {@code JobArgs} and {@code SavedSearchDispatchArgs} maps and on a receiver
+ * query. Run it from the test classpath:
+ * <pre>
+ * java com.splunk.ArgsEncodeBenchmark [encodings]
+ * </pre>
+ * The default is 1,000,000 encodings per map.
+ */
+public class ArgsEncodeBenchmark {
+    private static final int WARMUP_RUNS = 2;
+    private static final int MEASURED_RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int encodings = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        JobArgs jobArgs = new JobArgs();
+        jobArgs.put("search", "search index=_internal sourcetype=splunkd log_level=ERROR | stats count by component");
+        jobArgs.setExecutionMode(JobArgs.ExecutionMode.NORMAL);
+        jobArgs.setEarliestTime("-24h@h");
+        jobArgs.setLatestTime("now");
+        jobArgs.setStatusBuckets(300);
+        jobArgs.setMaximumCount(10000);
+        jobArgs.setRequiredFieldList(new String[] { "_time", "component", "log_level" });
+
+        SavedSearchDispatchArgs dispatchArgs = new SavedSearchDispatchArgs();
+        dispatchArgs.setDispatchEarliestTime("-7d@d");
+        dispatchArgs.setDispatchLatestTime(new Date(1389650040000L));
+        dispatchArgs.setDispatchBuckets(100);
+        dispatchArgs.setDispatchLookups(true);
+        dispatchArgs.setDispatchMaximumCount(500000);
+        dispatchArgs.put("args.user", "J\u00fcrgen M\u00fcller");
+
+        Args receiverArgs = new Args();
+        receiverArgs.add("index", "main");
+        receiverArgs.add("source", "/var/log/messages");
+        receiverArgs.add("sourcetype", "syslog");
+        receiverArgs.add("host", "web-01.example.com");
+
+        Object[][] maps = {
+            { "JobArgs", jobArgs },
+            { "SavedSearchDispatchArgs", dispatchArgs },
+            { "receiver Args", receiverArgs },
+        };
+        for (Object[] map : maps) {
+            Args argMap = (Args) map[1];
+            System.out.println(map[0] + ", e.g. " + argMap.encode());
+            for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+                long legacy = time(argMap, encodings, true);
+                long current = time(argMap, encodings, false);
+                if (run >= WARMUP_RUNS) {
+                    System.out.println(String.format(
+                            "  legacy %6d ms   encode %6d ms   %.2fx",
+                            legacy, current, (double) legacy / Math.max(current, 1)));
+                }
+            }
+        }
+    }
+
+    private static long time(Args args, int encodings, boolean legacy) {
+        long length = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < encodings; i++) {
+            String encoded = legacy ? legacyEncode(args) : args.encode();
+            length += encoded.length();
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        if (length == 0) {
+            throw new IllegalStateException();
+        }
+        return elapsed;
+    }
+
+    // Args.encode as it was before it used its own encoder.
+    private static String legacyEncode(Map<String, Object> args) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Object> entry : Args.create(args).entrySet()) {
+            if (builder.length() > 0) builder.append('&');
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (value instanceof String[]) {
+                String encodedKey = legacyEncode(key);
+                for (String item : (String[]) value) {
+                    if (builder.length() > 0) builder.append('&');
+                    builder.append(encodedKey);
+                    builder.append('=');
+                    builder.append(legacyEncode(item));
+                }
+            }
+            else {
+                builder.append(legacyEncode(key));
+                builder.append('=');
+                builder.append(legacyEncode(value.toString()));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String legacyEncode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -18,9 +18,38 @@ package com.splunk;
 
 import junit.framework.TestCase;
 
+import java.net.URLEncoder;
+
 public class ArgsTest extends TestCase {
     public void testCreateArgsWithNull() {
         Args emptyArgs = Args.create(null);
         assertTrue(emptyArgs.isEmpty());
     }
+
+    public void testEncodeMatchesUrlEncoder() throws Exception {
+        String[] values = {
+            "", "search index=main | head 10", "a+b&c=d/e?f#g%h",
+            "-_.*~!'()", "caf\u00e9 \u65e5\u672c", "\ud83d\ude00 emoji",
+            "unpaired \ud83d surrogate", "\u0000\t\r\n\u007f"
+        };
+        for (String value : values) {
+            assertEquals(URLEncoder.encode(value, "UTF-8"), Args.encode(value));
+        }
+    }
+
+    public void testEncodeArgs() {
+        Args args = new Args();
+        args.add("search", "search *");
+        args.add("f", new String[] { "a", "b c" });
+        args.add("count", 10);
+        args.add("offset", -5L);
+        args.add("enable", true);
+        args.add("empty", new String[0]);
+        args.add("mode", JobArgs.ExecutionMode.BLOCKING);
+        assertEquals(
+                "search=search+*&f=a&f=b+c&count=10&offset=-5&enable=true&mode=blocking",
+                args.encode());
+        assertEquals(args.encode(), Args.encode((java.util.Map<String, Object>)args));
+        assertEquals("", new Args().encode());
+    }
 }
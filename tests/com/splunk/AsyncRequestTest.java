@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.splunk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncRequestTest extends LocalServerTestCase {
+    private HttpService service;
+
+    @Before
+    public void setUp() throws IOException {
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                respond(exchange, path.equals("/missing") ? 404 : 200, path);
+            }
+        });
+        service = new HttpService("127.0.0.1", getPort(), "http");
+    }
+
+    @Test
+    public void testGetAsync() throws Exception {
+        List<SplunkFuture<ResponseMessage>> futures = new ArrayList<SplunkFuture<ResponseMessage>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(service.getAsync("/path" + i));
+        }
+        for (int i = 0; i < 20; i++) {
+            ResponseMessage response = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(200, response.getStatus());
+            assertEquals("/path" + i, SDKTestCase.streamToString(response.getContent()));
+        }
+    }
+
+    @Test
+    public void testErrorCompletesExceptionally() throws Exception {
+        SplunkFuture<ResponseMessage> future = service.getAsync("/missing");
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Expected an ExecutionException.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HttpException);
+            assertEquals(404, ((HttpException) e.getCause()).getStatus());
+        }
+    }
+
+    @Test
+    public void testCallbacks() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final AtomicReference<String> body = new AtomicReference<String>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        service.postAsync("/posted").addCallback(new FutureCallback<ResponseMessage>() {
+            public void onSuccess(ResponseMessage result) {
+                body.set(SDKTestCase.streamToString(result.getContent()));
+                latch.countDown();
+            }
+
+            public void onFailure(Throwable cause) {
+                latch.countDown();
+            }
+        });
+        service.deleteAsync("/missing").addCallback(new FutureCallback<ResponseMessage>() {
+            public void onSuccess(ResponseMessage result) {
+                latch.countDown();
+            }
+
+            public void onFailure(Throwable cause) {
+                failure.set(cause);
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals("/posted", body.get());
+        assertTrue(failure.get() instanceof HttpException);
+    }
+
+    @Test
+    public void testCallbackAddedAfterCompletion() throws Exception {
+        SplunkFuture<ResponseMessage> future = service.getAsync("/done");
+        future.get(10, TimeUnit.SECONDS);
+        final AtomicReference<ResponseMessage> result = new AtomicReference<ResponseMessage>();
+        future.addCallback(new FutureCallback<ResponseMessage>() {
+            public void onSuccess(ResponseMessage response) {
+                result.set(response);
+            }
+
+            public void onFailure(Throwable cause) {
+            }
+        });
+        assertEquals(200, result.get().getStatus());
+    }
+}
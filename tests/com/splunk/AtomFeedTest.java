@@ -21,8 +21,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
 
@@ -88,6 +92,77 @@ public class AtomFeedTest {
         }
     }
 
+    @Test
+    public void testAtomFeedReader() throws IOException {
+        AtomFeed expectedFeed = AtomFeed.parseStream(
+                SDKTestCase.openResource("data/atom/" + testName + ".xml"));
+        AtomFeedReader reader = new AtomFeedReader(this.xmlStream);
+
+        List<AtomEntry> skippedEntries = new ArrayList<AtomEntry>();
+        int i = 0;
+        for (AtomEntry actualEntry : reader) {
+            AtomEntry expectedEntry = expectedFeed.entries.get(i);
+            assertEquals(expectedEntry.id, actualEntry.id);
+            assertEquals(expectedEntry.title, actualEntry.title);
+            assertEquals(expectedEntry.updated, actualEntry.updated);
+            assertEquals(expectedEntry.published, actualEntry.published);
+            assertEquals(expectedEntry.links, actualEntry.links);
+            // Read the content of every other entry, and skip the rest.
+            if (i % 2 == 0) {
+                assertEquals(expectedEntry.content, actualEntry.getContent());
+            } else if (expectedEntry.content != null) {
+                skippedEntries.add(actualEntry);
+            }
+            i++;
+        }
+        assertEquals(expectedFeed.entries.size(), i);
+        reader.close();
+
+        AtomFeed actualFeed = reader.getFeed();
+        assertEquals(expectedFeed.itemsPerPage, actualFeed.itemsPerPage);
+        assertEquals(expectedFeed.startIndex, actualFeed.startIndex);
+        assertEquals(expectedFeed.totalResults, actualFeed.totalResults);
+        assertEquals(expectedFeed.links, actualFeed.links);
+        assertTrue(actualFeed.entries.isEmpty());
+
+        for (AtomEntry skippedEntry : skippedEntries) {
+            assertNull(skippedEntry.content);
+            try {
+                skippedEntry.getContent();
+                fail("Expected an IllegalStateException");
+            } catch (IllegalStateException e) {}
+        }
+    }
+
+    @Test
+    public void testAtomFeedWithFields() throws IOException {
+        String[] fields = new String[] { "disabled", "c*" };
+        AtomFeed expectedFeed = AtomFeed.parseStream(
+                SDKTestCase.openResource("data/atom/" + testName + ".xml"));
+        AtomFeed actualFeed = AtomFeed.parseStream(this.xmlStream, fields);
+        AtomFeedReader reader = new AtomFeedReader(
+                SDKTestCase.openResource("data/atom/" + testName + ".xml"), fields);
+        Iterator<AtomEntry> readerEntries = reader.iterator();
+
+        assertEquals(expectedFeed.entries.size(), actualFeed.entries.size());
+        for (int i = 0; i < expectedFeed.entries.size(); i++) {
+            Record expectedContent = expectedFeed.entries.get(i).content;
+            if (expectedContent != null) {
+                Record projected = new Record();
+                for (String key : expectedContent.keySet()) {
+                    if (key.equals("disabled") || key.startsWith("c") || key.equals("eai:acl")) {
+                        projected.put(key, expectedContent.get(key));
+                    }
+                }
+                expectedContent = projected;
+            }
+            assertEquals(expectedContent, actualFeed.entries.get(i).content);
+            assertEquals(expectedContent, readerEntries.next().getContent());
+        }
+        assertFalse(readerEntries.hasNext());
+        reader.close();
+    }
+
     @Parameterized.Parameters(name="{0}")
     public static Collection<Object[]> testCases() {
         Collection<Object[]> cases = new ArrayList<Object[]>();
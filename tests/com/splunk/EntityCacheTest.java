@@ -0,0 +1,265 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that an EntityCache serves refreshes from memory, expires and
+ * invalidates them, and shares concurrent requests, against a local server.
+ */
+public class EntityCacheTest extends LocalServerTestCase {
+    private static final String ENTITY_FEED =
+            "<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:s=\"http://dev.splunk.com/ns/rest\">" +
+            "<title>localapps</title><updated>2012-12-19T15:27:58-08:00</updated>" +
+            "<entry><title>search</title><updated>2012-12-19T15:27:58-08:00</updated>" +
+            "<link href=\"/services/apps/local/search\" rel=\"alternate\"/>" +
+            "<content type=\"text/xml\"><s:dict><s:key name=\"version\">6.0</s:key></s:dict></content>" +
+            "</entry></feed>";
+
+    private Service service;
+    private EntityCache cache;
+    private final AtomicInteger collectionRequests = new AtomicInteger();
+    private final AtomicInteger entityRequests = new AtomicInteger();
+    private final AtomicInteger jobRequests = new AtomicInteger();
+    private final AtomicInteger updateRequests = new AtomicInteger();
+    private volatile long delay = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        final byte[] collectionFeed = SDKTestCase.streamToString(
+                SDKTestCase.openResource("data/atom/atom_with_several_entries.xml")).getBytes("UTF-8");
+        final byte[] entityFeed = ENTITY_FEED.getBytes("UTF-8");
+
+        server.createContext("/services/apps/local", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                byte[] body;
+                if (exchange.getRequestURI().getPath().equals("/services/apps/local")) {
+                    collectionRequests.incrementAndGet();
+                    body = collectionFeed;
+                }
+                else {
+                    entityRequests.incrementAndGet();
+                    body = entityFeed;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {}
+                respond(exchange, 200, body);
+            }
+        });
+        server.createContext("/services/search/jobs", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                jobRequests.incrementAndGet();
+                respond(exchange, 200, "<feed xmlns=\"http://www.w3.org/2005/Atom\"><title>jobs</title>" +
+                        "<updated>2012-12-19T15:27:58-08:00</updated></feed>");
+            }
+        });
+
+        server.createContext("/servicesNS/nobody/search/apps/local", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                updateRequests.incrementAndGet();
+                respond(exchange, 200, "<response/>");
+            }
+        });
+
+        service = new Service("127.0.0.1", getPort(), "http");
+        cache = new EntityCache();
+        cache.setDefaultTtl(60000);
+        service.setEntityCache(cache);
+    }
+
+    @Test
+    public void testRefreshesAreCached() {
+        assertEquals(3, service.getApplications().size());
+        assertEquals(3, service.getApplications().size());
+        assertEquals("6.0", new Entity(service, "apps/local/search").get("version"));
+        assertEquals("6.0", new Entity(service, "apps/local/search").get("version"));
+
+        assertEquals(1, collectionRequests.get());
+        assertEquals(1, entityRequests.get());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.size());
+        assertTrue(cache.getAverageLoadLatency() > 0);
+    }
+
+    @Test
+    public void testStateExpires() throws InterruptedException {
+        cache.setTtl("apps/local", 50);
+        Entity entity = new Entity(service, "apps/local/search");
+        entity.get("version");
+        entity.get("version");
+        assertEquals(1, entityRequests.get());
+
+        Thread.sleep(100);
+        entity.get("version");
+        assertEquals(2, entityRequests.get());
+        assertEquals(50, cache.getTtl("/servicesNS/admin/search/apps/local/search"));
+        assertEquals(60000, cache.getTtl("/services/saved/searches"));
+    }
+
+    @Test
+    public void testInvalidateRemovesPathAndCollection() {
+        service.getApplications().size();
+        Entity entity = new Entity(service, "apps/local/search");
+        entity.get("version");
+        assertEquals(2, cache.size());
+
+        entity.invalidate();
+        assertEquals(0, cache.size());
+        entity.get("version");
+        service.getApplications().size();
+        assertEquals(2, collectionRequests.get());
+        assertEquals(2, entityRequests.get());
+    }
+
+    @Test
+    public void testUpdateInNamespaceInvalidatesCollection() {
+        service.getApplications().size();
+        Entity entity = new Entity(service, "/servicesNS/nobody/search/apps/local/search");
+        Map<String, Object> args = new HashMap<String, Object>();
+        args.put("version", "6.1");
+        entity.update(args);
+        assertEquals(1, updateRequests.get());
+
+        service.getApplications().size();
+        assertEquals(2, collectionRequests.get());
+    }
+
+    @Test
+    public void testStateIsNotRefetchedWithoutTtl() {
+        cache.setDefaultTtl(0);
+        Entity entity = new Entity(service, "apps/local/search");
+        entity.get("version");
+        entity.get("version");
+        assertEquals(1, entityRequests.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testListingWithSelectedFieldsStaysCached() {
+        EntityCollection<Application> apps = service.getApplications();
+        apps.selectFields("version");
+        apps.size();
+        assertEquals(1, cache.size());
+        apps.refresh();
+        assertEquals(1, collectionRequests.get());
+    }
+
+    @Test
+    public void testUnrelatedInvalidationDoesNotBlockCaching() throws InterruptedException {
+        delay = 200;
+        Thread loader = new Thread(new Runnable() {
+            public void run() {
+                new Entity(service, "apps/local/search").get("version");
+            }
+        });
+        loader.start();
+        Thread.sleep(50);
+        cache.invalidate("/services/saved/searches/other");
+        loader.join();
+        assertEquals(1, cache.size());
+
+        loader = new Thread(new Runnable() {
+            public void run() {
+                service.getApplications().size();
+            }
+        });
+        loader.start();
+        Thread.sleep(50);
+        cache.invalidate("/services/apps/local/search");
+        loader.join();
+        // The listing may predate the change, so it is not kept.
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSessionsAreKeptApart() {
+        service.addCookie("splunkd_8089=first; Path=/");
+        Service other = new Service("127.0.0.1", getPort(), "http");
+        other.addCookie("splunkd_8089=second; Path=/");
+        other.setEntityCache(cache);
+
+        new Entity(service, "apps/local/search").get("version");
+        new Entity(other, "apps/local/search").get("version");
+        new Entity(other, "apps/local/search").get("version");
+        assertEquals(2, entityRequests.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testJobsAreNotCached() {
+        service.getJobs().size();
+        service.getJobs().size();
+        assertEquals(2, jobRequests.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentRefreshesShareOneRequest() throws InterruptedException {
+        cache.setDefaultTtl(0);
+        delay = 200;
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    new Entity(service, "apps/local/search").get("version");
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, entityRequests.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(7, cache.getHitCount());
+        // With a time to live of 0, nothing is kept.
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        cache = new EntityCache(1);
+        cache.setDefaultTtl(60000);
+        service.setEntityCache(cache);
+
+        service.getApplications().size();
+        new Entity(service, "apps/local/search").get("version");
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        service.getApplications().size();
+        assertEquals(2, collectionRequests.get());
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test that a FileIngester sends a local file in line-aligned chunks, and
+ * resumes from the recorded offset after a failed request.
+ */
+public class FileIngesterTest extends LocalServerTestCase {
+    private static final String INDEX_FEED =
+            "<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:s=\"http://dev.splunk.com/ns/rest\">" +
+            "<title>indexes</title><updated>2014-01-13T13:54:00-08:00</updated>" +
+            "<entry><title>main</title><updated>2014-01-13T13:54:00-08:00</updated>" +
+            "<link href=\"/services/data/indexes/main\" rel=\"alternate\"/>" +
+            "<content type=\"text/xml\"><s:dict/></content>" +
+            "</entry></feed>";
+
+    private Service service;
+    private File file;
+    private String content;
+    private final List<String> bodies = new CopyOnWriteArrayList<String>();
+    private final List<String> queries = new CopyOnWriteArrayList<String>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile int failingRequest = 0;
+    private volatile long delay = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.append("event number ").append(i).append('\n');
+        }
+        content = builder.toString();
+        file = File.createTempFile("ingest", ".log");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+
+        server.createContext("/services/data/indexes/main", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                respond(exchange, 200, INDEX_FEED);
+            }
+        });
+        server.createContext("/services/receivers/simple", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream body = exchange.getRequestBody();
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    body = new GZIPInputStream(body);
+                }
+                String text = readBody(body);
+                active.incrementAndGet();
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                } finally {
+                    active.decrementAndGet();
+                }
+                if (requests.incrementAndGet() == failingRequest) {
+                    respond(exchange, 500, "<response><messages><msg type=\"ERROR\">Internal error</msg></messages></response>");
+                    return;
+                }
+                bodies.add(text);
+                queries.add(exchange.getRequestURI().getQuery());
+                respond(exchange, 200, "<response><messages/></response>");
+            }
+        });
+
+        service = new Service("127.0.0.1", getPort(), "http");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testFileIsSentInLineChunks() throws IOException {
+        Index index = new Index(service, "data/indexes/main");
+        FileIngester ingester = new FileIngester(index, file);
+        ingester.setChunkSize(1000);
+        ingester.setParallelism(3);
+        final List<Long> offsets = new CopyOnWriteArrayList<Long>();
+        ingester.setProgressListener(new FileIngester.ProgressListener() {
+            public void progress(long offset, long length) {
+                offsets.add(offset);
+            }
+        });
+
+        assertEquals(file.length(), ingester.ingest());
+        assertEquals(file.length(), ingester.getOffset());
+        assertEquals(bodies.size(), offsets.size());
+        assertEquals(file.length(), (long)offsets.get(offsets.size() - 1));
+        for (int i = 1; i < offsets.size(); i++) {
+            assertTrue(offsets.get(i) > offsets.get(i - 1));
+        }
+        assertTrue(bodies.size() > 10);
+        for (String body : bodies) {
+            assertTrue(body.endsWith("\n"));
+        }
+        assertEquals(content, join(bodies));
+        assertTrue(queries.get(0).contains("index=main"));
+        assertTrue(queries.get(0).contains("source=" + file.getPath()));
+    }
+
+    @Test
+    public void testResumeAfterFailure() throws IOException {
+        Index index = new Index(service, "data/indexes/main");
+        FileIngester ingester = new FileIngester(index, file);
+        ingester.setChunkSize(2000);
+        ingester.setParallelism(1);
+        failingRequest = 3;
+        try {
+            ingester.ingest();
+            fail("Expected an HttpException");
+        } catch (HttpException e) {
+            assertEquals(500, e.getStatus());
+        }
+        long offset = ingester.getOffset();
+        assertTrue(offset > 0 && offset < file.length());
+        assertEquals('\n', content.charAt((int)offset - 1));
+        assertEquals(content.substring(0, (int)offset), join(bodies));
+
+        bodies.clear();
+        FileIngester resumed = new FileIngester(index, file);
+        resumed.setChunkSize(2000);
+        resumed.setCompress(true);
+        resumed.setStartOffset(offset);
+        assertEquals(file.length(), resumed.ingest());
+        assertEquals(content.substring((int)offset), join(bodies));
+    }
+
+    @Test
+    public void testInterruptWaitsForChunksInFlight() throws Exception {
+        Index index = new Index(service, "data/indexes/main");
+        final FileIngester ingester = new FileIngester(index, file);
+        ingester.setChunkSize(1000);
+        ingester.setParallelism(3);
+        delay = 300;
+        final Throwable[] failure = new Throwable[1];
+        final boolean[] interrupted = new boolean[1];
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    ingester.ingest();
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+                interrupted[0] = Thread.currentThread().isInterrupted();
+                // The chunks in flight have finished by the time ingest returns.
+                if (active.get() != 0) {
+                    failure[0] = new AssertionError(active.get() + " chunks still in flight");
+                }
+            }
+        });
+        thread.start();
+        Thread.sleep(100);
+        thread.interrupt();
+        thread.join();
+
+        assertTrue(failure[0] instanceof RuntimeException);
+        assertTrue(interrupted[0]);
+        assertTrue(requests.get() <= 3);
+    }
+
+    // Joins the received chunks in the order they appear in the file.
+    private String join(List<String> received) {
+        List<String> sorted = new ArrayList<String>(received);
+        Collections.sort(sorted, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return content.indexOf(a) - content.indexOf(b);
+            }
+        });
+        StringBuilder joined = new StringBuilder();
+        for (String body : sorted) {
+            joined.append(body);
+        }
+        return joined.toString();
+    }
+}
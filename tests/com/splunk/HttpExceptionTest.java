@@ -5,6 +5,7 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
 
@@ -40,4 +41,23 @@ public class HttpExceptionTest {
         assertEquals("Raw response message was modified", responseMessage, e.getDetail());
         assertEquals("create() modified response status code", 503, e.getStatus());
     }
+
+    @Test
+    public void testMessageIncludesDetail() {
+        InputStream in = new ByteArrayInputStream(responseMessageXML.getBytes());
+        HttpException e = HttpException.create(new ResponseMessage(404, in));
+        assertEquals("HTTP 404 -- " + responseMessage, e.getMessage());
+
+        e = HttpException.create(new ResponseMessage(401, new ByteArrayInputStream(new byte[0])));
+        assertEquals("HTTP 401", e.getMessage());
+        assertEquals("", e.getDetail());
+    }
+
+    @Test
+    public void testLargeBodyIsTruncated() {
+        byte[] body = new byte[HttpException.MAX_BODY_SIZE * 3];
+        Arrays.fill(body, (byte) 'x');
+        HttpException e = HttpException.create(new ResponseMessage(500, new ByteArrayInputStream(body)));
+        assertEquals(HttpException.MAX_BODY_SIZE, e.getDetail().length());
+    }
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that an InputCollection lists the inputs of all kinds concurrently,
+ * reads the kinds once per login, and reads again only the kinds that change.
+ */
+public class InputCatalogTest extends LocalServerTestCase {
+    private static final String INFO_FEED =
+            "<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:s=\"http://dev.splunk.com/ns/rest\">" +
+            "<title>server-info</title><updated>2014-01-13T13:54:00-08:00</updated>" +
+            "<entry><title>server-info</title><updated>2014-01-13T13:54:00-08:00</updated>" +
+            "<content type=\"text/xml\"><s:dict><s:key name=\"version\">6.0</s:key></s:dict></content>" +
+            "</entry></feed>";
+
+    private Service service;
+    private final ConcurrentHashMap<String, AtomicInteger> requests =
+            new ConcurrentHashMap<String, AtomicInteger>();
+    private final List<String> monitors = new CopyOnWriteArrayList<String>();
+    private volatile long delay = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        monitors.add("var-log");
+
+        server.createContext("/services/auth/login", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                respond(exchange, 200, "<response><sessionKey>key</sessionKey></response>");
+            }
+        });
+        server.createContext("/services/server/info", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                respond(exchange, 200, INFO_FEED);
+            }
+        });
+        server.createContext("/services/data/inputs", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = readBody(exchange.getRequestBody());
+                String path = exchange.getRequestURI().getPath();
+                if (path.endsWith("/")) {
+                    path = path.substring(0, path.length() - 1);
+                }
+                String relpath = Util.substringAfter(path, "/services/data/inputs/", "");
+                if (exchange.getRequestMethod().equals("GET")) {
+                    requests.putIfAbsent(relpath, new AtomicInteger());
+                    requests.get(relpath).incrementAndGet();
+                }
+
+                if (relpath.equals("")) {
+                    respond(exchange, 200, feed(
+                            kind("all", false) + kind("monitor", true) + kind("tcp", false)));
+                }
+                else if (relpath.equals("tcp")) {
+                    respond(exchange, 200, feed(
+                            kind("tcp/raw", true) + kind("tcp/cooked", true) + kind("tcp/ssl", true)));
+                }
+                else if (relpath.equals("monitor")) {
+                    if (exchange.getRequestMethod().equals("POST")) {
+                        monitors.add(body.substring(body.indexOf("name=") + "name=".length()));
+                        respond(exchange, 201, feed(""));
+                        return;
+                    }
+                    pause();
+                    StringBuilder entries = new StringBuilder();
+                    for (String name : monitors) {
+                        entries.append(input("monitor", name));
+                    }
+                    respond(exchange, 200, feed(entries.toString()));
+                }
+                else if (relpath.equals("tcp/raw") || relpath.equals("tcp/cooked")) {
+                    pause();
+                    respond(exchange, 200, feed(input(relpath, "9997")));
+                }
+                else {
+                    respond(exchange, 404, "<response><messages><msg type=\"ERROR\">Not Found</msg></messages></response>");
+                }
+            }
+        });
+
+        service = new Service("127.0.0.1", getPort(), "http");
+        service.login("admin", "changeme");
+    }
+
+    @Test
+    public void testKindsAreReadOncePerLogin() {
+        InputCollection inputs = service.getInputs();
+        assertEquals(2, inputs.size());
+        assertEquals(3, inputs.values().size());
+        assertEquals(3, inputs.getInputKinds().size());
+        assertTrue(inputs.getInputKinds().contains(InputKind.Monitor));
+        assertTrue(inputs.getInputKinds().contains(InputKind.Tcp));
+        assertTrue(inputs.getInputKinds().contains(InputKind.TcpSplunk));
+
+        service.getInputs().refresh();
+        assertEquals(1, count(""));
+        assertEquals(1, count("tcp"));
+        assertEquals(2, count("monitor"));
+        assertEquals(2, count("tcp/raw"));
+        assertEquals(2, count("tcp/cooked"));
+
+        service.login("admin", "changeme");
+        service.getInputs().refresh();
+        assertEquals(2, count(""));
+        assertEquals(2, count("tcp"));
+    }
+
+    @Test
+    public void testCreateReadsOnlyItsKind() {
+        InputCollection inputs = service.getInputs();
+        assertEquals(2, inputs.size());
+
+        Input input = inputs.create("new-log", InputKind.Monitor);
+        assertNotNull(input);
+        assertEquals(InputKind.Monitor, input.getKind());
+        assertEquals(3, inputs.size());
+        assertEquals(2, count("monitor"));
+        assertEquals(1, count("tcp/raw"));
+        assertEquals(1, count("tcp/cooked"));
+    }
+
+    @Test
+    public void testKindsAreListedConcurrently() {
+        delay = 300;
+        long start = System.currentTimeMillis();
+        service.getInputs().refresh();
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Listing took " + elapsed + " ms", elapsed < 3 * delay);
+    }
+
+    @Test
+    public void testRefreshOnSingleThreadExecutor() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            service.setAsyncExecutor(executor);
+            InputCollection inputs = service.getInputs();
+            inputs.refreshAsync().get(5, TimeUnit.SECONDS);
+            assertEquals(2, inputs.size());
+        } finally {
+            service.setAsyncExecutor(null);
+            executor.shutdownNow();
+        }
+    }
+
+    // Returns the number of GET requests for a path below data/inputs/.
+    private int count(String relpath) {
+        AtomicInteger count = requests.get(relpath);
+        return count == null ? 0 : count.get();
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {}
+    }
+
+    private static String feed(String entries) {
+        return "<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:s=\"http://dev.splunk.com/ns/rest\">" +
+                "<title>inputs</title><updated>2014-01-13T13:54:00-08:00</updated>" +
+                entries + "</feed>";
+    }
+
+    private static String kind(String relpath, boolean creatable) {
+        String name = relpath.substring(relpath.lastIndexOf('/') + 1);
+        String link = "/services/data/inputs/" + relpath;
+        return "<entry><title>" + name + "</title><updated>2014-01-13T13:54:00-08:00</updated>" +
+                "<link href=\"" + link + "\" rel=\"list\"/>" +
+                (creatable ? "<link href=\"" + link + "/_new\" rel=\"create\"/>" : "") +
+                "<content type=\"text/xml\"><s:dict/></content></entry>";
+    }
+
+    private static String input(String relpath, String name) {
+        return "<entry><title>" + name + "</title><updated>2014-01-13T13:54:00-08:00</updated>" +
+                "<link href=\"/servicesNS/nobody/search/data/inputs/" + relpath + "/" + name + "\" rel=\"alternate\"/>" +
+                "<content type=\"text/xml\"><s:dict/></content></entry>";
+    }
+}
@@ -235,4 +235,44 @@ public class InsertRootElementFilterInputStreamTest {
 
         Assert.assertEquals(expected, found);
     }
+
+    @Test
+    public void testResultsTagAcrossReadBlocks() throws IOException {
+        // Put '<results' across the boundary of the blocks the head is read in.
+        StringBuilder preamble = new StringBuilder("<?xml encoding=\"UTF-8\">");
+        while (preamble.length() < 8192 - 4) {
+            preamble.append(' ');
+        }
+        InputStream stream = new ByteArrayInputStream((preamble + "<results/>").getBytes("UTF-8"));
+        InputStream filteredStream = new InsertRootElementFilterInputStream(stream);
+
+        String found = SDKTestCase.streamToString(filteredStream);
+        String expected = preamble + "<doc><results/></doc>";
+
+        Assert.assertEquals(expected, found);
+    }
+
+    @Test
+    public void testReadWithOffset() throws IOException {
+        InputStream stream = new ByteArrayInputStream("<results/>".getBytes("UTF-8"));
+        InputStream filteredStream = new InsertRootElementFilterInputStream(stream);
+
+        byte[] buffer = new byte[64];
+        int length = 0;
+        int count;
+        while ((count = filteredStream.read(buffer, 10 + length, 3)) != -1) {
+            length += count;
+        }
+
+        Assert.assertEquals("<doc><results/></doc>", new String(buffer, 10, length, "UTF-8"));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        InsertRootElementFilterInputStream filteredStream =
+                new InsertRootElementFilterInputStream(new ByteArrayInputStream(new byte[0]));
+
+        Assert.assertTrue(filteredStream.isEmpty());
+        Assert.assertEquals(-1, filteredStream.read());
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Base test case for tests that run against a stub of the Splunk REST API on
+ * the local machine, rather than against a Splunk instance.
+ *
+ * TestCase does the following actions in the various test contexts:
+ *
+ * @@Before:
+ *   - Start an HTTP server on a free port of 127.0.0.1, which handles each
+ *     request on a thread of its own. Subclasses add the contexts they stub
+ *     in their own @Before methods, which run after this one.
+ *
+ * @@After:
+ *   - Stop the server.
+ */
+public abstract class LocalServerTestCase {
+    protected HttpServer server;
+    private ExecutorService serverExecutor;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    protected int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Sends a response with a UTF-8 body and closes the exchange.
+     */
+    protected static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        respond(exchange, status, body.getBytes("UTF-8"));
+    }
+
+    /**
+     * Sends a response with the given body and closes the exchange.
+     */
+    protected static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    /**
+     * Reads a request body to its end, as UTF-8 text.
+     */
+    protected static String readBody(InputStream input) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1024];
+        int count;
+        while ((count = input.read(chunk)) != -1) {
+            buffer.write(chunk, 0, count);
+        }
+        return buffer.toString("UTF-8");
+    }
+
+    /**
+     * Reads a request body to its end, and discards it.
+     */
+    protected static void drain(InputStream input) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (input.read(buffer) != -1) { }
+    }
+}
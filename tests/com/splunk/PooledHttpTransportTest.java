@@ -0,0 +1,356 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.splunk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PooledHttpTransportTest extends LocalServerTestCase {
+    private static final int LARGE_BODY_SIZE = 1024 * 1024;
+
+    private HttpService service;
+    private PooledHttpTransport transport;
+    private final CountDownLatch slowBodyReleased = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        server.createContext("/small", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                exchange.getResponseHeaders().add("Set-Cookie", "splunkd_8089=abc; Path=/");
+                respond(exchange, 200, "hello");
+            }
+        });
+        server.createContext("/large", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                // A length of 0 makes the server use chunked encoding.
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                byte[] chunk = new byte[1024];
+                for (int i = 0; i < LARGE_BODY_SIZE / chunk.length; i++) {
+                    out.write(chunk);
+                }
+                exchange.close();
+            }
+        });
+        server.createContext("/missing", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                respond(exchange, 404, "<response><messages><msg type=\"ERROR\">Not Found</msg></messages></response>");
+            }
+        });
+        server.createContext("/echo", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                // Reports the size of the request body and how it was framed.
+                String framing = exchange.getRequestHeaders().containsKey("Transfer-Encoding")
+                        ? "chunked" : "length";
+                respond(exchange, 200, countBytes(exchange.getRequestBody()) + " " + framing);
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                out.write("first ".getBytes("UTF-8"));
+                out.flush();
+                try {
+                    slowBodyReleased.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {}
+                out.write("second".getBytes("UTF-8"));
+                exchange.close();
+            }
+        });
+
+        server.createContext("/longheader", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                StringBuilder value = new StringBuilder();
+                while (value.length() <= 64 * 1024) {
+                    value.append("0123456789");
+                }
+                exchange.getResponseHeaders().add("X-Long", value.toString());
+                respond(exchange, 200, "hello");
+            }
+        });
+
+        transport = new PooledHttpTransport(2, 4, 30000);
+        service = new HttpService("127.0.0.1", getPort(), "http");
+        service.setTransport(transport);
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+    }
+
+    private static int countBytes(InputStream input) throws IOException {
+        byte[] buffer = new byte[8192];
+        int total = 0;
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            total += count;
+        }
+        input.close();
+        return total;
+    }
+
+    @Test
+    public void testSmallResponsesReuseOneConnection() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            ResponseMessage response = service.get("/small");
+            assertEquals(200, response.getStatus());
+            // The body is buffered, so ignoring it must not leak the lease.
+        }
+        assertEquals(1, transport.getConnectionsCreated());
+        assertEquals(9, transport.getConnectionsReused());
+        assertEquals(0, transport.getLeasedConnections());
+        assertEquals(0, transport.getInFlightRequests());
+        assertEquals(1, transport.getIdleConnections());
+        assertEquals(10, transport.getRequestCount());
+    }
+
+    @Test
+    public void testPostContentAndCookies() throws IOException {
+        ResponseMessage response = service.post("/small", new Args("key", "value"));
+        assertEquals("hello", SDKTestCase.streamToString(response.getContent()));
+        assertTrue(service.hasCookies());
+        assertTrue(service.stringifyCookies().contains("splunkd_8089=abc"));
+    }
+
+    @Test
+    public void testStreamedResponseReleasesConnectionAtEnd() throws IOException {
+        ResponseMessage response = service.get("/large");
+        assertEquals(1, transport.getLeasedConnections());
+        assertEquals(LARGE_BODY_SIZE, countBytes(response.getContent()));
+        assertEquals(0, transport.getLeasedConnections());
+        assertEquals(0, transport.getInFlightRequests());
+
+        service.get("/small");
+        assertEquals(1, transport.getConnectionsCreated());
+    }
+
+    @Test
+    public void testDroppedStreamedResponseIsReleased() throws InterruptedException {
+        service.get("/large");
+        assertEquals(1, transport.getInFlightRequests());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (transport.getInFlightRequests() > 0 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, transport.getInFlightRequests());
+        assertEquals(0, transport.getLeasedConnections());
+        assertEquals(1, transport.getConnectionsDiscarded());
+    }
+
+    @Test
+    public void testOverlongHeaderLineFails() {
+        try {
+            service.get("/longheader");
+            fail("Expected the response to be rejected.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("Response line longer than"));
+        }
+        assertEquals(0, transport.getInFlightRequests());
+        assertEquals(0, transport.getLeasedConnections());
+    }
+
+    @Test
+    public void testStreamedRequestBodies() throws IOException {
+        assertEquals(LARGE_BODY_SIZE + " chunked",
+                echo(RequestBody.create(new LargeInputStream(LARGE_BODY_SIZE))));
+        assertEquals(LARGE_BODY_SIZE + " length",
+                echo(RequestBody.create(new LargeInputStream(LARGE_BODY_SIZE), LARGE_BODY_SIZE)));
+        assertEquals("5 length",
+                echo(RequestBody.create(ByteBuffer.wrap("hello".getBytes("UTF-8")))));
+        assertEquals(1, transport.getConnectionsCreated());
+
+        // The default transport streams bodies too.
+        service.setTransport(new HttpUrlConnectionTransport());
+        assertEquals(LARGE_BODY_SIZE + " chunked",
+                echo(RequestBody.create(new LargeInputStream(LARGE_BODY_SIZE))));
+        assertEquals(LARGE_BODY_SIZE + " length",
+                echo(RequestBody.create(new LargeInputStream(LARGE_BODY_SIZE), LARGE_BODY_SIZE)));
+    }
+
+    @Test
+    public void testFileBodyKeepsItsLength() throws IOException {
+        File file = File.createTempFile("body", ".txt");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write("hello".getBytes("UTF-8"));
+            out.close();
+            RequestBody body = RequestBody.create(file);
+
+            // The file grows after the body is created.
+            out = new FileOutputStream(file, true);
+            out.write(" world".getBytes("UTF-8"));
+            out.close();
+            assertEquals("5 length", echo(body));
+            assertEquals("5 length", echo(body));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStreamedRequestBodyOfWrongLength() throws IOException {
+        try {
+            echo(RequestBody.create(new LargeInputStream(10), 20));
+            fail("Expected an exception.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(0, transport.getLeasedConnections());
+    }
+
+    private String echo(RequestBody body) throws IOException {
+        RequestMessage request = new RequestMessage("POST");
+        request.setContent(body);
+        return SDKTestCase.streamToString(service.send("/echo", request).getContent());
+    }
+
+    /** A stream of zeros, read in full as a request body. */
+    private static class LargeInputStream extends InputStream {
+        private int remaining;
+
+        LargeInputStream(int size) {
+            this.remaining = size;
+        }
+
+        @Override public int read() {
+            if (remaining == 0) return -1;
+            remaining--;
+            return 0;
+        }
+
+        @Override public int read(byte[] buffer, int offset, int length) {
+            if (remaining == 0) return -1;
+            int count = Math.min(length, remaining);
+            remaining -= count;
+            return count;
+        }
+    }
+
+    @Test
+    public void testErrorResponse() {
+        try {
+            service.get("/missing");
+            fail("Expected an HttpException.");
+        } catch (HttpException e) {
+            assertEquals(404, e.getStatus());
+            assertEquals("Not Found", e.getDetail());
+        }
+        assertEquals(0, transport.getLeasedConnections());
+        assertEquals(1, service.getErrorCount(404));
+        assertEquals(0, service.getErrorCount(500));
+        assertEquals(Collections.singletonMap(404, 1L), service.getErrorCounts());
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws IOException {
+        PooledHttpTransport shortLived = new PooledHttpTransport(2, 4, 0);
+        service.setTransport(shortLived);
+        try {
+            service.get("/small");
+            service.get("/small");
+            assertEquals(2, shortLived.getConnectionsCreated());
+            assertTrue(shortLived.getConnectionsEvicted() >= 1);
+        } finally {
+            shortLived.close();
+        }
+    }
+
+    @Test
+    public void testStreamedResponseIsReturnedBeforeItEnds() throws IOException {
+        long start = System.currentTimeMillis();
+        ResponseMessage response = service.get("/slow");
+        assertTrue(System.currentTimeMillis() - start < 4000);
+        slowBodyReleased.countDown();
+        assertEquals("first second", SDKTestCase.streamToString(response.getContent()));
+        assertEquals(0, transport.getLeasedConnections());
+    }
+
+    @Test
+    public void testConnectionClosedByServerIsReplaced() throws Exception {
+        // A server that answers one request per connection and then closes
+        // it, without saying so in the response.
+        final ServerSocket listener = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = listener.accept();
+                        InputStream in = socket.getInputStream();
+                        int last = 0;
+                        int c;
+                        // Read up to the end of the headers; the requests
+                        // have no body.
+                        while ((c = in.read()) != -1) {
+                            last = (last << 8) | c;
+                            if (last == 0x0d0a0d0a) break;
+                        }
+                        socket.getOutputStream().write(
+                                "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes("UTF-8"));
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // The listener was closed.
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        HttpService closing = new HttpService("127.0.0.1", listener.getLocalPort(), "http");
+        closing.setTransport(transport);
+        try {
+            assertEquals("ok", SDKTestCase.streamToString(closing.get("/").getContent()));
+            Thread.sleep(1200);
+            // A POST is not retried, so it only succeeds if the closed
+            // connection is detected before it is used.
+            assertEquals("ok", SDKTestCase.streamToString(closing.post("/").getContent()));
+            assertEquals(2, transport.getConnectionsCreated());
+            assertEquals(1, transport.getConnectionsEvicted());
+        } finally {
+            listener.close();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test that a RealtimeSearchStream reads only the top of the preview of a
+ * real-time search, and delivers each event once, oldest first.
+ */
+public class RealtimeSearchStreamTest extends LocalServerTestCase {
+    private static final String JOB_ENTRY =
+            "<entry xmlns=\"http://www.w3.org/2005/Atom\" xmlns:s=\"http://dev.splunk.com/ns/rest\">" +
+            "<title>search *</title><updated>2014-01-13T13:54:00-08:00</updated>" +
+            "<link href=\"/services/search/jobs/rt_1\" rel=\"alternate\"/>" +
+            "<content type=\"text/xml\"><s:dict>" +
+            "<s:key name=\"sid\">rt_1</s:key>" +
+            "<s:key name=\"dispatchState\">RUNNING</s:key>" +
+            "<s:key name=\"isRealTimeSearch\">1</s:key>" +
+            "</s:dict></content></entry>";
+
+    private Service service;
+    // The indexed events, oldest first.
+    private final List<Integer> indexed = new CopyOnWriteArrayList<Integer>();
+    private final List<Integer> offsets = new CopyOnWriteArrayList<Integer>();
+    private final AtomicInteger cancels = new AtomicInteger();
+    private volatile String createBody = null;
+    private volatile int window = Integer.MAX_VALUE;
+    private volatile boolean expired = false;
+
+    @Before
+    public void setUp() throws IOException {
+        server.createContext("/services/search/jobs", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = readBody(exchange.getRequestBody());
+                String path = exchange.getRequestURI().getPath();
+                if (path.equals("/services/search/jobs")) {
+                    createBody = body;
+                    respond(exchange, 201, "<response><sid>rt_1</sid></response>");
+                }
+                else if (path.equals("/services/search/jobs/rt_1")) {
+                    respond(exchange, 200, JOB_ENTRY);
+                }
+                else if (path.equals("/services/search/jobs/rt_1/control")) {
+                    cancels.incrementAndGet();
+                    respond(exchange, 200, "<response><messages/></response>");
+                }
+                else if (path.equals("/services/search/jobs/rt_1/results_preview") && !expired) {
+                    String query = exchange.getRequestURI().getQuery();
+                    assertTrue(query.contains("output_mode=json"));
+                    int offset = Integer.parseInt(param(query, "offset"));
+                    int count = Integer.parseInt(param(query, "count"));
+                    offsets.add(offset);
+                    respond(exchange, 200, preview(offset, count));
+                }
+                else {
+                    respond(exchange, 404, "<response><messages><msg type=\"ERROR\">Unknown sid.</msg></messages></response>");
+                }
+            }
+        });
+
+        service = new Service("127.0.0.1", getPort(), "http");
+    }
+
+    @Test
+    public void testNewEventsAreDeliveredOnce() throws Exception {
+        window = 200;
+        index(250);
+
+        Args args = new Args();
+        args.put("earliest_time", "rt-5m");
+        RealtimeSearchStream stream = service.realtimeSearch("search *", args);
+        assertTrue(createBody.contains("search_mode=realtime"));
+        assertTrue(createBody.contains("earliest_time=rt-5m"));
+        assertTrue(createBody.contains("latest_time=rt"));
+
+        Collector collector = new Collector();
+        stream.subscribe(collector);
+        stream.setPageSize(50);
+        stream.setPollInterval(10);
+        stream.start();
+
+        // Only the events in the window are delivered.
+        waitFor(collector, 200);
+        offsets.clear();
+        index(30);
+        waitFor(collector, 230);
+        stream.close();
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 50; i < 280; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, collector.events);
+        assertEquals(230, stream.getDeliveredCount());
+        // Once caught up, each poll reads only the first page.
+        for (int offset : offsets) {
+            assertEquals(0, offset);
+        }
+        assertEquals(1, cancels.get());
+    }
+
+    @Test
+    public void testFullBufferDefersEvents() throws Exception {
+        index(100);
+        final RealtimeSearchStream stream = service.realtimeSearch("search *");
+        final int[] maxDepth = new int[1];
+        Collector collector = new Collector() {
+            @Override public void onEvent(Event event) {
+                maxDepth[0] = Math.max(maxDepth[0], stream.getQueueDepth());
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {}
+                super.onEvent(event);
+            }
+        };
+        stream.subscribe(collector);
+        stream.setPageSize(15);
+        stream.setCapacity(10);
+        stream.setPollInterval(10);
+        stream.start();
+
+        waitFor(collector, 100);
+        stream.close();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int)collector.events.get(i));
+        }
+        assertTrue(maxDepth[0] <= 10);
+    }
+
+    @Test
+    public void testExpiredJobStopsStream() throws Exception {
+        index(10);
+        RealtimeSearchStream stream = service.realtimeSearch("search *");
+        Collector collector = new Collector();
+        stream.subscribe(collector);
+        stream.setPollInterval(10);
+        stream.start();
+
+        waitFor(collector, 10);
+        expired = true;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (collector.failure == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(collector.failure);
+        assertEquals(404, ((HttpException)collector.failure).getStatus());
+        stream.close();
+    }
+
+    private static class Collector implements RealtimeSearchStream.Subscriber {
+        final List<Integer> events = new CopyOnWriteArrayList<Integer>();
+        volatile Throwable failure = null;
+
+        public void onEvent(Event event) {
+            events.add(Integer.parseInt(event.get("_raw").substring("event ".length())));
+        }
+
+        public void onFailure(Throwable cause) {
+            failure = cause;
+        }
+    }
+
+    private void index(int count) {
+        int first = indexed.size();
+        for (int i = first; i < first + count; i++) {
+            indexed.add(i);
+        }
+    }
+
+    private static void waitFor(Collector collector, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (collector.events.size() < count) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Received " + collector.events.size() + " of " + count + " events");
+            Thread.sleep(10);
+        }
+        // Give the stream a chance to deliver more events than expected.
+        Thread.sleep(50);
+        assertEquals(count, collector.events.size());
+    }
+
+    // The events of the window, newest first, as the preview lists them.
+    private String preview(int offset, int count) {
+        List<Integer> events = new ArrayList<Integer>(indexed);
+        int start = Math.max(0, events.size() - window);
+        StringBuilder results = new StringBuilder();
+        for (int i = events.size() - 1 - offset; i >= start && count > 0; i--, count--) {
+            if (results.length() > 0) results.append(',');
+            int id = events.get(i);
+            results.append("{\"_bkt\":\"main~0\",\"_cd\":\"0:").append(id)
+                   .append("\",\"_raw\":\"event ").append(id)
+                   .append("\",\"splunk_server\":\"local\"}");
+        }
+        return "{\"preview\":true,\"init_offset\":" + offset +
+                ",\"messages\":[],\"results\":[" + results + "]}";
+    }
+
+    private static String param(String query, String name) {
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "="))
+                return pair.substring(name.length() + 1);
+        }
+        throw new IllegalArgumentException(name);
+    }
+}
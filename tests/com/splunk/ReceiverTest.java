@@ -39,6 +39,71 @@ public class ReceiverTest extends SDKTestCase {
         Assert.assertTrue(service.hasCookies());
         testReceiver(service);
     }
+
+    @Test
+    public void testBatchingReceiver() {
+        final String indexName = service.getIndexes().get("_internal").getDefaultDatabase();
+        final Index index = service.getIndexes().get(indexName);
+        final int originalEventCount = index.getTotalEventCount();
+
+        BatchingReceiver receiver = new BatchingReceiver(
+                service, indexName, Args.create("sourcetype", "mysourcetype"));
+        receiver.setMaxBatchEvents(4);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(receiver.submit(
+                    createTimestamp() + " Boris the batched baboon" + i + "!"));
+        }
+        receiver.close();
+
+        Assert.assertEquals(10, receiver.getSubmittedCount());
+        Assert.assertEquals(10, receiver.getSentCount());
+        Assert.assertEquals(0, receiver.getDroppedCount());
+        Assert.assertEquals(0, receiver.getFailedCount());
+        Assert.assertEquals(3, receiver.getBatchCount());
+
+        assertEventuallyTrue(new EventuallyTrueBehavior() {
+            {
+                tries = 200;
+            }
+
+            @Override
+            public boolean predicate() {
+                index.refresh();
+                return index.getTotalEventCount() == originalEventCount + 10;
+            }
+        });
+    }
+
+    @Test
+    public void testStreamingReceiver() throws IOException {
+        final String indexName = service.getIndexes().get("_internal").getDefaultDatabase();
+        final Index index = service.getIndexes().get(indexName);
+        final int originalEventCount = index.getTotalEventCount();
+
+        StreamingReceiver receiver = new StreamingReceiver(
+                service, indexName, Args.create("sourcetype", "mysourcetype"), 64, 2);
+        for (int i = 0; i < 10; i++) {
+            receiver.write(createTimestamp() + " Boris the streaming baboon" + i + "!");
+        }
+        receiver.close();
+
+        Assert.assertEquals(10, receiver.getEventsWritten());
+        Assert.assertEquals(0, receiver.getQueueDepth());
+        Assert.assertTrue(receiver.getBytesWritten() > 0);
+
+        assertEventuallyTrue(new EventuallyTrueBehavior() {
+            {
+                tries = 200;
+            }
+
+            @Override
+            public boolean predicate() {
+                index.refresh();
+                return index.getTotalEventCount() == originalEventCount + 10;
+            }
+        });
+    }
+
     // Make a few simple requests and make sure the results look ok.
     public void testReceiver(Service passedService) {
         Receiver receiver = passedService.getReceiver();
@@ -398,6 +398,92 @@ public class ResultsReaderTest extends SDKTestCase {
         testExportMultiReader(multiReader, 15);
     }
 
+    @Test
+    public void testExportRowsXml() throws Exception {
+        testExportRows(
+                new ResultsReaderXml(
+                        getExportResultsStream(resultsExportXml)));
+    }
+
+    @Test
+    public void testExportRowsJson() throws Exception {
+        testExportRows(
+                new ResultsReaderJson(
+                        getExportResultsStream(resultsExportJson)));
+    }
+
+    @Test
+    public void testRowsCsv() throws Exception {
+        ResultsReaderCsv reader =
+                new ResultsReaderCsv(openResource("results.csv"));
+
+        ResultRow row = reader.getNextRow();
+        Assert.assertEquals(2, row.size());
+        Assert.assertEquals("sum(kb)", row.getFieldName(0));
+        Assert.assertEquals("twitter", row.get("series"));
+
+        Assert.assertSame(row, reader.getNextRow());
+        Assert.assertEquals("splunkd", row.get("series"));
+        Event event = row.toEvent();
+
+        Assert.assertSame(row, reader.getNextRow());
+        Assert.assertEquals("splunkd_access", row.get("series"));
+        Assert.assertEquals("splunkd", event.get("series"));
+        Assert.assertEquals("267802.333926", event.get("sum(kb)"));
+
+        Assert.assertNull(reader.getNextRow());
+        reader.close();
+    }
+
+    @Test
+    public void testRecordBatchesCsv() throws Exception {
+        RecordBatchReader batches = new RecordBatchReader(
+                new ResultsReaderCsv(openResource("results.csv")), 2);
+
+        RecordBatch batch = batches.getNextBatch();
+        Assert.assertEquals(2, batch.size());
+        Assert.assertEquals(
+                Arrays.asList("sum(kb)", "series"), batch.getFieldNames());
+        RecordBatch.Column sum = batch.getColumn("sum(kb)");
+        Assert.assertEquals(RecordBatch.ColumnType.DOUBLE, sum.getType());
+        Assert.assertEquals(14372242.758775, sum.getDoubles()[0], 0);
+        RecordBatch.Column series = batch.getColumn("series");
+        Assert.assertEquals(RecordBatch.ColumnType.STRING, series.getType());
+        Assert.assertEquals("splunkd", series.getString(1));
+
+        batch = batches.getNextBatch();
+        Assert.assertEquals(1, batch.size());
+        Assert.assertEquals("splunkd_access",
+                batch.getColumn("series").getDictionary()[0]);
+
+        Assert.assertNull(batches.getNextBatch());
+        batches.close();
+    }
+
+    @Test
+    public void testRecordBatchesExportJson() throws Exception {
+        RecordBatchReader batches = new RecordBatchReader(
+                new ResultsReaderJson(
+                        getExportResultsStream(resultsExportJson)), 4);
+
+        int rows = 0;
+        long total = 0;
+        for (RecordBatch batch : batches) {
+            RecordBatch.Column count = batch.getColumn("count");
+            Assert.assertEquals(RecordBatch.ColumnType.LONG, count.getType());
+            for (int i = 0; i < batch.size(); i++) {
+                total += count.getLongs()[i];
+            }
+            RecordBatch.Column host = batch.getColumn("host");
+            Assert.assertTrue(host.getDictionary().length <= batch.size());
+            rows += batch.size();
+        }
+        Assert.assertEquals(5, rows);
+        Assert.assertEquals(16 + 29732 + 36185 + 135 + 35994, total);
+
+        batches.close();
+    }
+
     private ExportResultsStream getExportResultsStream(String fileName) {
         return new ExportResultsStream(
             openResource(fileName));
@@ -427,6 +513,33 @@ public class ResultsReaderTest extends SDKTestCase {
         reader.close();
     }
 
+    private void testExportRows(
+            ResultsReader reader)
+            throws Exception{
+
+        int indexEvent = 0;
+        ResultRow row;
+        while ((row = reader.getNextRow()) != null) {
+            if (indexEvent == 0) {
+                Assert.assertEquals("172.16.35.130", row.get("host"));
+                Assert.assertEquals("16", row.get("count"));
+            }
+
+            if (indexEvent == 4) {
+                Assert.assertEquals("three.four.com", row.getValue("host", 0));
+                Assert.assertEquals(1, row.getValueCount("count"));
+                Assert.assertEquals("35994", row.toEvent().get("count"));
+            }
+
+            Assert.assertFalse(row.containsField("nonexistent"));
+            indexEvent++;
+        }
+
+        Assert.assertEquals(5, indexEvent);
+
+        reader.close();
+    }
+
     private void testExportMultiReader(
         MultiResultsReader<? extends ResultsReader> multiReader,
         int countResultSet)
@@ -95,6 +95,36 @@ public class ResultsReaderTestFromExpectedFile {
         verifyResultsReader(resultsReader, expectedEvents);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testResultsReaderRows() throws IOException {
+        ResultsReaderXml resultsReader = new ResultsReaderXml(this.xmlStream);
+        List<Map<String, Object>> expectedEvents =
+            (List<Map<String, Object>>)this.expectedResultsSet.get("results");
+        for (Map<String, Object> expectedEvent : expectedEvents) {
+            ResultRow foundRow = resultsReader.getNextRow();
+            assertNotNull(
+                    "Did not parse as many rows from the XML as expected.",
+                    foundRow);
+            Map<String, Object> expectedFields =
+                    (Map<String,Object>)expectedEvent.get("fields");
+            assertEquals(expectedFields.size(), foundRow.size());
+            for (String key : expectedFields.keySet()) {
+                assertTrue(foundRow.containsField(key));
+                if (expectedFields.get(key) instanceof List) {
+                    List<String> values = new ArrayList<String>();
+                    for (int i = 0; i < foundRow.getValueCount(key); i++) {
+                        values.add(foundRow.getValue(key, i));
+                    }
+                    assertEquals(expectedFields.get(key), values);
+                } else {
+                    assertEquals(expectedFields.get(key), foundRow.get(key));
+                }
+            }
+        }
+        assertNull(resultsReader.getNextRow());
+    }
+
     static String xmlToString(String originalXml) throws Exception
     {
         DocumentBuilderFactory fctr = DocumentBuilderFactory.newInstance();
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Compares the throughput of {@link ResultsReaderXml} with the event-based
+ * {@link LegacyResultsReaderXml} on the XML results fixtures, scaled up by
+ * repeating their {@code <result>} elements.
+ * <p>
+ * The scaled document is generated on the fly, so millions of rows can be
+ * read without holding them in memory. Run it from the test classpath:
+ * <pre>
+ * java com.splunk.ResultsReaderXmlBenchmark [rows] [fixture...]
+ * </pre>
+ * The defaults are 1,000,000 rows of {@code results.xml},
+ * {@code resultsMV.xml} and {@code raw_field.xml}.
+ */
+public class ResultsReaderXmlBenchmark {
+    private static final int WARMUP_RUNS = 2;
+    private static final int MEASURED_RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String[] fixtures = args.length > 1
+                ? copyOfRange(args, 1, args.length)
+                : new String[] { "results.xml", "resultsMV.xml", "raw_field.xml" };
+
+        for (String fixture : fixtures) {
+            ScaledResults scaled = new ScaledResults(
+                    readFully(SDKTestCase.openResource(fixture)), rows);
+            System.out.println(fixture + ": " + scaled.getRowCount() + " rows, " +
+                    scaled.getLength() / (1024 * 1024) + " MB");
+            for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+                boolean measured = run >= WARMUP_RUNS;
+                long legacy = time(new LegacyResultsReaderXml(scaled.open()), scaled);
+                long cursor = time(new ResultsReaderXml(scaled.open()), scaled);
+                if (measured) {
+                    System.out.println(String.format(
+                            "  legacy %6d ms (%9.0f rows/s)   cursor %6d ms (%9.0f rows/s)   %.2fx",
+                            legacy, rate(scaled, legacy),
+                            cursor, rate(scaled, cursor),
+                            (double)legacy / Math.max(cursor, 1)));
+                }
+            }
+        }
+    }
+
+    private static long time(ResultsReader reader, ScaledResults scaled)
+            throws IOException {
+        long start = System.nanoTime();
+        int count = 0;
+        Event event;
+        while ((event = reader.getNextEvent()) != null) {
+            if (event.isEmpty()) {
+                throw new IllegalStateException("Read an empty event.");
+            }
+            count++;
+        }
+        reader.close();
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        if (count != scaled.getRowCount()) {
+            throw new IllegalStateException(
+                    "Read " + count + " events, expected " + scaled.getRowCount());
+        }
+        return elapsed;
+    }
+
+    private static double rate(ScaledResults scaled, long millis) {
+        return scaled.getRowCount() * 1000.0 / Math.max(millis, 1);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static String[] copyOfRange(String[] array, int from, int to) {
+        String[] copy = new String[to - from];
+        System.arraycopy(array, from, copy, 0, copy.length);
+        return copy;
+    }
+
+    /**
+     * A results document split into the part before the first
+     * {@code <result>}, the results themselves, and the part after the last
+     * one, so the results can be repeated any number of times.
+     */
+    private static class ScaledResults {
+        private final byte[] head;
+        private final byte[] body;
+        private final byte[] tail;
+        private final int repeats;
+        private final int rowCount;
+
+        ScaledResults(byte[] document, int rows) throws IOException {
+            String xml = new String(document, "UTF-8");
+            int first = xml.indexOf("<result ");
+            int last = xml.lastIndexOf("</result>") + "</result>".length();
+            if (first < 0 || last < first) {
+                throw new IllegalArgumentException("No <result> elements found.");
+            }
+            String results = xml.substring(first, last);
+            int perBody = 0;
+            for (int i = results.indexOf("<result "); i >= 0;
+                 i = results.indexOf("<result ", i + 1)) {
+                perBody++;
+            }
+            head = xml.substring(0, first).getBytes("UTF-8");
+            body = (results + "\n").getBytes("UTF-8");
+            tail = xml.substring(last).getBytes("UTF-8");
+            repeats = Math.max(1, rows / perBody);
+            rowCount = repeats * perBody;
+        }
+
+        int getRowCount() {
+            return rowCount;
+        }
+
+        long getLength() {
+            return head.length + (long)body.length * repeats + tail.length;
+        }
+
+        InputStream open() {
+            return new InputStream() {
+                private byte[] current = head;
+                private int position = 0;
+                private int bodiesLeft = repeats;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    while (current != null && position == current.length) {
+                        position = 0;
+                        if (bodiesLeft > 0) {
+                            bodiesLeft--;
+                            current = body;
+                        } else if (current != tail) {
+                            current = tail;
+                        } else {
+                            current = null;
+                        }
+                    }
+                    if (current == null) {
+                        return -1;
+                    }
+                    int count = Math.min(length, current.length - position);
+                    System.arraycopy(current, position, buffer, offset, count);
+                    position += count;
+                    return count;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that a ResumableExport resumes an export whose stream is cut off,
+ * against a local server.
+ */
+public class ResumableExportTest extends LocalServerTestCase {
+    private Service service;
+    private final List<String> queries = new CopyOnWriteArrayList<String>();
+
+    private static String row(String raw, int second, boolean lastRow) {
+        return "{\"preview\":false,\"offset\":0," + (lastRow ? "\"lastrow\":true," : "") +
+                "\"result\":{\"_cd\":\"0:" + second + "\",\"_raw\":\"" + raw + "\"," +
+                "\"_time\":\"2014-01-01T00:00:0" + second + ".000+00:00\"," +
+                "\"index\":\"main\",\"splunk_server\":\"local\"}}\n";
+    }
+
+    @Before
+    public void setUp() {
+        server.createContext("/services/search/jobs/export", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                queries.add(exchange.getRequestURI().getRawQuery() + "&" +
+                        readBody(exchange.getRequestBody()));
+                if (queries.size() == 1) {
+                    // Cut off between rows, without the last row.
+                    respond(exchange, 200, row("c", 3, false) + row("b", 2, false));
+                }
+                else {
+                    respond(exchange, 200, row("b", 2, false) + row("a", 1, true));
+                }
+            }
+        });
+
+        service = new Service("127.0.0.1", getPort(), "http");
+    }
+
+    @Test
+    public void testResumesStreamCutOffBetweenRows() throws IOException {
+        ResumableExport export = new ResumableExport(service, "search index=main", null);
+        export.setRetryDelay(1);
+
+        List<String> raws = new ArrayList<String>();
+        for (Event event : export) {
+            raws.add(event.get("_raw"));
+        }
+        export.close();
+
+        assertEquals(Arrays.asList("c", "b", "a"), raws);
+        assertEquals(2, queries.size());
+        assertTrue(queries.get(1).contains("latest_time=" +
+                (Value.toDate("2014-01-01T00:00:02.000+00:00").getTime() / 1000 + 1)));
+    }
+}
@@ -24,10 +24,15 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class SearchJobTest extends SDKTestCase {
     private static final String QUERY = "search index=_internal | head 10";
@@ -103,6 +108,93 @@ public class SearchJobTest extends SDKTestCase {
         Assert.assertTrue(10L < job.getScanCountLong());
     }
 
+    @Test
+    public void testSearchAsyncAndWaitForDoneAsync() throws Exception {
+        Job job = service.searchAsync(QUERY).get();
+        Job done = job.waitForDoneAsync(100).get();
+
+        Assert.assertSame(job, done);
+        Assert.assertTrue(done.isDone());
+        Assert.assertEquals(10, countEvents(done.getResults()));
+
+        job.cancel();
+    }
+
+    @Test
+    public void testParallelResultsFetcher() throws Exception {
+        Job job = jobs.create("search index=_internal | head 95 | streamstats count");
+        waitUntilDone(job);
+
+        ParallelResultsFetcher fetcher =
+                new ParallelResultsFetcher(job, null, 10, 3, true);
+        int expected = 1;
+        for (Event event : fetcher) {
+            Assert.assertEquals(Integer.toString(expected++), event.get("count"));
+        }
+        Assert.assertEquals(96, expected);
+        fetcher.close();
+
+        fetcher = new ParallelResultsFetcher(job, null, 10, 3, false);
+        Set<String> counts = new HashSet<String>();
+        Event event;
+        while ((event = fetcher.getNextEvent()) != null) {
+            counts.add(event.get("count"));
+        }
+        Assert.assertEquals(95, counts.size());
+        fetcher.close();
+
+        job.cancel();
+    }
+
+    @Test
+    public void testJobWatcher() throws Exception {
+        JobWatcher watcher = new JobWatcher(service, 100, 1000, 50);
+        final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+        JobListener listener = new JobListener() {
+            public void onProgress(Job job) {}
+
+            public void onDone(Job job) {
+                done.add(job.getSid());
+            }
+
+            public void onFailure(Job job, Throwable cause) {}
+        };
+
+        List<Job> created = new ArrayList<Job>();
+        List<SplunkFuture<Job>> futures = new ArrayList<SplunkFuture<Job>>();
+        for (int i = 0; i < 3; i++) {
+            Job job = jobs.create(QUERY);
+            created.add(job);
+            futures.add(watcher.watch(job, listener));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            Job job = futures.get(i).get();
+            Assert.assertSame(created.get(i), job);
+            Assert.assertTrue(job.isDone());
+            Assert.assertEquals(10, job.getResultCount());
+        }
+
+        Assert.assertEquals(3, done.size());
+        Assert.assertEquals(0, watcher.getWatchedCount());
+        watcher.close();
+
+        for (Job job : created) {
+            job.cancel();
+        }
+    }
+
+    @Test
+    public void testClosedSharedJobWatcherIsReplaced() throws Exception {
+        JobWatcher watcher = service.getJobWatcher();
+        watcher.close();
+        Assert.assertTrue(watcher.isClosed());
+        Assert.assertNotSame(watcher, service.getJobWatcher());
+
+        Job job = jobs.create(QUERY);
+        Assert.assertTrue(job.waitForDoneAsync().get().isDone());
+        job.cancel();
+    }
+
     @Test
     public void testBlockingSearch() {
         Assert.assertEquals(10, countEvents(service.oneshotSearch(QUERY)));
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test that one Service can be shared by many threads: cookies added
+ * concurrently are all kept, and an expired session is renewed by a single
+ * login.
+ */
+public class ServiceSessionTest extends LocalServerTestCase {
+    private static final String INFO_FEED =
+            "<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:s=\"http://dev.splunk.com/ns/rest\">" +
+            "<title>server-info</title><updated>2014-01-13T13:54:00-08:00</updated>" +
+            "<entry><title>server-info</title><updated>2014-01-13T13:54:00-08:00</updated>" +
+            "<content type=\"text/xml\"><s:dict><s:key name=\"version\">6.0</s:key></s:dict></content>" +
+            "</entry></feed>";
+
+    private Service service;
+    private final AtomicInteger logins = new AtomicInteger();
+    private final AtomicReference<String> sessionKey = new AtomicReference<String>();
+    private final AtomicInteger failedRequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server.createContext("/services/auth/login", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                String key = "key" + logins.incrementAndGet();
+                sessionKey.set(key);
+                respond(exchange, 200, "<response><sessionKey>" + key + "</sessionKey></response>");
+            }
+        });
+        server.createContext("/services/server/info", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                respond(exchange, 200, INFO_FEED);
+            }
+        });
+        server.createContext("/services/data", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+                if (!("Splunk " + sessionKey.get()).equals(authorization)) {
+                    failedRequests.incrementAndGet();
+                    respond(exchange, 401, "<response><messages><msg type=\"WARN\">call not properly authenticated</msg></messages></response>");
+                    return;
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {}
+                respond(exchange, 200, "ok");
+            }
+        });
+
+        service = new Service("127.0.0.1", getPort(), "http");
+    }
+
+    @Test
+    public void testExpiredSessionFailsWithoutRelogin() {
+        service.login("admin", "changeme");
+        sessionKey.set("expired");
+        try {
+            service.get("data");
+            fail("Expected an HttpException");
+        } catch (HttpException e) {
+            assertEquals(401, e.getStatus());
+        }
+        assertEquals(1, logins.get());
+    }
+
+    @Test
+    public void testExpiredSessionLogsInOnce() throws InterruptedException {
+        service.setAutoRelogin(true);
+        service.login("admin", "changeme");
+        sessionKey.set("expired");
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        service.get("data");
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(2, logins.get());
+        assertEquals("Splunk key2", service.getToken());
+        assertTrue(failedRequests.get() >= 1);
+    }
+
+    @Test
+    public void testConcurrentCookies() throws InterruptedException {
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 100; j++) {
+                        service.addCookie("cookie" + thread + "_" + j + "=" + j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        String cookies = service.stringifyCookies();
+        for (int i = 0; i < threads.length; i++) {
+            for (int j = 0; j < 100; j++) {
+                assertTrue(cookies.contains("cookie" + i + "_" + j + "=" + j + "; "));
+            }
+        }
+        service.removeAllCookies();
+        assertEquals("", service.stringifyCookies());
+    }
+}
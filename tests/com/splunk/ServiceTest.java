@@ -19,6 +19,7 @@ package com.splunk;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -656,6 +657,31 @@ public class ServiceTest extends SDKTestCase {
         Assert.fail();
     }
 
+    @Test
+    public void testResumableExport() throws Exception {
+        File file = File.createTempFile("export", ".checkpoint");
+        file.delete();
+
+        ResumableExport export = new ResumableExport(
+                service, "search index=_internal | head 25", null);
+        export.setCheckpointFile(file);
+        export.setCheckpointInterval(10);
+        int count = 0;
+        for (Event event : export) {
+            Assert.assertNotNull(event.get("_time"));
+            count++;
+        }
+        Assert.assertEquals(25, count);
+
+        ExportCheckpoint checkpoint = ExportCheckpoint.load(file);
+        Assert.assertEquals(25, checkpoint.getEventCount());
+        Assert.assertEquals(export.getCheckpoint().getTime(), checkpoint.getTime());
+        Assert.assertEquals(
+                export.getCheckpoint().getSeenEvents(),
+                checkpoint.getSeenEvents());
+        file.delete();
+    }
+
     @Test
     public void testDelete() {
         Args deleteArgs = Args.create("output_mode", "json");
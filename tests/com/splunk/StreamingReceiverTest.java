@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that a StreamingReceiver writes and counts events, against a socket
+ * on the local machine that reads the stream.
+ */
+public class StreamingReceiverTest {
+    private ServerSocket serverSocket;
+    private Thread reader;
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    try {
+                        InputStream input = socket.getInputStream();
+                        byte[] buffer = new byte[1024];
+                        int count;
+                        while ((count = input.read(buffer)) != -1) {
+                            synchronized (received) {
+                                received.write(buffer, 0, count);
+                            }
+                        }
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // The test checks what was received.
+                }
+            }
+        });
+        reader.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        serverSocket.close();
+    }
+
+    @Test
+    public void testEveryStringIsCountedAsAnEvent() throws Exception {
+        Service service = new Service("127.0.0.1", serverSocket.getLocalPort(), "http");
+        StreamingReceiver receiver = new StreamingReceiver(service, "main", null, 64, 2);
+        receiver.write("a\n");
+        receiver.write("b");
+        receiver.write("c\n".getBytes("UTF-8"));
+        receiver.close();
+        reader.join(10000);
+
+        assertEquals(2, receiver.getEventsWritten());
+        String stream;
+        synchronized (received) {
+            stream = received.toString("UTF-8");
+        }
+        assertTrue(stream.startsWith("POST /services/receivers/stream?index=main "));
+        assertTrue(stream.endsWith("\r\n\r\na\nb\nc\n"));
+    }
+}
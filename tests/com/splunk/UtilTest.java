@@ -21,6 +21,9 @@ import org.junit.Test;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.List;
 
 public class UtilTest extends SDKTestCase {
@@ -90,4 +93,32 @@ public class UtilTest extends SDKTestCase {
         
         Value.toByteCount("0GGGGB");
     }
+
+    @Test
+    public void testValueToDate() {
+        // 2014-01-13T21:54:04Z
+        long expected = 1389650044000L;
+        Assert.assertEquals(expected, Value.toDate("2014-01-13T13:54:04-0800").getTime());
+        Assert.assertEquals(expected, Value.toDate("2014-01-13T13:54:04-08:00").getTime());
+        Assert.assertEquals(expected, Value.toDate("2014-01-13T21:54:04Z").getTime());
+        Assert.assertEquals(expected, Value.toDate("2014-01-13 13:54:04 -0800").getTime());
+        Assert.assertEquals(expected + 123, Value.toDate("2014-01-13T21:54:04.123Z").getTime());
+        Assert.assertEquals(expected, Value.toDate("1389650044").getTime());
+        // Fractional seconds are dropped before a zone with a colon.
+        Assert.assertEquals(expected, Value.toDate("2014-01-13T13:54:04.123-08:00").getTime());
+
+        // ctime dates are in the default time zone.
+        Calendar calendar = new GregorianCalendar(2014, Calendar.JANUARY, 13, 13, 54, 4);
+        Assert.assertEquals(calendar.getTimeInMillis(), Value.toDate("Mon Jan 13 13:54:04 2014").getTime());
+
+        // Cached dates are copies.
+        Date date = Value.toDate("2014-01-13T21:54:04Z");
+        date.setTime(0);
+        Assert.assertEquals(expected, Value.toDate("2014-01-13T21:54:04Z").getTime());
+    }
+
+    @Test(expected=RuntimeException.class)
+    public void testValueToDateInvalid() {
+        Value.toDate("not a date");
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the throughput of {@link Value#toDate} with the synchronized
+ * implementation it replaced, for each of the date formats it reads, from
+ * one thread and from several. Each run converts distinct strings, so the
+ * cache of {@code toDate} is not what is measured. Run it from the test
+ * classpath:
+ * <pre>
+ * java com.splunk.ValueDateBenchmark [conversions] [threads]
+ * </pre>
+ * The defaults are 200,000 conversions per format and 4 threads.
+ */
+public class ValueDateBenchmark {
+    private static final int WARMUP_RUNS = 2;
+    private static final int MEASURED_RUNS = 3;
+
+    // One example of each format, with a seconds field to vary.
+    private static final String[][] FORMATS = {
+        { "yyyy-MM-dd'T'HH:mm:ssZ", "2014-01-13T13:54:%02d-0800" },
+        { "E MMM d HH:mm:ss z y", "Mon Jan 13 13:54:%02d PST 2014" },
+        { "EEE MMM dd HH:mm:ss y", "Mon Jan 13 13:54:%02d 2014" },
+        { "yyyy-MM-dd HH:mm:ss Z", "2014-01-13 13:54:%02d -0800" },
+        { "yyyy-MM-dd'T'HH:mm:ssXXX", "2014-01-13T13:54:%02d-08:00" },
+        { "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "2014-01-13T13:54:%02d.123Z" },
+    };
+
+    public static void main(String[] args) throws Exception {
+        int conversions = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        for (String[] format : FORMATS) {
+            // Vary the minutes and seconds, and the day, so strings repeat
+            // only every 100,000 conversions.
+            final String[] values = new String[100000];
+            for (int i = 0; i < values.length; i++) {
+                String value = String.format(format[1], i % 60);
+                values[i] = value.replace("13:54", String.format("%02d:%02d", i / 3600 % 24, i / 60 % 60))
+                        .replace(" 13 ", String.format(" %02d ", 1 + i / 86400))
+                        .replace("-13", String.format("-%02d", 1 + i / 86400));
+            }
+            System.out.println(format[0] + ", e.g. " + values[0]);
+            for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+                boolean measured = run >= WARMUP_RUNS;
+                for (int count : new int[] { 1, threads }) {
+                    long legacy = time(values, conversions, count, true);
+                    long current = time(values, conversions, count, false);
+                    if (measured) {
+                        System.out.println(String.format(
+                                "  %d thread(s): legacy %6d ms   toDate %6d ms   %.2fx",
+                                count, legacy, current, (double) legacy / Math.max(current, 1)));
+                    }
+                }
+            }
+        }
+    }
+
+    private static long time(final String[] values, final int conversions, int threads, final boolean legacy)
+            throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * 7919;
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < conversions; i++) {
+                        String value = values[(offset + i) % values.length];
+                        Date date = legacy ? legacyToDate(value) : Value.toDate(value);
+                        if (date.getTime() == 0) {
+                            throw new IllegalStateException();
+                        }
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static SimpleDateFormat[] dateFormat = null;
+    private static Pattern datePattern = null;
+
+    // Value.toDate as it was before it recognized formats.
+    private static synchronized Date legacyToDate(String value) {
+        if (dateFormat == null) {
+            dateFormat = new SimpleDateFormat[FORMATS.length];
+            for (int i = 0; i < FORMATS.length; i++) {
+                dateFormat[i] = new SimpleDateFormat(FORMATS[i][0]);
+                dateFormat[i].setLenient(true);
+            }
+        }
+        if (datePattern == null) {
+            datePattern = Pattern.compile("(.*)\\.\\d+([\\-+]\\d+):(\\d+)");
+        }
+        for (SimpleDateFormat simpleDateFormat : dateFormat) {
+            try {
+                Matcher matcher = datePattern.matcher(value);
+                value = matcher.replaceAll("$1$2$3");
+                return simpleDateFormat.parse(value);
+            } catch (ParseException e) {}
+        }
+        return new Date(Long.parseLong(value) * 1000);
+    }
+}
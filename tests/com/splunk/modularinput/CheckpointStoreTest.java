@@ -0,0 +1,136 @@
+package com.splunk.modularinput;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Test that CheckpointStore keeps its keys across reopening, compaction, and torn writes.
+ */
+public class CheckpointStoreTest extends ModularInputTestCase {
+    File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("checkpoints", ".log");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        alternate().delete();
+    }
+
+    @Test
+    public void testValuesSurviveReopening() throws IOException {
+        CheckpointStore store = new CheckpointStore(file);
+        store.put("a", "1");
+        store.putLong("b", 2);
+        store.put("c", "caf\u00e9");
+        store.put("a", "10");
+        store.remove("c");
+        Assert.assertEquals("10", store.get("a"));
+        Assert.assertEquals(2, store.getLong("b", 0));
+        Assert.assertFalse(store.contains("c"));
+        store.close();
+
+        store = new CheckpointStore(file);
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals("10", store.get("a"));
+        Assert.assertEquals(2, store.getLong("b", 0));
+        Assert.assertNull(store.get("c"));
+        Assert.assertEquals(-1, store.getLong("c", -1));
+        store.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        CheckpointStore store = new CheckpointStore(file);
+        store.setSyncInterval(0);
+        // Enough overwrites to compact automatically, several times.
+        for (int i = 0; i < 200000; i++) {
+            store.putLong("key" + (i % 100), i);
+        }
+        Assert.assertTrue(file.length() < 4 * 1024 * 1024);
+        Assert.assertTrue(alternate().length() < 4 * 1024 * 1024);
+        store.compact();
+        store.putLong("key0", -1);
+        store.close();
+
+        store = new CheckpointStore(file);
+        Assert.assertEquals(100, store.size());
+        Assert.assertEquals(-1, store.getLong("key0", 0));
+        Assert.assertEquals(199999, store.getLong("key99", 0));
+        store.close();
+    }
+
+    @Test
+    public void testRecoveryFromTornWrite() throws IOException {
+        CheckpointStore store = new CheckpointStore(file);
+        store.put("first", "1");
+        store.put("second", "2");
+        store.close();
+
+        // Corrupt the last byte of the second record, as a crash in the middle of writing it would.
+        int secondEnd = 24 + (8 + 5 + "first".length() + 1) + (8 + 5 + "second".length() + 1);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(secondEnd - 1);
+        raf.write('x');
+        raf.close();
+
+        store = new CheckpointStore(file);
+        Assert.assertEquals("1", store.get("first"));
+        Assert.assertFalse(store.contains("second"));
+        store.put("third", "3");
+        store.close();
+
+        store = new CheckpointStore(file);
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals("1", store.get("first"));
+        Assert.assertEquals("3", store.get("third"));
+        store.close();
+    }
+
+    @Test
+    public void testIncompleteCompactionIsIgnored() throws IOException {
+        CheckpointStore store = new CheckpointStore(file);
+        store.put("a", "1");
+        store.close();
+
+        // A log that was never stamped with a generation, as a crash during compaction would leave it.
+        RandomAccessFile raf = new RandomAccessFile(alternate(), "rw");
+        raf.write("SPLKCKP2".getBytes("UTF-8"));
+        raf.write(new byte[1024]);
+        raf.close();
+
+        store = new CheckpointStore(file);
+        Assert.assertEquals("1", store.get("a"));
+        store.compact();
+        store.put("b", "2");
+        store.close();
+
+        store = new CheckpointStore(file);
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals("1", store.get("a"));
+        Assert.assertEquals("2", store.get("b"));
+        store.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write("not a checkpoint store".getBytes("UTF-8"));
+        raf.close();
+        new CheckpointStore(file);
+    }
+
+    private File alternate() {
+        return new File(file.getPath() + ".alt");
+    }
+}
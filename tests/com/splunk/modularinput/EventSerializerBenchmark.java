@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Splunk, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"): you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.splunk.modularinput;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+/**
+ * Compares the throughput of {@link EventSerializer} with {@link Event#writeTo} over a UTF-8
+ * {@code XMLStreamWriter}, writing to a stream that discards its bytes. Run it from the test classpath:
+ * <pre>
+ * java com.splunk.modularinput.EventSerializerBenchmark [events]
+ * </pre>
+ * The default is 2,000,000 events.
+ */
+public class EventSerializerBenchmark {
+    private static final int WARMUP_RUNS = 2;
+    private static final int MEASURED_RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        Event event = new Event();
+        event.setTime(new Date(1372275124466L));
+        event.setStanza("benchmark://default");
+        event.setHost("localhost");
+        event.setSource("benchmark");
+        event.setSourceType("access_combined");
+        event.setData("127.0.0.1 - bob [26/Jun/2013:12:32:04 -0700] \"GET /search?q=a&b=<c> HTTP/1.1\" 200 1234");
+
+        for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+            boolean measured = run >= WARMUP_RUNS;
+            CountingOutputStream out = new CountingOutputStream();
+            long writeTo = timeWriteTo(event, events, out);
+            long serializer = timeSerializer(event, events, out);
+            if (measured) {
+                System.out.println(String.format(
+                        "  writeTo %6d ms (%9.0f events/s)   serializer %6d ms (%9.0f events/s)   %.2fx",
+                        writeTo, rate(events, writeTo),
+                        serializer, rate(events, serializer),
+                        (double) writeTo / Math.max(serializer, 1)));
+            }
+        }
+    }
+
+    private static long timeWriteTo(Event event, int events, OutputStream out)
+            throws XMLStreamException, MalformedDataException {
+        long start = System.nanoTime();
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartElement("stream");
+        for (int i = 0; i < events; i++) {
+            event.writeTo(writer);
+        }
+        writer.writeEndElement();
+        writer.flush();
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static long timeSerializer(Event event, int events, OutputStream out)
+            throws IOException, MalformedDataException {
+        long start = System.nanoTime();
+        EventSerializer serializer = new EventSerializer(256 * 1024);
+        serializer.writeStreamStart();
+        for (int i = 0; i < events; i++) {
+            serializer.write(event);
+            if (serializer.size() >= 256 * 1024) {
+                serializer.writeTo(out);
+                serializer.reset();
+            }
+        }
+        serializer.writeStreamEnd();
+        serializer.writeTo(out);
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static double rate(int events, long millis) {
+        return events * 1000.0 / Math.max(millis, 1);
+    }
+
+    /**
+     * An output stream that only counts the bytes written to it.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            count += length;
+        }
+    }
+}
@@ -9,9 +9,12 @@ import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.TransformerException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 /**
@@ -86,6 +89,40 @@ public class EventTest extends ModularInputTestCase {
         assertXmlEqual(expected, found);
     }
 
+    /**
+     * Check that EventSerializer produces the same XML as Event.writeTo, including escaped and non-ASCII text.
+     */
+    @Test
+    public void testEventSerializerMatchesWriteTo() throws XMLStreamException, MalformedDataException,
+            UnsupportedEncodingException {
+        Event event = new Event();
+        event.setTime(new Date(1372274622493L));
+        event.setStanza("fubar \"<&>\"");
+        event.setData("This is a <test> & of the emergency broadcast system: caf\u00e9 \u6f22 \ud83d\ude00");
+        event.setHost("localhost");
+        event.setIndex("main");
+        event.setSource("hilda");
+        event.setSourceType("misc");
+
+        EventSerializer serializer = new EventSerializer(16);
+        for (boolean flag : new boolean[] { true, false }) {
+            event.setDone(flag);
+            event.setUnbroken(flag);
+
+            StringWriter sb = new StringWriter();
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(sb);
+            event.writeTo(writer);
+
+            serializer.reset();
+            serializer.write(event);
+            Assert.assertEquals(sb.toString(), serializer.toString());
+        }
+
+        Assert.assertEquals("0.000", EventSerializer.formatTime(0));
+        Assert.assertEquals("-1.500", EventSerializer.formatTime(-1500));
+        Assert.assertEquals("1372274622.493", EventSerializer.formatTime(1372274622493L));
+    }
+
     /**
      * Write a pair of events with an EventWriter, and ensure that they are being encoded immediately and correctly
      * onto the output stream.
@@ -147,6 +184,121 @@ public class EventTest extends ModularInputTestCase {
         Assert.fail();
     }
 
+    /**
+     * Write a pair of events with a BatchingEventWriter from two threads, and ensure that they arrive on the
+     * output stream once flushed and form the same stream as with EventWriter.
+     */
+    @Test
+    public void testWritingEventsOnBatchingEventWriter() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StringWriter err = new StringWriter();
+
+        final BatchingEventWriter ew = new BatchingEventWriter(out, err, 16, 1024 * 1024, 60000);
+
+        final Event event = new Event();
+        event.setTime(new Date(1372275124466L));
+        event.setStanza("fubar");
+        event.setData("This is a test of the emergency broadcast system.");
+        event.setHost("localhost");
+        event.setIndex("main");
+        event.setSource("hilda");
+        event.setSourceType("misc");
+        event.setDone(true);
+        event.setUnbroken(true);
+
+        Thread other = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    ew.writeEvent(event);
+                } catch (MalformedDataException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        other.start();
+        ew.writeEvent(event);
+        other.join();
+
+        ew.flush();
+        Assert.assertEquals(0, ew.getQueueDepth());
+        Assert.assertEquals(out.size(), ew.getBytesWritten());
+        Assert.assertEquals(1, ew.getFlushCount());
+
+        ew.close();
+        Document found = stringToXmlDocument(out.toString("UTF-8"));
+        Document expected = resourceToXmlDocument("modularinput/data/stream_with_two_events.xml");
+        assertXmlEqual(expected, found);
+        Assert.assertEquals("", err.toString());
+    }
+
+    /**
+     * Write events from several threads into a small queue while the writer is closed, and ensure that the queue
+     * never holds more than its capacity and that every event accepted before the close is on the output stream.
+     */
+    @Test
+    public void testBatchingEventWriterCloseRace() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StringWriter err = new StringWriter();
+
+        final BatchingEventWriter ew = new BatchingEventWriter(out, err, 4, 1024, 1);
+        final Event event = new Event();
+        event.setData("x");
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicInteger maxDepth = new AtomicInteger();
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (true) {
+                            ew.writeEvent(event);
+                            accepted.incrementAndGet();
+                            int depth = ew.getQueueDepth();
+                            if (depth > maxDepth.get()) {
+                                maxDepth.set(depth);
+                            }
+                        }
+                    } catch (IllegalStateException e) {
+                        // closed
+                    } catch (MalformedDataException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        Thread.sleep(200);
+        ew.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertTrue(maxDepth.get() <= 4);
+        String output = out.toString("UTF-8");
+        Assert.assertEquals(accepted.get(), output.split("<event").length - 1);
+        Assert.assertTrue(output.endsWith("</stream>"));
+    }
+
+    /**
+     * Check that BatchingEventWriter rejects an event without data at once, with a warning on stderr.
+     */
+    @Test
+    public void testErrorInBatchingEventWriter() throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StringWriter err = new StringWriter();
+
+        BatchingEventWriter ew = new BatchingEventWriter(out, err, 16, 1024, 100);
+        try {
+            ew.writeEvent(new Event());
+            Assert.fail();
+        } catch (MalformedDataException e) {
+            Assert.assertTrue(err.toString().startsWith("WARN"));
+        } finally {
+            ew.close();
+        }
+    }
+
     /**
      * Check that the log method on EventWriter produces the expected error message on the stderr stream.
      */
@@ -9,10 +9,13 @@ import org.w3c.dom.Document;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
+import java.io.File;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Test the behavior of subclasses of the Script class. This is to check whether modular inputs really
@@ -221,4 +224,58 @@ public class ScriptTest extends ModularInputTestCase {
 
     }
 
+    /**
+     * Check that a ConcurrentScript runs every stanza, keeps a checkpoint per stanza, and counts its events.
+     */
+    @Test
+    public void testConcurrentScript() throws Exception {
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        ConcurrentScript script = new ConcurrentScript() {
+            @Override
+            public Scheme getScheme() {
+                return null;  // Unused
+            }
+
+            @Override
+            public void streamStanza(Stanza stanza, EventWriter ew) throws Exception {
+                // Each stanza waits for the other, so they must run concurrently.
+                bothRunning.countDown();
+                Assert.assertTrue(bothRunning.await(10, TimeUnit.SECONDS));
+
+                String checkpoint = stanza.readCheckpoint();
+                int start = checkpoint == null ? 0 : Integer.parseInt(checkpoint);
+                for (int i = start; i < start + 3; i++) {
+                    Event event = new Event();
+                    event.setData(stanza.getParameter("param1") + " " + i);
+                    stanza.writeEvent(ew, event);
+                }
+                stanza.writeCheckpoint(Integer.toString(start + 3));
+            }
+        };
+
+        File dir = File.createTempFile("checkpoints", "");
+        dir.delete();
+        dir.mkdir();
+        InputDefinition inputs = InputDefinition.parseDefinition(
+                SDKTestCase.openResource("modularinput/data/conf_with_2_inputs.xml"));
+        inputs.setCheckpointDir(dir.getPath());
+
+        script.streamEvents(inputs, eventWriter);
+        script.streamEvents(inputs, eventWriter);
+        eventWriter.close();
+
+        Assert.assertEquals("", err.toString());
+        Assert.assertEquals(2, script.getStanzas().size());
+        for (ConcurrentScript.Stanza stanza : script.getStanzas()) {
+            Assert.assertEquals(3, stanza.getEventCount());
+            Assert.assertEquals("6", stanza.readCheckpoint());
+            Assert.assertTrue(stanza.getCheckpointFile().delete());
+        }
+        Assert.assertTrue(dir.delete());
+
+        Document found = stringToXmlDocument(out.toString());
+        Assert.assertEquals(12, found.getElementsByTagName("event").getLength());
+        Assert.assertTrue(out.toString().contains("<event stanza=\"foobar://bbb\" unbroken=\"1\"><data>value11 5</data>"));
+    }
+
 }